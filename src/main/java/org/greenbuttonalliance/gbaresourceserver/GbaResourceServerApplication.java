@@ -19,13 +19,28 @@ import org.springframework.boot.CommandLineRunner;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.autoconfigure.jdbc.JdbcConnectionDetails;
+import org.springframework.boot.autoconfigure.r2dbc.R2dbcAutoConfiguration;
 import org.springframework.context.annotation.Bean;
 
-@SpringBootApplication
+import java.util.Map;
+
+// the reactive read path builds its own R2DBC pool: a ConnectionFactory bean would make Spring Boot back off the DataSource JPA needs
+@SpringBootApplication(exclude = R2dbcAutoConfiguration.class)
 public class GbaResourceServerApplication {
 
 	public static void main(String[] args) {
-		SpringApplication.run(GbaResourceServerApplication.class, args);
+		SpringApplication application = new SpringApplication(GbaResourceServerApplication.class);
+		application.setDefaultProperties(Map.of(
+			// requests and streamed responses run on virtual threads, and the database bulkheads bound how many of them hold a connection at once
+			"spring.threads.virtual.enabled", "true",
+			// a request must not keep its connection, and with it a bulkhead permit, once its own queries are done: exports and imports fan out over
+			// connections taken from the same bulkhead
+			"spring.jpa.open-in-view", "false",
+			// /actuator/health/readiness is down until the startup warm-up is done, on Kubernetes or not
+			"management.endpoint.health.probes.enabled", "true",
+			"management.endpoint.health.group.readiness.include", "readinessState,startupWarmUp"
+		));
+		application.run(args);
 	}
 
 	@Bean
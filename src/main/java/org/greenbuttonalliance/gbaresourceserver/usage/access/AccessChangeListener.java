@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.greenbuttonalliance.gbaresourceserver.usage.access;
+
+import jakarta.persistence.PostPersist;
+import jakarta.persistence.PostRemove;
+import jakarta.persistence.PostUpdate;
+import org.greenbuttonalliance.gbaresourceserver.usage.model.Authorization;
+import org.greenbuttonalliance.gbaresourceserver.usage.model.Subscription;
+import org.greenbuttonalliance.gbaresourceserver.usage.model.UsagePoint;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Keeps {@link AuthorizationAccessService} current as {@link Subscription}s, {@link Authorization}s and {@link UsagePoint}s change through JPA. A new
+ * Subscription adds its UsagePoint to its Authorization's entry once its transaction has committed. A changed or deleted one drops the entry of its
+ * Authorization, or every entry when it has none, since an Authorization may still point to it; a new, changed or deleted Authorization drops its own,
+ * which a lookup may have cached before it was linked to an existing Subscription. A UsagePoint's Subscription can change without either side knowing
+ * what it was before, so a changed or deleted UsagePoint drops the entries that grant it, and a UsagePoint that links to a Subscription drops every entry,
+ * since the Authorizations of that Subscription are not known here. Entries are dropped when the change is flushed and again when its transaction has
+ * completed, as {@link org.greenbuttonalliance.gbaresourceserver.usage.token.AuthorizationChangeListener} drops tokens.
+ */
+public class AccessChangeListener {
+	private final ObjectProvider<AuthorizationAccessService> authorizationAccessService;
+
+	public AccessChangeListener(ObjectProvider<AuthorizationAccessService> authorizationAccessService) {
+		this.authorizationAccessService = authorizationAccessService;
+	}
+
+	@PostPersist
+	public void persisted(Object entity) {
+		AuthorizationAccessService service = authorizationAccessService.getIfAvailable();
+		if (service == null) {
+			return;
+		}
+		if (!(entity instanceof Subscription subscription)) {
+			// a new UsagePoint grants nothing until it links to a Subscription
+			if (!(entity instanceof UsagePoint usagePoint) || usagePoint.getSubscriptionUuid() != null) {
+				changed(entity);
+			}
+			return;
+		}
+		if (subscription.getAuthorization() == null || subscription.getUsagePoint() == null) {
+			return;
+		}
+		Runnable grant = () -> service.granted(subscription.getAuthorization().getUuid(), subscription.getUsagePoint().getUuid());
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+				@Override
+				public void afterCompletion(int status) {
+					if (status == STATUS_COMMITTED) {
+						grant.run();
+					}
+				}
+			});
+		} else {
+			grant.run();
+		}
+	}
+
+	@PostUpdate
+	@PostRemove
+	public void changed(Object entity) {
+		AuthorizationAccessService service = authorizationAccessService.getIfAvailable();
+		if (service == null) {
+			return;
+		}
+		Runnable invalidate = switch (entity) {
+			case Authorization authorization -> () -> service.invalidate(authorization.getUuid());
+			case Subscription subscription when subscription.getAuthorization() != null ->
+				() -> service.invalidate(subscription.getAuthorization().getUuid());
+			case Subscription subscription -> service::invalidateAll;
+			case UsagePoint usagePoint when usagePoint.getSubscriptionUuid() != null -> service::invalidateAll;
+			case UsagePoint usagePoint -> () -> service.invalidateGranting(usagePoint.getUuid());
+			default -> null;
+		};
+		if (invalidate == null) {
+			return;
+		}
+		invalidate.run();
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+				@Override
+				public void afterCompletion(int status) {
+					invalidate.run();
+				}
+			});
+		}
+	}
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.greenbuttonalliance.gbaresourceserver.usage.access;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.greenbuttonalliance.gbaresourceserver.usage.bulkhead.DatabaseBulkheads;
+import org.greenbuttonalliance.gbaresourceserver.usage.cache.BoundedCache;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import javax.sql.DataSource;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the {@link UsagePointAccess} of each Authorization in use, so that whether a request may read a UsagePoint, or a MeterReading or IntervalBlock of
+ * one, is a lookup in memory instead of a walk from the Authorization through its Subscriptions. An Authorization's UsagePoints are those of its
+ * Subscriptions, linked from either side; they are read once, with an index on each link, and kept for up to <code>gba.access.cache-size</code>
+ * Authorizations in a {@link BoundedCache}, dropping those used longest ago when full.
+ * <p>
+ * The map is kept current incrementally: a new Subscription adds its UsagePoint to its Authorization's entry, a new, changed or deleted Authorization or
+ * Subscription drops just the entry it belongs to, and a changed or deleted UsagePoint drops the entries that grant it, or every entry while it links to
+ * a Subscription (see {@link AccessChangeListener}). Code that changes them otherwise must call {@link #granted(UUID, UUID)}, {@link #revoked(UUID, UUID)},
+ * {@link #invalidate(UUID)}, {@link #invalidateGranting(UUID)} or {@link #invalidateAll()}. Lookups are counted as <code>gba.access.lookups</code>, tagged
+ * <code>result=hit</code> or <code>miss</code>.
+ */
+@Service
+public class AuthorizationAccessService {
+	private static final String USAGE_POINTS = """
+		WITH s AS (
+			SELECT s.uuid, s.usage_point_uuid FROM usage.subscription s WHERE s.uuid = (SELECT subscription_id FROM usage.authorization WHERE uuid = ?)
+			UNION
+			SELECT s.uuid, s.usage_point_uuid FROM usage.subscription s WHERE s.authorization_id = ?)
+		SELECT s.usage_point_uuid FROM s WHERE s.usage_point_uuid IS NOT NULL
+		UNION
+		SELECT up.uuid FROM s JOIN usage.usage_point up ON up.subscription_uuid = s.uuid""";
+
+	private final JdbcTemplate jdbcTemplate;
+	private final DatabaseBulkheads databaseBulkheads;
+	private final BoundedCache<UUID, UsagePointAccess> cache;
+	// bumped by every change, so that a load that raced one does not cache what it read
+	private final AtomicLong changes = new AtomicLong();
+	private final Counter hits;
+	private final Counter misses;
+
+	@Autowired
+	public AuthorizationAccessService(DataSource dataSource, DatabaseBulkheads databaseBulkheads, MeterRegistry meterRegistry,
+									  @Value("${gba.access.cache-size:10000}") int cacheSize) {
+		this.jdbcTemplate = new JdbcTemplate(dataSource);
+		this.databaseBulkheads = databaseBulkheads;
+		this.cache = new BoundedCache<>(cacheSize);
+		this.hits = counter(meterRegistry, "hit");
+		this.misses = counter(meterRegistry, "miss");
+		Gauge.builder("gba.access.cache.size", cache, BoundedCache::size)
+			.description("Authorizations whose UsagePoints are cached")
+			.register(meterRegistry);
+	}
+
+	public UsagePointAccess accessFor(UUID authorizationUuid) {
+		UsagePointAccess cached = cache.get(authorizationUuid);
+		if (cached != null) {
+			hits.increment();
+			return cached;
+		}
+
+		misses.increment();
+		long changesBefore = changes.get();
+		UsagePointAccess access = UsagePointAccess.of(databaseBulkheads.current().call(() ->
+			jdbcTemplate.queryForList(USAGE_POINTS, UUID.class, authorizationUuid, authorizationUuid)));
+		cache.put(authorizationUuid, access);
+		if (changes.get() != changesBefore) {
+			cache.remove(authorizationUuid, access);
+		}
+		return access;
+	}
+
+	/**
+	 * Adds a UsagePoint to the Authorization's entry, if it has one.
+	 */
+	public void granted(UUID authorizationUuid, UUID usagePointUuid) {
+		changes.incrementAndGet();
+		cache.update(authorizationUuid, access -> access.with(usagePointUuid));
+	}
+
+	/**
+	 * Removes a UsagePoint from the Authorization's entry, if it has one. Only for a UsagePoint no other Subscription of the Authorization grants.
+	 */
+	public void revoked(UUID authorizationUuid, UUID usagePointUuid) {
+		changes.incrementAndGet();
+		cache.update(authorizationUuid, access -> access.without(usagePointUuid));
+	}
+
+	/**
+	 * Drops the Authorization's entry, so that its UsagePoints are read again on its next use.
+	 */
+	public void invalidate(UUID authorizationUuid) {
+		changes.incrementAndGet();
+		cache.remove(authorizationUuid);
+	}
+
+	/**
+	 * Drops the entry of every Authorization the UsagePoint is granted to, for a UsagePoint no longer granted through a Subscription it was.
+	 */
+	public void invalidateGranting(UUID usagePointUuid) {
+		changes.incrementAndGet();
+		cache.removeIf(access -> access.permits(usagePointUuid));
+	}
+
+	/**
+	 * Drops every entry, for a change whose Authorization is not known.
+	 */
+	public void invalidateAll() {
+		changes.incrementAndGet();
+		cache.clear();
+	}
+
+	private static Counter counter(MeterRegistry meterRegistry, String result) {
+		return Counter.builder("gba.access.lookups")
+			.description("Authorization UsagePoint grants found in the cache or read from the database")
+			.tag("result", result)
+			.register(meterRegistry);
+	}
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.greenbuttonalliance.gbaresourceserver.usage.access;
+
+import org.greenbuttonalliance.gbaresourceserver.usage.controller.exception.EntityNotFoundByIdException;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.UUID;
+
+/**
+ * The UsagePoints an Authorization grants access to, as a sorted array holding the two halves of each id, so that a check is a binary search over
+ * primitives and ten thousand UsagePoints take 160 KB. Instances are immutable; a grant or a revocation makes a new one.
+ */
+public final class UsagePointAccess {
+	public static final UsagePointAccess UNRESTRICTED = new UsagePointAccess(null);
+	public static final UsagePointAccess NONE = new UsagePointAccess(new long[0]);
+
+	// most then least significant bits of each id, ordered by both
+	private final long[] ids;
+
+	private UsagePointAccess(long[] ids) {
+		this.ids = ids;
+	}
+
+	public static UsagePointAccess of(Collection<UUID> usagePointUuids) {
+		UUID[] sorted = usagePointUuids.stream().distinct().sorted(UsagePointAccess::compare).toArray(UUID[]::new);
+		long[] ids = new long[sorted.length * 2];
+		for (int i = 0; i < sorted.length; i++) {
+			ids[2 * i] = sorted[i].getMostSignificantBits();
+			ids[2 * i + 1] = sorted[i].getLeastSignificantBits();
+		}
+		return new UsagePointAccess(ids);
+	}
+
+	public boolean isUnrestricted() {
+		return ids == null;
+	}
+
+	public boolean permits(UUID usagePointUuid) {
+		return ids == null || usagePointUuid != null && indexOf(usagePointUuid) >= 0;
+	}
+
+	/**
+	 * @throws EntityNotFoundByIdException for the resource, so that one outside the grant cannot be told from one that does not exist
+	 */
+	public void require(UUID usagePointUuid, Class<?> resource, UUID resourceUuid) {
+		if (!permits(usagePointUuid)) {
+			throw new EntityNotFoundByIdException(resource, resourceUuid);
+		}
+	}
+
+	public UsagePointAccess with(UUID usagePointUuid) {
+		if (ids == null) {
+			return this;
+		}
+		int index = indexOf(usagePointUuid);
+		if (index >= 0) {
+			return this;
+		}
+		int insertAt = -index - 1;
+		long[] grown = new long[ids.length + 2];
+		System.arraycopy(ids, 0, grown, 0, 2 * insertAt);
+		grown[2 * insertAt] = usagePointUuid.getMostSignificantBits();
+		grown[2 * insertAt + 1] = usagePointUuid.getLeastSignificantBits();
+		System.arraycopy(ids, 2 * insertAt, grown, 2 * insertAt + 2, ids.length - 2 * insertAt);
+		return new UsagePointAccess(grown);
+	}
+
+	public UsagePointAccess without(UUID usagePointUuid) {
+		if (ids == null) {
+			return this;
+		}
+		int index = indexOf(usagePointUuid);
+		if (index < 0) {
+			return this;
+		}
+		long[] shrunk = new long[ids.length - 2];
+		System.arraycopy(ids, 0, shrunk, 0, 2 * index);
+		System.arraycopy(ids, 2 * index + 2, shrunk, 2 * index, ids.length - 2 * index - 2);
+		return new UsagePointAccess(shrunk);
+	}
+
+	/**
+	 * The number of UsagePoints granted, or -1 when unrestricted.
+	 */
+	public int size() {
+		return ids == null ? -1 : ids.length / 2;
+	}
+
+	/**
+	 * The ids granted, in order, to be bound to a query; null when unrestricted.
+	 */
+	public UUID[] usagePointUuids() {
+		if (ids == null) {
+			return null;
+		}
+		UUID[] uuids = new UUID[ids.length / 2];
+		for (int i = 0; i < uuids.length; i++) {
+			uuids[i] = new UUID(ids[2 * i], ids[2 * i + 1]);
+		}
+		return uuids;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		return o instanceof UsagePointAccess other && Arrays.equals(ids, other.ids);
+	}
+
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(ids);
+	}
+
+	@Override
+	public String toString() {
+		return ids == null ? "UsagePointAccess[unrestricted]" : "UsagePointAccess" + Arrays.toString(usagePointUuids());
+	}
+
+	/**
+	 * The index of the id among the pairs, or <code>-(insertion point) - 1</code>, as {@link Arrays#binarySearch(long[], long)}.
+	 */
+	private int indexOf(UUID usagePointUuid) {
+		long most = usagePointUuid.getMostSignificantBits();
+		long least = usagePointUuid.getLeastSignificantBits();
+		int low = 0;
+		int high = ids.length / 2 - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int comparison = Long.compare(ids[2 * mid], most);
+			if (comparison == 0) {
+				comparison = Long.compare(ids[2 * mid + 1], least);
+			}
+			if (comparison < 0) {
+				low = mid + 1;
+			} else if (comparison > 0) {
+				high = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -(low + 1);
+	}
+
+	private static int compare(UUID a, UUID b) {
+		int comparison = Long.compare(a.getMostSignificantBits(), b.getMostSignificantBits());
+		return comparison != 0 ? comparison : Long.compare(a.getLeastSignificantBits(), b.getLeastSignificantBits());
+	}
+}
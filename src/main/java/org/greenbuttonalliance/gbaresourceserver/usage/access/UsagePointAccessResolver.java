@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.greenbuttonalliance.gbaresourceserver.usage.access;
+
+import jakarta.servlet.http.HttpServletRequest;
+import org.greenbuttonalliance.gbaresourceserver.usage.controller.exception.UnauthorizedException;
+import org.greenbuttonalliance.gbaresourceserver.usage.token.TokenResolutionService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.MethodParameter;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+import org.springframework.web.bind.support.WebDataBinderFactory;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.method.support.HandlerMethodArgumentResolver;
+import org.springframework.web.method.support.ModelAndViewContainer;
+
+/**
+ * The {@link UsagePointAccess} of a request, from the Authorization its bearer token belongs to, handed to controller methods that take one. As for
+ * {@link org.greenbuttonalliance.gbaresourceserver.usage.scope.EspiScopeResolver}, a token that does not resolve to an active Authorization is granted
+ * nothing, and a request without a bearer token is turned away unless <code>gba.access.allow-anonymous</code> is set, in which case it is unrestricted.
+ */
+@Component
+public class UsagePointAccessResolver implements HandlerMethodArgumentResolver {
+	private final TokenResolutionService tokenResolutionService;
+	private final AuthorizationAccessService authorizationAccessService;
+	private final boolean allowAnonymous;
+
+	@Autowired
+	public UsagePointAccessResolver(TokenResolutionService tokenResolutionService, AuthorizationAccessService authorizationAccessService,
+									@Value("${gba.access.allow-anonymous:false}") boolean allowAnonymous) {
+		this.tokenResolutionService = tokenResolutionService;
+		this.authorizationAccessService = authorizationAccessService;
+		this.allowAnonymous = allowAnonymous;
+	}
+
+	/**
+	 * @throws UnauthorizedException for a request without a bearer token while anonymous access is off
+	 */
+	public UsagePointAccess resolve(String authorizationHeader) {
+		String accessToken = TokenResolutionService.bearerToken(authorizationHeader);
+		if (accessToken == null) {
+			if (!allowAnonymous) {
+				throw new UnauthorizedException("No bearer token");
+			}
+			return UsagePointAccess.UNRESTRICTED;
+		}
+		return tokenResolutionService.resolve(accessToken)
+			.map(token -> authorizationAccessService.accessFor(token.authorizationUuid()))
+			.orElse(UsagePointAccess.NONE);
+	}
+
+	@Override
+	public boolean supportsParameter(MethodParameter parameter) {
+		return parameter.getParameterType() == UsagePointAccess.class;
+	}
+
+	@Override
+	public UsagePointAccess resolveArgument(MethodParameter parameter, ModelAndViewContainer mavContainer, NativeWebRequest webRequest,
+											WebDataBinderFactory binderFactory) {
+		HttpServletRequest request = webRequest.getNativeRequest(HttpServletRequest.class);
+		return resolve(request == null ? null : request.getHeader(HttpHeaders.AUTHORIZATION));
+	}
+}
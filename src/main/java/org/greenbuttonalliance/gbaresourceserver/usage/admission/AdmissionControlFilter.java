@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.greenbuttonalliance.gbaresourceserver.usage.admission;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.greenbuttonalliance.gbaresourceserver.usage.controller.exception.TooManyRequestsException;
+import org.greenbuttonalliance.gbaresourceserver.usage.controller.exception.UnauthorizedException;
+import org.greenbuttonalliance.gbaresourceserver.usage.token.ResolvedToken;
+import org.greenbuttonalliance.gbaresourceserver.usage.token.TokenResolutionService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.servlet.HandlerExceptionResolver;
+
+import java.io.IOException;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+/**
+ * Keeps one third-party application from starving the others: every request to <code>/espi/1_1/</code> made with a bearer token is charged to the
+ * <code>ApplicationInformation.clientId</code> the token was issued to, and turned away with <code>429 Too Many Requests</code> and a
+ * <code>Retry-After</code> when that application is over the {@link AdmissionLimits} its {@link AdmissionPolicy} gives it. A request that cannot be
+ * charged to an application is turned away with <code>401 Unauthorized</code>: one with a token that does not belong to an active authorization
+ * always, and one without a token unless <code>gba.access.allow-anonymous</code> is set, in which case it is left to the endpoint it is for.
+ * <p>
+ * Admitting a request touches only the application's {@link ClientAdmission}, found with a lock-free read of a concurrent map and admitted with
+ * compare-and-set on its atomics; a streamed response holds its concurrency slot until the container has completed it. Runs ahead of the
+ * {@link org.greenbuttonalliance.gbaresourceserver.usage.web.SingleFlightFilter}, so coalesced requests are charged like any other.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 10)
+public class AdmissionControlFilter extends OncePerRequestFilter {
+	private static final String PATH_PREFIX = "/espi/1_1/";
+
+	private final ConcurrentHashMap<String, ClientAdmission> clients = new ConcurrentHashMap<>();
+	private final Function<String, Optional<ClientApplication>> clientApplications;
+	private final AdmissionPolicy admissionPolicy;
+	private final HandlerExceptionResolver handlerExceptionResolver;
+	private final MeterRegistry meterRegistry;
+	private final LongSupplier nanoClock;
+	private final boolean enabled;
+	private final boolean allowAnonymous;
+
+	@Autowired
+	public AdmissionControlFilter(TokenResolutionService tokenResolutionService, AdmissionPolicy admissionPolicy,
+								  @Qualifier("handlerExceptionResolver") HandlerExceptionResolver handlerExceptionResolver, MeterRegistry meterRegistry,
+								  @Value("${gba.admission.enabled:true}") boolean enabled, @Value("${gba.access.allow-anonymous:false}") boolean allowAnonymous) {
+		this(accessToken -> tokenResolutionService.resolve(accessToken).map(ResolvedToken::clientApplication), admissionPolicy, handlerExceptionResolver, meterRegistry, System::nanoTime, enabled,
+			allowAnonymous);
+	}
+
+	AdmissionControlFilter(Function<String, Optional<ClientApplication>> clientApplications, AdmissionPolicy admissionPolicy,
+						   HandlerExceptionResolver handlerExceptionResolver, MeterRegistry meterRegistry, LongSupplier nanoClock, boolean enabled,
+						   boolean allowAnonymous) {
+		this.clientApplications = clientApplications;
+		this.admissionPolicy = admissionPolicy;
+		this.handlerExceptionResolver = handlerExceptionResolver;
+		this.meterRegistry = meterRegistry;
+		this.nanoClock = nanoClock;
+		this.enabled = enabled;
+		this.allowAnonymous = allowAnonymous;
+	}
+
+	@Override
+	protected boolean shouldNotFilter(HttpServletRequest request) {
+		return !enabled || !request.getRequestURI().startsWith(PATH_PREFIX);
+	}
+
+	@Override
+	protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain) throws ServletException, IOException {
+		String accessToken = TokenResolutionService.bearerToken(request.getHeader(HttpHeaders.AUTHORIZATION));
+		if (accessToken == null) {
+			if (allowAnonymous) {
+				filterChain.doFilter(request, response);
+			} else {
+				unauthorized(request, response, new UnauthorizedException("No bearer token"));
+			}
+			return;
+		}
+		ClientApplication clientApplication = clientApplications.apply(accessToken).orElse(null);
+		if (clientApplication == null) {
+			unauthorized(request, response, new UnauthorizedException("Bearer token of no active authorization"));
+			return;
+		}
+
+		ClientAdmission client = client(clientApplication);
+		long waitNanos = client.admit();
+		if (waitNanos > 0) {
+			reject(request, response, client, waitNanos);
+			return;
+		}
+		try {
+			filterChain.doFilter(request, response);
+		} finally {
+			if (request.isAsyncStarted()) {
+				request.getAsyncContext().addListener(new ReleaseOnComplete(client));
+			} else {
+				client.release();
+			}
+		}
+	}
+
+	ClientAdmission client(ClientApplication clientApplication) {
+		ClientAdmission client = clients.get(clientApplication.clientId());
+		if (client != null) {
+			return client;
+		}
+		return clients.computeIfAbsent(clientApplication.clientId(), clientId -> new ClientAdmission(clientId,
+			admissionPolicy.limitsFor(clientApplication.thirdPartyApplicationType(), clientApplication.thirdPartyApplicationUse()), meterRegistry, nanoClock));
+	}
+
+	private void reject(HttpServletRequest request, HttpServletResponse response, ClientAdmission client, long waitNanos) throws IOException {
+		long retryAfterSeconds = Math.max(1, (waitNanos + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1));
+		TooManyRequestsException e = new TooManyRequestsException("Client " + client.getClientId() + " is over its " + client.getLimits() + " with " +
+			client.getInFlight() + " requests running", retryAfterSeconds);
+		if (handlerExceptionResolver.resolveException(request, response, null, e) == null) {
+			response.setHeader(HttpHeaders.RETRY_AFTER, Long.toString(retryAfterSeconds));
+			response.sendError(HttpStatus.TOO_MANY_REQUESTS.value(), e.getExternalErrorMessage());
+		}
+	}
+
+	private void unauthorized(HttpServletRequest request, HttpServletResponse response, UnauthorizedException e) throws IOException {
+		if (handlerExceptionResolver.resolveException(request, response, null, e) == null) {
+			response.setHeader(HttpHeaders.WWW_AUTHENTICATE, "Bearer");
+			response.sendError(HttpStatus.UNAUTHORIZED.value(), e.getExternalErrorMessage());
+		}
+	}
+
+	private record ReleaseOnComplete(ClientAdmission client) implements AsyncListener {
+
+		@Override
+		public void onComplete(AsyncEvent event) {
+			client.release();
+		}
+
+		@Override
+		public void onTimeout(AsyncEvent event) {
+		}
+
+		@Override
+		public void onError(AsyncEvent event) {
+		}
+
+		@Override
+		public void onStartAsync(AsyncEvent event) {
+		}
+	}
+}
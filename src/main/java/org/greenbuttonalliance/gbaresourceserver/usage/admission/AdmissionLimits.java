@@ -0,0 +1,31 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.greenbuttonalliance.gbaresourceserver.usage.admission;
+
+/**
+ * How much one third-party application may ask of the server: <code>ratePerSecond</code> requests a second on average with bursts of up to
+ * <code>burst</code>, and at most <code>maxConcurrent</code> requests at a time. A rate or a cap of 0 or less means none.
+ */
+public record AdmissionLimits(double ratePerSecond, int burst, int maxConcurrent) {
+
+	public boolean isRateLimited() {
+		return ratePerSecond > 0;
+	}
+
+	public boolean isConcurrencyLimited() {
+		return maxConcurrent > 0;
+	}
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.greenbuttonalliance.gbaresourceserver.usage.admission;
+
+import org.greenbuttonalliance.gbaresourceserver.usage.model.enums.ThirdPartyApplicationType;
+import org.greenbuttonalliance.gbaresourceserver.usage.model.enums.ThirdPartyApplicationUse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.util.Locale;
+
+/**
+ * Looks up the {@link AdmissionLimits} of a third-party application by its <code>ThirdPartyApplicationUse</code> and <code>ThirdPartyApplicationType</code>.
+ * Each of <code>rate-per-second</code>, <code>burst</code> and <code>max-concurrent</code> is taken from the first of
+ * <code>gba.admission.use.&lt;use&gt;.*</code> (e.g. <code>gba.admission.use.law-enforcement.max-concurrent</code>),
+ * <code>gba.admission.type.&lt;type&gt;.*</code> (e.g. <code>gba.admission.type.device.rate-per-second</code>) and <code>gba.admission.*</code> that is set.
+ */
+@Component
+public class AdmissionPolicy {
+	private final Environment environment;
+
+	@Autowired
+	public AdmissionPolicy(Environment environment) {
+		this.environment = environment;
+	}
+
+	public AdmissionLimits limitsFor(ThirdPartyApplicationType type, ThirdPartyApplicationUse use) {
+		String typePrefix = type == null ? null : "gba.admission.type." + propertyName(type) + ".";
+		String usePrefix = use == null ? null : "gba.admission.use." + propertyName(use) + ".";
+		return new AdmissionLimits(
+			property("rate-per-second", usePrefix, typePrefix, Double.class, 20.0),
+			property("burst", usePrefix, typePrefix, Integer.class, 40),
+			property("max-concurrent", usePrefix, typePrefix, Integer.class, 8)
+		);
+	}
+
+	private <T> T property(String name, String usePrefix, String typePrefix, Class<T> type, T defaultValue) {
+		for (String prefix : new String[]{usePrefix, typePrefix}) {
+			T value = prefix == null ? null : environment.getProperty(prefix + name, type);
+			if (value != null) {
+				return value;
+			}
+		}
+		return environment.getProperty("gba.admission." + name, type, defaultValue);
+	}
+
+	private static String propertyName(Enum<?> value) {
+		return value.name().toLowerCase(Locale.ROOT).replace('_', '-');
+	}
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.greenbuttonalliance.gbaresourceserver.usage.admission;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+/**
+ * The admission state of one third-party application: its token bucket, how many of its requests are running, and its counters
+ * <code>gba.admission.requests</code>, tagged with its <code>client_id</code> and <code>result=admitted</code>, <code>rate_limited</code> or
+ * <code>concurrency_limited</code>, and <code>gba.admission.in-flight</code>.
+ */
+public final class ClientAdmission {
+	// a request turned away for the concurrency cap has no better estimate of when a slot frees up
+	private static final long CONCURRENCY_RETRY_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+	private final String clientId;
+	private final AdmissionLimits limits;
+	private final TokenBucket bucket;
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private final Counter admitted;
+	private final Counter rateLimited;
+	private final Counter concurrencyLimited;
+
+	public ClientAdmission(String clientId, AdmissionLimits limits, MeterRegistry meterRegistry, LongSupplier nanoClock) {
+		this.clientId = clientId;
+		this.limits = limits;
+		this.bucket = limits.isRateLimited() ? new TokenBucket(limits.ratePerSecond(), Math.max(1, limits.burst()), nanoClock) : null;
+		this.admitted = counter(meterRegistry, "admitted");
+		this.rateLimited = counter(meterRegistry, "rate_limited");
+		this.concurrencyLimited = counter(meterRegistry, "concurrency_limited");
+		Gauge.builder("gba.admission.in-flight", inFlight, AtomicInteger::get)
+			.description("Requests of a third-party application running")
+			.tag("client_id", clientId)
+			.register(meterRegistry);
+	}
+
+	public String getClientId() {
+		return clientId;
+	}
+
+	public AdmissionLimits getLimits() {
+		return limits;
+	}
+
+	public int getInFlight() {
+		return inFlight.get();
+	}
+
+	/**
+	 * Admits a request if the application is under its concurrency cap and has a token left. An admitted request must be {@link #release() released} once
+	 * it has finished.
+	 *
+	 * @return 0 when the request was admitted, otherwise how many nanoseconds the application should wait before trying again
+	 */
+	public long admit() {
+		if (!enter()) {
+			concurrencyLimited.increment();
+			return CONCURRENCY_RETRY_NANOS;
+		}
+		long wait = bucket == null ? 0 : bucket.tryTake();
+		if (wait > 0) {
+			inFlight.decrementAndGet();
+			rateLimited.increment();
+			return wait;
+		}
+		admitted.increment();
+		return 0;
+	}
+
+	public void release() {
+		inFlight.decrementAndGet();
+	}
+
+	private boolean enter() {
+		if (!limits.isConcurrencyLimited()) {
+			inFlight.incrementAndGet();
+			return true;
+		}
+		while (true) {
+			int current = inFlight.get();
+			if (current >= limits.maxConcurrent()) {
+				return false;
+			}
+			if (inFlight.compareAndSet(current, current + 1)) {
+				return true;
+			}
+		}
+	}
+
+	private Counter counter(MeterRegistry meterRegistry, String result) {
+		return Counter.builder("gba.admission.requests")
+			.description("Requests of a third-party application by admission result")
+			.tag("client_id", clientId)
+			.tag("result", result)
+			.register(meterRegistry);
+	}
+}
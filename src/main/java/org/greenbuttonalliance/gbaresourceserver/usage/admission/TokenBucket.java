@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.greenbuttonalliance.gbaresourceserver.usage.admission;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * A token bucket of <code>burst</code> tokens refilled at <code>ratePerSecond</code>, kept as the single time at which the bucket will next be full (the
+ * generic cell rate algorithm) so that taking a token is one compare-and-set, without a lock or a refill thread.
+ */
+public final class TokenBucket {
+	private final long emissionIntervalNanos;
+	private final long capacityNanos;
+	private final LongSupplier nanoClock;
+	private final AtomicLong fullAt;
+
+	public TokenBucket(double ratePerSecond, int burst, LongSupplier nanoClock) {
+		if (ratePerSecond <= 0 || burst < 1) {
+			throw new IllegalArgumentException("A token bucket needs a positive rate and a burst of at least 1, not " + ratePerSecond + " and " + burst);
+		}
+		this.emissionIntervalNanos = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / ratePerSecond));
+		this.capacityNanos = emissionIntervalNanos * burst;
+		this.nanoClock = nanoClock;
+		this.fullAt = new AtomicLong(nanoClock.getAsLong());
+	}
+
+	/**
+	 * Takes a token if one is left.
+	 *
+	 * @return 0 when a token was taken, otherwise how many nanoseconds until one will be
+	 */
+	public long tryTake() {
+		long now = nanoClock.getAsLong();
+		while (true) {
+			long current = fullAt.get();
+			long next = Math.max(current, now) + emissionIntervalNanos;
+			long wait = next - now - capacityNanos;
+			if (wait > 0) {
+				return wait;
+			}
+			if (fullAt.compareAndSet(current, next)) {
+				return 0;
+			}
+		}
+	}
+}
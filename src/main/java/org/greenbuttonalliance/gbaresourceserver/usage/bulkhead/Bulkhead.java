@@ -0,0 +1,206 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.greenbuttonalliance.gbaresourceserver.usage.bulkhead;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.greenbuttonalliance.gbaresourceserver.usage.controller.exception.BulkheadFullException;
+
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Limits how many threads do database work of one kind at a time, with a fair semaphore or a lane of a {@link WeightedFairScheduler}, so that callers queue
+ * here in arrival order rather than inside the connection pool. A thread already holding a permit of any bulkhead runs nested work straight away, since it
+ * already holds its connection and waiting again could only deadlock. Besides the work explicitly run in a bulkhead, every connection taken from the
+ * {@link BulkheadDataSource} holds a {@link Permit} until it is closed.
+ * <p>
+ * How long callers wait is recorded as <code>gba.bulkhead.queue</code>; callers that wait longer than the acquire timeout get a
+ * {@link BulkheadFullException}, counted as <code>gba.bulkhead.rejected</code>.
+ */
+public final class Bulkhead {
+	private static final ThreadLocal<Permit> HELD = new ThreadLocal<>();
+
+	private final String name;
+	private final int permits;
+	private final Permits source;
+	private final long acquireTimeoutNanos;
+	private final Timer queueTime;
+	private final Counter rejected;
+
+	public Bulkhead(String name, int permits, Duration acquireTimeout, MeterRegistry meterRegistry) {
+		this(name, permits, new SemaphorePermits(permits), acquireTimeout, meterRegistry);
+	}
+
+	Bulkhead(String name, int permits, Permits source, Duration acquireTimeout, MeterRegistry meterRegistry) {
+		this.name = name;
+		this.permits = permits;
+		this.source = source;
+		this.acquireTimeoutNanos = acquireTimeout.toNanos();
+		this.queueTime = Timer.builder("gba.bulkhead.queue")
+			.description("Time spent waiting for a permit of a database bulkhead")
+			.tag("bulkhead", name)
+			.publishPercentiles(0.5, 0.99)
+			.register(meterRegistry);
+		this.rejected = Counter.builder("gba.bulkhead.rejected")
+			.description("Callers that gave up waiting for a permit of a database bulkhead")
+			.tag("bulkhead", name)
+			.register(meterRegistry);
+		Gauge.builder("gba.bulkhead.active", source, Permits::inUse)
+			.description("Permits of a database bulkhead in use")
+			.tag("bulkhead", name)
+			.register(meterRegistry);
+		Gauge.builder("gba.bulkhead.waiting", source, Permits::waiting)
+			.description("Threads waiting for a permit of a database bulkhead")
+			.tag("bulkhead", name)
+			.register(meterRegistry);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public int getPermits() {
+		return permits;
+	}
+
+	public <T, E extends Throwable> T call(Work<T, E> work) throws E {
+		try (Permit ignored = enter()) {
+			return work.get();
+		}
+	}
+
+	public void run(Runnable work) {
+		call(() -> {
+			work.run();
+			return null;
+		});
+	}
+
+	/**
+	 * Takes a permit for the current thread, unless it already holds one of any bulkhead, in which case the returned permit is that one's and closing it does
+	 * nothing. The permit may be closed on another thread than the one that took it.
+	 */
+	public Permit enter() {
+		Permit held = HELD.get();
+		if (held != null && !held.released.get()) {
+			return Permit.NESTED;
+		}
+		acquire();
+		Permit permit = new Permit(this);
+		HELD.set(permit);
+		return permit;
+	}
+
+	private void acquire() {
+		long started = System.nanoTime();
+		boolean acquired;
+		try {
+			acquired = source.tryAcquire(acquireTimeoutNanos);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for the " + name + " bulkhead", e);
+		} finally {
+			queueTime.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+		}
+		if (!acquired) {
+			rejected.increment();
+			throw new BulkheadFullException("No permit of the " + name + " bulkhead within " + TimeUnit.NANOSECONDS.toMillis(acquireTimeoutNanos) + " ms",
+				Math.max(1, TimeUnit.NANOSECONDS.toSeconds(acquireTimeoutNanos)));
+		}
+	}
+
+	/**
+	 * A permit taken by {@link #enter()}, returned to its bulkhead when closed for the first time.
+	 */
+	public static final class Permit implements AutoCloseable {
+		private static final Permit NESTED = new Permit(null);
+
+		private final Bulkhead bulkhead;
+		private final AtomicBoolean released = new AtomicBoolean();
+
+		private Permit(Bulkhead bulkhead) {
+			this.bulkhead = bulkhead;
+		}
+
+		@Override
+		public void close() {
+			if (bulkhead == null || !released.compareAndSet(false, true)) {
+				return;
+			}
+			if (HELD.get() == this) {
+				HELD.remove();
+			}
+			bulkhead.source.release();
+		}
+	}
+
+	/**
+	 * Where a bulkhead's permits come from.
+	 */
+	interface Permits {
+		boolean tryAcquire(long timeoutNanos) throws InterruptedException;
+
+		void release();
+
+		int inUse();
+
+		int waiting();
+	}
+
+	private static final class SemaphorePermits implements Permits {
+		private final int permits;
+		private final Semaphore semaphore;
+
+		private SemaphorePermits(int permits) {
+			this.permits = permits;
+			this.semaphore = new Semaphore(permits, true);
+		}
+
+		@Override
+		public boolean tryAcquire(long timeoutNanos) throws InterruptedException {
+			return semaphore.tryAcquire(timeoutNanos, TimeUnit.NANOSECONDS);
+		}
+
+		@Override
+		public void release() {
+			semaphore.release();
+		}
+
+		@Override
+		public int inUse() {
+			return permits - semaphore.availablePermits();
+		}
+
+		@Override
+		public int waiting() {
+			return semaphore.getQueueLength();
+		}
+	}
+
+	/**
+	 * Work done while holding a permit, which may throw what the work it wraps throws.
+	 */
+	@FunctionalInterface
+	public interface Work<T, E extends Throwable> {
+		T get() throws E;
+	}
+}
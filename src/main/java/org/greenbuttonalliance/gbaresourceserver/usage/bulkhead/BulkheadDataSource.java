@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.greenbuttonalliance.gbaresourceserver.usage.bulkhead;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.jdbc.datasource.ConnectionProxy;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * The application's DataSource, whose connections each hold a permit of the {@link Bulkhead} of the current
+ * {@link org.greenbuttonalliance.gbaresourceserver.usage.workload.Workload} from when they are taken from the pool until they are closed. A transaction keeps
+ * its connection from begin to commit, so the permit covers every statement of it and the time between them, and the bulkheads bound the connections in
+ * use rather than the statements running. A connection taken while the thread already holds a permit, e.g. by a nested transaction or within work run in a
+ * bulkhead explicitly, shares that permit.
+ */
+public class BulkheadDataSource extends DelegatingDataSource {
+	// what Hikari sizes a pool with no maximum pool size configured once it starts
+	private static final int HIKARI_DEFAULT_POOL_SIZE = 10;
+
+	private final ObjectProvider<DatabaseBulkheads> databaseBulkheads;
+
+	public BulkheadDataSource(DataSource targetDataSource, ObjectProvider<DatabaseBulkheads> databaseBulkheads) {
+		super(targetDataSource);
+		this.databaseBulkheads = databaseBulkheads;
+	}
+
+	/**
+	 * @return the maximum size of the Hikari pool behind the DataSource, or <code>otherwise</code> if it is not one
+	 */
+	public static int maximumPoolSize(DataSource dataSource, int otherwise) {
+		try {
+			if (dataSource.isWrapperFor(HikariDataSource.class)) {
+				int maximumPoolSize = dataSource.unwrap(HikariDataSource.class).getMaximumPoolSize();
+				return maximumPoolSize < 1 ? HIKARI_DEFAULT_POOL_SIZE : maximumPoolSize;
+			}
+		} catch (SQLException e) {
+			// not a wrapper of a Hikari pool after all
+		}
+		return otherwise;
+	}
+
+	@Override
+	public Connection getConnection() throws SQLException {
+		Bulkhead.Permit permit = databaseBulkheads.getObject().current().enter();
+		try {
+			return withPermit(obtainTargetDataSource().getConnection(), permit);
+		} catch (SQLException | RuntimeException | Error e) {
+			permit.close();
+			throw e;
+		}
+	}
+
+	@Override
+	public Connection getConnection(String username, String password) throws SQLException {
+		Bulkhead.Permit permit = databaseBulkheads.getObject().current().enter();
+		try {
+			return withPermit(obtainTargetDataSource().getConnection(username, password), permit);
+		} catch (SQLException | RuntimeException | Error e) {
+			permit.close();
+			throw e;
+		}
+	}
+
+	private static Connection withPermit(Connection connection, Bulkhead.Permit permit) {
+		return (Connection) Proxy.newProxyInstance(ConnectionProxy.class.getClassLoader(), new Class<?>[]{ConnectionProxy.class},
+			new PermitReleasingHandler(connection, permit));
+	}
+
+	/**
+	 * Passes every call on to the pooled connection and returns the permit once the connection is closed or aborted.
+	 */
+	private record PermitReleasingHandler(Connection target, Bulkhead.Permit permit) implements InvocationHandler {
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			switch (method.getName()) {
+				case "equals":
+					return proxy == args[0];
+				case "hashCode":
+					return System.identityHashCode(proxy);
+				case "toString":
+					return "Bulkhead connection of " + target;
+				case "getTargetConnection":
+					return target;
+				case "unwrap":
+					if (((Class<?>) args[0]).isInstance(proxy)) {
+						return proxy;
+					}
+					break;
+				case "isWrapperFor":
+					if (((Class<?>) args[0]).isInstance(proxy)) {
+						return true;
+					}
+					break;
+				case "close":
+				case "abort":
+					try {
+						return method.invoke(target, args);
+					} catch (InvocationTargetException e) {
+						throw e.getTargetException();
+					} finally {
+						permit.close();
+					}
+				default:
+					break;
+			}
+			try {
+				return method.invoke(target, args);
+			} catch (InvocationTargetException e) {
+				throw e.getTargetException();
+			}
+		}
+	}
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.greenbuttonalliance.gbaresourceserver.usage.bulkhead;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+
+/**
+ * Wraps the DataSource in a {@link BulkheadDataSource}, so JPA, Flyway, JdbcTemplates and transaction managers all take their connections through the
+ * bulkheads. The bulkheads are looked up on first use, since they are sized from the DataSource they guard.
+ */
+@Component
+public class BulkheadDataSourcePostProcessor implements BeanPostProcessor {
+	private final ObjectProvider<DatabaseBulkheads> databaseBulkheads;
+
+	@Autowired
+	public BulkheadDataSourcePostProcessor(ObjectProvider<DatabaseBulkheads> databaseBulkheads) {
+		this.databaseBulkheads = databaseBulkheads;
+	}
+
+	@Override
+	public Object postProcessAfterInitialization(Object bean, String beanName) {
+		if (bean instanceof DataSource dataSource && !(bean instanceof BulkheadDataSource)) {
+			return new BulkheadDataSource(dataSource, databaseBulkheads);
+		}
+		return bean;
+	}
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.greenbuttonalliance.gbaresourceserver.usage.bulkhead;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.greenbuttonalliance.gbaresourceserver.usage.workload.Workload;
+import org.greenbuttonalliance.gbaresourceserver.usage.workload.WorkloadClass;
+import org.greenbuttonalliance.gbaresourceserver.usage.workload.WorkloadForkJoinWorkerThreadFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * The {@link Bulkhead}s that share the connection pool, one for each {@link WorkloadClass}: <code>interactive</code> for requests a person is waiting on,
+ * <code>polling</code> for third-party applications fetching data on their own schedule, and <code>bulk</code> for exports that fan out over many
+ * UsagePoints, reads spanning long periods and the writers of feed imports. Their permits are partitions of the pool handed out by a
+ * {@link WeightedFairScheduler}, so together they never hold more connections than the pool has, none waits inside the pool, and a burst of exports or
+ * polls cannot starve requests.
+ * <p>
+ * Each partition is configured with <code>gba.workload.&lt;class&gt;.weight</code>, <code>.reserved</code> and <code>.limit</code> (e.g.
+ * <code>gba.workload.bulk.limit</code>). By default interactive work has weight 8, half the pool reserved and may use all of it; polling has weight 2, an
+ * eighth of the pool reserved and may use half of it; and bulk work has weight 1, nothing reserved and may use a quarter of the pool.
+ * <code>gba.bulkhead.interactive-concurrency</code> and <code>gba.bulkhead.bulk-concurrency</code> are still honoured as the limits of their partitions.
+ * The permits are taken per connection by the {@link BulkheadDataSource}. The batch jobs (summary derivation, rating, validation) take theirs from the
+ * bulk partition, the workers of their fork-join pools included, and by default those pools have no more workers than the partition has permits.
+ */
+@Component
+@Slf4j
+public class DatabaseBulkheads {
+	private final WeightedFairScheduler scheduler;
+	private final Map<WorkloadClass, Bulkhead> bulkheads = new EnumMap<>(WorkloadClass.class);
+
+	@Autowired
+	public DatabaseBulkheads(DataSource dataSource, MeterRegistry meterRegistry, Environment environment,
+							 @Value("${gba.bulkhead.interactive-concurrency:0}") int interactiveConcurrency,
+							 @Value("${gba.bulkhead.bulk-concurrency:0}") int bulkConcurrency,
+							 @Value("${gba.bulkhead.acquire-timeout:30}") long acquireTimeoutSeconds) {
+		int poolSize = BulkheadDataSource.maximumPoolSize(dataSource, 2);
+		Map<WorkloadClass, PoolPartition> partitions = new EnumMap<>(WorkloadClass.class);
+		partitions.put(WorkloadClass.INTERACTIVE, partition(environment, WorkloadClass.INTERACTIVE, 8, poolSize / 2,
+			interactiveConcurrency > 0 ? interactiveConcurrency : poolSize));
+		partitions.put(WorkloadClass.POLLING, partition(environment, WorkloadClass.POLLING, 2, Math.max(1, poolSize / 8), Math.max(1, poolSize / 2)));
+		partitions.put(WorkloadClass.BULK, partition(environment, WorkloadClass.BULK, 1, 0,
+			bulkConcurrency > 0 ? bulkConcurrency : Math.max(1, poolSize / 4)));
+		this.scheduler = new WeightedFairScheduler(poolSize, partitions);
+		Duration acquireTimeout = Duration.ofSeconds(acquireTimeoutSeconds);
+		partitions.keySet().forEach(workloadClass ->
+			bulkheads.put(workloadClass, scheduler.bulkhead(workloadClass, workloadClass.key(), acquireTimeout, meterRegistry)));
+		log.info("Database bulkheads: {} of a pool of {}", partitions, poolSize);
+	}
+
+	public Bulkhead interactive() {
+		return bulkheads.get(WorkloadClass.INTERACTIVE);
+	}
+
+	public Bulkhead polling() {
+		return bulkheads.get(WorkloadClass.POLLING);
+	}
+
+	public Bulkhead bulk() {
+		return bulkheads.get(WorkloadClass.BULK);
+	}
+
+	public Bulkhead forWorkload(WorkloadClass workloadClass) {
+		return bulkheads.get(workloadClass);
+	}
+
+	/**
+	 * The bulkhead of the {@link Workload} the current thread is doing.
+	 */
+	public Bulkhead current() {
+		return bulkheads.get(Workload.current());
+	}
+
+	/**
+	 * A fork-join pool for a batch job, whose workers do bulk work: <code>parallelism</code> of them or, if that is not positive, as many as the bulk
+	 * partition has permits. Every worker holds a connection while it reads or writes, so more would only wait for one.
+	 */
+	public ForkJoinPool newBulkWorkerPool(int parallelism) {
+		return new ForkJoinPool(parallelism > 0 ? parallelism : bulk().getPermits(), new WorkloadForkJoinWorkerThreadFactory(WorkloadClass.BULK), null, false);
+	}
+
+	private static PoolPartition partition(Environment environment, WorkloadClass workloadClass, int weight, int reserved, int limit) {
+		String prefix = "gba.workload." + workloadClass.key() + ".";
+		int configuredLimit = environment.getProperty(prefix + "limit", Integer.class, limit);
+		return new PoolPartition(
+			environment.getProperty(prefix + "weight", Integer.class, weight),
+			environment.getProperty(prefix + "reserved", Integer.class, Math.min(reserved, configuredLimit)),
+			configuredLimit
+		);
+	}
+}
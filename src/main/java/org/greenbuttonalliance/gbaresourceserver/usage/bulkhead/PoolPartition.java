@@ -0,0 +1,30 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.greenbuttonalliance.gbaresourceserver.usage.bulkhead;
+
+/**
+ * A workload's share of a {@link WeightedFairScheduler}: <code>reserved</code> permits only it may take, at most <code>limit</code> permits in all, and its
+ * <code>weight</code> in the permits that free up while several workloads are waiting.
+ */
+public record PoolPartition(int weight, int reserved, int limit) {
+	public PoolPartition {
+		if (weight < 1 || reserved < 0 || limit < 1 || limit < reserved) {
+			throw new IllegalArgumentException("A pool partition needs a positive weight and limit, and no more reserved permits than its limit: weight=" + weight
+				+ " reserved=" + reserved + " limit=" + limit);
+		}
+	}
+}
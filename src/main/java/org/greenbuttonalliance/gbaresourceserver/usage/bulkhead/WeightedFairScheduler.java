@@ -0,0 +1,223 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.greenbuttonalliance.gbaresourceserver.usage.bulkhead;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.greenbuttonalliance.gbaresourceserver.usage.workload.WorkloadClass;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Shares the permits of one connection pool between {@link WorkloadClass}es, each in a {@link PoolPartition}:
+ * <ul>
+ *     <li>a workload may always take its reserved permits, and no other workload takes them, even while it is idle, so that a request waits no longer
+ *     than its own kind of work makes it</li>
+ *     <li>no workload holds more than its limit</li>
+ *     <li>a permit that frees up while several workloads are waiting goes to them in proportion to their weights, by stride scheduling: each workload's
+ *     pass advances by the inverse of its weight when it is served, and the waiting workload with the lowest pass is served next. A workload that starts
+ *     waiting is brought up to the pass last served, so that being idle earns it nothing. Within a workload callers are served in arrival order.</li>
+ * </ul>
+ * Each workload's permits are taken through its {@link Bulkhead}, which {@link #bulkhead(WorkloadClass, String, Duration, MeterRegistry)} makes.
+ */
+public final class WeightedFairScheduler {
+	private static final long STRIDE = 1L << 20;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final int capacity;
+	private final Map<WorkloadClass, Lane> lanes = new EnumMap<>(WorkloadClass.class);
+	private int inUse;
+	private long virtualTime;
+
+	public WeightedFairScheduler(int capacity, Map<WorkloadClass, PoolPartition> partitions) {
+		int reserved = partitions.values().stream().mapToInt(PoolPartition::reserved).sum();
+		if (reserved > capacity) {
+			throw new IllegalArgumentException("The partitions reserve " + reserved + " permits of " + capacity);
+		}
+		this.capacity = capacity;
+		partitions.forEach((workloadClass, partition) -> lanes.put(workloadClass, new Lane(partition)));
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public Map<WorkloadClass, PoolPartition> getPartitions() {
+		Map<WorkloadClass, PoolPartition> partitions = new EnumMap<>(WorkloadClass.class);
+		lanes.forEach((workloadClass, lane) -> partitions.put(workloadClass, lane.partition));
+		return Collections.unmodifiableMap(partitions);
+	}
+
+	public Bulkhead bulkhead(WorkloadClass workloadClass, String name, Duration acquireTimeout,
+							 MeterRegistry meterRegistry) {
+		Lane lane = lanes.get(workloadClass);
+		if (lane == null) {
+			throw new IllegalArgumentException("No partition for " + workloadClass);
+		}
+		return new Bulkhead(name, lane.partition.limit(), lane, acquireTimeout, meterRegistry);
+	}
+
+	private boolean acquire(Lane lane, long timeoutNanos) throws InterruptedException {
+		lock.lock();
+		try {
+			if (lane.waiters.isEmpty() && grantable(lane)) {
+				take(lane);
+				return true;
+			}
+			if (lane.waiters.isEmpty()) {
+				lane.pass = Math.max(lane.pass, virtualTime);
+			}
+			Waiter waiter = new Waiter(lock.newCondition());
+			lane.waiters.add(waiter);
+			long remaining = timeoutNanos;
+			try {
+				while (!waiter.granted) {
+					if (remaining <= 0) {
+						lane.waiters.remove(waiter);
+						return false;
+					}
+					remaining = waiter.condition.awaitNanos(remaining);
+				}
+				return true;
+			} catch (InterruptedException e) {
+				if (waiter.granted) {
+					give(lane);
+				} else {
+					lane.waiters.remove(waiter);
+				}
+				throw e;
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void release(Lane lane) {
+		lock.lock();
+		try {
+			give(lane);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void give(Lane lane) {
+		lane.inUse--;
+		inUse--;
+		dispatch();
+	}
+
+	/**
+	 * Hands free permits to waiting callers, the workload with the lowest pass first.
+	 */
+	private void dispatch() {
+		while (true) {
+			Lane next = null;
+			for (Lane lane : lanes.values()) {
+				if (!lane.waiters.isEmpty() && grantable(lane) && (next == null || lane.pass < next.pass)) {
+					next = lane;
+				}
+			}
+			if (next == null) {
+				return;
+			}
+			virtualTime = next.pass;
+			next.pass += STRIDE / next.partition.weight();
+			take(next);
+			Waiter waiter = next.waiters.poll();
+			waiter.granted = true;
+			waiter.condition.signal();
+		}
+	}
+
+	private void take(Lane lane) {
+		lane.inUse++;
+		inUse++;
+	}
+
+	private boolean grantable(Lane lane) {
+		int free = capacity - inUse;
+		if (free <= 0 || lane.inUse >= lane.partition.limit()) {
+			return false;
+		}
+		if (lane.inUse < lane.partition.reserved()) {
+			return true;
+		}
+		int heldForOthers = 0;
+		for (Lane other : lanes.values()) {
+			if (other != lane) {
+				heldForOthers += Math.max(0, other.partition.reserved() - other.inUse);
+			}
+		}
+		return free > heldForOthers;
+	}
+
+	private final class Lane implements Bulkhead.Permits {
+		private final PoolPartition partition;
+		private final ArrayDeque<Waiter> waiters = new ArrayDeque<>();
+		private int inUse;
+		private long pass;
+
+		private Lane(PoolPartition partition) {
+			this.partition = partition;
+		}
+
+		@Override
+		public boolean tryAcquire(long timeoutNanos) throws InterruptedException {
+			return acquire(this, timeoutNanos);
+		}
+
+		@Override
+		public void release() {
+			WeightedFairScheduler.this.release(this);
+		}
+
+		@Override
+		public int inUse() {
+			lock.lock();
+			try {
+				return inUse;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		@Override
+		public int waiting() {
+			lock.lock();
+			try {
+				return waiters.size();
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	private static final class Waiter {
+		private final Condition condition;
+		private boolean granted;
+
+		private Waiter(Condition condition) {
+			this.condition = condition;
+		}
+	}
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.greenbuttonalliance.gbaresourceserver.usage.cache;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+
+/**
+ * A map of at most <code>maximumSize</code> entries that drops the one used longest ago to make room for another: an access-ordered {@link LinkedHashMap}
+ * under a lock, so that a lookup, an insertion and an eviction each take constant time however full it is. Expiry is left to the owner, who knows what
+ * makes an entry stale and drops it when a lookup finds it so; one never looked at again ages out of the end of the map like any other.
+ * <p>
+ * The lock is held only for the map operation itself, never while a value is loaded, and is a {@link ReentrantLock} rather than a monitor so that a waiting
+ * virtual thread does not pin its carrier.
+ */
+public final class BoundedCache<K, V> {
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Map<K, V> map;
+
+	public BoundedCache(int maximumSize) {
+		this.map = new LinkedHashMap<>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+				return size() > maximumSize;
+			}
+		};
+	}
+
+	/**
+	 * The value of the key, or null, marking it as the most recently used.
+	 */
+	public V get(K key) {
+		lock.lock();
+		try {
+			return map.get(key);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Maps the key to the value, dropping the entry used longest ago if that makes one too many.
+	 */
+	public void put(K key, V value) {
+		lock.lock();
+		try {
+			map.put(key, value);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Replaces the value of the key, if it has one, marking it as the most recently used.
+	 */
+	public void update(K key, UnaryOperator<V> update) {
+		lock.lock();
+		try {
+			map.computeIfPresent(key, (k, value) -> update.apply(value));
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public void remove(K key) {
+		lock.lock();
+		try {
+			map.remove(key);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Removes the key only while it maps to this very value, so that one put since by someone else stays.
+	 */
+	public void remove(K key, V value) {
+		lock.lock();
+		try {
+			if (map.get(key) == value) {
+				map.remove(key);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Removes every entry whose value matches, walking the whole map; for invalidations, not lookups.
+	 */
+	public void removeIf(Predicate<? super V> filter) {
+		lock.lock();
+		try {
+			map.values().removeIf(filter);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public void clear() {
+		lock.lock();
+		try {
+			map.clear();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public int size() {
+		lock.lock();
+		try {
+			return map.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.greenbuttonalliance.gbaresourceserver.usage.controller;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.greenbuttonalliance.gbaresourceserver.usage.access.UsagePointAccess;
+import org.greenbuttonalliance.gbaresourceserver.usage.controller.exception.EntityNotFoundByIdException;
+import org.greenbuttonalliance.gbaresourceserver.usage.controller.exception.InvalidRequestParameterException;
+import org.greenbuttonalliance.gbaresourceserver.usage.ingest.GreenButtonImporter;
+import org.greenbuttonalliance.gbaresourceserver.usage.ingest.ImportSummary;
+import org.greenbuttonalliance.gbaresourceserver.usage.rating.BillingPeriodRater;
+import org.greenbuttonalliance.gbaresourceserver.usage.service.BatchJob;
+import org.greenbuttonalliance.gbaresourceserver.usage.service.BatchJobService;
+import org.greenbuttonalliance.gbaresourceserver.usage.service.BatchService;
+import org.greenbuttonalliance.gbaresourceserver.usage.summary.SummaryPeriod;
+import org.greenbuttonalliance.gbaresourceserver.usage.summary.UsageSummaryDeriver;
+import org.greenbuttonalliance.gbaresourceserver.usage.vee.ReadingValidationService;
+import org.greenbuttonalliance.gbaresourceserver.usage.web.dto.IdentifiedObjectDto;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Instant;
+import java.util.UUID;
+
+/**
+ * Not {@link org.springframework.transaction.annotation.Transactional}: {@link BatchService} opens one read-only transaction per UsagePoint on its own threads, and
+ * holding a connection on the request thread as well would only take one away from them. The same goes for {@link GreenButtonImporter}'s writers. This
+ * relies on <code>spring.jpa.open-in-view</code> being off, as the application sets it by default: with it on, the request thread would keep the connection
+ * of its first lookup, and the bulk permit that came with it, until the response is written, and a bulk partition smaller than the number of concurrent
+ * exports would wait on itself.
+ * <p>
+ * The jobs that derive, rate or validate across the whole database run in the background through {@link BatchJobService}: posting one answers
+ * <code>202 Accepted</code> with the job and its location under <code>Job/{jobId}</code> to poll, or <code>409 Conflict</code> while another job is running.
+ */
+@RestController
+@Slf4j
+@RequestMapping(path = "/espi/1_1/resource/Batch", produces = MediaType.APPLICATION_ATOM_XML_VALUE)
+@ResponseStatus(HttpStatus.OK)
+@RequiredArgsConstructor(onConstructor = @__(@Autowired))
+public class BatchController {
+	private final BatchService batchService;
+	private final GreenButtonImporter greenButtonImporter;
+	private final UsageSummaryDeriver usageSummaryDeriver;
+	private final BillingPeriodRater billingPeriodRater;
+	private final ReadingValidationService readingValidationService;
+	private final BatchJobService batchJobService;
+
+	@GetMapping("/RetailCustomer/{retailCustomerId}")
+	public String getRetailCustomer(@PathVariable UUID retailCustomerId, UsagePointAccess usagePointAccess) {
+		String content = String.join("", batchService.renderRetailCustomer(retailCustomerId, usagePointAccess));
+		return IdentifiedObjectDto.addParentWrapper(content, "Batch/RetailCustomer/" + retailCustomerId);
+	}
+
+	/**
+	 * Uploads a Green Button feed for the RetailCustomer. The body is handed to the importer as a stream, so feeds of any size are accepted. With a
+	 * restricted {@link UsagePointAccess}, every UsagePoint of the feed must be one it permits.
+	 */
+	@PostMapping(path = "/RetailCustomer/{retailCustomerId}/UsagePoint",
+		consumes = {MediaType.APPLICATION_ATOM_XML_VALUE, MediaType.APPLICATION_XML_VALUE},
+		produces = MediaType.APPLICATION_XML_VALUE)
+	public ImportSummary postRetailCustomerUsagePoints(@PathVariable UUID retailCustomerId, InputStream feed, UsagePointAccess usagePointAccess)
+		throws IOException {
+		try (feed) {
+			return greenButtonImporter.importFeed(feed, retailCustomerId, usagePointAccess);
+		}
+	}
+
+	/**
+	 * Derives the UsageSummary of every UsagePoint for the billing period starting at <code>billingPeriodStart</code> (epoch seconds) from interval data up to
+	 * <code>asOf</code>, which defaults to now. Summaries derived earlier for the same period are replaced.
+	 */
+	@PostMapping(path = "/UsageSummary", produces = MediaType.APPLICATION_XML_VALUE)
+	public ResponseEntity<BatchJob> postUsageSummaries(@RequestParam long billingPeriodStart, @RequestParam long billingPeriodDuration,
+													   @RequestParam(required = false) Long asOf) {
+		SummaryPeriod period = summaryPeriod(billingPeriodStart, billingPeriodDuration, asOf);
+		return accepted(batchJobService.start("UsageSummary", () -> usageSummaryDeriver.derive(period)));
+	}
+
+	/**
+	 * Rates the billing period starting at <code>billingPeriodStart</code> against each UsagePoint's tariff, up to <code>asOf</code>, and writes the charges as
+	 * LineItems of the UsageSummaries derived for it. Derive the summaries first, and wait for that job to finish; LineItems rated earlier for the same
+	 * period are replaced.
+	 */
+	@PostMapping(path = "/UsageSummary/LineItem", produces = MediaType.APPLICATION_XML_VALUE)
+	public ResponseEntity<BatchJob> postLineItems(@RequestParam long billingPeriodStart, @RequestParam long billingPeriodDuration,
+												  @RequestParam(required = false) Long asOf) {
+		SummaryPeriod period = summaryPeriod(billingPeriodStart, billingPeriodDuration, asOf);
+		return accepted(batchJobService.start("LineItem", () -> billingPeriodRater.rate(period)));
+	}
+
+	/**
+	 * Validates the interval data of every MeterReading that starts within <code>[from, to)</code> (epoch seconds, <code>to</code> defaulting to now): flags
+	 * duplicate, negative and spiking readings as questionable and estimates the missing intervals.
+	 */
+	@PostMapping(path = "/IntervalReading/Validation", produces = MediaType.APPLICATION_XML_VALUE)
+	public ResponseEntity<BatchJob> postIntervalReadingValidation(@RequestParam long from, @RequestParam(required = false) Long to) {
+		long until = to != null ? to : Instant.now().getEpochSecond();
+		if (until <= from) {
+			throw new InvalidRequestParameterException("to", until, "a time after from");
+		}
+		return accepted(batchJobService.start("Validation", () -> readingValidationService.validate(from, until)));
+	}
+
+	/**
+	 * A Batch job as it stands: running, or finished with its counts or its error.
+	 */
+	@GetMapping(path = "/Job/{jobId}", produces = MediaType.APPLICATION_XML_VALUE)
+	public BatchJob getJob(@PathVariable UUID jobId) {
+		return batchJobService.find(jobId).orElseThrow(() -> new EntityNotFoundByIdException(BatchJob.class, jobId));
+	}
+
+	private static ResponseEntity<BatchJob> accepted(BatchJob job) {
+		return ResponseEntity.accepted()
+			.location(ServletUriComponentsBuilder.fromCurrentContextPath().path("/espi/1_1/resource/Batch/Job/{jobId}").buildAndExpand(job.id()).toUri())
+			.body(job);
+	}
+
+	private static SummaryPeriod summaryPeriod(long billingPeriodStart, long billingPeriodDuration, Long asOf) {
+		if (billingPeriodDuration <= 0) {
+			throw new InvalidRequestParameterException("billingPeriodDuration", billingPeriodDuration, "a positive number of seconds");
+		}
+		long until = asOf != null ? asOf : Instant.now().getEpochSecond();
+		if (until <= billingPeriodStart) {
+			throw new InvalidRequestParameterException("asOf", until, "a time after billingPeriodStart");
+		}
+		return new SummaryPeriod(billingPeriodStart, billingPeriodDuration, until);
+	}
+}
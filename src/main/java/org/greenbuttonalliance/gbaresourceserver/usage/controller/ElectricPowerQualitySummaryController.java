@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.greenbuttonalliance.gbaresourceserver.usage.controller;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.greenbuttonalliance.gbaresourceserver.usage.controller.exception.InvalidRequestParameterException;
+import org.greenbuttonalliance.gbaresourceserver.usage.quality.PowerQualityAggregates;
+import org.greenbuttonalliance.gbaresourceserver.usage.quality.PowerQualityAggregationService;
+import org.greenbuttonalliance.gbaresourceserver.usage.quality.PowerQualityGrouping;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * Not {@link org.springframework.transaction.annotation.Transactional}: aggregates are a single query, or come from a cache without touching the database.
+ */
+@RestController
+@Slf4j
+@RequestMapping(path = "/espi/1_1/resource/ElectricPowerQualitySummary", produces = MediaType.APPLICATION_ATOM_XML_VALUE)
+@ResponseStatus(HttpStatus.OK)
+@RequiredArgsConstructor(onConstructor = @__(@Autowired))
+public class ElectricPowerQualitySummaryController {
+	private final PowerQualityAggregationService powerQualityAggregationService;
+
+	/**
+	 * Totals and worst cases of the ElectricPowerQualitySummaries whose summaryInterval starts in <code>[from, to)</code> (epoch seconds), per UsagePoint or
+	 * per outage region, optionally only of the UsagePoints of one <code>outageRegion</code>. The window is widened to the cache's alignment; the result
+	 * reports the one it covers.
+	 */
+	@GetMapping(path = "/Aggregate", produces = MediaType.APPLICATION_XML_VALUE)
+	public PowerQualityAggregates getAggregates(@RequestParam long from, @RequestParam long to, @RequestParam(defaultValue = "usagePoint") String groupBy,
+												@RequestParam(required = false) String outageRegion) {
+		PowerQualityGrouping grouping = PowerQualityGrouping.fromParameter(groupBy);
+		if (from >= to) {
+			throw new InvalidRequestParameterException("to", to, "a time after from");
+		}
+		return powerQualityAggregationService.aggregate(from, to, grouping, outageRegion);
+	}
+}
@@ -17,8 +17,10 @@ package org.greenbuttonalliance.gbaresourceserver.usage.controller;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.greenbuttonalliance.gbaresourceserver.usage.access.UsagePointAccess;
 import org.greenbuttonalliance.gbaresourceserver.usage.controller.exception.EntityNotFoundByIdException;
 import org.greenbuttonalliance.gbaresourceserver.usage.model.IntervalBlock;
+import org.greenbuttonalliance.gbaresourceserver.usage.scope.EspiScope;
 import org.greenbuttonalliance.gbaresourceserver.usage.service.IntervalBlockService;
 import org.greenbuttonalliance.gbaresourceserver.usage.web.dto.IdentifiedObjectDto;
 import org.greenbuttonalliance.gbaresourceserver.usage.web.dto.IntervalBlockDto;
@@ -72,8 +74,8 @@ public class IntervalBlockController {
 	private final IntervalBlockService intervalBlockService;
 
 	@GetMapping
-	public String getAll() {
-		List<IntervalBlockDto> listIntervalBlockDto = intervalBlockService.findAll().stream()
+	public String getAll(EspiScope scope, UsagePointAccess usagePointAccess) {
+		List<IntervalBlockDto> listIntervalBlockDto = intervalBlockService.findAll(scope, usagePointAccess).stream()
 			.map(IntervalBlockDto::fromIntervalBlock).toList();
 
 		StringBuilder contentSB = new StringBuilder();
@@ -86,9 +88,12 @@ public class IntervalBlockController {
 	}
 
 	@GetMapping("/{uuid}")
-	public String getByUuid(@PathVariable UUID uuid) {
+	public String getByUuid(@PathVariable UUID uuid, EspiScope scope, UsagePointAccess usagePointAccess) {
 
-		IntervalBlock intervalBlock = intervalBlockService.findByUuid(uuid).orElseThrow(() -> new EntityNotFoundByIdException(IntervalBlock.class, uuid));
+		IntervalBlock intervalBlock = intervalBlockService.findByUuid(uuid)
+			.filter(block -> intervalBlockService.isInScope(block, scope))
+			.orElseThrow(() -> new EntityNotFoundByIdException(IntervalBlock.class, uuid));
+		usagePointAccess.require(intervalBlock.getMeterReading().getUsagePoint().getUuid(), IntervalBlock.class, uuid);
 		IntervalBlockDto singleIntervalBlockDto = IntervalBlockDto.fromIntervalBlock(intervalBlock);
 
 		String content = singleIntervalBlockDto.getContent();
@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.greenbuttonalliance.gbaresourceserver.usage.controller;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.greenbuttonalliance.gbaresourceserver.usage.access.UsagePointAccess;
+import org.greenbuttonalliance.gbaresourceserver.usage.controller.exception.InvalidRequestParameterException;
+import org.greenbuttonalliance.gbaresourceserver.usage.demand.DemandService;
+import org.greenbuttonalliance.gbaresourceserver.usage.ingest.GreenButtonFeedParser;
+import org.greenbuttonalliance.gbaresourceserver.usage.ingest.ReadingReceipt;
+import org.greenbuttonalliance.gbaresourceserver.usage.ingest.RealtimeReadingBuffer;
+import org.greenbuttonalliance.gbaresourceserver.usage.model.MeterReading;
+import org.greenbuttonalliance.gbaresourceserver.usage.net.NetMeterReadingService;
+import org.greenbuttonalliance.gbaresourceserver.usage.net.NetPair;
+import org.greenbuttonalliance.gbaresourceserver.usage.rollup.IntervalRollupService;
+import org.greenbuttonalliance.gbaresourceserver.usage.rollup.RollupInterval;
+import org.greenbuttonalliance.gbaresourceserver.usage.rollup.RollupTarget;
+import org.greenbuttonalliance.gbaresourceserver.usage.rollup.ValueAggregation;
+import org.greenbuttonalliance.gbaresourceserver.usage.scope.EspiScope;
+import org.greenbuttonalliance.gbaresourceserver.usage.units.ValueUnits;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.UUID;
+
+/**
+ * Not {@link org.springframework.transaction.annotation.Transactional}: posted readings are only journaled on the request thread and written to the database
+ * later by {@link RealtimeReadingBuffer}, and rollups and demand are computed in their own read-only transaction after the handler has returned. Reads are
+ * limited to the client's {@link EspiScope}: a MeterReading whose interval length it does not grant is not found, and IntervalBlocks older than its history
+ * are left out. Neither is a MeterReading of a UsagePoint outside its {@link UsagePointAccess}.
+ */
+@RestController
+@Slf4j
+@RequestMapping(path = "/espi/1_1/resource/MeterReading", produces = MediaType.APPLICATION_ATOM_XML_VALUE)
+@ResponseStatus(HttpStatus.OK)
+@RequiredArgsConstructor(onConstructor = @__(@Autowired))
+public class MeterReadingController {
+	private final RealtimeReadingBuffer realtimeReadingBuffer;
+	private final IntervalRollupService intervalRollupService;
+	private final DemandService demandService;
+	private final NetMeterReadingService netMeterReadingService;
+
+	/**
+	 * Sums, minima, maxima and counts of the MeterReading's readings per hour, day or month of local standard time, for the buckets overlapping
+	 * <code>[from, to)</code> (epoch seconds). Only buckets with readings are listed. With <code>units=canonical</code> values are given in Wh, m³ or therms
+	 * where the ReadingType's unit converts to one, with its powerOfTenMultiplier applied.
+	 */
+	@GetMapping(path = "/{meterReadingId}/IntervalRollup", produces = MediaType.APPLICATION_XML_VALUE)
+	public ResponseEntity<StreamingResponseBody> getIntervalRollups(@PathVariable UUID meterReadingId, @RequestParam String interval,
+																	@RequestParam(defaultValue = "0") long from,
+																	@RequestParam(defaultValue = "" + Long.MAX_VALUE) long to,
+																	@RequestParam(defaultValue = "reading") String units, EspiScope scope,
+																	UsagePointAccess usagePointAccess) {
+		RollupInterval rollupInterval = RollupInterval.fromParameter(interval);
+		ValueUnits valueUnits = ValueUnits.fromParameter(units);
+		if (from >= to) {
+			throw new InvalidRequestParameterException("to", to, "a time after from");
+		}
+		// resolved before the body is streamed, so an unknown MeterReading is still a 404
+		RollupTarget target = intervalRollupService.findTarget(meterReadingId, scope);
+		usagePointAccess.require(target.usagePointUuid(), MeterReading.class, meterReadingId);
+		StreamingResponseBody body = out -> intervalRollupService.writeRollups(target, rollupInterval, from, to, valueUnits, out);
+		return ResponseEntity.ok().contentType(MediaType.APPLICATION_XML).body(body);
+	}
+
+	/**
+	 * The peak demand over rolling windows of <code>window</code> seconds per hour, day or month of local standard time, with the ratchet demand: the highest
+	 * peak of the <code>ratchetMonths</code> months up to the bucket. Only buckets overlapping <code>[from, to)</code> with readings are listed.
+	 * <code>units=canonical</code> scales demand as for rollups. Every reading of the range is held in memory, so <code>from</code> is required and
+	 * <code>to</code> may be at most <code>gba.demand.max-span-days</code> after it, which is also where it defaults to.
+	 */
+	@GetMapping(path = "/{meterReadingId}/Demand", produces = MediaType.APPLICATION_XML_VALUE)
+	public ResponseEntity<StreamingResponseBody> getDemand(@PathVariable UUID meterReadingId, @RequestParam(defaultValue = "month") String interval,
+														   @RequestParam long from, @RequestParam(required = false) Long to,
+														   @RequestParam(defaultValue = "900") int window,
+														   @RequestParam(defaultValue = "11") int ratchetMonths,
+														   @RequestParam(defaultValue = "reading") String units, EspiScope scope,
+														   UsagePointAccess usagePointAccess) {
+		RollupInterval rollupInterval = RollupInterval.fromParameter(interval);
+		ValueUnits valueUnits = ValueUnits.fromParameter(units);
+		long end = demandService.rangeEnd(from, to);
+		if (window <= 0) {
+			throw new InvalidRequestParameterException("window", window, "a positive number of seconds");
+		}
+		if (ratchetMonths < 0 || ratchetMonths > 120) {
+			throw new InvalidRequestParameterException("ratchetMonths", ratchetMonths, "0 to 120");
+		}
+		RollupTarget target = intervalRollupService.findTarget(meterReadingId, scope);
+		usagePointAccess.require(target.usagePointUuid(), MeterReading.class, meterReadingId);
+		if (target.aggregation() != ValueAggregation.ADDITIVE) {
+			throw new InvalidRequestParameterException("meterReadingId", meterReadingId, "a MeterReading of interval quantities");
+		}
+		StreamingResponseBody body = out -> demandService.writeDemand(target, rollupInterval, from, end, window, ratchetMonths, valueUnits, out);
+		return ResponseEntity.ok().contentType(MediaType.APPLICATION_XML).body(body);
+	}
+
+	/**
+	 * The net of a forward MeterReading and the reverse MeterReading of its UsagePoint in the same units (or the other way round), as a feed of a virtual
+	 * MeterReading whose readings are forward minus reverse, for the readings starting in <code>[from, to)</code>.
+	 */
+	@GetMapping("/{meterReadingId}/Net")
+	public ResponseEntity<StreamingResponseBody> getNet(@PathVariable UUID meterReadingId, @RequestParam(defaultValue = "0") long from,
+														@RequestParam(defaultValue = "" + Long.MAX_VALUE) long to, EspiScope scope,
+														UsagePointAccess usagePointAccess) {
+		if (from >= to) {
+			throw new InvalidRequestParameterException("to", to, "a time after from");
+		}
+		NetPair pair = netMeterReadingService.findPair(meterReadingId, scope, usagePointAccess);
+		StreamingResponseBody body = out -> netMeterReadingService.writeNet(pair, from, to, out);
+		return ResponseEntity.ok().contentType(MediaType.APPLICATION_ATOM_XML).body(body);
+	}
+
+	/**
+	 * Accepts near-real-time readings for a MeterReading, as <code>&lt;IntervalReading&gt;</code> elements inside an <code>&lt;IntervalBlock&gt;</code> or any
+	 * other wrapper. Answers 202 once the readings are durable in the local journal; they are written to the database in the background. A MeterReading
+	 * of a UsagePoint outside the {@link UsagePointAccess} is answered with 404.
+	 */
+	@PostMapping(path = "/{meterReadingId}/IntervalReading",
+		consumes = {MediaType.APPLICATION_ATOM_XML_VALUE, MediaType.APPLICATION_XML_VALUE},
+		produces = MediaType.APPLICATION_XML_VALUE)
+	@ResponseStatus(HttpStatus.ACCEPTED)
+	public ReadingReceipt postIntervalReadings(@PathVariable UUID meterReadingId, InputStream body, UsagePointAccess usagePointAccess) throws IOException {
+		try (body) {
+			return new ReadingReceipt(meterReadingId, realtimeReadingBuffer.accept(meterReadingId, GreenButtonFeedParser.readIntervalReadings(body),
+				usagePointAccess));
+		}
+	}
+}
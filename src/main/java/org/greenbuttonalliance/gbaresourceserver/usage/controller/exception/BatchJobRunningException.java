@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.greenbuttonalliance.gbaresourceserver.usage.controller.exception;
+
+import lombok.Getter;
+
+import java.util.UUID;
+
+/**
+ * Thrown when a Batch job is asked to start while another one is still running. Poll the running job, <code>runningJobId</code>, and start again once it
+ * has finished.
+ */
+@Getter
+public class BatchJobRunningException extends RuntimeException implements GbaControllerException {
+	private final UUID runningJobId;
+
+	public BatchJobRunningException(String runningKind, UUID runningJobId) {
+		super(String.format("Batch job %s %s is still running", runningKind, runningJobId));
+		this.runningJobId = runningJobId;
+	}
+
+	@Override
+	public String getInternalErrorMessage() {
+		return getMessage();
+	}
+
+	@Override
+	public String getExternalErrorMessage() {
+		return getMessage();
+	}
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.greenbuttonalliance.gbaresourceserver.usage.controller.exception;
+
+import lombok.Getter;
+
+/**
+ * Thrown when a request waited longer than allowed for a permit of a database bulkhead. Clients should retry after <code>retryAfterSeconds</code>.
+ */
+@Getter
+public class BulkheadFullException extends RuntimeException implements GbaControllerException {
+	private final long retryAfterSeconds;
+
+	public BulkheadFullException(String message, long retryAfterSeconds) {
+		super(message);
+		this.retryAfterSeconds = retryAfterSeconds;
+	}
+
+	@Override
+	public String getInternalErrorMessage() {
+		return getMessage();
+	}
+
+	@Override
+	public String getExternalErrorMessage() {
+		return "Too many requests are waiting for the database, retry later";
+	}
+}
@@ -16,9 +16,11 @@
 package org.greenbuttonalliance.gbaresourceserver.usage.controller.exception;
 
 import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.web.bind.annotation.ControllerAdvice;
 import org.springframework.web.bind.annotation.ExceptionHandler;
@@ -37,6 +39,52 @@ public class DefaultExceptionHandler {
 		return logAndReturnExternal(e, req);
 	}
 
+	@ExceptionHandler(InvalidFeedException.class)
+	@ResponseStatus(HttpStatus.BAD_REQUEST)
+	public String handleInvalidFeedException(InvalidFeedException e, HttpServletRequest req) {
+		return logAndReturnExternal(e, req);
+	}
+
+	@ExceptionHandler(InvalidRequestParameterException.class)
+	@ResponseStatus(HttpStatus.BAD_REQUEST)
+	public String handleInvalidRequestParameterException(InvalidRequestParameterException e, HttpServletRequest req) {
+		return logAndReturnExternal(e, req);
+	}
+
+	@ExceptionHandler(IngestBackloggedException.class)
+	@ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+	public String handleIngestBackloggedException(IngestBackloggedException e, HttpServletRequest req, HttpServletResponse res) {
+		res.setHeader(HttpHeaders.RETRY_AFTER, Long.toString(e.getRetryAfterSeconds()));
+		return logAndReturnExternal(e, req);
+	}
+
+	@ExceptionHandler(BulkheadFullException.class)
+	@ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+	public String handleBulkheadFullException(BulkheadFullException e, HttpServletRequest req, HttpServletResponse res) {
+		res.setHeader(HttpHeaders.RETRY_AFTER, Long.toString(e.getRetryAfterSeconds()));
+		return logAndReturnExternal(e, req);
+	}
+
+	@ExceptionHandler(TooManyRequestsException.class)
+	@ResponseStatus(HttpStatus.TOO_MANY_REQUESTS)
+	public String handleTooManyRequestsException(TooManyRequestsException e, HttpServletRequest req, HttpServletResponse res) {
+		res.setHeader(HttpHeaders.RETRY_AFTER, Long.toString(e.getRetryAfterSeconds()));
+		return logAndReturnExternal(e, req);
+	}
+
+	@ExceptionHandler(BatchJobRunningException.class)
+	@ResponseStatus(HttpStatus.CONFLICT)
+	public String handleBatchJobRunningException(BatchJobRunningException e, HttpServletRequest req) {
+		return logAndReturnExternal(e, req);
+	}
+
+	@ExceptionHandler(UnauthorizedException.class)
+	@ResponseStatus(HttpStatus.UNAUTHORIZED)
+	public String handleUnauthorizedException(UnauthorizedException e, HttpServletRequest req, HttpServletResponse res) {
+		res.setHeader(HttpHeaders.WWW_AUTHENTICATE, "Bearer");
+		return logAndReturnExternal(e, req);
+	}
+
 	private String logAndReturnExternal(GbaControllerException e, HttpServletRequest req) {
 		log.error("{} at {}", e.getInternalErrorMessage(), req.getRequestURI());
 		return e.getExternalErrorMessage();
@@ -0,0 +1,37 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.greenbuttonalliance.gbaresourceserver.usage.controller.exception;
+
+public class InvalidFeedException extends RuntimeException implements GbaControllerException {
+
+	public InvalidFeedException(String message) {
+		super(message);
+	}
+
+	public InvalidFeedException(String message, Throwable cause) {
+		super(message, cause);
+	}
+
+	@Override
+	public String getInternalErrorMessage() {
+		return getCause() == null ? getMessage() : String.format("%s: %s", getMessage(), getCause().getMessage());
+	}
+
+	@Override
+	public String getExternalErrorMessage() {
+		return getMessage();
+	}
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.greenbuttonalliance.gbaresourceserver.usage.controller.exception;
+
+/**
+ * Thrown when a request to an ESPI resource has no bearer token while anonymous access (<code>gba.access.allow-anonymous</code>) is off, or has one
+ * that does not belong to an active Authorization.
+ */
+public class UnauthorizedException extends RuntimeException implements GbaControllerException {
+
+	public UnauthorizedException(String message) {
+		super(message);
+	}
+
+	@Override
+	public String getInternalErrorMessage() {
+		return getMessage();
+	}
+
+	@Override
+	public String getExternalErrorMessage() {
+		return "A valid bearer token is required";
+	}
+}
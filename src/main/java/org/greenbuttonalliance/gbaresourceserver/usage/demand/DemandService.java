@@ -0,0 +1,185 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.greenbuttonalliance.gbaresourceserver.usage.demand;
+
+import org.greenbuttonalliance.gbaresourceserver.usage.bulkhead.DatabaseBulkheads;
+import org.greenbuttonalliance.gbaresourceserver.usage.controller.exception.InvalidRequestParameterException;
+import org.greenbuttonalliance.gbaresourceserver.usage.rollup.RollupInterval;
+import org.greenbuttonalliance.gbaresourceserver.usage.rollup.RollupTarget;
+import org.greenbuttonalliance.gbaresourceserver.usage.summary.ReadingColumns;
+import org.greenbuttonalliance.gbaresourceserver.usage.time.LocalTimeTable;
+import org.greenbuttonalliance.gbaresourceserver.usage.units.UnitScale;
+import org.greenbuttonalliance.gbaresourceserver.usage.units.ValueUnits;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Serves the peak and ratchet demand of a MeterReading per hour, day or month of local time. The readings of the requested range and of the ratchet
+ * period before it are read into {@link ReadingColumns} and run through a {@link SlidingDemand}, so a year of 15-minute readings takes two linear passes.
+ * Since all of them are held at once, a range may span at most <code>gba.demand.max-span-days</code>, which with the longest ratchet period keeps a request
+ * to a few hundred thousand 15-minute readings.
+ */
+@Service
+public class DemandService {
+	private static final int FETCH_SIZE = 10000;
+	// 9999-12-31T23:59:59Z, beyond which LocalDateTime cannot go
+	private static final long MAX_EPOCH_SECOND = 253402300799L;
+	private static final String READINGS = """
+		SELECT r.start, r.duration, r.value
+		FROM usage.interval_block b JOIN usage.interval_reading r ON r.block_uuid = b.uuid
+		WHERE b.meter_reading_uuid = ? AND b.start < ? AND b.start + b.duration > ? AND b.start >= ? AND r.start >= ? AND r.start < ?
+			AND r.value IS NOT NULL
+		ORDER BY r.start""";
+
+	private final JdbcTemplate jdbcTemplate;
+	private final TransactionTemplate readOnlyTransaction;
+	private final DatabaseBulkheads databaseBulkheads;
+	private final long maxSpan;
+
+	@Autowired
+	public DemandService(DataSource dataSource, PlatformTransactionManager transactionManager, DatabaseBulkheads databaseBulkheads,
+						 @Value("${gba.demand.max-span-days:400}") int maxSpanDays) {
+		this.jdbcTemplate = new JdbcTemplate(dataSource);
+		this.jdbcTemplate.setFetchSize(FETCH_SIZE);
+		this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+		this.readOnlyTransaction.setReadOnly(true);
+		this.databaseBulkheads = databaseBulkheads;
+		this.maxSpan = maxSpanDays * 86400L;
+	}
+
+	/**
+	 * The end of the range starting at <code>from</code>: <code>to</code>, or if that is null, as far as a range may reach.
+	 *
+	 * @throws InvalidRequestParameterException for a range that ends before it starts or spans more than <code>gba.demand.max-span-days</code>
+	 */
+	public long rangeEnd(long from, Long to) {
+		long maxEnd = from > Long.MAX_VALUE - maxSpan ? Long.MAX_VALUE : from + maxSpan;
+		if (to == null) {
+			return maxEnd;
+		}
+		if (to <= from) {
+			throw new InvalidRequestParameterException("to", to, "a time after from");
+		}
+		if (to > maxEnd) {
+			throw new InvalidRequestParameterException("to", to, "at most " + maxSpan / 86400 + " days after from");
+		}
+		return to;
+	}
+
+	/**
+	 * Writes the demand of the buckets overlapping <code>[from, to)</code> that have readings as a <code>&lt;DemandPeaks&gt;</code> document. Demand is in the
+	 * MeterReading's unit per hour, so readings in Wh give demand in W. In {@link ValueUnits#CANONICAL} units the demands are scaled by the target's
+	 * {@link UnitScale} once they are found, which gives the same peaks as scaling every reading, and the document names their <code>uom</code>.
+	 *
+	 * @param to            as {@link #rangeEnd} allows it
+	 * @param window        the length of the rolling demand window in seconds
+	 * @param ratchetMonths how many months before a bucket its ratchet period reaches back
+	 */
+	public void writeDemand(RollupTarget target, RollupInterval interval, long from, long to, int window, int ratchetMonths, ValueUnits units,
+							OutputStream out) {
+		rangeEnd(from, to);
+		LocalTimeTable localTime = target.localTime();
+		long firstBucket = interval.bucketStart(Math.clamp(from, -MAX_EPOCH_SECOND, MAX_EPOCH_SECOND), localTime);
+		long readFrom = localTime.toEpochSecond(localTime.toLocalDateTime(firstBucket).minusMonths(ratchetMonths));
+		ReadingColumns readings = databaseBulkheads.current().call(() -> readOnlyTransaction.execute(status -> read(target, readFrom, to)));
+
+		int buckets = 0;
+		long[] bucketStarts = new long[16];
+		if (readings.size() > 0) {
+			bucketStarts[0] = interval.bucketStart(readings.starts()[0], localTime);
+			long last = readings.starts()[readings.size() - 1];
+			while (bucketStarts[buckets] <= last) {
+				if (buckets + 2 > bucketStarts.length) {
+					bucketStarts = Arrays.copyOf(bucketStarts, bucketStarts.length * 2);
+				}
+				bucketStarts[buckets + 1] = interval.nextBucketStart(bucketStarts[buckets], localTime);
+				buckets++;
+			}
+		}
+		long[] peakDemands = new long[buckets];
+		long[] peakStarts = new long[buckets];
+		long[] ratchetStarts = new long[buckets];
+		long[] ratchetDemands = new long[buckets];
+		long[] ratchetTimes = new long[buckets];
+		for (int b = 0; b < buckets; b++) {
+			ratchetStarts[b] = localTime.toEpochSecond(localTime.toLocalDateTime(bucketStarts[b]).minusMonths(ratchetMonths));
+		}
+		SlidingDemand demand = new SlidingDemand();
+		demand.peaks(readings.starts(), readings.durations(), readings.values(), 0, readings.size(), window, bucketStarts, buckets, peakDemands, peakStarts);
+		demand.ratchets(bucketStarts, peakDemands, peakStarts, buckets, ratchetStarts, ratchetDemands, ratchetTimes);
+		String[] peaks = new String[buckets];
+		String[] ratchets = new String[buckets];
+		if (units == ValueUnits.CANONICAL) {
+			double[] scaled = new double[buckets];
+			target.scale().apply(peakDemands, 0, buckets, scaled);
+			for (int b = 0; b < buckets; b++) {
+				peaks[b] = UnitScale.format(scaled[b]);
+			}
+			target.scale().apply(ratchetDemands, 0, buckets, scaled);
+			for (int b = 0; b < buckets; b++) {
+				ratchets[b] = UnitScale.format(scaled[b]);
+			}
+		} else {
+			for (int b = 0; b < buckets; b++) {
+				peaks[b] = Long.toString(peakDemands[b]);
+				ratchets[b] = Long.toString(ratchetDemands[b]);
+			}
+		}
+
+		Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 1 << 14);
+		try {
+			writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+			writer.write(STR."<DemandPeaks meterReading=\"\{target.meterReadingUuid()}\" interval=\"\{interval.getParameter()}\" window=\"\{window}\" ratchetMonths=\"\{ratchetMonths}\"");
+			writer.write(units == ValueUnits.CANONICAL ? STR." uom=\"\{target.scale().uom()}\">\n" : ">\n");
+			for (int b = 0; b < buckets; b++) {
+				if (peakStarts[b] == SlidingDemand.NONE || bucketStarts[b + 1] <= from || bucketStarts[b] >= to) {
+					continue;
+				}
+				writer.write(STR."<DemandPeak><start>\{bucketStarts[b]}</start><duration>\{bucketStarts[b + 1] - bucketStarts[b]}</duration>");
+				writer.write(STR."<peak><value>\{peaks[b]}</value><timeStamp>\{peakStarts[b]}</timeStamp></peak>");
+				writer.write(STR."<ratchet><value>\{ratchets[b]}</value><timeStamp>\{ratchetTimes[b]}</timeStamp><periodStart>\{ratchetStarts[b]}</periodStart></ratchet>");
+				writer.write("</DemandPeak>\n");
+			}
+			writer.write("</DemandPeaks>\n");
+			writer.flush();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private ReadingColumns read(RollupTarget target, long from, long to) {
+		// one series, in order as the query returns it
+		ReadingColumns readings = new ReadingColumns(1, 1024);
+		jdbcTemplate.query(READINGS, rs -> {
+			readings.add(0, rs.getLong(1), rs.getInt(2), rs.getLong(3));
+		}, target.meterReadingUuid(), to, from, target.historyStart(), from, to);
+		return readings;
+	}
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.greenbuttonalliance.gbaresourceserver.usage.demand;
+
+/**
+ * Rolling-window demand over the readings of one additive series, held as parallel primitive arrays sorted by start. The demand of a window is the quantity of
+ * the readings that lie completely inside it per hour, so Wh over a 15-minute window becomes W; windows start at each reading, and one never gets shorter than
+ * the longest interval it is computed over, so a 15-minute window over hourly readings is an hourly one. Every pass is linear in the number of readings.
+ * <p>
+ * An instance keeps its scratch space and the result of the last {@link #peak} between calls, so one reused by a single thread allocates nothing once it has
+ * grown to its largest input. Instances are not thread-safe.
+ */
+public final class SlidingDemand {
+	/**
+	 * Stands in for the time stamp of a bucket without any window.
+	 */
+	public static final long NONE = Long.MIN_VALUE;
+
+	private int[] deque = new int[16];
+	private long peakDemand;
+	private long peakStart;
+
+	/**
+	 * @return <code>window</code>, or the longest duration among the readings <code>[from, to)</code> if that is longer
+	 */
+	public static int effectiveWindow(int[] durations, int from, int to, int window) {
+		int effective = Math.max(1, window);
+		for (int i = from; i < to; i++) {
+			effective = Math.max(effective, durations[i]);
+		}
+		return effective;
+	}
+
+	/**
+	 * Finds the highest demand among the windows that start within <code>[rangeStart, rangeEnd)</code>, which {@link #peakDemand} and {@link #peakStart} then
+	 * return.
+	 *
+	 * @return whether any window starts in the range
+	 */
+	public boolean peak(long[] starts, int[] durations, long[] values, int from, int to, int window, long rangeStart, long rangeEnd) {
+		int effective = effectiveWindow(durations, from, to, window);
+		boolean found = false;
+		int end = from;
+		long sum = 0;
+		for (int i = from; i < to && starts[i] < rangeEnd; i++) {
+			long windowEnd = starts[i] + effective;
+			for (; end < to && starts[end] + durations[end] <= windowEnd; end++) {
+				sum += values[end];
+			}
+			if (starts[i] >= rangeStart) {
+				long demand = sum * 3600 / effective;
+				if (!found || demand > peakDemand) {
+					peakDemand = demand;
+					peakStart = starts[i];
+					found = true;
+				}
+			}
+			// reading i always fits its own window, so the end has passed it
+			sum -= values[i];
+		}
+		return found;
+	}
+
+	public long peakDemand() {
+		return peakDemand;
+	}
+
+	public long peakStart() {
+		return peakStart;
+	}
+
+	/**
+	 * The peak demand per bucket, of the windows starting in it. Bucket <code>b</code> is <code>[bucketStarts[b], bucketStarts[b + 1])</code>, so
+	 * <code>bucketStarts</code> holds <code>buckets + 1</code> ascending times. A bucket without any window gets {@link #NONE} as peak start.
+	 */
+	public void peaks(long[] starts, int[] durations, long[] values, int from, int to, int window, long[] bucketStarts, int buckets, long[] peakDemands,
+					  long[] peakStarts) {
+		int effective = effectiveWindow(durations, from, to, window);
+		for (int b = 0; b < buckets; b++) {
+			peakStarts[b] = NONE;
+		}
+		int bucket = 0;
+		int end = from;
+		long sum = 0;
+		for (int i = from; i < to; i++) {
+			long windowEnd = starts[i] + effective;
+			for (; end < to && starts[end] + durations[end] <= windowEnd; end++) {
+				sum += values[end];
+			}
+			while (bucket < buckets && starts[i] >= bucketStarts[bucket + 1]) {
+				bucket++;
+			}
+			if (bucket == buckets) {
+				break;
+			}
+			if (starts[i] >= bucketStarts[bucket]) {
+				long demand = sum * 3600 / effective;
+				if (peakStarts[bucket] == NONE || demand > peakDemands[bucket]) {
+					peakDemands[bucket] = demand;
+					peakStarts[bucket] = starts[i];
+				}
+			}
+			sum -= values[i];
+		}
+	}
+
+	/**
+	 * The ratchet demand per bucket: the highest peak of the buckets up to and including it that start at or after <code>ratchetStarts[b]</code>, which must
+	 * not decrease from bucket to bucket. Keeps the candidate buckets in a monotonic deque, so each bucket is added and dropped once. A bucket without any peak
+	 * in its ratchet period gets {@link #NONE} as ratchet time.
+	 */
+	public void ratchets(long[] bucketStarts, long[] peakDemands, long[] peakStarts, int buckets, long[] ratchetStarts, long[] ratchetDemands,
+						 long[] ratchetTimes) {
+		if (deque.length < buckets) {
+			deque = new int[Math.max(buckets, deque.length + (deque.length >> 1))];
+		}
+		int head = 0;
+		int tail = 0;
+		for (int b = 0; b < buckets; b++) {
+			if (peakStarts[b] != NONE) {
+				// a bucket no higher than this one can never be the ratchet again, as this one stays in the period longer
+				while (tail > head && peakDemands[deque[tail - 1]] <= peakDemands[b]) {
+					tail--;
+				}
+				deque[tail++] = b;
+			}
+			while (tail > head && bucketStarts[deque[head]] < ratchetStarts[b]) {
+				head++;
+			}
+			if (tail > head) {
+				ratchetDemands[b] = peakDemands[deque[head]];
+				ratchetTimes[b] = peakStarts[deque[head]];
+			} else {
+				ratchetTimes[b] = NONE;
+			}
+		}
+	}
+}
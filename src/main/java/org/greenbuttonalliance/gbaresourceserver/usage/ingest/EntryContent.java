@@ -0,0 +1,41 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.greenbuttonalliance.gbaresourceserver.usage.ingest;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The ESPI resource inside an entry's <code>&lt;content&gt;</code>. Small resources keep their leaf elements as a map keyed by slash-separated path relative to the
+ * resource element (e.g. <code>ServiceCategory/kind</code>); IntervalBlocks, which make up nearly all of a feed, are parsed straight into records.
+ */
+public sealed interface EntryContent {
+
+	record UsagePointContent(Map<String, String> fields) implements EntryContent {
+	}
+
+	record LocalTimeParametersContent(Map<String, String> fields) implements EntryContent {
+	}
+
+	record MeterReadingContent() implements EntryContent {
+	}
+
+	record ReadingTypeContent(Map<String, String> fields) implements EntryContent {
+	}
+
+	record IntervalBlockContent(long start, long duration, List<IntervalReadingRecord> readings) implements EntryContent {
+	}
+}
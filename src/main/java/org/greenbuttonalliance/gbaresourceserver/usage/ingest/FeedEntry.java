@@ -0,0 +1,28 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.greenbuttonalliance.gbaresourceserver.usage.ingest;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * One Atom <code>&lt;entry&gt;</code> of a Green Button feed. Only the parts the importer needs are kept, so an entry never holds more than its own resource.
+ *
+ * @param content the parsed ESPI resource, or null when the entry holds a resource the importer does not handle
+ */
+public record FeedEntry(String id, String title, String selfLinkHref, String upLinkHref, List<String> relatedLinkHrefs, LocalDateTime published,
+						LocalDateTime updated, EntryContent content) {
+}
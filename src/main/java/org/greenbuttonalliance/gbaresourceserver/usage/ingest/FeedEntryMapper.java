@@ -0,0 +1,235 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.greenbuttonalliance.gbaresourceserver.usage.ingest;
+
+import com.github.f4b6a3.uuid.UuidCreator;
+import org.greenbuttonalliance.gbaresourceserver.common.model.enums.Currency;
+import org.greenbuttonalliance.gbaresourceserver.common.model.enums.UnitMultiplierKind;
+import org.greenbuttonalliance.gbaresourceserver.common.model.enums.UnitSymbolKind;
+import org.greenbuttonalliance.gbaresourceserver.usage.controller.exception.InvalidFeedException;
+import org.greenbuttonalliance.gbaresourceserver.usage.ingest.EntryContent.IntervalBlockContent;
+import org.greenbuttonalliance.gbaresourceserver.usage.ingest.EntryContent.LocalTimeParametersContent;
+import org.greenbuttonalliance.gbaresourceserver.usage.ingest.EntryContent.ReadingTypeContent;
+import org.greenbuttonalliance.gbaresourceserver.usage.ingest.EntryContent.UsagePointContent;
+import org.greenbuttonalliance.gbaresourceserver.usage.model.MeterReading;
+import org.greenbuttonalliance.gbaresourceserver.usage.model.ReadingType;
+import org.greenbuttonalliance.gbaresourceserver.usage.model.ServiceDeliveryPoint;
+import org.greenbuttonalliance.gbaresourceserver.usage.model.TimeConfiguration;
+import org.greenbuttonalliance.gbaresourceserver.usage.model.UsagePoint;
+import org.greenbuttonalliance.gbaresourceserver.usage.model.enums.AccumulationKind;
+import org.greenbuttonalliance.gbaresourceserver.usage.model.enums.AmiBillingReadyKind;
+import org.greenbuttonalliance.gbaresourceserver.usage.model.enums.CommodityKind;
+import org.greenbuttonalliance.gbaresourceserver.usage.model.enums.DataQualifierKind;
+import org.greenbuttonalliance.gbaresourceserver.usage.model.enums.FlowDirectionKind;
+import org.greenbuttonalliance.gbaresourceserver.usage.model.enums.MeasurementKind;
+import org.greenbuttonalliance.gbaresourceserver.usage.model.enums.PhaseCodeKind;
+import org.greenbuttonalliance.gbaresourceserver.usage.model.enums.QualityOfReading;
+import org.greenbuttonalliance.gbaresourceserver.usage.model.enums.ServiceKind;
+import org.greenbuttonalliance.gbaresourceserver.usage.model.enums.TimeAttributeKind;
+import org.greenbuttonalliance.gbaresourceserver.usage.model.enums.UsagePointConnectedKind;
+
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.function.Function;
+
+/**
+ * Maps parsed {@link FeedEntry FeedEntries} onto the JPA model. Relationships between entries are expressed through Atom links, which are compared by their path
+ * below <code>/espi/1_1/resource/</code> so that feeds exported from another host still resolve.
+ */
+final class FeedEntryMapper {
+	private static final String RESOURCE_ROOT = "/resource/";
+
+	private FeedEntryMapper() {
+	}
+
+	/**
+	 * @return the UUID from the entry's <code>urn:uuid:</code> id, or a name-based UUID derived from its self link when the id is not a UUID
+	 */
+	static UUID entityUuid(FeedEntry entry) {
+		if (entry.id() != null) {
+			try {
+				return UUID.fromString(entry.id().replaceFirst("(?i)^urn:uuid:", ""));
+			} catch (IllegalArgumentException e) {
+				// fall through to the self link
+			}
+		}
+		if (entry.selfLinkHref() == null) {
+			throw new InvalidFeedException("Feed entry has neither a UUID id nor a self link");
+		}
+		return UuidCreator.getNameBasedSha1(UuidCreator.NAMESPACE_URL, entry.selfLinkHref());
+	}
+
+	static String resourcePath(String href) {
+		if (href == null) {
+			return null;
+		}
+		int root = href.indexOf(RESOURCE_ROOT);
+		String path = root < 0 ? href : href.substring(root + RESOURCE_ROOT.length());
+		return path.endsWith("/") ? path.substring(0, path.length() - 1) : path;
+	}
+
+	/**
+	 * An entry's up link names the collection it lives in (<code>.../UsagePoint/01/MeterReading</code>); its parent resource is that collection's owner.
+	 */
+	static String parentPath(FeedEntry entry) {
+		String up = resourcePath(entry.upLinkHref());
+		if (up == null || up.lastIndexOf('/') < 0) {
+			throw new InvalidFeedException(String.format("Entry %s has no usable up link", entry.id()));
+		}
+		return up.substring(0, up.lastIndexOf('/'));
+	}
+
+	static Optional<String> relatedPath(FeedEntry entry, String resourceName) {
+		return entry.relatedLinkHrefs().stream()
+			.map(FeedEntryMapper::resourcePath)
+			.filter(path -> path.contains(resourceName + "/"))
+			.findFirst();
+	}
+
+	static UsagePoint toUsagePoint(FeedEntry entry, UsagePointContent content) {
+		Map<String, String> fields = content.fields();
+		ServiceKind serviceCategory = field(fields, "ServiceCategory/kind", v -> ServiceKind.getServiceKindFromSchemaValue(Integer.parseInt(v)));
+		if (serviceCategory == null) {
+			throw new InvalidFeedException(String.format("UsagePoint %s has no ServiceCategory", entry.id()));
+		}
+
+		UsagePoint usagePoint = UsagePoint.builder()
+			.uuid(entityUuid(entry))
+			.description(entry.title())
+			.selfLinkHref(nullToEmpty(entry.selfLinkHref()))
+			.upLinkHref(nullToEmpty(entry.upLinkHref()))
+			.roleFlags(field(fields, "roleFlags", HexFormat.of()::parseHex))
+			.serviceCategory(serviceCategory)
+			.status(field(fields, "status", Short::valueOf))
+			.serviceDeliveryPoint(ServiceDeliveryPoint.builder()
+				.uuid(UuidCreator.getNameBasedSha1(UuidCreator.NAMESPACE_URL, resourcePath(entry.selfLinkHref()) + "/ServiceDeliveryPoint"))
+				.name(fields.get("ServiceDeliveryPoint/name"))
+				.tariffProfile(fields.get("ServiceDeliveryPoint/tariffProfile"))
+				.customerAgreement(fields.get("ServiceDeliveryPoint/customerAgreement"))
+				.build())
+			.amiBillingReady(field(fields, "amiBillingReady", AmiBillingReadyKind::getAmIBillingReadyKindFromSchemaValue))
+			.checkBilling(field(fields, "checkBilling", Boolean::valueOf))
+			.grounded(field(fields, "grounded", Boolean::valueOf))
+			.isSdp(field(fields, "isSdp", Boolean::valueOf))
+			.isVirtual(field(fields, "isVirtual", Boolean::valueOf))
+			.minimalUsageExpected(field(fields, "minimalUsageExpected", Boolean::valueOf))
+			.outageRegion(fields.get("outageRegion"))
+			.readCycle(fields.get("readCycle"))
+			.readRoute(fields.get("readRoute"))
+			.serviceDeliveryRemark(fields.get("serviceDeliveryRemark"))
+			.servicePriority(fields.get("servicePriority"))
+			.build();
+
+		// ESPI makes these optional, but usage_point requires them
+		usagePoint.setConnectionState(Optional.ofNullable(field(fields, "connectionState", UsagePointConnectedKind::getUsagePointConnectedKindFromSchemaValue))
+			.orElse(UsagePointConnectedKind.CONNECTED));
+		usagePoint.setPhaseCode(Optional.ofNullable(field(fields, "phaseCode", v -> PhaseCodeKind.getPhaseCodeKindFromSchemaValue(Integer.parseInt(v))))
+			.orElse(PhaseCodeKind.NONE));
+		return usagePoint;
+	}
+
+	static TimeConfiguration toTimeConfiguration(FeedEntry entry, UUID uuid, LocalTimeParametersContent content) {
+		Map<String, String> fields = content.fields();
+		return TimeConfiguration.builder()
+			.uuid(uuid)
+			.description(entry.title())
+			.selfLinkHref(nullToEmpty(entry.selfLinkHref()))
+			.upLinkHref(nullToEmpty(entry.upLinkHref()))
+			.dstEndRule(Optional.ofNullable(field(fields, "dstEndRule", HexFormat.of()::parseHex)).orElse(new byte[0]))
+			.dstOffset(Optional.ofNullable(field(fields, "dstOffset", Long::valueOf)).orElse(0L))
+			.dstStartRule(Optional.ofNullable(field(fields, "dstStartRule", HexFormat.of()::parseHex)).orElse(new byte[0]))
+			.tzOffset(Optional.ofNullable(field(fields, "tzOffset", Long::valueOf)).orElse(0L))
+			.build();
+	}
+
+	/**
+	 * A UTC stand-in for a UsagePoint's LocalTimeParameters when the UsagePoint appears first in the feed. It is overwritten once the real entry is read.
+	 */
+	static TimeConfiguration placeholderTimeConfiguration(UUID uuid, String relatedPath) {
+		return TimeConfiguration.builder()
+			.uuid(uuid)
+			.selfLinkHref(relatedPath)
+			.upLinkHref(relatedPath.substring(0, Math.max(relatedPath.lastIndexOf('/'), 0)))
+			.dstEndRule(new byte[0])
+			.dstOffset(0L)
+			.dstStartRule(new byte[0])
+			.tzOffset(0L)
+			.build();
+	}
+
+	static ReadingType toReadingType(FeedEntry entry, ReadingTypeContent content) {
+		Map<String, String> fields = content.fields();
+		String accumulation = fields.containsKey("accumulationBehaviour") ? "accumulationBehaviour" : "accumulationBehavior";
+		// timeAttribute is not mapped: the entity declares TimeAttributeKind while the column is usage.time_period_of_interest
+		return ReadingType.builder()
+			.uuid(entityUuid(entry))
+			.description(entry.title())
+			.selfLinkHref(nullToEmpty(entry.selfLinkHref()))
+			.upLinkHref(nullToEmpty(entry.upLinkHref()))
+			.accumulationBehavior(field(fields, accumulation, v -> AccumulationKind.getAccumulationKindFromSchemaValue(Integer.parseInt(v))))
+			.commodity(field(fields, "commodity", v -> CommodityKind.getCommodityKindFromSchemaValue(Integer.parseInt(v))))
+			.consumptionTier(field(fields, "consumptionTier", Short::valueOf))
+			.currency(field(fields, "currency", v -> Currency.getCurrencyFromSchemaValue(Integer.parseInt(v))))
+			.dataQualifier(field(fields, "dataQualifier", v -> DataQualifierKind.getDataQualifierKindFromSchemaValue(Integer.parseInt(v))))
+			.defaultQuality(field(fields, "defaultQuality", v -> QualityOfReading.getQualityFromSchemaValue(Integer.parseInt(v))))
+			.flowDirection(field(fields, "flowDirection", v -> FlowDirectionKind.getFlowDirectionKindFromSchemaValue(Integer.parseInt(v))))
+			.intervalLength(field(fields, "intervalLength", Long::valueOf))
+			.kind(field(fields, "kind", v -> MeasurementKind.getMeasurementKindFromSchemaValue(Integer.parseInt(v))))
+			.phase(field(fields, "phase", v -> PhaseCodeKind.getPhaseCodeKindFromSchemaValue(Integer.parseInt(v))))
+			.powerOfTenMultiplier(field(fields, "powerOfTenMultiplier", v -> UnitMultiplierKind.getUnitMultiplierKindFromSchemaValue(Integer.parseInt(v))))
+			.tou(field(fields, "tou", Short::valueOf))
+			.uom(field(fields, "uom", v -> UnitSymbolKind.getUnitSymbolKindFromSchemaValue(Integer.parseInt(v))))
+			.cpp(field(fields, "cpp", Short::valueOf))
+			.interharmonicNumerator(field(fields, "interharmonic/numerator", Long::valueOf))
+			.interharmonicDenominator(field(fields, "interharmonic/denominator", Long::valueOf))
+			.measuringPeriod(field(fields, "measuringPeriod", v -> TimeAttributeKind.getTimeAttributeKindFromSchemaValue(Integer.parseInt(v))))
+			.argumentNumerator(field(fields, "argument/numerator", Long::valueOf))
+			.argumentDenominator(field(fields, "argument/denominator", Long::valueOf))
+			.build();
+	}
+
+	static MeterReading toMeterReading(FeedEntry entry) {
+		return MeterReading.builder()
+			.uuid(entityUuid(entry))
+			.description(entry.title())
+			.selfLinkHref(nullToEmpty(entry.selfLinkHref()))
+			.upLinkHref(nullToEmpty(entry.upLinkHref()))
+			.build();
+	}
+
+	static IntervalBlockRecord toIntervalBlockRecord(FeedEntry entry, UUID meterReadingUuid, IntervalBlockContent content) {
+		return new IntervalBlockRecord(entityUuid(entry), meterReadingUuid, nullToEmpty(entry.selfLinkHref()), nullToEmpty(entry.upLinkHref()), entry.published(),
+			entry.updated(), content.start(), content.duration(), content.readings());
+	}
+
+	private static <T> T field(Map<String, String> fields, String path, Function<String, T> parser) {
+		String value = fields.get(path);
+		if (value == null || value.isEmpty()) {
+			return null;
+		}
+		try {
+			return parser.apply(value);
+		} catch (IllegalArgumentException e) {
+			throw new InvalidFeedException(String.format("Invalid value '%s' for %s", value, path), e);
+		}
+	}
+
+	private static String nullToEmpty(String value) {
+		return value == null ? "" : value;
+	}
+}
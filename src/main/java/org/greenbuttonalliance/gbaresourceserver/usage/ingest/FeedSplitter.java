@@ -0,0 +1,271 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.greenbuttonalliance.gbaresourceserver.usage.ingest;
+
+import org.greenbuttonalliance.gbaresourceserver.usage.controller.exception.InvalidFeedException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Reader stage of the import pipeline. Cuts a feed into one small, self-contained XML document per <code>&lt;entry&gt;</code> without parsing it, so the expensive
+ * StAX work can happen on many threads while the stream itself is read by one.
+ * <p>
+ * Only markup boundaries are tracked: tags (with quoted attribute values), comments, CDATA sections and processing instructions. Each fragment is the XML
+ * declaration and feed start tag of the original document (so namespace prefixes and the encoding still resolve), followed by the entry and the feed end tag.
+ * Encodings that are not ASCII-compatible, such as UTF-16, are not supported. Documents with a DTD are rejected, as they are by {@link GreenButtonFeedParser}.
+ */
+final class FeedSplitter {
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final byte[] NONE = new byte[0];
+
+	private final InputStream in;
+	private final byte[] buffer = new byte[BUFFER_SIZE];
+	private int position;
+	private int limit;
+
+	private byte[] declaration = NONE;
+	private byte[] rootStartTag;
+	private byte[] rootEndTag = NONE;
+	private boolean rootIsEntry;
+	private int depth;
+	private boolean finished;
+
+	// markup being scanned, and while capturing, the whole entry read so far
+	private byte[] entry = new byte[BUFFER_SIZE];
+	private int entryLength;
+	private boolean capturing;
+
+	FeedSplitter(InputStream in) {
+		this.in = in;
+	}
+
+	/**
+	 * @return the next entry wrapped as a standalone document, or null once the feed is exhausted
+	 */
+	byte[] nextEntry() {
+		try {
+			while (!finished) {
+				int b = read();
+				if (b < 0) {
+					if (rootStartTag == null || depth > 0) {
+						throw new InvalidFeedException("Green Button feed ended before its root element was closed");
+					}
+					finished = true;
+				} else if (b == '<') {
+					byte[] fragment = markup();
+					if (fragment != null) {
+						return fragment;
+					}
+				} else if (capturing) {
+					append(b);
+				}
+			}
+			return null;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Consumes one piece of markup whose '&lt;' has just been read.
+	 *
+	 * @return a completed entry fragment, if this markup closed one
+	 */
+	private byte[] markup() throws IOException {
+		int mark = entryLength;
+		append('<');
+		int first = require();
+		append(first);
+
+		if (first == '?') {
+			until("?>");
+			if (rootStartTag == null && declaration == NONE && startsWith(mark + 2, "xml")) {
+				declaration = Arrays.copyOfRange(entry, mark, entryLength);
+			}
+			return discardUnlessCapturing(mark);
+		}
+		if (first == '!') {
+			int second = require();
+			append(second);
+			if (second == '-') {
+				until("-->");
+			} else if (second == '[') {
+				until("]]>");
+			} else {
+				throw new InvalidFeedException("Green Button feeds may not declare a DTD");
+			}
+			return discardUnlessCapturing(mark);
+		}
+
+		boolean endTag = first == '/';
+		if (first != '>') {
+			until(">");
+		}
+		String localName = localName(endTag ? mark + 2 : mark + 1);
+		boolean selfClosing = !endTag && entry[entryLength - 2] == '/';
+
+		if (rootStartTag == null) {
+			return root(mark, endTag, localName, selfClosing);
+		}
+		if (endTag) {
+			depth--;
+			if (capturing && depth == (rootIsEntry ? 0 : 1)) {
+				finished = depth == 0;
+				return completeEntry();
+			}
+			finished = depth == 0;
+			return discardUnlessCapturing(mark);
+		}
+		if (!capturing && depth == 1 && "entry".equals(localName)) {
+			// nothing is kept between entries, so the start tag is already at the front of the buffer
+			capturing = true;
+			if (selfClosing) {
+				return completeEntry();
+			}
+		}
+		if (!selfClosing) {
+			depth++;
+		}
+		return discardUnlessCapturing(mark);
+	}
+
+	private byte[] root(int mark, boolean endTag, String localName, boolean selfClosing) {
+		if (endTag) {
+			throw new InvalidFeedException("Green Button feed starts with an end tag");
+		}
+		depth = selfClosing ? 0 : 1;
+		finished = selfClosing;
+
+		rootIsEntry = "entry".equals(localName);
+		if (rootIsEntry) {
+			// a lone entry is already a document of its own
+			rootStartTag = NONE;
+			capturing = true;
+			return selfClosing ? completeEntry() : null;
+		}
+
+		rootStartTag = Arrays.copyOfRange(entry, mark, entryLength);
+		int nameLength = 0;
+		while (!isNameEnd(rootStartTag[1 + nameLength])) {
+			nameLength++;
+		}
+		rootEndTag = ("</" + new String(rootStartTag, 1, nameLength, StandardCharsets.US_ASCII) + ">").getBytes(StandardCharsets.US_ASCII);
+		return discardUnlessCapturing(mark);
+	}
+
+	private byte[] completeEntry() {
+		byte[] fragment = new byte[declaration.length + rootStartTag.length + entryLength + rootEndTag.length];
+		int offset = 0;
+		System.arraycopy(declaration, 0, fragment, offset, declaration.length);
+		offset += declaration.length;
+		System.arraycopy(rootStartTag, 0, fragment, offset, rootStartTag.length);
+		offset += rootStartTag.length;
+		System.arraycopy(entry, 0, fragment, offset, entryLength);
+		offset += entryLength;
+		System.arraycopy(rootEndTag, 0, fragment, offset, rootEndTag.length);
+
+		capturing = false;
+		entryLength = 0;
+		return fragment;
+	}
+
+	private byte[] discardUnlessCapturing(int mark) {
+		if (!capturing) {
+			entryLength = mark;
+		}
+		return null;
+	}
+
+	/**
+	 * Appends input up to and including the terminator. Quoted attribute values are skipped over when looking for the '&gt;' that ends a tag.
+	 */
+	private void until(String terminator) throws IOException {
+		int last = terminator.charAt(terminator.length() - 1);
+		boolean tag = terminator.length() == 1;
+		int start = entryLength;
+		int quote = 0;
+		while (true) {
+			int b = require();
+			append(b);
+			if (quote != 0) {
+				quote = b == quote ? 0 : quote;
+			} else if (tag && (b == '"' || b == '\'')) {
+				quote = b;
+			} else if (b == last && entryLength - start >= terminator.length() && startsWith(entryLength - terminator.length(), terminator)) {
+				return;
+			}
+		}
+	}
+
+	private String localName(int nameStart) {
+		int start = nameStart;
+		int end = nameStart;
+		while (end < entryLength && !isNameEnd(entry[end])) {
+			if (entry[end] == ':') {
+				start = end + 1;
+			}
+			end++;
+		}
+		return new String(entry, start, end - start, StandardCharsets.US_ASCII);
+	}
+
+	private static boolean isNameEnd(byte b) {
+		return b == ' ' || b == '\t' || b == '\r' || b == '\n' || b == '/' || b == '>';
+	}
+
+	private boolean startsWith(int from, String text) {
+		if (from + text.length() > entryLength) {
+			return false;
+		}
+		for (int i = 0; i < text.length(); i++) {
+			if (entry[from + i] != text.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void append(int b) {
+		if (entryLength == entry.length) {
+			entry = Arrays.copyOf(entry, entry.length * 2);
+		}
+		entry[entryLength++] = (byte) b;
+	}
+
+	private int require() throws IOException {
+		int b = read();
+		if (b < 0) {
+			throw new InvalidFeedException("Green Button feed ended inside markup");
+		}
+		return b;
+	}
+
+	private int read() throws IOException {
+		if (position == limit) {
+			limit = Math.max(0, in.read(buffer, 0, BUFFER_SIZE));
+			position = 0;
+			if (limit == 0) {
+				return -1;
+			}
+		}
+		return buffer[position++] & 0xFF;
+	}
+}
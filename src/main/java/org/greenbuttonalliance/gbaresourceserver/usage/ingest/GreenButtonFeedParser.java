@@ -0,0 +1,331 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.greenbuttonalliance.gbaresourceserver.usage.ingest;
+
+import org.greenbuttonalliance.gbaresourceserver.usage.controller.exception.InvalidFeedException;
+import org.greenbuttonalliance.gbaresourceserver.usage.ingest.EntryContent.IntervalBlockContent;
+import org.greenbuttonalliance.gbaresourceserver.usage.ingest.EntryContent.LocalTimeParametersContent;
+import org.greenbuttonalliance.gbaresourceserver.usage.ingest.EntryContent.MeterReadingContent;
+import org.greenbuttonalliance.gbaresourceserver.usage.ingest.EntryContent.ReadingTypeContent;
+import org.greenbuttonalliance.gbaresourceserver.usage.ingest.EntryContent.UsagePointContent;
+import org.greenbuttonalliance.gbaresourceserver.usage.model.enums.QualityOfReading;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.InputStream;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static javax.xml.stream.XMLStreamConstants.CDATA;
+import static javax.xml.stream.XMLStreamConstants.CHARACTERS;
+import static javax.xml.stream.XMLStreamConstants.END_ELEMENT;
+import static javax.xml.stream.XMLStreamConstants.START_ELEMENT;
+
+/**
+ * Pull parser for Green Button Atom feeds (the shape {@link org.greenbuttonalliance.gbaresourceserver.usage.web.dto.IdentifiedObjectDto#addParentWrapper} and
+ * <code>addEntryWrapper</code> produce). Entries are handed out one at a time and nothing before the current entry is retained, so heap use does not depend on the
+ * size of the feed. Elements are matched by local name, so both <code>espi:</code>-prefixed and unqualified content is accepted.
+ */
+public class GreenButtonFeedParser implements AutoCloseable {
+	private static final XMLInputFactory XML_INPUT_FACTORY = newInputFactory();
+
+	private final XMLStreamReader reader;
+
+	public GreenButtonFeedParser(InputStream in) {
+		try {
+			this.reader = XML_INPUT_FACTORY.createXMLStreamReader(in);
+		} catch (XMLStreamException e) {
+			throw new InvalidFeedException("Unreadable Green Button feed", e);
+		}
+	}
+
+	/**
+	 * @return the next entry of the feed, or null once the feed is exhausted
+	 */
+	public FeedEntry nextEntry() {
+		try {
+			while (reader.hasNext()) {
+				if (reader.next() == START_ELEMENT && "entry".equals(reader.getLocalName())) {
+					return readEntry(reader);
+				}
+			}
+			return null;
+		} catch (XMLStreamException | RuntimeException e) {
+			throw invalidFeed(reader, e);
+		}
+	}
+
+	/**
+	 * Reads a bare list of IntervalReadings, as posted by real-time feeds: every <code>&lt;IntervalReading&gt;</code> in the document is returned in document order,
+	 * whatever it is nested in, so an <code>&lt;IntervalBlock&gt;</code> or any other wrapper element works.
+	 */
+	public static List<IntervalReadingRecord> readIntervalReadings(InputStream in) {
+		XMLStreamReader reader = null;
+		try {
+			reader = XML_INPUT_FACTORY.createXMLStreamReader(in);
+			List<IntervalReadingRecord> readings = new ArrayList<>();
+			while (reader.hasNext()) {
+				if (reader.next() == START_ELEMENT && "IntervalReading".equals(reader.getLocalName())) {
+					readings.add(readIntervalReading(reader));
+				}
+			}
+			return readings;
+		} catch (XMLStreamException | RuntimeException e) {
+			if (reader == null) {
+				throw new InvalidFeedException("Unreadable IntervalReadings", e);
+			}
+			throw invalidFeed(reader, e);
+		} finally {
+			if (reader != null) {
+				try {
+					reader.close();
+				} catch (XMLStreamException e) {
+					// nothing useful left to do with a reader that cannot be closed
+				}
+			}
+		}
+	}
+
+	@Override
+	public void close() {
+		try {
+			reader.close();
+		} catch (XMLStreamException e) {
+			// nothing useful left to do with a reader that cannot be closed
+		}
+	}
+
+	/**
+	 * Reads one entry from a reader positioned on its <code>&lt;entry&gt;</code> start tag, leaving the reader on the matching end tag.
+	 */
+	static FeedEntry readEntry(XMLStreamReader reader) throws XMLStreamException {
+		String id = null;
+		String title = null;
+		String selfLinkHref = null;
+		String upLinkHref = null;
+		List<String> relatedLinkHrefs = new ArrayList<>(4);
+		LocalDateTime published = null;
+		LocalDateTime updated = null;
+		EntryContent content = null;
+
+		while (nextChild(reader)) {
+			switch (reader.getLocalName()) {
+				case "id" -> id = reader.getElementText().trim();
+				case "title" -> title = reader.getElementText().trim();
+				case "published" -> published = parseTimestamp(reader.getElementText());
+				case "updated" -> updated = parseTimestamp(reader.getElementText());
+				case "link" -> {
+					String href = reader.getAttributeValue(null, "href");
+					switch (String.valueOf(reader.getAttributeValue(null, "rel"))) {
+						case "self" -> selfLinkHref = href;
+						case "up" -> upLinkHref = href;
+						case "related" -> relatedLinkHrefs.add(href);
+						default -> {
+						}
+					}
+					skip(reader);
+				}
+				case "content" -> content = readContent(reader);
+				default -> skip(reader);
+			}
+		}
+		return new FeedEntry(id, title, selfLinkHref, upLinkHref, relatedLinkHrefs, published, updated, content);
+	}
+
+	private static EntryContent readContent(XMLStreamReader reader) throws XMLStreamException {
+		EntryContent content = null;
+		while (nextChild(reader)) {
+			if (content != null) {
+				skip(reader);
+				continue;
+			}
+			content = switch (reader.getLocalName()) {
+				case "IntervalBlock" -> readIntervalBlock(reader);
+				case "UsagePoint" -> new UsagePointContent(readLeaves(reader));
+				case "LocalTimeParameters" -> new LocalTimeParametersContent(readLeaves(reader));
+				case "MeterReading" -> {
+					skip(reader);
+					yield new MeterReadingContent();
+				}
+				case "ReadingType" -> new ReadingTypeContent(readLeaves(reader));
+				default -> {
+					skip(reader);
+					yield null;
+				}
+			};
+		}
+		return content;
+	}
+
+	private static IntervalBlockContent readIntervalBlock(XMLStreamReader reader) throws XMLStreamException {
+		long start = 0;
+		long duration = 0;
+		List<IntervalReadingRecord> readings = new ArrayList<>(96);
+
+		while (nextChild(reader)) {
+			switch (reader.getLocalName()) {
+				case "interval" -> {
+					while (nextChild(reader)) {
+						switch (reader.getLocalName()) {
+							case "start" -> start = parseLong(reader.getElementText());
+							case "duration" -> duration = parseLong(reader.getElementText());
+							default -> skip(reader);
+						}
+					}
+				}
+				case "IntervalReading" -> readings.add(readIntervalReading(reader));
+				default -> skip(reader);
+			}
+		}
+		return new IntervalBlockContent(start, duration, readings);
+	}
+
+	private static IntervalReadingRecord readIntervalReading(XMLStreamReader reader) throws XMLStreamException {
+		long start = 0;
+		long duration = 0;
+		Long value = null;
+		Long cost = null;
+		Short consumptionTier = null;
+		Short tou = null;
+		Short cpp = null;
+		List<QualityOfReading> qualities = List.of();
+
+		while (nextChild(reader)) {
+			switch (reader.getLocalName()) {
+				case "value" -> value = parseLong(reader.getElementText());
+				case "cost" -> cost = parseLong(reader.getElementText());
+				case "consumptionTier" -> consumptionTier = Short.valueOf(reader.getElementText().trim());
+				case "tou" -> tou = Short.valueOf(reader.getElementText().trim());
+				case "cpp" -> cpp = Short.valueOf(reader.getElementText().trim());
+				case "timePeriod" -> {
+					while (nextChild(reader)) {
+						switch (reader.getLocalName()) {
+							case "start" -> start = parseLong(reader.getElementText());
+							case "duration" -> duration = parseLong(reader.getElementText());
+							default -> skip(reader);
+						}
+					}
+				}
+				case "ReadingQuality" -> {
+					if (qualities.isEmpty()) {
+						qualities = new ArrayList<>(2);
+					}
+					while (nextChild(reader)) {
+						if ("quality".equals(reader.getLocalName())) {
+							qualities.add(QualityOfReading.getQualityFromSchemaValue(Integer.parseInt(reader.getElementText().trim())));
+						} else {
+							skip(reader);
+						}
+					}
+				}
+				default -> skip(reader);
+			}
+		}
+		return new IntervalReadingRecord(start, duration, value, cost, consumptionTier, tou, cpp, qualities);
+	}
+
+	private static Map<String, String> readLeaves(XMLStreamReader reader) throws XMLStreamException {
+		Map<String, String> leaves = new HashMap<>();
+		while (nextChild(reader)) {
+			readLeaf(reader, reader.getLocalName(), leaves);
+		}
+		return leaves;
+	}
+
+	private static void readLeaf(XMLStreamReader reader, String path, Map<String, String> leaves) throws XMLStreamException {
+		StringBuilder text = new StringBuilder();
+		boolean hasChildren = false;
+		while (reader.hasNext()) {
+			switch (reader.next()) {
+				case CHARACTERS, CDATA -> text.append(reader.getText());
+				case START_ELEMENT -> {
+					hasChildren = true;
+					readLeaf(reader, path + "/" + reader.getLocalName(), leaves);
+				}
+				case END_ELEMENT -> {
+					if (!hasChildren) {
+						leaves.put(path, text.toString().trim());
+					}
+					return;
+				}
+				default -> {
+				}
+			}
+		}
+	}
+
+	/**
+	 * Advances to the next child element of the current element.
+	 *
+	 * @return true when positioned on a child's start tag, false when the current element's end tag was reached instead
+	 */
+	private static boolean nextChild(XMLStreamReader reader) throws XMLStreamException {
+		while (reader.hasNext()) {
+			int event = reader.next();
+			if (event == START_ELEMENT) {
+				return true;
+			} else if (event == END_ELEMENT) {
+				return false;
+			}
+		}
+		return false;
+	}
+
+	private static void skip(XMLStreamReader reader) throws XMLStreamException {
+		int depth = 1;
+		while (depth > 0 && reader.hasNext()) {
+			int event = reader.next();
+			if (event == START_ELEMENT) {
+				depth++;
+			} else if (event == END_ELEMENT) {
+				depth--;
+			}
+		}
+	}
+
+	private static long parseLong(String text) {
+		return Long.parseLong(text.trim());
+	}
+
+	private static LocalDateTime parseTimestamp(String text) {
+		String trimmed = text.trim();
+		try {
+			return OffsetDateTime.parse(trimmed).withOffsetSameInstant(ZoneOffset.UTC).toLocalDateTime();
+		} catch (DateTimeParseException e) {
+			return LocalDateTime.parse(trimmed);
+		}
+	}
+
+	static InvalidFeedException invalidFeed(XMLStreamReader reader, Exception cause) {
+		return new InvalidFeedException(String.format("Malformed Green Button feed near line %d", reader.getLocation().getLineNumber()), cause);
+	}
+
+	private static XMLInputFactory newInputFactory() {
+		XMLInputFactory factory = XMLInputFactory.newFactory();
+		// feeds come from outside, so never resolve DTDs or external entities
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+		return factory;
+	}
+}
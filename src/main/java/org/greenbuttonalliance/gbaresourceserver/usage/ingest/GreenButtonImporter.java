@@ -0,0 +1,545 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.greenbuttonalliance.gbaresourceserver.usage.ingest;
+
+import com.github.f4b6a3.uuid.UuidCreator;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.greenbuttonalliance.gbaresourceserver.usage.access.UsagePointAccess;
+import org.greenbuttonalliance.gbaresourceserver.usage.bulkhead.Bulkhead;
+import org.greenbuttonalliance.gbaresourceserver.usage.bulkhead.DatabaseBulkheads;
+import org.greenbuttonalliance.gbaresourceserver.usage.controller.exception.EntityNotFoundByIdException;
+import org.greenbuttonalliance.gbaresourceserver.usage.controller.exception.InvalidFeedException;
+import org.greenbuttonalliance.gbaresourceserver.usage.ingest.EntryContent.IntervalBlockContent;
+import org.greenbuttonalliance.gbaresourceserver.usage.ingest.EntryContent.LocalTimeParametersContent;
+import org.greenbuttonalliance.gbaresourceserver.usage.ingest.EntryContent.MeterReadingContent;
+import org.greenbuttonalliance.gbaresourceserver.usage.ingest.EntryContent.ReadingTypeContent;
+import org.greenbuttonalliance.gbaresourceserver.usage.ingest.EntryContent.UsagePointContent;
+import org.greenbuttonalliance.gbaresourceserver.usage.model.MeterReading;
+import org.greenbuttonalliance.gbaresourceserver.usage.model.ReadingType;
+import org.greenbuttonalliance.gbaresourceserver.usage.model.RetailCustomer;
+import org.greenbuttonalliance.gbaresourceserver.usage.model.TimeConfiguration;
+import org.greenbuttonalliance.gbaresourceserver.usage.model.UsagePoint;
+import org.greenbuttonalliance.gbaresourceserver.usage.repository.MeterReadingRepository;
+import org.greenbuttonalliance.gbaresourceserver.usage.repository.ReadingTypeRepository;
+import org.greenbuttonalliance.gbaresourceserver.usage.repository.RetailCustomerRepository;
+import org.greenbuttonalliance.gbaresourceserver.usage.repository.TimeConfigurationRepository;
+import org.greenbuttonalliance.gbaresourceserver.usage.repository.UsagePointRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToIntFunction;
+
+/**
+ * Imports a Green Button Atom feed for one RetailCustomer without ever holding the whole document.
+ * <p>
+ * An import runs as a pipeline of bounded queues, so a slow stage holds back the ones before it instead of letting work pile up on the heap:
+ * <ol>
+ *     <li>read: the calling thread cuts the stream into one small document per entry ({@link FeedSplitter})</li>
+ *     <li>parse: entries are parsed and mapped to records on a fork-join pool of <code>gba.ingest.parse-threads</code>, and handed on in feed order</li>
+ *     <li>route: a single thread resolves link paths to parents, saves the shared LocalTimeParameters and ReadingTypes, and routes everything else to the
+ *     writer that owns its UsagePoint</li>
+ *     <li>write: <code>gba.ingest.writer-threads</code> writers save UsagePoints and MeterReadings and batch IntervalBlocks until <code>gba.ingest.batch-size</code>
+ *     readings are pending, then hand them to {@link IntervalDataWriter}</li>
+ * </ol>
+ * All database work of an import runs in the bulk {@link Bulkhead}, and <code>gba.ingest.writer-threads</code> defaults to its size, so imports never take
+ * connections meant for interactive requests.
+ * <p>
+ * Because each UsagePoint belongs to exactly one writer, rows of <code>usage_point</code>, <code>meter_reading</code> and <code>interval_block</code> are never
+ * written by two workers at once, and a writer's queue preserves feed order for its UsagePoints, so a MeterReading is always saved before its IntervalBlocks.
+ * <p>
+ * Feeds are expected to list a parent before its children, as Green Button exports do. The one common exception, LocalTimeParameters listed after the UsagePoint
+ * that references it, is handled by saving a UTC placeholder that the real entry overwrites.
+ */
+@Service
+@Slf4j
+public class GreenButtonImporter {
+	private static final CompletableFuture<FeedEntry> END_OF_FEED = CompletableFuture.completedFuture(null);
+	private static final long POLL_MILLIS = 100;
+
+	private final RetailCustomerRepository retailCustomerRepository;
+	private final UsagePointRepository usagePointRepository;
+	private final TimeConfigurationRepository timeConfigurationRepository;
+	private final MeterReadingRepository meterReadingRepository;
+	private final ReadingTypeRepository readingTypeRepository;
+	private final IntervalDataWriter intervalDataWriter;
+	private final TransactionTemplate transactionTemplate;
+	private final Bulkhead bulk;
+	private final int batchSize;
+	private final int writerThreads;
+	private final int queueCapacity;
+	private final ForkJoinPool parsePool;
+
+	private final Set<ImportRun> activeRuns = ConcurrentHashMap.newKeySet();
+	private final Counter entriesRead;
+	private final Counter entriesParsed;
+	private final Counter entriesRouted;
+	private final Counter blocksWritten;
+	private final Counter readingsWritten;
+	private final Counter readingsUnchanged;
+	private final Timer batchWrites;
+
+	@Autowired
+	public GreenButtonImporter(RetailCustomerRepository retailCustomerRepository, UsagePointRepository usagePointRepository,
+							   TimeConfigurationRepository timeConfigurationRepository, MeterReadingRepository meterReadingRepository,
+							   ReadingTypeRepository readingTypeRepository, IntervalDataWriter intervalDataWriter, PlatformTransactionManager transactionManager,
+							   DatabaseBulkheads databaseBulkheads, MeterRegistry meterRegistry,
+							   @Value("${gba.ingest.batch-size:5000}") int batchSize,
+							   @Value("${gba.ingest.parse-threads:0}") int parseThreads,
+							   @Value("${gba.ingest.writer-threads:0}") int writerThreads,
+							   @Value("${gba.ingest.queue-capacity:256}") int queueCapacity) {
+		this.retailCustomerRepository = retailCustomerRepository;
+		this.usagePointRepository = usagePointRepository;
+		this.timeConfigurationRepository = timeConfigurationRepository;
+		this.meterReadingRepository = meterReadingRepository;
+		this.readingTypeRepository = readingTypeRepository;
+		this.intervalDataWriter = intervalDataWriter;
+		this.transactionTemplate = new TransactionTemplate(transactionManager);
+		this.bulk = databaseBulkheads.bulk();
+		this.batchSize = batchSize;
+		this.writerThreads = writerThreads > 0 ? writerThreads : bulk.getPermits();
+		this.queueCapacity = queueCapacity;
+		this.parsePool = new ForkJoinPool(parseThreads > 0 ? parseThreads : Runtime.getRuntime().availableProcessors());
+
+		this.entriesRead = stageCounter(meterRegistry, "read");
+		this.entriesParsed = stageCounter(meterRegistry, "parse");
+		this.entriesRouted = stageCounter(meterRegistry, "route");
+		this.blocksWritten = stageCounter(meterRegistry, "write");
+		this.readingsWritten = readingCounter(meterRegistry, "written");
+		this.readingsUnchanged = readingCounter(meterRegistry, "unchanged");
+		this.batchWrites = Timer.builder("gba.ingest.batch.write")
+			.description("Time to write one batch of IntervalBlocks")
+			.register(meterRegistry);
+		queueDepthGauge(meterRegistry, "parse", run -> run.parsed.size());
+		queueDepthGauge(meterRegistry, "write", run -> run.partitions.stream().mapToInt(BlockingQueue::size).sum());
+	}
+
+	/**
+	 * @throws EntityNotFoundByIdException for a RetailCustomer that does not exist, or a UsagePoint of the feed the access does not permit; the entries
+	 * routed before it are stored
+	 */
+	public ImportSummary importFeed(InputStream feed, UUID retailCustomerUuid, UsagePointAccess usagePointAccess) {
+		if (!retailCustomerRepository.existsById(retailCustomerUuid)) {
+			throw new EntityNotFoundByIdException(RetailCustomer.class, retailCustomerUuid);
+		}
+
+		ImportRun run = new ImportRun(retailCustomerUuid, usagePointAccess);
+		activeRuns.add(run);
+		try {
+			return run.execute(feed);
+		} finally {
+			activeRuns.remove(run);
+		}
+	}
+
+	@PreDestroy
+	void shutdown() {
+		parsePool.shutdown();
+	}
+
+	private Counter stageCounter(MeterRegistry meterRegistry, String stage) {
+		return Counter.builder("gba.ingest.entries")
+			.description("Feed entries that have left each stage of the import pipeline")
+			.tag("stage", stage)
+			.register(meterRegistry);
+	}
+
+	private Counter readingCounter(MeterRegistry meterRegistry, String outcome) {
+		return Counter.builder("gba.ingest.readings")
+			.description("IntervalReadings that reached the database, by whether they were new or changed or a re-delivery of stored values")
+			.tag("outcome", outcome)
+			.register(meterRegistry);
+	}
+
+	private void queueDepthGauge(MeterRegistry meterRegistry, String queue, ToIntFunction<ImportRun> depth) {
+		Gauge.builder("gba.ingest.queue.depth", activeRuns, runs -> runs.stream().mapToInt(depth).sum())
+			.description("Items waiting between stages of the import pipeline, summed over running imports")
+			.tag("queue", queue)
+			.register(meterRegistry);
+	}
+
+	private static FeedEntry parseEntry(byte[] document) {
+		try (GreenButtonFeedParser parser = new GreenButtonFeedParser(new ByteArrayInputStream(document))) {
+			return parser.nextEntry();
+		}
+	}
+
+	/**
+	 * Work handed from the router to the writer that owns a UsagePoint.
+	 */
+	private sealed interface PartitionTask {
+	}
+
+	private record SaveUsagePoint(UsagePoint usagePoint, UUID timeConfigurationUuid) implements PartitionTask {
+	}
+
+	private record SaveMeterReading(MeterReading meterReading, UUID usagePointUuid, UUID readingTypeUuid) implements PartitionTask {
+	}
+
+	private record LinkReadingType(UUID meterReadingUuid, UUID readingTypeUuid) implements PartitionTask {
+	}
+
+	private record WriteIntervalBlock(IntervalBlockRecord block) implements PartitionTask {
+	}
+
+	private record EndOfPartition() implements PartitionTask {
+	}
+
+	/**
+	 * A parent resolved by the router, with the writer partition of the UsagePoint it belongs to.
+	 */
+	private record Parent(UUID uuid, int partition) {
+	}
+
+	/**
+	 * Thrown inside a stage once another stage has failed, so that every stage unwinds and only the first failure is reported.
+	 */
+	private static final class PipelineAborted extends RuntimeException {
+		PipelineAborted() {
+			super(null, null, false, false);
+		}
+	}
+
+	/**
+	 * State of one import. The router's maps are proportional to the number of structural entries, never to the amount of interval data, and every queue is
+	 * bounded.
+	 */
+	private class ImportRun {
+		private final UUID retailCustomerUuid;
+		private final UsagePointAccess usagePointAccess;
+		private final BlockingQueue<CompletableFuture<FeedEntry>> parsed = new ArrayBlockingQueue<>(queueCapacity);
+		private final List<BlockingQueue<PartitionTask>> partitions = new ArrayList<>(writerThreads);
+		private final AtomicReference<RuntimeException> failure = new AtomicReference<>();
+
+		// owned by the router thread
+		private final Map<String, Parent> usagePoints = new HashMap<>();
+		private final Map<String, Parent> meterReadings = new HashMap<>();
+		private final Map<String, UUID> readingTypes = new HashMap<>();
+		private final Map<String, UUID> timeConfigurations = new HashMap<>();
+		private final Map<String, UUID> placeholderTimeConfigurations = new HashMap<>();
+		private final Map<String, List<Parent>> meterReadingsAwaitingReadingType = new HashMap<>();
+		private long timeConfigurationCount;
+		private long readingTypeCount;
+		private long skippedCount;
+
+		// shared by the writers
+		private final LongAdder intervalBlockCount = new LongAdder();
+		private final LongAdder intervalReadingCount = new LongAdder();
+		private final LongAdder unchangedReadingCount = new LongAdder();
+
+		ImportRun(UUID retailCustomerUuid, UsagePointAccess usagePointAccess) {
+			this.retailCustomerUuid = retailCustomerUuid;
+			this.usagePointAccess = usagePointAccess;
+			for (int i = 0; i < writerThreads; i++) {
+				partitions.add(new ArrayBlockingQueue<>(queueCapacity));
+			}
+		}
+
+		ImportSummary execute(InputStream feed) {
+			try (ExecutorService stages = Executors.newVirtualThreadPerTaskExecutor()) {
+				stages.submit(() -> runStage(this::route));
+				partitions.forEach(partition -> stages.submit(() -> runStage(() -> write(partition))));
+				runStage(() -> read(feed));
+			}
+
+			RuntimeException cause = failure.get();
+			if (cause != null) {
+				throw cause;
+			}
+			placeholderTimeConfigurations.keySet()
+				.forEach(path -> log.warn("LocalTimeParameters {} was referenced but never read; its UsagePoints keep a UTC placeholder", path));
+			return new ImportSummary(usagePoints.size(), timeConfigurationCount, meterReadings.size(), readingTypeCount, intervalBlockCount.sum(),
+				intervalReadingCount.sum(), unchangedReadingCount.sum(), skippedCount);
+		}
+
+		private void runStage(Runnable stage) {
+			try {
+				stage.run();
+			} catch (PipelineAborted e) {
+				// another stage failed first and has already recorded why
+			} catch (RuntimeException e) {
+				failure.compareAndSet(null, e);
+			}
+		}
+
+		private void read(InputStream feed) {
+			FeedSplitter splitter = new FeedSplitter(feed);
+			byte[] document;
+			while ((document = splitter.nextEntry()) != null) {
+				abortIfFailed();
+				byte[] entry = document;
+				entriesRead.increment();
+				put(parsed, CompletableFuture.supplyAsync(() -> {
+					FeedEntry parsedEntry = parseEntry(entry);
+					entriesParsed.increment();
+					return parsedEntry;
+				}, parsePool));
+			}
+			put(parsed, END_OF_FEED);
+		}
+
+		private void route() {
+			try {
+				CompletableFuture<FeedEntry> next;
+				while ((next = take(parsed)) != END_OF_FEED) {
+					route(join(next));
+					entriesRouted.increment();
+				}
+			} finally {
+				// writers always get their end marker, so they flush what they have or notice the failure and stop
+				partitions.forEach(partition -> put(partition, new EndOfPartition()));
+			}
+		}
+
+		private FeedEntry join(CompletableFuture<FeedEntry> entry) {
+			try {
+				return entry.join();
+			} catch (CompletionException e) {
+				if (e.getCause() instanceof RuntimeException cause) {
+					throw cause;
+				}
+				throw e;
+			}
+		}
+
+		private void route(FeedEntry entry) {
+			switch (entry.content()) {
+				case IntervalBlockContent content -> routeIntervalBlock(entry, content);
+				case UsagePointContent content -> routeUsagePoint(entry, content);
+				case LocalTimeParametersContent content -> saveLocalTimeParameters(entry, content);
+				case MeterReadingContent content -> routeMeterReading(entry);
+				case ReadingTypeContent content -> saveReadingType(entry, content);
+				case null -> skippedCount++;
+			}
+		}
+
+		private void routeIntervalBlock(FeedEntry entry, IntervalBlockContent content) {
+			Parent meterReading = meterReadings.get(FeedEntryMapper.parentPath(entry));
+			if (meterReading == null) {
+				throw new InvalidFeedException(String.format("IntervalBlock %s appears before its MeterReading %s", entry.id(), FeedEntryMapper.parentPath(entry)));
+			}
+			put(partitions.get(meterReading.partition()), new WriteIntervalBlock(FeedEntryMapper.toIntervalBlockRecord(entry, meterReading.uuid(), content)));
+		}
+
+		private void routeUsagePoint(FeedEntry entry, UsagePointContent content) {
+			String timeConfigurationPath = FeedEntryMapper.relatedPath(entry, "LocalTimeParameters")
+				.orElseThrow(() -> new InvalidFeedException(String.format("UsagePoint %s has no LocalTimeParameters link", entry.id())));
+			UUID timeConfigurationUuid = timeConfigurations.computeIfAbsent(timeConfigurationPath, this::savePlaceholderTimeConfiguration);
+
+			UsagePoint usagePoint = FeedEntryMapper.toUsagePoint(entry, content);
+			usagePointAccess.require(usagePoint.getUuid(), UsagePoint.class, usagePoint.getUuid());
+			Parent parent = new Parent(usagePoint.getUuid(), Math.floorMod(usagePoint.getUuid().hashCode(), partitions.size()));
+			usagePoints.put(FeedEntryMapper.resourcePath(entry.selfLinkHref()), parent);
+			put(partitions.get(parent.partition()), new SaveUsagePoint(usagePoint, timeConfigurationUuid));
+		}
+
+		private UUID savePlaceholderTimeConfiguration(String path) {
+			UUID uuid = UuidCreator.getNameBasedSha1(UuidCreator.NAMESPACE_URL, path);
+			// on a re-delivery the real LocalTimeParameters are already stored under this uuid
+			bulk.run(() -> {
+				if (!timeConfigurationRepository.existsById(uuid)) {
+					timeConfigurationRepository.save(FeedEntryMapper.placeholderTimeConfiguration(uuid, path));
+				}
+			});
+			placeholderTimeConfigurations.put(path, uuid);
+			return uuid;
+		}
+
+		private void saveLocalTimeParameters(FeedEntry entry, LocalTimeParametersContent content) {
+			String path = FeedEntryMapper.resourcePath(entry.selfLinkHref());
+			UUID placeholderUuid = placeholderTimeConfigurations.remove(path);
+			UUID uuid = placeholderUuid != null ? placeholderUuid : FeedEntryMapper.entityUuid(entry);
+
+			TimeConfiguration timeConfiguration = FeedEntryMapper.toTimeConfiguration(entry, uuid, content);
+			// copied onto the stored entity rather than merged, since a merge would cascade into every UsagePoint using it; unchanged values write nothing
+			bulk.run(() -> transactionTemplate.executeWithoutResult(status -> timeConfigurationRepository.findById(uuid).ifPresentOrElse(
+				stored -> {
+					stored.setDstEndRule(timeConfiguration.getDstEndRule());
+					stored.setDstOffset(timeConfiguration.getDstOffset());
+					stored.setDstStartRule(timeConfiguration.getDstStartRule());
+					stored.setTzOffset(timeConfiguration.getTzOffset());
+					stored.setDescription(timeConfiguration.getDescription())
+						.setSelfLinkHref(timeConfiguration.getSelfLinkHref())
+						.setUpLinkHref(timeConfiguration.getUpLinkHref());
+				},
+				() -> timeConfigurationRepository.save(timeConfiguration))));
+			timeConfigurations.put(path, uuid);
+			timeConfigurationCount++;
+		}
+
+		private void routeMeterReading(FeedEntry entry) {
+			Parent usagePoint = usagePoints.get(FeedEntryMapper.parentPath(entry));
+			if (usagePoint == null) {
+				throw new InvalidFeedException(String.format("MeterReading %s appears before its UsagePoint %s", entry.id(), FeedEntryMapper.parentPath(entry)));
+			}
+
+			MeterReading meterReading = FeedEntryMapper.toMeterReading(entry);
+			String readingTypePath = FeedEntryMapper.relatedPath(entry, "ReadingType").orElse(null);
+			UUID readingTypeUuid = readingTypePath == null ? null : readingTypes.get(readingTypePath);
+
+			Parent parent = new Parent(meterReading.getUuid(), usagePoint.partition());
+			meterReadings.put(FeedEntryMapper.resourcePath(entry.selfLinkHref()), parent);
+			put(partitions.get(parent.partition()), new SaveMeterReading(meterReading, usagePoint.uuid(), readingTypeUuid));
+
+			if (readingTypePath != null && readingTypeUuid == null) {
+				meterReadingsAwaitingReadingType.computeIfAbsent(readingTypePath, path -> new ArrayList<>()).add(parent);
+			}
+		}
+
+		private void saveReadingType(FeedEntry entry, ReadingTypeContent content) {
+			ReadingType readingType = FeedEntryMapper.toReadingType(entry, content);
+			// like UsagePoints and MeterReadings, a re-delivered ReadingType is left as stored
+			bulk.run(() -> {
+				if (!readingTypeRepository.existsById(readingType.getUuid())) {
+					readingTypeRepository.save(readingType);
+				}
+			});
+			String path = FeedEntryMapper.resourcePath(entry.selfLinkHref());
+			readingTypes.put(path, readingType.getUuid());
+			readingTypeCount++;
+
+			// queued behind the MeterReading on its own partition, so the row is there by the time the link is written
+			List<Parent> awaiting = meterReadingsAwaitingReadingType.remove(path);
+			if (awaiting != null) {
+				awaiting.forEach(meterReading -> put(partitions.get(meterReading.partition()),
+					new LinkReadingType(meterReading.uuid(), readingType.getUuid())));
+			}
+		}
+
+		private void write(BlockingQueue<PartitionTask> partition) {
+			List<IntervalBlockRecord> pendingBlocks = new ArrayList<>();
+			int pendingReadings = 0;
+			while (true) {
+				abortIfFailed();
+				switch (take(partition)) {
+					case WriteIntervalBlock task -> {
+						pendingBlocks.add(task.block());
+						pendingReadings += task.block().readings().size();
+						if (pendingReadings >= batchSize) {
+							flush(pendingBlocks, pendingReadings);
+							pendingReadings = 0;
+						}
+					}
+					case SaveUsagePoint task -> bulk.run(() -> transactionTemplate.executeWithoutResult(status -> saveUsagePoint(task)));
+					case SaveMeterReading task -> bulk.run(() -> transactionTemplate.executeWithoutResult(status -> saveMeterReading(task)));
+					case LinkReadingType task -> bulk.run(() -> intervalDataWriter.linkReadingType(task.meterReadingUuid(), task.readingTypeUuid()));
+					case EndOfPartition task -> {
+						flush(pendingBlocks, pendingReadings);
+						return;
+					}
+				}
+			}
+		}
+
+		/*
+		 * A re-delivered UsagePoint or MeterReading is left as stored. Merging it again would load and cascade into every collection hanging off it, including all
+		 * of a MeterReading's IntervalBlocks, while the interval data below it is reconciled by IntervalDataWriter anyway.
+		 */
+		private void saveUsagePoint(SaveUsagePoint task) {
+			if (usagePointRepository.existsById(task.usagePoint().getUuid())) {
+				return;
+			}
+			usagePointRepository.save(task.usagePoint()
+				.setRetailCustomer(retailCustomerRepository.getReferenceById(retailCustomerUuid))
+				.setTimeConfiguration(timeConfigurationRepository.getReferenceById(task.timeConfigurationUuid())));
+		}
+
+		private void saveMeterReading(SaveMeterReading task) {
+			if (meterReadingRepository.existsById(task.meterReading().getUuid())) {
+				if (task.readingTypeUuid() != null) {
+					intervalDataWriter.linkReadingType(task.meterReading().getUuid(), task.readingTypeUuid());
+				}
+				return;
+			}
+			meterReadingRepository.save(task.meterReading()
+				.setUsagePoint(usagePointRepository.getReferenceById(task.usagePointUuid()))
+				.setReadingType(task.readingTypeUuid() == null ? null : readingTypeRepository.getReferenceById(task.readingTypeUuid())));
+		}
+
+		private void flush(List<IntervalBlockRecord> blocks, int readingCount) {
+			if (blocks.isEmpty()) {
+				return;
+			}
+			int written = batchWrites.record(() -> bulk.call(() -> intervalDataWriter.write(blocks)));
+			intervalBlockCount.add(blocks.size());
+			intervalReadingCount.add(readingCount);
+			unchangedReadingCount.add(readingCount - written);
+			blocksWritten.increment(blocks.size());
+			readingsWritten.increment(written);
+			readingsUnchanged.increment(readingCount - written);
+			blocks.clear();
+		}
+
+		private void abortIfFailed() {
+			if (failure.get() != null) {
+				throw new PipelineAborted();
+			}
+		}
+
+		/**
+		 * Blocks while the queue is full, which is what holds back the stages upstream of a slow one, but gives up once any stage has failed.
+		 */
+		private <T> void put(BlockingQueue<T> queue, T item) {
+			try {
+				while (!queue.offer(item, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+					abortIfFailed();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while importing a feed for RetailCustomer " + retailCustomerUuid, e);
+			}
+		}
+
+		private <T> T take(BlockingQueue<T> queue) {
+			try {
+				T item;
+				while ((item = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS)) == null) {
+					abortIfFailed();
+				}
+				return item;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while importing a feed for RetailCustomer " + retailCustomerUuid, e);
+			}
+		}
+	}
+}
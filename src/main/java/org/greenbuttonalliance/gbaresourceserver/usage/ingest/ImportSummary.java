@@ -0,0 +1,24 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.greenbuttonalliance.gbaresourceserver.usage.ingest;
+
+/**
+ * Counts of what a single import read and wrote. <code>unchangedReadings</code> is the part of <code>intervalReadings</code> that re-delivered values already
+ * stored, and so was not written.
+ */
+public record ImportSummary(long usagePoints, long timeConfigurations, long meterReadings, long readingTypes, long intervalBlocks, long intervalReadings,
+							long unchangedReadings, long skippedEntries) {
+}
@@ -0,0 +1,27 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.greenbuttonalliance.gbaresourceserver.usage.ingest;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * An IntervalBlock ready to be written, already resolved to the MeterReading it belongs to.
+ */
+public record IntervalBlockRecord(UUID uuid, UUID meterReadingUuid, String selfLinkHref, String upLinkHref, LocalDateTime published, LocalDateTime updated,
+								  long start, long duration, List<IntervalReadingRecord> readings) {
+}
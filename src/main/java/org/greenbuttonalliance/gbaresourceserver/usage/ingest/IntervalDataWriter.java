@@ -0,0 +1,307 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.greenbuttonalliance.gbaresourceserver.usage.ingest;
+
+import lombok.RequiredArgsConstructor;
+import org.greenbuttonalliance.gbaresourceserver.usage.model.enums.QualityOfReading;
+import org.greenbuttonalliance.gbaresourceserver.usage.rollup.IntervalRollupMaintainer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Set-based JDBC writer for interval data. IntervalBlocks arrive in the hundreds of thousands per import, far too many to push through a JPA persistence context, so
+ * each batch goes out as a handful of array-bound statements in one transaction.
+ * <p>
+ * Writes are idempotent upserts on the natural keys <code>(meter_reading_uuid, start)</code> for blocks and <code>(block_uuid, start)</code> for readings, because
+ * metering systems re-send overlapping windows all the time. A re-delivered block keeps its original uuid, readings whose values and qualities are unchanged are
+ * not written at all, and a block's <code>updated</code> moves to the time of the write only when the block or one of its readings actually changed, so
+ * re-deliveries leave caches and ETags alone.
+ * <p>
+ * The rollup buckets of every inserted or changed reading are recomputed in the same transaction by {@link IntervalRollupMaintainer}.
+ */
+@Component
+@RequiredArgsConstructor(onConstructor = @__(@Autowired))
+public class IntervalDataWriter {
+	private static final String UPSERT_BLOCKS = """
+		INSERT INTO usage.interval_block (uuid, published, self_link_href, up_link_href, updated, duration, start, meter_reading_uuid)
+		SELECT * FROM unnest(?::uuid[], ?::timestamp[], ?::text[], ?::text[], ?::timestamp[], ?::bigint[], ?::bigint[], ?::uuid[])
+		ON CONFLICT (meter_reading_uuid, start) DO UPDATE
+		SET duration = EXCLUDED.duration, self_link_href = EXCLUDED.self_link_href, up_link_href = EXCLUDED.up_link_href, updated = ?
+		WHERE (interval_block.duration, interval_block.self_link_href, interval_block.up_link_href)
+			IS DISTINCT FROM (EXCLUDED.duration, EXCLUDED.self_link_href, EXCLUDED.up_link_href)
+		RETURNING uuid, xmax = 0""";
+	private static final String STORED_BLOCKS = """
+		SELECT b.uuid, b.meter_reading_uuid, b.start FROM usage.interval_block b
+		JOIN unnest(?::uuid[], ?::bigint[]) AS k (meter_reading_uuid, start) ON b.meter_reading_uuid = k.meter_reading_uuid AND b.start = k.start""";
+	// only rows that are new or differ in a value or in their set of qualities reach the INSERT; the rest are never written
+	private static final String UPSERT_READINGS = """
+		WITH incoming (block_uuid, start, duration, value, cost, consumption_tier, tou, cpp, qualities) AS (
+			SELECT * FROM unnest(?::uuid[], ?::bigint[], ?::bigint[], ?::bigint[], ?::bigint[], ?::smallint[], ?::smallint[], ?::smallint[], ?::text[])
+		), changed AS (
+			SELECT i.* FROM incoming i
+			LEFT JOIN usage.interval_reading r ON r.block_uuid = i.block_uuid AND r.start = i.start
+			WHERE r.id IS NULL
+				OR (r.duration, r.value, r.cost, r.consumption_tier, r.tou, r.cpp) IS DISTINCT FROM (i.duration, i.value, i.cost, i.consumption_tier, i.tou, i.cpp)
+				OR i.qualities IS DISTINCT FROM (SELECT string_agg(q.quality::text, ',' ORDER BY q.quality::text) FROM usage.reading_quality q WHERE q.reading_id = r.id)
+		)
+		INSERT INTO usage.interval_reading (block_uuid, start, duration, value, cost, consumption_tier, tou, cpp)
+		SELECT block_uuid, start, duration, value, cost, consumption_tier, tou, cpp FROM changed
+		ON CONFLICT (block_uuid, start) DO UPDATE
+		SET duration = EXCLUDED.duration, value = EXCLUDED.value, cost = EXCLUDED.cost, consumption_tier = EXCLUDED.consumption_tier, tou = EXCLUDED.tou,
+			cpp = EXCLUDED.cpp
+		RETURNING id, block_uuid, start""";
+	private static final String DELETE_QUALITIES = "DELETE FROM usage.reading_quality WHERE reading_id = ANY(?::bigint[])";
+	private static final String INSERT_QUALITIES = """
+		INSERT INTO usage.reading_quality (quality, reading_id)
+		SELECT CAST(quality AS usage.quality_of_reading), reading_id FROM unnest(?::text[], ?::bigint[]) AS q (quality, reading_id)""";
+	private static final String OVERLAPPING_BLOCKS = """
+		SELECT b.uuid, b.meter_reading_uuid, b.start, b.duration, b.self_link_href, b.up_link_href FROM usage.interval_block b
+		JOIN unnest(?::uuid[], ?::bigint[], ?::bigint[]) AS k (meter_reading_uuid, range_start, range_end)
+			ON b.meter_reading_uuid = k.meter_reading_uuid AND b.start < k.range_end AND b.start + b.duration > k.range_start""";
+	private static final String TOUCH_BLOCKS = "UPDATE usage.interval_block SET updated = ? WHERE uuid = ANY(?::uuid[]) AND updated IS DISTINCT FROM ?";
+
+	private final JdbcTemplate jdbcTemplate;
+	private final IntervalRollupMaintainer intervalRollupMaintainer;
+
+	/**
+	 * @return the number of readings that were inserted or changed; the rest were already stored with the same values
+	 */
+	@Transactional
+	public int write(List<IntervalBlockRecord> blocks) {
+		if (blocks.isEmpty()) {
+			return 0;
+		}
+		LocalDateTime now = LocalDateTime.now();
+		// a key may occur only once per upsert statement, and the later delivery wins
+		Collection<IntervalBlockRecord> latest = blocks.stream()
+			.collect(Collectors.toMap(BlockKey::of, Function.identity(), (earlier, later) -> later, LinkedHashMap::new))
+			.values();
+
+		Set<UUID> insertedBlocks = upsertBlocks(latest, now);
+		Map<BlockKey, UUID> storedUuids = storedBlockUuids(latest);
+		Map<UUID, UUID> meterReadingsByBlock = new HashMap<>(storedUuids.size() * 2);
+		storedUuids.forEach((key, uuid) -> meterReadingsByBlock.put(uuid, key.meterReadingUuid()));
+
+		List<UUID> changedMeterReadings = new ArrayList<>();
+		List<Long> changedStarts = new ArrayList<>();
+		int changed = upsertReadings(latest, storedUuids, insertedBlocks, now, (blockUuid, start) -> {
+			changedMeterReadings.add(meterReadingsByBlock.get(blockUuid));
+			changedStarts.add(start);
+		});
+		intervalRollupMaintainer.refresh(changedMeterReadings, changedStarts);
+		return changed;
+	}
+
+	/**
+	 * Looks up the stored IntervalBlocks of each MeterReading that overlap its range of epoch seconds, <code>[rangeStarts[i], rangeEnds[i])</code>.
+	 *
+	 * @return the blocks by MeterReading, each keyed and ordered by start
+	 */
+	public Map<UUID, NavigableMap<Long, StoredBlock>> overlappingBlocks(UUID[] meterReadingUuids, Long[] rangeStarts, Long[] rangeEnds) {
+		Map<UUID, NavigableMap<Long, StoredBlock>> blocks = new HashMap<>();
+		jdbcTemplate.query(con -> statement(con, OVERLAPPING_BLOCKS, con.createArrayOf("uuid", meterReadingUuids), con.createArrayOf("bigint", rangeStarts),
+			con.createArrayOf("bigint", rangeEnds)), rs -> {
+			StoredBlock block = new StoredBlock(rs.getObject(1, UUID.class), rs.getObject(2, UUID.class), rs.getLong(3), rs.getLong(4), rs.getString(5),
+				rs.getString(6));
+			blocks.computeIfAbsent(block.meterReadingUuid(), meterReading -> new TreeMap<>()).put(block.start(), block);
+		});
+		return blocks;
+	}
+
+	public void linkReadingType(UUID meterReadingUuid, UUID readingTypeUuid) {
+		jdbcTemplate.update("UPDATE usage.meter_reading SET reading_type_uuid = ? WHERE uuid = ?", readingTypeUuid, meterReadingUuid);
+	}
+
+	/**
+	 * @return the uuids of the blocks that were inserted rather than updated or left alone
+	 */
+	private Set<UUID> upsertBlocks(Collection<IntervalBlockRecord> blocks, LocalDateTime now) {
+		int size = blocks.size();
+		UUID[] uuids = new UUID[size];
+		Timestamp[] published = new Timestamp[size];
+		String[] selfLinks = new String[size];
+		String[] upLinks = new String[size];
+		Timestamp[] updated = new Timestamp[size];
+		Long[] durations = new Long[size];
+		Long[] starts = new Long[size];
+		UUID[] meterReadings = new UUID[size];
+		int i = 0;
+		for (IntervalBlockRecord block : blocks) {
+			uuids[i] = block.uuid();
+			published[i] = Timestamp.valueOf(block.published() == null ? now : block.published());
+			selfLinks[i] = block.selfLinkHref();
+			upLinks[i] = block.upLinkHref();
+			updated[i] = Timestamp.valueOf(block.updated() == null ? now : block.updated());
+			durations[i] = block.duration();
+			starts[i] = block.start();
+			meterReadings[i] = block.meterReadingUuid();
+			i++;
+		}
+
+		// xmax is only zero on a row version the upsert inserted
+		Set<UUID> inserted = new HashSet<>();
+		jdbcTemplate.query(con -> statement(con, UPSERT_BLOCKS,
+			con.createArrayOf("uuid", uuids), con.createArrayOf("timestamp", published), con.createArrayOf("text", selfLinks),
+			con.createArrayOf("text", upLinks), con.createArrayOf("timestamp", updated), con.createArrayOf("bigint", durations),
+			con.createArrayOf("bigint", starts), con.createArrayOf("uuid", meterReadings), Timestamp.valueOf(now)), rs -> {
+			if (rs.getBoolean(2)) {
+				inserted.add(rs.getObject(1, UUID.class));
+			}
+		});
+		return inserted;
+	}
+
+	private Map<BlockKey, UUID> storedBlockUuids(Collection<IntervalBlockRecord> blocks) {
+		UUID[] meterReadings = blocks.stream().map(IntervalBlockRecord::meterReadingUuid).toArray(UUID[]::new);
+		Long[] starts = blocks.stream().map(IntervalBlockRecord::start).toArray(Long[]::new);
+
+		Map<BlockKey, UUID> stored = new HashMap<>(blocks.size() * 2);
+		jdbcTemplate.query(con -> statement(con, STORED_BLOCKS, con.createArrayOf("uuid", meterReadings), con.createArrayOf("bigint", starts)),
+			rs -> {
+				stored.put(new BlockKey(rs.getObject(2, UUID.class), rs.getLong(3)), rs.getObject(1, UUID.class));
+			});
+		return stored;
+	}
+
+	private int upsertReadings(Collection<IntervalBlockRecord> blocks, Map<BlockKey, UUID> storedUuids, Set<UUID> insertedBlocks, LocalDateTime now,
+							   BiConsumer<UUID, Long> changedReadings) {
+		// as with blocks, the last of several readings with the same start wins
+		Map<ReadingKey, IntervalReadingRecord> readings = new LinkedHashMap<>();
+		for (IntervalBlockRecord block : blocks) {
+			UUID blockUuid = storedUuids.get(BlockKey.of(block));
+			block.readings().forEach(reading -> readings.put(new ReadingKey(blockUuid, reading.start()), reading));
+		}
+		if (readings.isEmpty()) {
+			return 0;
+		}
+
+		int size = readings.size();
+		UUID[] blockUuids = new UUID[size];
+		Long[] starts = new Long[size];
+		Long[] durations = new Long[size];
+		Long[] values = new Long[size];
+		Long[] costs = new Long[size];
+		Short[] tiers = new Short[size];
+		Short[] tous = new Short[size];
+		Short[] cpps = new Short[size];
+		String[] qualities = new String[size];
+		int i = 0;
+		for (Map.Entry<ReadingKey, IntervalReadingRecord> entry : readings.entrySet()) {
+			IntervalReadingRecord reading = entry.getValue();
+			blockUuids[i] = entry.getKey().blockUuid();
+			starts[i] = reading.start();
+			durations[i] = reading.duration();
+			values[i] = reading.value();
+			costs[i] = reading.cost();
+			tiers[i] = reading.consumptionTier();
+			tous[i] = reading.tou();
+			cpps[i] = reading.cpp();
+			qualities[i] = qualityKey(reading.qualities());
+			i++;
+		}
+
+		List<Long> changedIds = new ArrayList<>();
+		List<String> changedQualities = new ArrayList<>();
+		List<Long> changedQualityReadings = new ArrayList<>();
+		Set<UUID> changedBlocks = new HashSet<>();
+		jdbcTemplate.query(con -> statement(con, UPSERT_READINGS,
+			con.createArrayOf("uuid", blockUuids), con.createArrayOf("bigint", starts), con.createArrayOf("bigint", durations),
+			con.createArrayOf("bigint", values), con.createArrayOf("bigint", costs), con.createArrayOf("smallint", tiers), con.createArrayOf("smallint", tous),
+			con.createArrayOf("smallint", cpps), con.createArrayOf("text", qualities)), rs -> {
+			long id = rs.getLong(1);
+			ReadingKey key = new ReadingKey(rs.getObject(2, UUID.class), rs.getLong(3));
+			changedIds.add(id);
+			changedReadings.accept(key.blockUuid(), key.start());
+			if (!insertedBlocks.contains(key.blockUuid())) {
+				changedBlocks.add(key.blockUuid());
+			}
+			readings.get(key).qualities().stream().map(QualityOfReading::name).distinct().forEach(quality -> {
+				changedQualities.add(quality);
+				changedQualityReadings.add(id);
+			});
+		});
+		if (changedIds.isEmpty()) {
+			return 0;
+		}
+
+		jdbcTemplate.update(con -> statement(con, DELETE_QUALITIES, con.createArrayOf("bigint", changedIds.toArray(Long[]::new))));
+		if (!changedQualities.isEmpty()) {
+			jdbcTemplate.update(con -> statement(con, INSERT_QUALITIES, con.createArrayOf("text", changedQualities.toArray(String[]::new)),
+				con.createArrayOf("bigint", changedQualityReadings.toArray(Long[]::new))));
+		}
+		// blocks inserted by this batch keep the updated they were delivered with
+		if (!changedBlocks.isEmpty()) {
+			jdbcTemplate.update(con -> statement(con, TOUCH_BLOCKS, Timestamp.valueOf(now), con.createArrayOf("uuid", changedBlocks.toArray(UUID[]::new)),
+				Timestamp.valueOf(now)));
+		}
+		return changedIds.size();
+	}
+
+	/**
+	 * The form <code>UPSERT_READINGS</code> compares stored qualities in: distinct names in name order, comma separated, or null when there are none.
+	 */
+	private static String qualityKey(List<QualityOfReading> qualities) {
+		if (qualities.isEmpty()) {
+			return null;
+		}
+		return qualities.stream().map(QualityOfReading::name).distinct().sorted().collect(Collectors.joining(","));
+	}
+
+	private static PreparedStatement statement(Connection con, String sql, Object... parameters) throws SQLException {
+		PreparedStatement ps = con.prepareStatement(sql);
+		for (int i = 0; i < parameters.length; i++) {
+			ps.setObject(i + 1, parameters[i]);
+		}
+		return ps;
+	}
+
+	public record StoredBlock(UUID uuid, UUID meterReadingUuid, long start, long duration, String selfLinkHref, String upLinkHref) {
+		public long end() {
+			return start + duration;
+		}
+	}
+
+	private record BlockKey(UUID meterReadingUuid, long start) {
+		static BlockKey of(IntervalBlockRecord block) {
+			return new BlockKey(block.meterReadingUuid(), block.start());
+		}
+	}
+
+	private record ReadingKey(UUID blockUuid, long start) {
+	}
+}
@@ -0,0 +1,331 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.greenbuttonalliance.gbaresourceserver.usage.ingest;
+
+import lombok.extern.slf4j.Slf4j;
+import org.greenbuttonalliance.gbaresourceserver.usage.model.enums.QualityOfReading;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only local journal for real-time readings. A request is acknowledged once its readings are on disk here, long before they reach Postgres, and whatever
+ * never made it to Postgres is replayed from here after a crash.
+ * <p>
+ * The journal is a sequence of numbered segment files. Each record is framed as <code>length, crc32, payload</code>, so a record torn by a crash mid-write is
+ * recognized on replay and cut off. Appends only write; {@link #sync} forces the segment to disk and is group-committed, so one fsync covers every append that
+ * came before it, however many request threads are waiting on it. A new segment's directory entry is forced to disk as soon as the file is created, so the
+ * records synced into it cannot be lost with a segment a crash never linked. The owner rolls to a fresh segment whenever it drains its buffer and deletes
+ * segments once everything in them is stored.
+ */
+@Slf4j
+final class ReadingJournal implements Closeable {
+	private static final Pattern SEGMENT_NAME = Pattern.compile("segment-(\\d{12})\\.journal");
+	private static final int HEADER_BYTES = 8;
+	private static final int MAX_RECORD_BYTES = 64 * 1024 * 1024;
+	private static final byte HAS_VALUE = 1;
+	private static final byte HAS_COST = 2;
+	private static final byte HAS_CONSUMPTION_TIER = 4;
+	private static final byte HAS_TOU = 8;
+	private static final byte HAS_CPP = 16;
+
+	private final Path directory;
+	// taken before this object's monitor by sync and roll, so a segment is never closed while it is being forced
+	private final Object syncLock = new Object();
+
+	private long segment;
+	private FileChannel channel;
+	private long size;
+	private long syncedSegment = -1;
+	private long syncedSize;
+
+	/**
+	 * A point in the journal: everything appended up to <code>size</code> bytes into <code>segment</code>.
+	 */
+	record Position(long segment, long size) {
+	}
+
+	record Entry(long segment, UUID meterReadingUuid, List<IntervalReadingRecord> readings) {
+	}
+
+	ReadingJournal(Path directory) throws IOException {
+		this.directory = Files.createDirectories(directory);
+	}
+
+	/**
+	 * Reads back every record of the existing segments in the order they were written, cutting off a torn tail, and opens a new segment for appends. Called once,
+	 * before the first append.
+	 */
+	synchronized List<Entry> replay() throws IOException {
+		List<Entry> entries = new ArrayList<>();
+		long last = 0;
+		for (long existing : segments()) {
+			replaySegment(existing, entries);
+			if (Files.size(segmentPath(existing)) == 0) {
+				// nothing was appended before the owner stopped or rolled again
+				Files.delete(segmentPath(existing));
+			}
+			last = existing;
+		}
+		open(last + 1);
+		return entries;
+	}
+
+	/**
+	 * Writes a record without forcing it; pass the returned position to {@link #sync} before acknowledging it.
+	 */
+	synchronized Position append(UUID meterReadingUuid, List<IntervalReadingRecord> readings) throws IOException {
+		ByteBuffer record = encode(meterReadingUuid, readings);
+		while (record.hasRemaining()) {
+			size += channel.write(record);
+		}
+		return new Position(segment, size);
+	}
+
+	void sync(Position position) throws IOException {
+		synchronized (syncLock) {
+			if (isSynced(position)) {
+				// a sync that started after this append already covered it
+				return;
+			}
+			FileChannel current;
+			long target;
+			synchronized (this) {
+				current = channel;
+				target = size;
+			}
+			current.force(false);
+			syncedSegment = position.segment();
+			syncedSize = target;
+		}
+	}
+
+	/**
+	 * Forces and closes the current segment and starts the next one.
+	 *
+	 * @return the number of the new segment; every record appended before the call lives in a lower-numbered one
+	 */
+	long roll() throws IOException {
+		synchronized (syncLock) {
+			synchronized (this) {
+				channel.force(false);
+				channel.close();
+				syncedSegment = segment;
+				syncedSize = size;
+				open(segment + 1);
+				return segment;
+			}
+		}
+	}
+
+	/**
+	 * Deletes the segments numbered from <code>fromSegment</code> (inclusive) to <code>toSegment</code> (exclusive), whose records have all been stored.
+	 */
+	void delete(long fromSegment, long toSegment) throws IOException {
+		for (long stored : segments()) {
+			if (stored >= fromSegment && stored < toSegment) {
+				Files.deleteIfExists(segmentPath(stored));
+			}
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		synchronized (syncLock) {
+			synchronized (this) {
+				if (channel != null) {
+					channel.force(false);
+					channel.close();
+				}
+			}
+		}
+	}
+
+	private boolean isSynced(Position position) {
+		return position.segment() < syncedSegment || position.segment() == syncedSegment && position.size() <= syncedSize;
+	}
+
+	private void open(long number) throws IOException {
+		segment = number;
+		channel = FileChannel.open(segmentPath(number), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+		size = channel.size();
+		syncDirectory();
+	}
+
+	private void syncDirectory() throws IOException {
+		try (FileChannel entries = FileChannel.open(directory, StandardOpenOption.READ)) {
+			entries.force(true);
+		} catch (AccessDeniedException e) {
+			// Windows does not open directories; NTFS journals a new file's directory entry with the file itself
+			log.debug("Cannot force journal directory {}", directory, e);
+		}
+	}
+
+	private List<Long> segments() throws IOException {
+		try (Stream<Path> files = Files.list(directory)) {
+			return files.map(file -> SEGMENT_NAME.matcher(file.getFileName().toString()))
+				.filter(Matcher::matches)
+				.map(matcher -> Long.parseLong(matcher.group(1)))
+				.sorted()
+				.toList();
+		}
+	}
+
+	private Path segmentPath(long number) {
+		return directory.resolve(String.format("segment-%012d.journal", number));
+	}
+
+	private void replaySegment(long number, List<Entry> entries) throws IOException {
+		Path path = segmentPath(number);
+		long valid = 0;
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16))) {
+			while (true) {
+				byte[] payload = readRecord(in);
+				if (payload == null) {
+					break;
+				}
+				entries.add(decode(number, payload));
+				valid += HEADER_BYTES + payload.length;
+			}
+		}
+		long length = Files.size(path);
+		if (valid < length) {
+			log.warn("Cutting off {} bytes of torn records at the end of journal segment {}", length - valid, path);
+			try (FileChannel truncated = FileChannel.open(path, StandardOpenOption.WRITE)) {
+				truncated.truncate(valid);
+				truncated.force(false);
+			}
+		}
+	}
+
+	/**
+	 * @return the next record's payload, or null at the end of the segment or at a torn or corrupt record
+	 */
+	private static byte[] readRecord(DataInputStream in) throws IOException {
+		try {
+			int length = in.readInt();
+			int checksum = in.readInt();
+			if (length < 0 || length > MAX_RECORD_BYTES) {
+				return null;
+			}
+			byte[] payload = in.readNBytes(length);
+			if (payload.length < length || checksum(payload) != checksum) {
+				return null;
+			}
+			return payload;
+		} catch (EOFException e) {
+			return null;
+		}
+	}
+
+	private static ByteBuffer encode(UUID meterReadingUuid, List<IntervalReadingRecord> readings) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(HEADER_BYTES + 24 + readings.size() * 48);
+		DataOutputStream out = new DataOutputStream(bytes);
+		// room for the header, filled in once the payload is known
+		out.writeLong(0);
+		out.writeLong(meterReadingUuid.getMostSignificantBits());
+		out.writeLong(meterReadingUuid.getLeastSignificantBits());
+		out.writeInt(readings.size());
+		for (IntervalReadingRecord reading : readings) {
+			byte present = 0;
+			present |= reading.value() != null ? HAS_VALUE : 0;
+			present |= reading.cost() != null ? HAS_COST : 0;
+			present |= reading.consumptionTier() != null ? HAS_CONSUMPTION_TIER : 0;
+			present |= reading.tou() != null ? HAS_TOU : 0;
+			present |= reading.cpp() != null ? HAS_CPP : 0;
+			out.writeByte(present);
+			out.writeLong(reading.start());
+			out.writeLong(reading.duration());
+			if (reading.value() != null) {
+				out.writeLong(reading.value());
+			}
+			if (reading.cost() != null) {
+				out.writeLong(reading.cost());
+			}
+			if (reading.consumptionTier() != null) {
+				out.writeShort(reading.consumptionTier());
+			}
+			if (reading.tou() != null) {
+				out.writeShort(reading.tou());
+			}
+			if (reading.cpp() != null) {
+				out.writeShort(reading.cpp());
+			}
+			out.writeByte(reading.qualities().size());
+			for (QualityOfReading quality : reading.qualities()) {
+				out.writeByte(quality.schemaValue);
+			}
+		}
+
+		ByteBuffer record = ByteBuffer.wrap(bytes.toByteArray());
+		int length = record.limit() - HEADER_BYTES;
+		CRC32 crc = new CRC32();
+		crc.update(record.array(), HEADER_BYTES, length);
+		record.putInt(0, length);
+		record.putInt(4, (int) crc.getValue());
+		return record;
+	}
+
+	private static Entry decode(long segment, byte[] payload) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+		UUID meterReadingUuid = new UUID(in.readLong(), in.readLong());
+		int count = in.readInt();
+		List<IntervalReadingRecord> readings = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			byte present = in.readByte();
+			long start = in.readLong();
+			long duration = in.readLong();
+			Long value = (present & HAS_VALUE) != 0 ? in.readLong() : null;
+			Long cost = (present & HAS_COST) != 0 ? in.readLong() : null;
+			Short consumptionTier = (present & HAS_CONSUMPTION_TIER) != 0 ? in.readShort() : null;
+			Short tou = (present & HAS_TOU) != 0 ? in.readShort() : null;
+			Short cpp = (present & HAS_CPP) != 0 ? in.readShort() : null;
+			int qualityCount = in.readUnsignedByte();
+			List<QualityOfReading> qualities = qualityCount == 0 ? List.of() : new ArrayList<>(qualityCount);
+			for (int q = 0; q < qualityCount; q++) {
+				qualities.add(QualityOfReading.getQualityFromSchemaValue(in.readUnsignedByte()));
+			}
+			readings.add(new IntervalReadingRecord(start, duration, value, cost, consumptionTier, tou, cpp, qualities));
+		}
+		return new Entry(segment, meterReadingUuid, readings);
+	}
+
+	private static int checksum(byte[] payload) {
+		CRC32 crc = new CRC32();
+		crc.update(payload);
+		return (int) crc.getValue();
+	}
+}
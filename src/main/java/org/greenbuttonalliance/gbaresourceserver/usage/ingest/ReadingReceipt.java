@@ -0,0 +1,25 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.greenbuttonalliance.gbaresourceserver.usage.ingest;
+
+import java.util.UUID;
+
+/**
+ * Acknowledges real-time readings: <code>acceptedReadings</code> are durable in the journal and reach the database with the next flush.
+ */
+public record ReadingReceipt(UUID meterReadingUuid, int acceptedReadings) {
+}
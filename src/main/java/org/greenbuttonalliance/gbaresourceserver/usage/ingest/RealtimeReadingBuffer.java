@@ -0,0 +1,493 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.greenbuttonalliance.gbaresourceserver.usage.ingest;
+
+import com.github.f4b6a3.uuid.UuidCreator;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.greenbuttonalliance.gbaresourceserver.usage.access.UsagePointAccess;
+import org.greenbuttonalliance.gbaresourceserver.usage.controller.exception.EntityNotFoundByIdException;
+import org.greenbuttonalliance.gbaresourceserver.usage.controller.exception.IngestBackloggedException;
+import org.greenbuttonalliance.gbaresourceserver.usage.controller.exception.InvalidFeedException;
+import org.greenbuttonalliance.gbaresourceserver.usage.ingest.IntervalDataWriter.StoredBlock;
+import org.greenbuttonalliance.gbaresourceserver.usage.model.MeterReading;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Write-behind buffer for near-real-time readings, so that AMI head-ends see the latency of an fsync rather than of a database write.
+ * <p>
+ * {@link #accept} appends the readings to the {@link ReadingJournal} and returns once they are durable there. A single flusher thread drains the buffer whenever
+ * <code>gba.ingest.realtime.flush-size</code> readings are pending or <code>gba.ingest.realtime.flush-interval-ms</code> has passed, coalesces the readings of
+ * each MeterReading into IntervalBlocks and writes them in one batch through {@link IntervalDataWriter}. A reading goes into the stored block that covers it;
+ * otherwise into a new block of <code>gba.ingest.realtime.block-duration</code> seconds aligned to the UsagePoint's local standard time. The journal segments
+ * behind a batch are deleted only once the batch is stored, and on startup whatever is left in the journal is buffered again, so a crash loses nothing that
+ * was acknowledged. Since the writes are upserts, a batch replayed after it had already been stored is harmless. A batch that cannot be written goes back
+ * into the buffer; one that breaks a constraint is retried a MeterReading at a time, so that only the MeterReadings at fault go back. The target of a
+ * MeterReading, where its blocks are linked and how they are aligned, is cached until a write of its readings fails, but whether the MeterReading still
+ * exists is checked with every flush: nothing in the schema keeps IntervalBlocks from outliving their MeterReading, so the readings of one deleted since they
+ * were accepted are dropped rather than written.
+ * <p>
+ * The journal lives in <code>gba.ingest.realtime.journal-dir</code>, which has no default: acknowledged readings are only as safe as that directory, so it
+ * must be a persistent volume of the host's own, never a temporary directory that is cleared on reboot or shared with another instance.
+ * <p>
+ * When more than <code>gba.ingest.realtime.max-buffered</code> readings are waiting, callers block for up to
+ * <code>gba.ingest.realtime.backlog-timeout-ms</code> and are then turned away with an {@link IngestBackloggedException}.
+ */
+@Component
+@Slf4j
+public class RealtimeReadingBuffer {
+	private static final String METER_READING_TARGET = """
+		SELECT mr.self_link_href, tc.tz_offset, mr.usage_point_uuid FROM usage.meter_reading mr
+		LEFT JOIN usage.usage_point up ON up.uuid = mr.usage_point_uuid
+		LEFT JOIN usage.time_configuration tc ON tc.uuid = up.time_configuration_uuid
+		WHERE mr.uuid = ?""";
+	private static final String EXISTING_METER_READINGS = "SELECT uuid FROM usage.meter_reading WHERE uuid = ANY(?)";
+
+	private final IntervalDataWriter intervalDataWriter;
+	private final JdbcTemplate jdbcTemplate;
+	private final ReadingJournal journal;
+	private final int flushSize;
+	private final long flushIntervalMillis;
+	private final int maxBuffered;
+	private final long backlogTimeoutMillis;
+	private final long blockDuration;
+	private final Map<UUID, Target> targets = new ConcurrentHashMap<>();
+	private final Thread flusher;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition flushDue = lock.newCondition();
+	private final Condition drained = lock.newCondition();
+	// guarded by lock; every journal segment numbered below oldestUnstoredSegment is stored
+	private Map<UUID, NavigableMap<Long, IntervalReadingRecord>> pending = new HashMap<>();
+	private long oldestUnstoredSegment;
+	private boolean running = true;
+	// written under lock, read without it by the gauge and by the size checks that only decide whether to signal
+	private volatile int pendingReadings;
+
+	private final Counter readingsJournaled;
+	private final Counter readingsReplayed;
+	private final Counter readingsWritten;
+	private final Counter readingsUnchanged;
+	private final Counter readingsDropped;
+	private final Timer journalSyncs;
+	private final Timer flushes;
+
+	@Autowired
+	public RealtimeReadingBuffer(IntervalDataWriter intervalDataWriter, JdbcTemplate jdbcTemplate, MeterRegistry meterRegistry,
+								 @Value("${gba.ingest.realtime.journal-dir}") Path journalDir,
+								 @Value("${gba.ingest.realtime.flush-size:10000}") int flushSize,
+								 @Value("${gba.ingest.realtime.flush-interval-ms:1000}") long flushIntervalMillis,
+								 @Value("${gba.ingest.realtime.max-buffered:0}") int maxBuffered,
+								 @Value("${gba.ingest.realtime.backlog-timeout-ms:5000}") long backlogTimeoutMillis,
+								 @Value("${gba.ingest.realtime.block-duration:86400}") long blockDuration) throws IOException {
+		this.intervalDataWriter = intervalDataWriter;
+		this.jdbcTemplate = jdbcTemplate;
+		this.journal = new ReadingJournal(journalDir);
+		this.flushSize = flushSize;
+		this.flushIntervalMillis = flushIntervalMillis;
+		this.maxBuffered = maxBuffered > 0 ? maxBuffered : 10 * flushSize;
+		this.backlogTimeoutMillis = backlogTimeoutMillis;
+		this.blockDuration = blockDuration;
+		this.flusher = Thread.ofPlatform().name("gba-ingest-flusher").daemon().unstarted(this::flushLoop);
+
+		this.readingsJournaled = readingCounter(meterRegistry, "journaled");
+		this.readingsReplayed = readingCounter(meterRegistry, "replayed");
+		this.readingsWritten = readingCounter(meterRegistry, "written");
+		this.readingsUnchanged = readingCounter(meterRegistry, "unchanged");
+		this.readingsDropped = readingCounter(meterRegistry, "dropped");
+		this.journalSyncs = Timer.builder("gba.ingest.realtime.journal.sync")
+			.description("Time a request waits for its readings to be forced to the journal")
+			.register(meterRegistry);
+		this.flushes = Timer.builder("gba.ingest.realtime.flush")
+			.description("Time to write one drained buffer of readings to the database")
+			.register(meterRegistry);
+		Gauge.builder("gba.ingest.realtime.buffer.depth", this, buffer -> buffer.pendingReadings)
+			.description("Readings acknowledged from the journal but not yet written to the database")
+			.register(meterRegistry);
+	}
+
+	@PostConstruct
+	void start() throws IOException {
+		List<ReadingJournal.Entry> replayed = journal.replay();
+		lock.lock();
+		try {
+			long readings = 0;
+			for (ReadingJournal.Entry entry : replayed) {
+				buffer(entry.meterReadingUuid(), entry.readings());
+				readings += entry.readings().size();
+			}
+			readingsReplayed.increment(readings);
+			if (readings > 0) {
+				log.info("Replayed {} readings left in the journal by the previous run", readings);
+			}
+		} finally {
+			lock.unlock();
+		}
+		flusher.start();
+	}
+
+	/**
+	 * Flushes what is still buffered before the application goes away. Whatever cannot be written stays in the journal for the next start.
+	 */
+	@PreDestroy
+	void shutdown() throws IOException, InterruptedException {
+		lock.lock();
+		try {
+			running = false;
+			flushDue.signal();
+		} finally {
+			lock.unlock();
+		}
+		flusher.join();
+		journal.close();
+	}
+
+	/**
+	 * Accepts readings for a MeterReading and returns once they are durable in the journal. They reach the database with the next flush.
+	 *
+	 * @return the number of readings accepted
+	 * @throws EntityNotFoundByIdException for a MeterReading that does not exist or whose UsagePoint the access does not permit
+	 */
+	public int accept(UUID meterReadingUuid, List<IntervalReadingRecord> readings, UsagePointAccess usagePointAccess) {
+		Target target = target(meterReadingUuid).orElseThrow(() -> new EntityNotFoundByIdException(MeterReading.class, meterReadingUuid));
+		usagePointAccess.require(target.usagePointUuid(), MeterReading.class, meterReadingUuid);
+		for (IntervalReadingRecord reading : readings) {
+			if (reading.duration() <= 0) {
+				throw new InvalidFeedException(String.format("IntervalReading at %d has no duration", reading.start()));
+			}
+		}
+		if (readings.isEmpty()) {
+			return 0;
+		}
+
+		ReadingJournal.Position position;
+		lock.lock();
+		try {
+			awaitRoom();
+			position = journal.append(meterReadingUuid, readings);
+			buffer(meterReadingUuid, readings);
+			if (pendingReadings >= flushSize) {
+				flushDue.signal();
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException("Cannot append to the reading journal", e);
+		} finally {
+			lock.unlock();
+		}
+
+		long syncStart = System.nanoTime();
+		try {
+			journal.sync(position);
+		} catch (IOException e) {
+			throw new UncheckedIOException("Cannot force the reading journal to disk", e);
+		} finally {
+			journalSyncs.record(System.nanoTime() - syncStart, TimeUnit.NANOSECONDS);
+		}
+		readingsJournaled.increment(readings.size());
+		return readings.size();
+	}
+
+	private void awaitRoom() {
+		long remaining = TimeUnit.MILLISECONDS.toNanos(backlogTimeoutMillis);
+		try {
+			while (pendingReadings >= maxBuffered) {
+				if (remaining <= 0) {
+					throw new IngestBackloggedException(String.format("%d readings are waiting for the database", pendingReadings),
+						Math.max(1, TimeUnit.MILLISECONDS.toSeconds(flushIntervalMillis)));
+				}
+				remaining = drained.awaitNanos(remaining);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for room in the reading buffer", e);
+		}
+	}
+
+	/**
+	 * Adds readings to the buffer, replacing buffered readings with the same start. Must hold the lock.
+	 */
+	private void buffer(UUID meterReadingUuid, List<IntervalReadingRecord> readings) {
+		NavigableMap<Long, IntervalReadingRecord> buffered = pending.computeIfAbsent(meterReadingUuid, meterReading -> new TreeMap<>());
+		int added = 0;
+		for (IntervalReadingRecord reading : readings) {
+			if (buffered.put(reading.start(), reading) == null) {
+				added++;
+			}
+		}
+		pendingReadings += added;
+	}
+
+	private void flushLoop() {
+		while (true) {
+			Map<UUID, NavigableMap<Long, IntervalReadingRecord>> batch = null;
+			int batchReadings = 0;
+			long fromSegment = 0;
+			long toSegment = 0;
+			lock.lock();
+			try {
+				long remaining = TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+				while (running && pendingReadings < flushSize && remaining > 0) {
+					remaining = flushDue.awaitNanos(remaining);
+				}
+				if (pendingReadings == 0) {
+					if (!running) {
+						return;
+					}
+					continue;
+				}
+				// a fresh segment for what arrives from now on, so the segments behind this batch can go once it is stored
+				toSegment = journal.roll();
+				fromSegment = oldestUnstoredSegment;
+				oldestUnstoredSegment = toSegment;
+				batch = pending;
+				batchReadings = pendingReadings;
+				pending = new HashMap<>();
+				pendingReadings = 0;
+				drained.signalAll();
+			} catch (IOException e) {
+				log.error("Cannot roll the reading journal, keeping {} readings buffered", pendingReadings, e);
+			} catch (InterruptedException e) {
+				// only shutdown interrupts the flusher; stop waiting and flush what is there
+				running = false;
+				continue;
+			} finally {
+				lock.unlock();
+			}
+
+			boolean stored = batch != null && store(batch, batchReadings, fromSegment, toSegment);
+			if (!stored && (!running || !pause())) {
+				// leave the rest to the journal rather than retrying forever on the way down
+				return;
+			}
+		}
+	}
+
+	/**
+	 * @return false if the batch, or the readings of some of its MeterReadings, could not be written and went back into the buffer
+	 */
+	private boolean store(Map<UUID, NavigableMap<Long, IntervalReadingRecord>> batch, int batchReadings, long fromSegment, long toSegment) {
+		Map<UUID, NavigableMap<Long, IntervalReadingRecord>> failed;
+		try {
+			failed = flushes.record(() -> write(batch));
+		} catch (RuntimeException e) {
+			log.error("Writing {} buffered readings failed, keeping them for the next flush", batchReadings, e);
+			// looked up again with the next flush, in case what failed is a MeterReading changed since
+			targets.keySet().removeAll(batch.keySet());
+			requeue(batch, fromSegment);
+			return false;
+		}
+		if (!failed.isEmpty()) {
+			// the segments behind the batch stay until these are stored too; the rest replays as no-op upserts should the application stop before
+			requeue(failed, fromSegment);
+			return false;
+		}
+		try {
+			journal.delete(fromSegment, toSegment);
+		} catch (IOException e) {
+			// harmless: the stored readings are replayed as no-op upserts on the next start
+			log.warn("Cannot delete journal segments {} to {}", fromSegment, toSegment - 1, e);
+		}
+		return true;
+	}
+
+	/**
+	 * Puts a batch that could not be written back into the buffer. Readings that arrived for the same start in the meantime are newer and win.
+	 */
+	private void requeue(Map<UUID, NavigableMap<Long, IntervalReadingRecord>> batch, long fromSegment) {
+		lock.lock();
+		try {
+			batch.forEach((meterReadingUuid, readings) -> {
+				NavigableMap<Long, IntervalReadingRecord> buffered = pending.computeIfAbsent(meterReadingUuid, meterReading -> new TreeMap<>());
+				readings.forEach((start, reading) -> {
+					if (buffered.putIfAbsent(start, reading) == null) {
+						pendingReadings++;
+					}
+				});
+			});
+			oldestUnstoredSegment = Math.min(oldestUnstoredSegment, fromSegment);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private boolean pause() {
+		try {
+			Thread.sleep(flushIntervalMillis);
+			return true;
+		} catch (InterruptedException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Writes the batch in one transaction. Should that break a constraint, the MeterReadings are written one at a time instead, so that one of them cannot
+	 * hold back the others.
+	 *
+	 * @return the readings of the MeterReadings that broke a constraint on their own
+	 */
+	private Map<UUID, NavigableMap<Long, IntervalReadingRecord>> write(Map<UUID, NavigableMap<Long, IntervalReadingRecord>> batch) {
+		if (batch.size() > 1) {
+			try {
+				writeBlocks(batch);
+				return Map.of();
+			} catch (DataIntegrityViolationException e) {
+				log.warn("Writing the buffered readings of {} MeterReadings together broke a constraint, writing them one at a time", batch.size(), e);
+			}
+		}
+
+		Map<UUID, NavigableMap<Long, IntervalReadingRecord>> failed = new HashMap<>();
+		batch.forEach((meterReadingUuid, readings) -> {
+			try {
+				writeBlocks(Map.of(meterReadingUuid, readings));
+			} catch (DataIntegrityViolationException e) {
+				log.error("Writing {} buffered readings of MeterReading {} failed, keeping them for the next flush", readings.size(), meterReadingUuid, e);
+				// looked up again with the next flush, in case what failed is a MeterReading changed since
+				targets.remove(meterReadingUuid);
+				failed.put(meterReadingUuid, readings);
+			}
+		});
+		return failed;
+	}
+
+	private void writeBlocks(Map<UUID, NavigableMap<Long, IntervalReadingRecord>> batch) {
+		Map<UUID, Target> batchTargets = new HashMap<>();
+		List<UUID> meterReadings = new ArrayList<>(batch.size());
+		List<Long> rangeStarts = new ArrayList<>(batch.size());
+		List<Long> rangeEnds = new ArrayList<>(batch.size());
+		Set<UUID> existing = new HashSet<>(jdbcTemplate.queryForList(EXISTING_METER_READINGS, UUID.class, (Object) batch.keySet().toArray(UUID[]::new)));
+		batch.forEach((meterReadingUuid, readings) -> {
+			Optional<Target> target = existing.contains(meterReadingUuid) ? target(meterReadingUuid) : Optional.empty();
+			if (target.isEmpty()) {
+				targets.remove(meterReadingUuid);
+				log.warn("Dropping {} buffered readings of MeterReading {}, which no longer exists", readings.size(), meterReadingUuid);
+				readingsDropped.increment(readings.size());
+				return;
+			}
+			batchTargets.put(meterReadingUuid, target.get());
+			meterReadings.add(meterReadingUuid);
+			// wide enough to see the neighbours that limit a new block at either end
+			rangeStarts.add(alignedStart(target.get(), readings.firstKey()));
+			rangeEnds.add(alignedStart(target.get(), readings.lastKey()) + blockDuration);
+		});
+		if (meterReadings.isEmpty()) {
+			return;
+		}
+
+		Map<UUID, NavigableMap<Long, StoredBlock>> stored = intervalDataWriter.overlappingBlocks(meterReadings.toArray(UUID[]::new),
+			rangeStarts.toArray(Long[]::new), rangeEnds.toArray(Long[]::new));
+		List<IntervalBlockRecord> blocks = new ArrayList<>();
+		batchTargets.forEach((meterReadingUuid, target) -> {
+			NavigableMap<Long, StoredBlock> storedBlocks = stored.getOrDefault(meterReadingUuid, Collections.emptyNavigableMap());
+			Map<Long, Slot> slots = new LinkedHashMap<>();
+			for (IntervalReadingRecord reading : batch.get(meterReadingUuid).values()) {
+				StoredBlock block = blockFor(meterReadingUuid, target, storedBlocks, reading.start());
+				slots.computeIfAbsent(block.start(), start -> new Slot(block, new ArrayList<>())).readings().add(reading);
+			}
+			slots.values().forEach(slot -> blocks.add(new IntervalBlockRecord(slot.block().uuid(), meterReadingUuid, slot.block().selfLinkHref(),
+				slot.block().upLinkHref(), null, null, slot.block().start(), slot.block().duration(), slot.readings())));
+		});
+
+		int readings = blocks.stream().mapToInt(block -> block.readings().size()).sum();
+		int written = intervalDataWriter.write(blocks);
+		readingsWritten.increment(written);
+		readingsUnchanged.increment(readings - written);
+	}
+
+	/**
+	 * @return the stored block covering the reading, or else a new block aligned to local days that stops short of the stored blocks on either side
+	 */
+	private StoredBlock blockFor(UUID meterReadingUuid, Target target, NavigableMap<Long, StoredBlock> storedBlocks, long readingStart) {
+		Map.Entry<Long, StoredBlock> before = storedBlocks.floorEntry(readingStart);
+		if (before != null && readingStart < before.getValue().end()) {
+			return before.getValue();
+		}
+		long start = alignedStart(target, readingStart);
+		long end = start + blockDuration;
+		if (before != null) {
+			start = Math.max(start, before.getValue().end());
+		}
+		Map.Entry<Long, StoredBlock> after = storedBlocks.higherEntry(readingStart);
+		if (after != null) {
+			end = Math.min(end, after.getKey());
+		}
+		UUID uuid = UuidCreator.getNameBasedSha1(meterReadingUuid, Long.toString(start));
+		return new StoredBlock(uuid, meterReadingUuid, start, end - start, target.intervalBlocksHref() + "/" + uuid, target.intervalBlocksHref());
+	}
+
+	private long alignedStart(Target target, long epochSecond) {
+		return Math.floorDiv(epochSecond + target.tzOffset(), blockDuration) * blockDuration - target.tzOffset();
+	}
+
+	private Optional<Target> target(UUID meterReadingUuid) {
+		Target cached = targets.get(meterReadingUuid);
+		if (cached != null) {
+			return Optional.of(cached);
+		}
+		Optional<Target> found = jdbcTemplate.query(METER_READING_TARGET, (rs, rowNum) -> {
+			String selfLinkHref = rs.getString(1);
+			String base = selfLinkHref != null ? selfLinkHref : "/espi/1_1/resource/MeterReading/" + meterReadingUuid;
+			return new Target(base + "/IntervalBlock", rs.getLong(2), rs.getObject(3, UUID.class));
+		}, meterReadingUuid).stream().findFirst();
+		found.ifPresent(target -> targets.put(meterReadingUuid, target));
+		return found;
+	}
+
+	private Counter readingCounter(MeterRegistry meterRegistry, String outcome) {
+		return Counter.builder("gba.ingest.realtime.readings")
+			.description("Real-time IntervalReadings by how far they got: journaled on receipt, replayed after a restart, written or unchanged when flushed")
+			.tag("outcome", outcome)
+			.register(meterRegistry);
+	}
+
+	/**
+	 * Where a MeterReading's new IntervalBlocks are linked, the standard-time offset their days are aligned to, and the UsagePoint access to it is granted by.
+	 */
+	private record Target(String intervalBlocksHref, long tzOffset, UUID usagePointUuid) {
+	}
+
+	private record Slot(StoredBlock block, List<IntervalReadingRecord> readings) {
+	}
+}
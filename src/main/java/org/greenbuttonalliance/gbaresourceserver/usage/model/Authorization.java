@@ -16,6 +16,7 @@
 package org.greenbuttonalliance.gbaresourceserver.usage.model;
 
 import jakarta.persistence.*;
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
@@ -23,12 +24,19 @@ import lombok.experimental.Accessors;
 import lombok.experimental.SuperBuilder;
 import org.greenbuttonalliance.gbaresourceserver.common.model.DateTimeInterval;
 import org.greenbuttonalliance.gbaresourceserver.common.model.IdentifiedObject;
+import org.greenbuttonalliance.gbaresourceserver.usage.access.AccessChangeListener;
 import org.greenbuttonalliance.gbaresourceserver.usage.model.enums.AuthorizationStatus;
 import org.greenbuttonalliance.gbaresourceserver.usage.model.enums.TokenType;
+import org.greenbuttonalliance.gbaresourceserver.usage.token.AuthorizationChangeListener;
 import org.hibernate.annotations.ColumnTransformer;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
 @Entity
 @Table(name = "authorization", schema = "usage")
+@EntityListeners({AuthorizationChangeListener.class, AccessChangeListener.class})
 @Getter
 @Setter
 @Accessors(chain = true)
@@ -54,10 +62,16 @@ public class Authorization extends IdentifiedObject {
 	@Column(name = "access_token", nullable = false)
 	private String accessToken;
 
+	// SHA-256 of the access token, by which bearer tokens are resolved
+	@Column(name = "access_token_hash")
+	@Setter(AccessLevel.NONE)
+	private byte[] accessTokenHash;
+
 	@Column(name = "refresh_token")
 	private String refreshToken;
 
 	@Column(nullable = false)
+	@Enumerated(EnumType.STRING)
 	private AuthorizationStatus status;
 
 	@Column(name = "expires_at", nullable = false)
@@ -105,4 +119,18 @@ public class Authorization extends IdentifiedObject {
 	@ManyToOne(optional = false, cascade = {CascadeType.PERSIST, CascadeType.MERGE})
 	@JoinColumn(name = "subscription_id", nullable = false)
 	private Subscription subscription;
+
+	public static byte[] hashAccessToken(String accessToken) {
+		try {
+			return MessageDigest.getInstance("SHA-256").digest(accessToken.getBytes(StandardCharsets.UTF_8));
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("Every Java platform supports SHA-256", e);
+		}
+	}
+
+	@PrePersist
+	@PreUpdate
+	private void hashAccessToken() {
+		accessTokenHash = accessToken == null ? null : hashAccessToken(accessToken);
+	}
 }
@@ -18,6 +18,7 @@ package org.greenbuttonalliance.gbaresourceserver.usage.model;
 import jakarta.persistence.CascadeType;
 import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
+import jakarta.persistence.EntityListeners;
 import jakarta.persistence.JoinColumn;
 import jakarta.persistence.ManyToOne;
 import jakarta.persistence.OneToOne;
@@ -28,9 +29,11 @@ import lombok.Setter;
 import lombok.experimental.Accessors;
 import lombok.experimental.SuperBuilder;
 import org.greenbuttonalliance.gbaresourceserver.common.model.IdentifiedObject;
+import org.greenbuttonalliance.gbaresourceserver.usage.access.AccessChangeListener;
 
 @Entity
 @Table(name = "subscription", schema = "usage") // the table name is plural?
+@EntityListeners(AccessChangeListener.class)
 @Getter
 @Setter
 @Accessors(chain = true)
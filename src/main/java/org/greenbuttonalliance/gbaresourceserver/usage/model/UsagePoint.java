@@ -23,6 +23,7 @@ import lombok.experimental.Accessors;
 import lombok.experimental.SuperBuilder;
 import org.greenbuttonalliance.gbaresourceserver.common.model.IdentifiedObject;
 import org.greenbuttonalliance.gbaresourceserver.common.model.SummaryMeasurement;
+import org.greenbuttonalliance.gbaresourceserver.usage.access.AccessChangeListener;
 import org.greenbuttonalliance.gbaresourceserver.usage.model.enums.AmiBillingReadyKind;
 import org.greenbuttonalliance.gbaresourceserver.usage.model.enums.PhaseCodeKind;
 import org.greenbuttonalliance.gbaresourceserver.usage.model.enums.ServiceKind;
@@ -31,9 +32,11 @@ import org.hibernate.annotations.ColumnTransformer;
 
 import java.util.HashSet;
 import java.util.Set;
+import java.util.UUID;
 
 @Entity
 @Table(name = "usage_point", schema = "usage")
+@EntityListeners(AccessChangeListener.class)
 @Getter
 @Setter
 @Accessors(chain = true)
@@ -171,4 +174,8 @@ public class UsagePoint extends IdentifiedObject {
 
 	@OneToMany(mappedBy = "usagePoint", cascade = CascadeType.ALL)
 	private Set<Subscription> subscriptions = new HashSet<>();
+
+	// the Subscription this UsagePoint is shared through, the other side of Subscription.usagePoint
+	@Column(name = "subscription_uuid")
+	private UUID subscriptionUuid;
 }
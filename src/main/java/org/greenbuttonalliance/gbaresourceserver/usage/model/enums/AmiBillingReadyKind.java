@@ -34,7 +34,7 @@ public enum AmiBillingReadyKind {
 
 	public static AmiBillingReadyKind getAmIBillingReadyKindFromSchemaValue(String schemaValue) {
 		return EnumSet.allOf(AmiBillingReadyKind.class).stream()
-			.filter(aibrk -> aibrk.schemaValue == schemaValue)
+			.filter(aibrk -> aibrk.schemaValue.equals(schemaValue))
 			.findFirst()
 			.orElseThrow(() -> new IllegalArgumentException("No " + AmiBillingReadyKind.class.getCanonicalName() + " with schemaValue " + schemaValue));
 	}
@@ -30,7 +30,7 @@ public enum UsagePointConnectedKind {
 
 	public static UsagePointConnectedKind getUsagePointConnectedKindFromSchemaValue(String schemaValue) {
 		return EnumSet.allOf(UsagePointConnectedKind.class).stream()
-			.filter(upck -> upck.schemaValue == schemaValue)
+			.filter(upck -> upck.schemaValue.equals(schemaValue))
 			.findFirst()
 			.orElseThrow(() -> new IllegalArgumentException("No " + UsagePointConnectedKind.class.getCanonicalName() + " with schemaValue " + schemaValue));
 	}
@@ -0,0 +1,227 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.greenbuttonalliance.gbaresourceserver.usage.net;
+
+import com.github.f4b6a3.uuid.UuidCreator;
+import org.greenbuttonalliance.gbaresourceserver.usage.access.UsagePointAccess;
+import org.greenbuttonalliance.gbaresourceserver.usage.bulkhead.DatabaseBulkheads;
+import org.greenbuttonalliance.gbaresourceserver.usage.controller.exception.EntityNotFoundByIdException;
+import org.greenbuttonalliance.gbaresourceserver.usage.controller.exception.InvalidRequestParameterException;
+import org.greenbuttonalliance.gbaresourceserver.usage.model.MeterReading;
+import org.greenbuttonalliance.gbaresourceserver.usage.model.enums.AccumulationKind;
+import org.greenbuttonalliance.gbaresourceserver.usage.model.enums.FlowDirectionKind;
+import org.greenbuttonalliance.gbaresourceserver.usage.rollup.ValueAggregation;
+import org.greenbuttonalliance.gbaresourceserver.usage.scope.EspiScope;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.UUID;
+
+/**
+ * Serves the net of a UsagePoint's forward and reverse MeterReadings as a virtual MeterReading, so a solar customer's net consumption can be read as one
+ * series instead of pulling both and subtracting them. Both series of the requested range are read into primitive arrays and merge-joined by a
+ * {@link NetSeries}; the result is written as an Atom feed of the virtual MeterReading and one IntervalBlock per day of local standard time.
+ * <p>
+ * A MeterReading is paired with the additive MeterReading of the opposite direction in the same units, preferring one with the same interval length and then
+ * the shortest, as {@link org.greenbuttonalliance.gbaresourceserver.usage.summary.UsageSummaryDeriver} pairs them for net consumption.
+ */
+@Service
+public class NetMeterReadingService {
+	private static final int FETCH_SIZE = 10000;
+	private static final int DAY = 86400;
+	// the requested MeterReading first, then the other MeterReadings of its UsagePoint
+	private static final String CANDIDATES = """
+		SELECT mr.uuid, rt.accumulation_behavior::text, rt.flow_direction::text, rt.uom::text, rt.power_of_ten_multiplier::text, rt.interval_length,
+			rt.self_link_href, coalesce(tc.tz_offset, 0), mr.usage_point_uuid
+		FROM usage.meter_reading m
+		JOIN usage.meter_reading mr ON mr.uuid = m.uuid OR mr.usage_point_uuid = m.usage_point_uuid
+		LEFT JOIN usage.reading_type rt ON rt.uuid = mr.reading_type_uuid
+		LEFT JOIN usage.usage_point up ON up.uuid = mr.usage_point_uuid
+		LEFT JOIN usage.time_configuration tc ON tc.uuid = up.time_configuration_uuid
+		WHERE m.uuid = ?%s
+		ORDER BY mr.uuid <> m.uuid, rt.interval_length NULLS LAST, mr.uuid""";
+	private static final String READINGS = """
+		SELECT r.start, r.duration, r.value
+		FROM usage.interval_block b JOIN usage.interval_reading r ON r.block_uuid = b.uuid
+		WHERE b.meter_reading_uuid = ? AND b.start < ? AND b.start + b.duration > ? AND b.start >= ? AND r.start >= ? AND r.start < ?
+			AND r.value IS NOT NULL
+		ORDER BY r.start""";
+
+	private final JdbcTemplate jdbcTemplate;
+	private final TransactionTemplate readOnlyTransaction;
+	private final DatabaseBulkheads databaseBulkheads;
+
+	@Autowired
+	public NetMeterReadingService(DataSource dataSource, PlatformTransactionManager transactionManager, DatabaseBulkheads databaseBulkheads) {
+		this.jdbcTemplate = new JdbcTemplate(dataSource);
+		this.jdbcTemplate.setFetchSize(FETCH_SIZE);
+		this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+		this.readOnlyTransaction.setReadOnly(true);
+		this.databaseBulkheads = databaseBulkheads;
+	}
+
+	/**
+	 * The id of the virtual net MeterReading of a forward MeterReading.
+	 */
+	public static UUID netUuid(UUID forwardUuid) {
+		return UuidCreator.getNameBasedSha1(forwardUuid + "/Net");
+	}
+
+	/**
+	 * Pairs a forward or reverse MeterReading with its counterpart, among the MeterReadings whose interval length <code>scope</code> allows. A MeterReading
+	 * of a UsagePoint outside <code>usagePointAccess</code> is not found.
+	 */
+	public NetPair findPair(UUID meterReadingUuid, EspiScope scope, UsagePointAccess usagePointAccess) {
+		long historyStart = scope.historyStart(Instant.now().getEpochSecond());
+		List<Candidate> candidates = new ArrayList<>();
+		databaseBulkheads.current().run(() -> jdbcTemplate.query(CANDIDATES.formatted(scope.intervalLengthPredicate("rt.interval_length")), rs -> {
+			String accumulation = rs.getString(2);
+			String direction = rs.getString(3);
+			candidates.add(new Candidate(rs.getObject(1, UUID.class),
+				ValueAggregation.of(accumulation == null ? null : AccumulationKind.valueOf(accumulation)),
+				direction == null ? FlowDirectionKind.FORWARD : FlowDirectionKind.valueOf(direction), rs.getString(4), rs.getString(5),
+				rs.getObject(6, Long.class), rs.getString(7), ZoneOffset.ofTotalSeconds(rs.getInt(8)), rs.getObject(9, UUID.class)));
+		}, meterReadingUuid));
+		if (candidates.isEmpty() || !candidates.getFirst().uuid().equals(meterReadingUuid)) {
+			throw new EntityNotFoundByIdException(MeterReading.class, meterReadingUuid);
+		}
+		Candidate requested = candidates.getFirst();
+		usagePointAccess.require(requested.usagePointUuid(), MeterReading.class, meterReadingUuid);
+		if (requested.aggregation() != ValueAggregation.ADDITIVE
+			|| (requested.direction() != FlowDirectionKind.FORWARD && requested.direction() != FlowDirectionKind.REVERSE)) {
+			throw new InvalidRequestParameterException("meterReadingId", meterReadingUuid, "a forward or reverse MeterReading of interval quantities");
+		}
+		Candidate counterpart = null;
+		for (Candidate candidate : candidates.subList(1, candidates.size())) {
+			if (candidate.pairsWith(requested) && (counterpart == null
+				|| !Objects.equals(counterpart.intervalLength(), requested.intervalLength()) && Objects.equals(candidate.intervalLength(), requested.intervalLength()))) {
+				counterpart = candidate;
+			}
+		}
+		if (counterpart == null) {
+			throw new InvalidRequestParameterException("meterReadingId", meterReadingUuid,
+				"a MeterReading whose UsagePoint has a MeterReading of the opposite direction in the same units");
+		}
+		Candidate forward = requested.direction() == FlowDirectionKind.FORWARD ? requested : counterpart;
+		Candidate reverse = forward == requested ? counterpart : requested;
+		return new NetPair(netUuid(forward.uuid()), forward.uuid(), reverse.uuid(), forward.offset(), forward.readingTypeHref(), historyStart);
+	}
+
+	/**
+	 * Writes the net readings starting in <code>[from, to)</code> as an Atom feed of the virtual MeterReading and its IntervalBlocks.
+	 */
+	public void writeNet(NetPair pair, long from, long to, OutputStream out) {
+		NetSeries net = new NetSeries();
+		databaseBulkheads.current().run(() -> readOnlyTransaction.executeWithoutResult(status -> {
+			Readings forward = read(pair.forwardUuid(), from, to, pair.historyStart());
+			Readings reverse = read(pair.reverseUuid(), from, to, pair.historyStart());
+			net.merge(forward.starts, forward.durations, forward.values, 0, forward.size, reverse.starts, reverse.durations, reverse.values, 0, reverse.size);
+		}));
+
+		String updated = Instant.now().truncatedTo(ChronoUnit.SECONDS).toString();
+		String self = STR."/espi/1_1/resource/MeterReading/\{pair.forwardUuid()}/Net";
+		Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 1 << 14);
+		try {
+			writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+			writer.write("<feed xmlns=\"http://www.w3.org/2005/Atom\" xmlns:espi=\"http://naesb.org/espi\">\n");
+			writer.write(STR."\t<id>urn:uuid:\{pair.netUuid()}</id>\n\t<title>Green Button Usage Feed</title>\n\t<updated>\{updated}</updated>\n");
+			writer.write(STR."\t<entry>\n\t\t<id>urn:uuid:\{pair.netUuid()}</id>\n\t\t<link rel=\"self\" href=\"\{self}\" type=\"espi-entry/MeterReading\"/>\n");
+			if (pair.readingTypeHref() != null) {
+				writer.write(STR."\t\t<link rel=\"related\" href=\"\{pair.readingTypeHref()}\" type=\"espi-entry/ReadingType\"/>\n");
+			}
+			writer.write(STR."\t\t<title>Net of MeterReadings \{pair.forwardUuid()} and \{pair.reverseUuid()}</title>\n");
+			writer.write(STR."\t\t<content><espi:MeterReading/></content>\n\t\t<updated>\{updated}</updated>\n\t</entry>\n");
+			writeBlocks(writer, pair, net, self, updated);
+			writer.write("</feed>\n");
+			writer.flush();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private static void writeBlocks(Writer writer, NetPair pair, NetSeries net, String self, String updated) throws IOException {
+		long[] starts = net.starts();
+		int[] durations = net.durations();
+		long[] values = net.values();
+		int offsetSeconds = pair.offset().getTotalSeconds();
+		int i = 0;
+		while (i < net.size()) {
+			long dayStart = Math.floorDiv(starts[i] + offsetSeconds, DAY) * DAY - offsetSeconds;
+			long dayEnd = dayStart + DAY;
+			writer.write(STR."\t<entry>\n\t\t<id>urn:uuid:\{UuidCreator.getNameBasedSha1(pair.netUuid() + "/IntervalBlock/" + dayStart)}</id>\n");
+			writer.write(STR."\t\t<link rel=\"up\" href=\"\{self}\" type=\"espi-entry/MeterReading\"/>\n\t\t<title>IntervalBlock</title>\n\t\t<content>\n");
+			writer.write(STR."\t\t\t<espi:IntervalBlock>\n\t\t\t\t<espi:interval><espi:duration>\{DAY}</espi:duration><espi:start>\{dayStart}</espi:start></espi:interval>\n");
+			for (; i < net.size() && starts[i] < dayEnd; i++) {
+				writer.write(STR."\t\t\t\t<espi:IntervalReading><espi:timePeriod><espi:duration>\{durations[i]}</espi:duration><espi:start>\{starts[i]}</espi:start></espi:timePeriod><espi:value>\{values[i]}</espi:value></espi:IntervalReading>\n");
+			}
+			writer.write(STR."\t\t\t</espi:IntervalBlock>\n\t\t</content>\n\t\t<updated>\{updated}</updated>\n\t</entry>\n");
+		}
+	}
+
+	private Readings read(UUID meterReadingUuid, long from, long to, long historyStart) {
+		Readings readings = new Readings();
+		jdbcTemplate.query(READINGS, rs -> {
+			readings.add(rs.getLong(1), rs.getInt(2), rs.getLong(3));
+		}, meterReadingUuid, to, from, historyStart, from, to);
+		return readings;
+	}
+
+	private record Candidate(UUID uuid, ValueAggregation aggregation, FlowDirectionKind direction, String uom, String powerOfTenMultiplier,
+							 Long intervalLength, String readingTypeHref, ZoneOffset offset, UUID usagePointUuid) {
+		boolean pairsWith(Candidate other) {
+			return aggregation == ValueAggregation.ADDITIVE && direction == (other.direction == FlowDirectionKind.FORWARD ? FlowDirectionKind.REVERSE
+				: FlowDirectionKind.FORWARD) && Objects.equals(uom, other.uom) && Objects.equals(powerOfTenMultiplier, other.powerOfTenMultiplier);
+		}
+	}
+
+	private static final class Readings {
+		long[] starts = new long[1024];
+		int[] durations = new int[1024];
+		long[] values = new long[1024];
+		int size;
+
+		void add(long start, int duration, long value) {
+			if (size == starts.length) {
+				starts = Arrays.copyOf(starts, size * 2);
+				durations = Arrays.copyOf(durations, size * 2);
+				values = Arrays.copyOf(values, size * 2);
+			}
+			starts[size] = start;
+			durations[size] = duration;
+			values[size] = value;
+			size++;
+		}
+	}
+}
@@ -0,0 +1,28 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.greenbuttonalliance.gbaresourceserver.usage.net;
+
+import java.time.ZoneOffset;
+import java.util.UUID;
+
+/**
+ * A forward and a reverse MeterReading of the same UsagePoint, in the same units, and the id of the virtual MeterReading of their net.
+ * <code>readingTypeHref</code> is the forward MeterReading's ReadingType, which the net series is in, and <code>historyStart</code> the earliest
+ * IntervalBlock start the client's scope lets it see.
+ */
+public record NetPair(UUID netUuid, UUID forwardUuid, UUID reverseUuid, ZoneOffset offset, String readingTypeHref, long historyStart) {
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.greenbuttonalliance.gbaresourceserver.usage.net;
+
+/**
+ * The net series of a forward (delivered) and a reverse (received) series: forward minus reverse per interval. Both inputs are sorted by start, so they are
+ * merge-joined on start in one pass over each. An interval only one of them has a reading for counts the other as zero, so the net of any range is the
+ * consumption minus the generation of that range. When both have an interval with the same start, the forward duration is kept.
+ * <p>
+ * The arrays are reused by each {@link #merge}, so one instance serves every UsagePoint of a partition; it is not thread-safe.
+ */
+public final class NetSeries {
+	private long[] starts = new long[1024];
+	private int[] durations = new int[1024];
+	private long[] values = new long[1024];
+	private int size;
+
+	/**
+	 * Replaces the series by the net of <code>[forwardFrom, forwardTo)</code> of the forward columns and <code>[reverseFrom, reverseTo)</code> of the reverse
+	 * columns.
+	 */
+	public void merge(long[] forwardStarts, int[] forwardDurations, long[] forwardValues, int forwardFrom, int forwardTo,
+					  long[] reverseStarts, int[] reverseDurations, long[] reverseValues, int reverseFrom, int reverseTo) {
+		int capacity = forwardTo - forwardFrom + reverseTo - reverseFrom;
+		if (capacity > starts.length) {
+			starts = new long[capacity];
+			durations = new int[capacity];
+			values = new long[capacity];
+		}
+		int f = forwardFrom;
+		int r = reverseFrom;
+		int n = 0;
+		while (f < forwardTo && r < reverseTo) {
+			long forwardStart = forwardStarts[f];
+			long reverseStart = reverseStarts[r];
+			if (forwardStart < reverseStart) {
+				starts[n] = forwardStart;
+				durations[n] = forwardDurations[f];
+				values[n++] = forwardValues[f++];
+			} else if (reverseStart < forwardStart) {
+				starts[n] = reverseStart;
+				durations[n] = reverseDurations[r];
+				values[n++] = -reverseValues[r++];
+			} else {
+				starts[n] = forwardStart;
+				durations[n] = forwardDurations[f];
+				values[n++] = forwardValues[f++] - reverseValues[r++];
+			}
+		}
+		for (; f < forwardTo; f++, n++) {
+			starts[n] = forwardStarts[f];
+			durations[n] = forwardDurations[f];
+			values[n] = forwardValues[f];
+		}
+		for (; r < reverseTo; r++, n++) {
+			starts[n] = reverseStarts[r];
+			durations[n] = reverseDurations[r];
+			values[n] = -reverseValues[r];
+		}
+		size = n;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * The backing array of starts; only <code>[0, size())</code> is used.
+	 */
+	public long[] starts() {
+		return starts;
+	}
+
+	public int[] durations() {
+		return durations;
+	}
+
+	public long[] values() {
+		return values;
+	}
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.greenbuttonalliance.gbaresourceserver.usage.quality;
+
+/**
+ * The ElectricPowerQualitySummaries of one UsagePoint or outage region whose summaryInterval starts in a window. Events that are counted
+ * (interruptions, dips, rapid changes, temporary overvoltages) are totalled; levels are given at their worst, and the power frequency at both extremes.
+ * Measurements no summary has are null.
+ *
+ * @param group        the UsagePoint's id or the outage region, or null for UsagePoints without an outage region
+ * @param summaries    how many summaries were aggregated
+ * @param usagePoints  how many UsagePoints they are of
+ * @param start        the earliest start of their summaryIntervals
+ * @param end          the latest end of their summaryIntervals
+ */
+public record PowerQualityAggregate(String group, long summaries, long usagePoints, long start, long end,
+									Long longInterruptions, Long shortInterruptions, Long supplyVoltageDips, Long rapidVoltageChanges, Long tempOvervoltage,
+									Long maxFlickerPlt, Long maxFlickerPst, Long maxHarmonicVoltage, Long maxMainsVoltage, Long maxSupplyVoltageImbalance,
+									Long maxSupplyVoltageVariations, Long minPowerFrequency, Long maxPowerFrequency) {
+}
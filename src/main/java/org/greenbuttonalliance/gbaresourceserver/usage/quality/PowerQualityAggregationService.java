@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.greenbuttonalliance.gbaresourceserver.usage.quality;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.greenbuttonalliance.gbaresourceserver.usage.bulkhead.DatabaseBulkheads;
+import org.greenbuttonalliance.gbaresourceserver.usage.cache.BoundedCache;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import javax.sql.DataSource;
+import java.time.Clock;
+import java.util.List;
+
+/**
+ * Aggregates ElectricPowerQualitySummaries per UsagePoint or outage region in the database, so a dashboard over thousands of UsagePoints and months reads one
+ * row per group instead of every summary. Each UsagePoint's summaries are found through the <code>(usage_point_uuid, start)</code> index.
+ * <p>
+ * Results are cached for <code>gba.power-quality.cache-ttl</code> seconds, up to <code>gba.power-quality.cache-size</code> of them in a {@link BoundedCache},
+ * since dashboards keep asking for the same recent windows. A dashboard's "last 30 days" moves with every request, so the window is first widened to whole
+ * multiples of <code>gba.power-quality.window-alignment</code> seconds, which the result reports as its <code>from</code> and <code>to</code>; requests
+ * within the same multiple then share a result. A summary imported within the ttl may be missing from a cached result; its <code>computedAt</code> says how
+ * old it is.
+ */
+@Service
+public class PowerQualityAggregationService {
+	private static final String AGGREGATES = """
+		SELECT %s, count(*), count(DISTINCT up.uuid), min(s.start), max(s.start + coalesce(s.duration, 0)),
+			sum(s.long_interruptions)::bigint, sum(s.short_interruptions)::bigint, sum(s.supply_voltage_dips)::bigint, sum(s.rapid_voltage_changes)::bigint,
+			sum(s.temp_overvoltage)::bigint, max(s.flicker_plt), max(s.flicker_pst), max(s.harmonic_voltage), max(s.mains_voltage),
+			max(s.supply_voltage_imbalance), max(s.supply_voltage_variations), min(s.power_frequency), max(s.power_frequency)
+		FROM usage.usage_point up
+		CROSS JOIN LATERAL (
+			SELECT * FROM usage.electric_power_quality_summaries q WHERE q.usage_point_uuid = up.uuid AND q.start >= ? AND q.start < ?
+		) s
+		WHERE ?::text IS NULL OR up.outage_region = ?
+		GROUP BY 1
+		ORDER BY 1 NULLS LAST""";
+
+	private final JdbcTemplate jdbcTemplate;
+	private final DatabaseBulkheads databaseBulkheads;
+	private final Clock clock;
+	private final long cacheTtl;
+	private final long windowAlignment;
+	private final BoundedCache<Query, PowerQualityAggregates> cache;
+
+	private final Timer aggregations;
+	private final Counter cacheHits;
+	private final Counter cacheMisses;
+
+	@Autowired
+	public PowerQualityAggregationService(DataSource dataSource, DatabaseBulkheads databaseBulkheads, MeterRegistry meterRegistry,
+										  @Value("${gba.power-quality.cache-ttl:300}") long cacheTtl,
+										  @Value("${gba.power-quality.cache-size:1000}") int cacheSize,
+										  @Value("${gba.power-quality.window-alignment:300}") long windowAlignment) {
+		this(dataSource, databaseBulkheads, meterRegistry, Clock.systemUTC(), cacheTtl, cacheSize, windowAlignment);
+	}
+
+	PowerQualityAggregationService(DataSource dataSource, DatabaseBulkheads databaseBulkheads, MeterRegistry meterRegistry, Clock clock, long cacheTtl,
+								   int cacheSize, long windowAlignment) {
+		this.jdbcTemplate = new JdbcTemplate(dataSource);
+		this.databaseBulkheads = databaseBulkheads;
+		this.clock = clock;
+		this.cacheTtl = cacheTtl;
+		this.windowAlignment = Math.max(1, windowAlignment);
+		this.cache = new BoundedCache<>(cacheTtl > 0 ? cacheSize : 0);
+
+		this.aggregations = Timer.builder("gba.power-quality.aggregation")
+			.description("Time to aggregate ElectricPowerQualitySummaries in the database")
+			.register(meterRegistry);
+		this.cacheHits = Counter.builder("gba.power-quality.cache")
+			.description("ElectricPowerQualitySummary aggregations answered from or missing in the cache")
+			.tag("result", "hit")
+			.register(meterRegistry);
+		this.cacheMisses = Counter.builder("gba.power-quality.cache")
+			.description("ElectricPowerQualitySummary aggregations answered from or missing in the cache")
+			.tag("result", "miss")
+			.register(meterRegistry);
+		Gauge.builder("gba.power-quality.cache.size", cache, BoundedCache::size)
+			.description("Cached ElectricPowerQualitySummary aggregations")
+			.register(meterRegistry);
+	}
+
+	/**
+	 * The aggregates of the window <code>[from, to)</code> widened to whole multiples of the alignment.
+	 *
+	 * @param outageRegion only UsagePoints of this outage region, or null for all
+	 */
+	public PowerQualityAggregates aggregate(long from, long to, PowerQualityGrouping grouping, String outageRegion) {
+		Query query = new Query(Math.floorDiv(from, windowAlignment) * windowAlignment,
+			to > Long.MAX_VALUE - windowAlignment ? to : Math.ceilDiv(to, windowAlignment) * windowAlignment, grouping, outageRegion);
+		long now = clock.instant().getEpochSecond();
+		PowerQualityAggregates cached = cache.get(query);
+		if (cached != null && now - cached.computedAt() < cacheTtl) {
+			cacheHits.increment();
+			return cached;
+		}
+		cacheMisses.increment();
+		// concurrent misses of the same query each aggregate; the cache only saves repeats
+		PowerQualityAggregates aggregates = new PowerQualityAggregates(query.from(), query.to(), grouping.getParameter(), outageRegion, now,
+			aggregations.record(() -> databaseBulkheads.current().call(() -> query(query))));
+		cache.put(query, aggregates);
+		return aggregates;
+	}
+
+	private List<PowerQualityAggregate> query(Query query) {
+		return jdbcTemplate.query(AGGREGATES.formatted(query.grouping().keySql()), (rs, rowNum) -> new PowerQualityAggregate(rs.getString(1), rs.getLong(2),
+			rs.getLong(3), rs.getLong(4), rs.getLong(5), rs.getObject(6, Long.class), rs.getObject(7, Long.class), rs.getObject(8, Long.class),
+			rs.getObject(9, Long.class), rs.getObject(10, Long.class), rs.getObject(11, Long.class), rs.getObject(12, Long.class), rs.getObject(13, Long.class),
+			rs.getObject(14, Long.class), rs.getObject(15, Long.class), rs.getObject(16, Long.class), rs.getObject(17, Long.class), rs.getObject(18, Long.class)),
+			query.from(), query.to(), query.outageRegion(), query.outageRegion());
+	}
+
+	private record Query(long from, long to, PowerQualityGrouping grouping, String outageRegion) {
+	}
+}
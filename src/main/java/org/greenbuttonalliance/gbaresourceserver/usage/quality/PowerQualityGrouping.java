@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.greenbuttonalliance.gbaresourceserver.usage.quality;
+
+import org.greenbuttonalliance.gbaresourceserver.usage.controller.exception.InvalidRequestParameterException;
+
+import java.util.Arrays;
+import java.util.stream.Collectors;
+
+/**
+ * What ElectricPowerQualitySummaries are aggregated by.
+ */
+public enum PowerQualityGrouping {
+	USAGE_POINT("usagePoint", "up.uuid::text"),
+	OUTAGE_REGION("outageRegion", "up.outage_region");
+
+	private final String parameter;
+	private final String keySql;
+
+	PowerQualityGrouping(String parameter, String keySql) {
+		this.parameter = parameter;
+		this.keySql = keySql;
+	}
+
+	public static PowerQualityGrouping fromParameter(String parameter) {
+		return Arrays.stream(values())
+			.filter(grouping -> grouping.parameter.equalsIgnoreCase(parameter))
+			.findFirst()
+			.orElseThrow(() -> new InvalidRequestParameterException("groupBy", parameter,
+				Arrays.stream(values()).map(grouping -> grouping.parameter).collect(Collectors.joining(", "))));
+	}
+
+	public String getParameter() {
+		return parameter;
+	}
+
+	/**
+	 * SQL for the group key of a row of <code>usage.usage_point up</code>, as text.
+	 */
+	String keySql() {
+		return keySql;
+	}
+}
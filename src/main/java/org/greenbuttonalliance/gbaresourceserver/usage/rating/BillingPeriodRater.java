@@ -0,0 +1,383 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.greenbuttonalliance.gbaresourceserver.usage.rating;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.greenbuttonalliance.gbaresourceserver.common.model.enums.UnitMultiplierKind;
+import org.greenbuttonalliance.gbaresourceserver.usage.model.enums.AccumulationKind;
+import org.greenbuttonalliance.gbaresourceserver.usage.model.enums.FlowDirectionKind;
+import org.greenbuttonalliance.gbaresourceserver.usage.model.enums.ItemKind;
+import org.greenbuttonalliance.gbaresourceserver.usage.rollup.ValueAggregation;
+import org.greenbuttonalliance.gbaresourceserver.usage.summary.SummaryPeriod;
+import org.greenbuttonalliance.gbaresourceserver.usage.summary.UsageSummaryDeriver;
+import org.greenbuttonalliance.gbaresourceserver.usage.time.LocalTimeTable;
+import org.greenbuttonalliance.gbaresourceserver.usage.time.LocalTimeTables;
+import org.greenbuttonalliance.gbaresourceserver.usage.workload.Workload;
+import org.greenbuttonalliance.gbaresourceserver.usage.workload.WorkloadClass;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.sql.Array;
+import java.sql.PreparedStatement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rates a billing period of interval data against each UsagePoint's tariff and writes the charges as LineItems of the UsageSummary derived for that period
+ * (see {@link UsageSummaryDeriver}), with their total as the summary's <code>billToDate</code>. Rating a period again replaces its LineItems.
+ * <p>
+ * The tariff of a UsagePoint is the schedule of its ServiceDeliveryPoint's <code>tariffProfile</code> in effect at the start of the period, plus the
+ * schedules of the TariffRiderRefs it is enrolled in; each distinct combination is compiled once per run. Its energy series is its additive forward
+ * MeterReading in Wh with the shortest intervals, and its time-of-use periods follow the local time of its TimeConfiguration, daylight saving time included.
+ * UsagePoints are rated in partitions of <code>gba.rating.partition-size</code>, each read with a few set-based queries into primitive arrays and run through
+ * one {@link RatingEngine}.
+ */
+@Service
+@Slf4j
+public class BillingPeriodRater {
+	private static final int FETCH_SIZE = 10000;
+	private static final String USAGE_POINTS = """
+		SELECT up.uuid FROM usage.usage_point up JOIN usage.service_delivery_point sdp ON sdp.uuid = up.service_delivery_point_uuid
+		WHERE sdp.tariff_profile IS NOT NULL ORDER BY 1""";
+	private static final String TARGETS = """
+		SELECT up.uuid, s.uuid, coalesce(tc.tz_offset, 0), sdp.tariff_profile,
+			array(SELECT DISTINCT t.rider_type
+				FROM usage.service_delivery_point_tariff_rider_ref st JOIN usage.tariff_rider_ref t ON t.id = st.tariff_rider_ref_id
+				WHERE st.service_delivery_point_uuid = sdp.uuid AND t.enrollment_status::text = 'ENROLLED' AND t.effective_date <= ?
+				ORDER BY 1),
+			tc.dst_offset, tc.dst_start_rule, tc.dst_end_rule
+		FROM unnest(?::uuid[], ?::uuid[]) AS p (usage_point_uuid, summary_uuid)
+		JOIN usage.usage_point up ON up.uuid = p.usage_point_uuid
+		JOIN usage.service_delivery_point sdp ON sdp.uuid = up.service_delivery_point_uuid
+		JOIN usage.usage_summaries s ON s.uuid = p.summary_uuid
+		LEFT JOIN usage.time_configuration tc ON tc.uuid = up.time_configuration_uuid
+		WHERE sdp.tariff_profile IS NOT NULL""";
+	private static final String SERIES = """
+		SELECT mr.usage_point_uuid, mr.uuid, rt.accumulation_behavior::text, rt.flow_direction::text, rt.power_of_ten_multiplier::text, rt.self_link_href
+		FROM usage.meter_reading mr JOIN usage.reading_type rt ON rt.uuid = mr.reading_type_uuid
+		WHERE mr.usage_point_uuid = ANY(?::uuid[]) AND rt.uom::text = 'W_H'
+		ORDER BY mr.usage_point_uuid, rt.interval_length NULLS LAST, mr.uuid""";
+	private static final String READINGS = """
+		SELECT s.series, r.start, r.value, coalesce(r.cpp, 0)
+		FROM unnest(?::uuid[]) WITH ORDINALITY AS s (meter_reading_uuid, series)
+		JOIN usage.interval_block b ON b.meter_reading_uuid = s.meter_reading_uuid AND b.start < ? AND b.start + b.duration > ?
+		JOIN usage.interval_reading r ON r.block_uuid = b.uuid AND r.start >= ? AND r.start < ?
+		WHERE r.value IS NOT NULL
+		ORDER BY s.series, r.start""";
+	private static final String DELETE_LINE_ITEMS = "DELETE FROM usage.line_item WHERE usage_summary_uuid = ANY(?::uuid[])";
+	private static final String INSERT_LINE_ITEM = """
+		INSERT INTO usage.line_item (usage_summary_uuid, item_kind, note, amount, unit_cost, date_time, start, duration, value, uom, power_of_ten_multiplier,
+			time_stamp, reading_type_ref)
+		VALUES (?, CAST(? AS usage.item_kind), ?, ?, ?, ?, ?, ?, ?, CAST(? AS public.unit_symbol_kind), CAST(? AS public.unit_multiplier_kind), ?, ?)""";
+	private static final String UPDATE_SUMMARY = "UPDATE usage.usage_summaries SET bill_to_date = ?, currency = ? WHERE uuid = ?";
+
+	private final TariffRepository tariffRepository;
+	private final LocalTimeTables localTimeTables;
+	private final JdbcTemplate jdbcTemplate;
+	private final TransactionTemplate transactionTemplate;
+	private final TransactionTemplate readOnlyTransaction;
+	private final int partitionSize;
+
+	private final Timer partitions;
+	private final Counter readingsRated;
+
+	@Autowired
+	public BillingPeriodRater(TariffRepository tariffRepository, LocalTimeTables localTimeTables, DataSource dataSource, PlatformTransactionManager transactionManager,
+							  MeterRegistry meterRegistry, @Value("${gba.rating.partition-size:500}") int partitionSize) {
+		this.tariffRepository = tariffRepository;
+		this.localTimeTables = localTimeTables;
+		this.jdbcTemplate = new JdbcTemplate(dataSource);
+		this.jdbcTemplate.setFetchSize(FETCH_SIZE);
+		this.transactionTemplate = new TransactionTemplate(transactionManager);
+		this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+		this.readOnlyTransaction.setReadOnly(true);
+		this.partitionSize = partitionSize;
+
+		this.partitions = Timer.builder("gba.rating.partition")
+			.description("Time to read, rate and write the LineItems of one partition of UsagePoints")
+			.register(meterRegistry);
+		this.readingsRated = Counter.builder("gba.rating.readings")
+			.description("IntervalReadings rated against a tariff")
+			.register(meterRegistry);
+	}
+
+	/**
+	 * Rates every UsagePoint whose ServiceDeliveryPoint has a tariff profile.
+	 */
+	public RatingRun rate(SummaryPeriod period) {
+		try (Workload.Scope ignored = Workload.enter(WorkloadClass.BULK)) {
+			return rate(period, jdbcTemplate.queryForList(USAGE_POINTS, UUID.class));
+		}
+	}
+
+	/**
+	 * Rates the UsagePoints one partition after another on the calling thread, which does bulk work meanwhile.
+	 */
+	public RatingRun rate(SummaryPeriod period, List<UUID> usagePointUuids) {
+		try (Workload.Scope ignored = Workload.enter(WorkloadClass.BULK)) {
+			long started = System.nanoTime();
+			Map<TariffKey, Optional<CompiledTariff>> tariffs = new HashMap<>();
+			RatingEngine engine = new RatingEngine();
+			RatingRun run = new RatingRun(0, 0, 0, 0);
+			for (int from = 0; from < usagePointUuids.size(); from += partitionSize) {
+				List<UUID> partition = usagePointUuids.subList(from, Math.min(from + partitionSize, usagePointUuids.size()));
+				RatingRun partitionRun = partitions.record(() -> ratePartition(period, partition, tariffs, engine));
+				run = new RatingRun(run.usagePoints() + partitionRun.usagePoints(), run.rated() + partitionRun.rated(),
+					run.lineItems() + partitionRun.lineItems(), run.intervalReadings() + partitionRun.intervalReadings());
+			}
+			log.info("Rated {} of {} UsagePoints into {} LineItems from {} readings in {} ms", run.rated(), run.usagePoints(), run.lineItems(),
+				run.intervalReadings(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+			return run;
+		}
+	}
+
+	private RatingRun ratePartition(SummaryPeriod period, List<UUID> usagePointUuids, Map<TariffKey, Optional<CompiledTariff>> tariffs,
+									RatingEngine engine) {
+		UUID[] usagePoints = usagePointUuids.toArray(UUID[]::new);
+		UUID[] summaries = usagePointUuids.stream().map(uuid -> UsageSummaryDeriver.derivedSummaryUuid(uuid, period.start())).toArray(UUID[]::new);
+		PartitionData data = readOnlyTransaction.execute(status -> read(period, usagePoints, summaries));
+
+		List<RatedItem> items = new ArrayList<>();
+		List<Object[]> bills = new ArrayList<>();
+		for (Target target : data.targets().values()) {
+			if (target.series() < 0) {
+				continue;
+			}
+			CompiledTariff tariff = tariffs.computeIfAbsent(new TariffKey(target.tariffProfile(), target.riderTypes()),
+				key -> tariffRepository.find(key.tariffProfile(), key.riderTypes(), period.start())).orElse(null);
+			if (tariff == null) {
+				continue;
+			}
+			Series series = data.series().get(target.series());
+			ReadingArrays readings = data.readings();
+			engine.rate(tariff, readings.starts, readings.values, readings.cpp, readings.from(target.series()), readings.to(target.series()),
+				target.localTime(), series.powerOfTenMultiplier().schemaValue);
+			long bill = addLineItems(items, period, target, series, tariff, engine);
+			bills.add(new Object[]{bill, tariff.currency(), target.summaryUuid()});
+		}
+		write(period, summaries, items, bills);
+
+		readingsRated.increment(data.readings().size);
+		return new RatingRun(usagePoints.length, bills.size(), items.size(), data.readings().size);
+	}
+
+	/**
+	 * One LineItem per time-of-use period and per tier with a price, one for critical peak charges and one for the fixed charge.
+	 *
+	 * @return the total of the LineItems
+	 */
+	private static long addLineItems(List<RatedItem> items, SummaryPeriod period, Target target, Series series, CompiledTariff tariff, RatingEngine engine) {
+		long total = 0;
+		for (int t = 0; t < tariff.touCount(); t++) {
+			if (engine.touEnergy(t) != 0) {
+				long amount = engine.touAmount(t);
+				items.add(new RatedItem(target.summaryUuid(), ItemKind.ENERGY_USAGE_FEE, STR."Energy charge, time-of-use period \{tariff.touCode(t)}", amount,
+					engine.touEnergy(t), series));
+				total += amount;
+			}
+		}
+		for (int t = 0; t < tariff.tierCount(); t++) {
+			if (engine.tierEnergy(t) != 0 && tariff.tierPrice(t) != 0) {
+				long amount = engine.tierAmount(t);
+				items.add(new RatedItem(target.summaryUuid(), ItemKind.ENERGY_USAGE_FEE,
+					STR."Tier \{t + 1} charge, from \{tariff.tierBound(t)} Wh", amount, engine.tierEnergy(t), series));
+				total += amount;
+			}
+		}
+		if (engine.cppEnergy() != 0 && tariff.cppPrice() != 0) {
+			long amount = engine.cppAmount();
+			items.add(new RatedItem(target.summaryUuid(), ItemKind.ENERGY_USAGE_FEE, "Critical peak charge", amount, engine.cppEnergy(), series));
+			total += amount;
+		}
+		if (tariff.fixedCharge() != 0) {
+			items.add(new RatedItem(target.summaryUuid(), ItemKind.ADMINISTRATIVE_FEE, "Fixed charge", tariff.fixedCharge(), null, series));
+			total += tariff.fixedCharge();
+		}
+		return total;
+	}
+
+	private PartitionData read(SummaryPeriod period, UUID[] usagePoints, UUID[] summaries) {
+		Map<UUID, Target> targets = new LinkedHashMap<>();
+		jdbcTemplate.query(con -> {
+			PreparedStatement ps = con.prepareStatement(TARGETS);
+			ps.setLong(1, period.start());
+			ps.setArray(2, con.createArrayOf("uuid", usagePoints));
+			ps.setArray(3, con.createArrayOf("uuid", summaries));
+			return ps;
+		}, rs -> {
+			Array riders = rs.getArray(5);
+			LocalTimeTable localTime = localTimeTables.of(rs.getLong(3), rs.getObject(6, Long.class), rs.getBytes(7), rs.getBytes(8));
+			targets.put(rs.getObject(1, UUID.class), new Target(rs.getObject(2, UUID.class), localTime, rs.getString(4),
+				List.of((String[]) riders.getArray()), -1));
+		});
+
+		// the first additive forward series, in order of interval length, is the UsagePoint's
+		List<Series> series = new ArrayList<>();
+		jdbcTemplate.query(con -> {
+			PreparedStatement ps = con.prepareStatement(SERIES);
+			ps.setArray(1, con.createArrayOf("uuid", targets.keySet().toArray()));
+			return ps;
+		}, rs -> {
+			UUID usagePoint = rs.getObject(1, UUID.class);
+			Target target = targets.get(usagePoint);
+			String accumulation = rs.getString(3);
+			String direction = rs.getString(4);
+			if (target == null || target.series() >= 0
+				|| ValueAggregation.of(accumulation == null ? null : AccumulationKind.valueOf(accumulation)) != ValueAggregation.ADDITIVE
+				|| (direction != null && FlowDirectionKind.valueOf(direction) != FlowDirectionKind.FORWARD)) {
+				return;
+			}
+			String multiplier = rs.getString(5);
+			series.add(new Series(rs.getObject(2, UUID.class), multiplier == null ? UnitMultiplierKind.NONE : UnitMultiplierKind.valueOf(multiplier),
+				rs.getString(6)));
+			targets.put(usagePoint, target.withSeries(series.size() - 1));
+		});
+
+		ReadingArrays readings = new ReadingArrays(series.size());
+		if (!series.isEmpty()) {
+			jdbcTemplate.query(con -> {
+				PreparedStatement ps = con.prepareStatement(READINGS);
+				ps.setArray(1, con.createArrayOf("uuid", series.stream().map(Series::meterReadingUuid).toArray()));
+				ps.setLong(2, period.asOf());
+				ps.setLong(3, period.start());
+				ps.setLong(4, period.start());
+				ps.setLong(5, period.asOf());
+				return ps;
+			}, rs -> {
+				readings.add(rs.getInt(1) - 1, rs.getLong(2), rs.getLong(3), rs.getShort(4));
+			});
+		}
+		readings.finish();
+		return new PartitionData(targets, series, readings);
+	}
+
+	private void write(SummaryPeriod period, UUID[] summaries, List<RatedItem> items, List<Object[]> bills) {
+		transactionTemplate.executeWithoutResult(status -> {
+			jdbcTemplate.update(con -> {
+				PreparedStatement ps = con.prepareStatement(DELETE_LINE_ITEMS);
+				ps.setArray(1, con.createArrayOf("uuid", summaries));
+				return ps;
+			});
+			jdbcTemplate.batchUpdate(INSERT_LINE_ITEM, items, 1000, (ps, item) -> {
+				int i = 0;
+				ps.setObject(++i, item.summaryUuid());
+				ps.setString(++i, item.itemKind().name());
+				ps.setString(++i, item.note());
+				ps.setLong(++i, item.amount());
+				ps.setObject(++i, unitCost(item), Types.BIGINT);
+				ps.setLong(++i, period.asOf());
+				ps.setLong(++i, period.start());
+				ps.setLong(++i, period.asOf() - period.start());
+				ps.setObject(++i, item.energy(), Types.BIGINT);
+				ps.setString(++i, item.energy() == null ? null : "W_H");
+				ps.setString(++i, item.energy() == null ? null : item.series().powerOfTenMultiplier().name());
+				ps.setObject(++i, item.energy() == null ? null : period.start(), Types.BIGINT);
+				ps.setString(++i, item.energy() == null ? null : item.series().readingTypeRef());
+			});
+			jdbcTemplate.batchUpdate(UPDATE_SUMMARY, bills);
+		});
+	}
+
+	/**
+	 * The average price per kWh of a LineItem's energy, or <code>null</code> for charges that are not per energy.
+	 */
+	private static Long unitCost(RatedItem item) {
+		if (item.energy() == null || item.energy() == 0) {
+			return null;
+		}
+		double kiloWattHours = item.energy() * Math.pow(10, item.series().powerOfTenMultiplier().schemaValue) / 1000;
+		return Math.round(item.amount() / kiloWattHours);
+	}
+
+	private record TariffKey(String tariffProfile, List<String> riderTypes) {
+	}
+
+	private record Target(UUID summaryUuid, LocalTimeTable localTime, String tariffProfile, List<String> riderTypes, int series) {
+		Target withSeries(int series) {
+			return new Target(summaryUuid, localTime, tariffProfile, riderTypes, series);
+		}
+	}
+
+	private record Series(UUID meterReadingUuid, UnitMultiplierKind powerOfTenMultiplier, String readingTypeRef) {
+	}
+
+	private record RatedItem(UUID summaryUuid, ItemKind itemKind, String note, long amount, Long energy, Series series) {
+	}
+
+	private record PartitionData(Map<UUID, Target> targets, List<Series> series, ReadingArrays readings) {
+	}
+
+	/**
+	 * The readings of a partition as parallel arrays, already ordered by series and start by the query.
+	 */
+	private static final class ReadingArrays {
+		private final int[] seriesOffsets;
+		long[] starts = new long[1 << 12];
+		long[] values = new long[1 << 12];
+		short[] cpp = new short[1 << 12];
+		int size;
+		private int currentSeries = -1;
+
+		ReadingArrays(int seriesCount) {
+			this.seriesOffsets = new int[seriesCount + 1];
+		}
+
+		void add(int series, long start, long value, short cppFlag) {
+			if (size == starts.length) {
+				starts = Arrays.copyOf(starts, size * 2);
+				values = Arrays.copyOf(values, size * 2);
+				cpp = Arrays.copyOf(cpp, size * 2);
+			}
+			while (currentSeries < series) {
+				seriesOffsets[++currentSeries] = size;
+			}
+			starts[size] = start;
+			values[size] = value;
+			cpp[size] = cppFlag;
+			size++;
+		}
+
+		void finish() {
+			while (currentSeries < seriesOffsets.length - 1) {
+				seriesOffsets[++currentSeries] = size;
+			}
+		}
+
+		int from(int series) {
+			return seriesOffsets[series];
+		}
+
+		int to(int series) {
+			return seriesOffsets[series + 1];
+		}
+	}
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.greenbuttonalliance.gbaresourceserver.usage.rating;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.function.IntConsumer;
+import java.util.stream.Stream;
+
+/**
+ * A base tariff schedule and its riders flattened into lookup tables, so a reading is priced with two array reads instead of a search through periods. The
+ * time-of-use tables have one entry per minute of a weekday and of a weekend day of local standard time; the tiers are one step function of billing period
+ * consumption, the sum of the tiers of every schedule. Immutable once compiled.
+ */
+public final class CompiledTariff {
+	static final int MINUTES_PER_DAY = 1440;
+	static final int WEEKDAY = 0;
+	static final int WEEKEND = 1;
+
+	private final String currency;
+	private final long fixedCharge;
+	private final long cppPrice;
+	private final short[] touCodes;
+	private final byte[] touIndexByMinute;
+	private final long[] priceByMinute;
+	private final long[] tierBounds;
+	private final long[] tierPrices;
+
+	private CompiledTariff(String currency, long fixedCharge, long cppPrice, short[] touCodes, byte[] touIndexByMinute, long[] priceByMinute, long[] tierBounds,
+						   long[] tierPrices) {
+		this.currency = currency;
+		this.fixedCharge = fixedCharge;
+		this.cppPrice = cppPrice;
+		this.touCodes = touCodes;
+		this.touIndexByMinute = touIndexByMinute;
+		this.priceByMinute = priceByMinute;
+		this.tierBounds = tierBounds;
+		this.tierPrices = tierPrices;
+	}
+
+	/**
+	 * @param base   the base schedule; its time-of-use periods decide the time-of-use code of each minute, and minutes it leaves out get code 0 at no charge
+	 * @param riders schedules whose prices are added to the base schedule's
+	 */
+	static CompiledTariff compile(Schedule base, List<Schedule> riders) {
+		TreeSet<Short> codes = new TreeSet<>();
+		codes.add((short) 0);
+		base.periods().forEach(period -> codes.add(period.tou()));
+		if (codes.size() > Byte.MAX_VALUE) {
+			throw new IllegalArgumentException(STR."Tariff schedule \{base.id()} has more than \{Byte.MAX_VALUE - 1} time-of-use periods");
+		}
+		short[] touCodes = new short[codes.size()];
+		int c = 0;
+		for (short code : codes) {
+			touCodes[c++] = code;
+		}
+		byte[] touIndexByMinute = new byte[2 * MINUTES_PER_DAY];
+		long[] priceByMinute = new long[2 * MINUTES_PER_DAY];
+		for (TouPeriod period : base.periods()) {
+			byte index = (byte) Arrays.binarySearch(touCodes, period.tou());
+			forEachMinute(period, minute -> touIndexByMinute[minute] = index);
+		}
+
+		long fixedCharge = base.fixedCharge();
+		long cppPrice = base.cppPrice();
+		TreeSet<Long> bounds = new TreeSet<>();
+		bounds.add(0L);
+		for (Schedule schedule : concat(base, riders)) {
+			schedule.periods().forEach(period -> forEachMinute(period, minute -> priceByMinute[minute] += period.price()));
+			schedule.tiers().forEach(tier -> bounds.add(Math.max(0, tier.lowerBound())));
+			if (schedule != base) {
+				fixedCharge += schedule.fixedCharge();
+				cppPrice += schedule.cppPrice();
+			}
+		}
+		long[] tierBounds = bounds.stream().mapToLong(Long::longValue).toArray();
+		long[] tierPrices = new long[tierBounds.length];
+		for (Schedule schedule : concat(base, riders)) {
+			for (int t = 0; t < tierBounds.length; t++) {
+				tierPrices[t] += schedule.tierPrice(tierBounds[t]);
+			}
+		}
+		return new CompiledTariff(base.currency(), fixedCharge, cppPrice, touCodes, touIndexByMinute, priceByMinute, tierBounds, tierPrices);
+	}
+
+	private static List<Schedule> concat(Schedule base, List<Schedule> riders) {
+		return Stream.concat(Stream.of(base), riders.stream()).toList();
+	}
+
+	private static void forEachMinute(TouPeriod period, IntConsumer action) {
+		int offset = period.weekend() ? WEEKEND * MINUTES_PER_DAY : WEEKDAY * MINUTES_PER_DAY;
+		int end = period.endMinute() > period.startMinute() ? period.endMinute() : period.endMinute() + MINUTES_PER_DAY;
+		for (int minute = period.startMinute(); minute < end; minute++) {
+			action.accept(offset + minute % MINUTES_PER_DAY);
+		}
+	}
+
+	public String currency() {
+		return currency;
+	}
+
+	public long fixedCharge() {
+		return fixedCharge;
+	}
+
+	public long cppPrice() {
+		return cppPrice;
+	}
+
+	public int touCount() {
+		return touCodes.length;
+	}
+
+	public short touCode(int index) {
+		return touCodes[index];
+	}
+
+	public int tierCount() {
+		return tierBounds.length;
+	}
+
+	/**
+	 * @return the billing period consumption in Wh from which tier <code>index</code> applies
+	 */
+	public long tierBound(int index) {
+		return tierBounds[index];
+	}
+
+	public long tierPrice(int index) {
+		return tierPrices[index];
+	}
+
+	byte[] touIndexByMinute() {
+		return touIndexByMinute;
+	}
+
+	long[] priceByMinute() {
+		return priceByMinute;
+	}
+
+	/**
+	 * One tariff schedule as stored.
+	 */
+	record Schedule(long id, String currency, long fixedCharge, long cppPrice, List<TouPeriod> periods, List<Tier> tiers) {
+		/**
+		 * @return the price of the tier this schedule has at <code>consumption</code>, or 0 below its first tier
+		 */
+		long tierPrice(long consumption) {
+			long price = 0;
+			long bound = Long.MIN_VALUE;
+			for (Tier tier : tiers) {
+				if (tier.lowerBound() <= consumption && tier.lowerBound() >= bound) {
+					bound = tier.lowerBound();
+					price = tier.price();
+				}
+			}
+			return price;
+		}
+	}
+
+	record TouPeriod(boolean weekend, int startMinute, int endMinute, short tou, long price) {
+	}
+
+	record Tier(long lowerBound, long price) {
+	}
+}
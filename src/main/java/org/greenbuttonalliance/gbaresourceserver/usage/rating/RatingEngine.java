@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.greenbuttonalliance.gbaresourceserver.usage.rating;
+
+import org.greenbuttonalliance.gbaresourceserver.usage.time.LocalTimeTable;
+
+import java.util.Arrays;
+
+/**
+ * Prices the readings of one billing period against a {@link CompiledTariff} and totals energy and charges per time-of-use period, per tier and for critical
+ * peak readings. The loop over the readings does two table lookups and a handful of additions per reading and keeps the tier as running state, so readings
+ * must be in order of start.
+ * <p>
+ * Charges are totalled as <code>value * price</code> in the readings' own units and only scaled to currency by {@link #amount}, so rounding happens once per
+ * line item rather than once per reading. An instance reuses its totals between calls and allocates nothing once they have grown to the largest tariff; it is
+ * not thread-safe.
+ */
+public final class RatingEngine {
+	private long[] touEnergy = new long[8];
+	private long[] touCharges = new long[8];
+	private long[] tierEnergy = new long[8];
+	private long[] tierCharges = new long[8];
+	private long[] scaledTierBounds = new long[8];
+	private long cppEnergy;
+	private long cppCharges;
+	private int powerOfTenMultiplier;
+
+	/**
+	 * @param starts               reading starts, ascending
+	 * @param values               reading values in Wh times 10 to the <code>powerOfTenMultiplier</code>
+	 * @param cpp                  the readings' critical peak flags; a flag above 0 adds the tariff's critical peak price
+	 * @param localTime            the UsagePoint's local time, which time-of-use periods are in
+	 * @param powerOfTenMultiplier the ReadingType's multiplier of the values
+	 */
+	public void rate(CompiledTariff tariff, long[] starts, long[] values, short[] cpp, int from, int to, LocalTimeTable localTime, int powerOfTenMultiplier) {
+		int touCount = tariff.touCount();
+		int tierCount = tariff.tierCount();
+		reset(touCount, tierCount);
+		this.powerOfTenMultiplier = powerOfTenMultiplier;
+		for (int t = 0; t < tierCount; t++) {
+			scaledTierBounds[t] = toReadingUnits(tariff.tierBound(t), powerOfTenMultiplier);
+		}
+		byte[] touIndexByMinute = tariff.touIndexByMinute();
+		long[] priceByMinute = tariff.priceByMinute();
+
+		long consumed = 0;
+		int tier = 0;
+		long nextBound = tierCount > 1 ? scaledTierBounds[1] : Long.MAX_VALUE;
+		long tierPrice = tariff.tierPrice(0);
+		for (int i = from; i < to; i++) {
+			long local = localTime.toLocal(starts[i]);
+			long day = Math.floorDiv(local, 86400);
+			// 1970-01-01 was a Thursday, so day + 3 is 5 and 6 on Saturday and Sunday
+			int dayType = Math.floorMod(day + 3, 7) >= 5 ? CompiledTariff.WEEKEND : CompiledTariff.WEEKDAY;
+			int minute = dayType * CompiledTariff.MINUTES_PER_DAY + (int) ((local - day * 86400) / 60);
+			long value = values[i];
+
+			int tou = touIndexByMinute[minute];
+			touEnergy[tou] += value;
+			touCharges[tou] += value * priceByMinute[minute];
+			if (cpp[i] > 0) {
+				cppEnergy += value;
+				cppCharges += value * tariff.cppPrice();
+			}
+
+			// a reading that crosses into the next tier is split at the bound
+			long remaining = value;
+			while (consumed + remaining > nextBound) {
+				long below = nextBound - consumed;
+				tierEnergy[tier] += below;
+				tierCharges[tier] += below * tierPrice;
+				consumed = nextBound;
+				remaining -= below;
+				tier++;
+				tierPrice = tariff.tierPrice(tier);
+				nextBound = tier + 1 < tierCount ? scaledTierBounds[tier + 1] : Long.MAX_VALUE;
+			}
+			tierEnergy[tier] += remaining;
+			tierCharges[tier] += remaining * tierPrice;
+			consumed += remaining;
+		}
+	}
+
+	public long touEnergy(int index) {
+		return touEnergy[index];
+	}
+
+	public long touAmount(int index) {
+		return amount(touCharges[index]);
+	}
+
+	public long tierEnergy(int index) {
+		return tierEnergy[index];
+	}
+
+	public long tierAmount(int index) {
+		return amount(tierCharges[index]);
+	}
+
+	public long cppEnergy() {
+		return cppEnergy;
+	}
+
+	public long cppAmount() {
+		return amount(cppCharges);
+	}
+
+	/**
+	 * Scales a total of <code>value * price</code> to the currency amount, rounding half up: prices are per kWh and values in Wh times the multiplier.
+	 */
+	long amount(long charges) {
+		int exponent = powerOfTenMultiplier - 3;
+		if (exponent >= 0) {
+			return Math.multiplyExact(charges, pow10(exponent));
+		}
+		long divisor = pow10(-exponent);
+		return Math.floorDiv(charges + divisor / 2, divisor);
+	}
+
+	private void reset(int touCount, int tierCount) {
+		if (touEnergy.length < touCount) {
+			touEnergy = new long[touCount];
+			touCharges = new long[touCount];
+		}
+		if (tierEnergy.length < tierCount) {
+			tierEnergy = new long[tierCount];
+			tierCharges = new long[tierCount];
+			scaledTierBounds = new long[tierCount];
+		}
+		Arrays.fill(touEnergy, 0);
+		Arrays.fill(touCharges, 0);
+		Arrays.fill(tierEnergy, 0);
+		Arrays.fill(tierCharges, 0);
+		cppEnergy = 0;
+		cppCharges = 0;
+	}
+
+	private static long toReadingUnits(long wattHours, int powerOfTenMultiplier) {
+		return powerOfTenMultiplier >= 0 ? wattHours / pow10(powerOfTenMultiplier) : Math.multiplyExact(wattHours, pow10(-powerOfTenMultiplier));
+	}
+
+	private static long pow10(int exponent) {
+		long result = 1;
+		for (int i = 0; i < exponent; i++) {
+			result = Math.multiplyExact(result, 10);
+		}
+		return result;
+	}
+}
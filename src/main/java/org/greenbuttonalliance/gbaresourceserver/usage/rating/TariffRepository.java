@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.greenbuttonalliance.gbaresourceserver.usage.rating;
+
+import org.greenbuttonalliance.gbaresourceserver.usage.rating.CompiledTariff.Schedule;
+import org.greenbuttonalliance.gbaresourceserver.usage.rating.CompiledTariff.Tier;
+import org.greenbuttonalliance.gbaresourceserver.usage.rating.CompiledTariff.TouPeriod;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import javax.sql.DataSource;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Loads the tariff schedules in effect for a tariff profile and set of riders and compiles them into a {@link CompiledTariff}.
+ */
+@Repository
+public class TariffRepository {
+	private static final String SCHEDULES = """
+		SELECT DISTINCT ON (rider_type) id, rider_type, currency, fixed_charge, cpp_price
+		FROM usage.tariff_schedule
+		WHERE tariff_profile = ? AND effective_date <= ? AND (rider_type IS NULL OR rider_type = ANY(?))
+		ORDER BY rider_type NULLS FIRST, effective_date DESC""";
+	private static final String PERIODS = """
+		SELECT schedule_id, day_type, start_minute, end_minute, tou, price FROM usage.tariff_tou_period WHERE schedule_id = ANY(?) ORDER BY schedule_id, day_type, start_minute""";
+	private static final String TIERS = "SELECT schedule_id, lower_bound, price FROM usage.tariff_tier WHERE schedule_id = ANY(?) ORDER BY schedule_id, tier";
+
+	private final JdbcTemplate jdbcTemplate;
+
+	@Autowired
+	public TariffRepository(DataSource dataSource) {
+		this.jdbcTemplate = new JdbcTemplate(dataSource);
+	}
+
+	/**
+	 * @param riderTypes the riders the ServiceDeliveryPoint is enrolled in; riders without a schedule of the profile are ignored
+	 * @param at         the time the schedules must be in effect at
+	 * @return the compiled tariff, or empty if the profile has no base schedule in effect
+	 */
+	public Optional<CompiledTariff> find(String tariffProfile, List<String> riderTypes, long at) {
+		Map<Long, ScheduleRow> rows = new LinkedHashMap<>();
+		jdbcTemplate.query(con -> {
+			PreparedStatement ps = con.prepareStatement(SCHEDULES);
+			ps.setString(1, tariffProfile);
+			ps.setLong(2, at);
+			ps.setArray(3, con.createArrayOf("text", riderTypes.toArray()));
+			return ps;
+		}, rs -> {
+			rows.put(rs.getLong(1), new ScheduleRow(rs.getLong(1), rs.getString(2), rs.getString(3), rs.getLong(4), rs.getLong(5)));
+		});
+		if (rows.isEmpty() || rows.values().iterator().next().riderType() != null) {
+			return Optional.empty();
+		}
+
+		Long[] ids = rows.keySet().toArray(Long[]::new);
+		Map<Long, List<TouPeriod>> periods = new HashMap<>();
+		Map<Long, List<Tier>> tiers = new HashMap<>();
+		jdbcTemplate.query(con -> {
+			PreparedStatement ps = con.prepareStatement(PERIODS);
+			ps.setArray(1, con.createArrayOf("bigint", ids));
+			return ps;
+		}, rs -> {
+			periods.computeIfAbsent(rs.getLong(1), id -> new ArrayList<>())
+				.add(new TouPeriod("WEEKEND".equals(rs.getString(2)), rs.getInt(3), rs.getInt(4), rs.getShort(5), rs.getLong(6)));
+		});
+		jdbcTemplate.query(con -> {
+			PreparedStatement ps = con.prepareStatement(TIERS);
+			ps.setArray(1, con.createArrayOf("bigint", ids));
+			return ps;
+		}, rs -> {
+			tiers.computeIfAbsent(rs.getLong(1), id -> new ArrayList<>()).add(new Tier(rs.getLong(2), rs.getLong(3)));
+		});
+
+		List<Schedule> schedules = rows.values().stream()
+			.map(row -> new Schedule(row.id(), row.currency(), row.fixedCharge(), row.cppPrice(), periods.getOrDefault(row.id(), List.of()),
+				tiers.getOrDefault(row.id(), List.of())))
+			.toList();
+		return Optional.of(CompiledTariff.compile(schedules.getFirst(), schedules.subList(1, schedules.size())));
+	}
+
+	private record ScheduleRow(long id, String riderType, String currency, long fixedCharge, long cppPrice) {
+	}
+}
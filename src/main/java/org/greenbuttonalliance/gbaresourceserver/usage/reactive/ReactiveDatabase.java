@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.greenbuttonalliance.gbaresourceserver.usage.reactive;
+
+import io.r2dbc.pool.ConnectionPool;
+import io.r2dbc.pool.ConnectionPoolConfiguration;
+import io.r2dbc.spi.ConnectionFactories;
+import io.r2dbc.spi.ConnectionFactoryOptions;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.jdbc.JdbcConnectionDetails;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Component;
+
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringJoiner;
+
+/**
+ * The R2DBC connections of the reactive read path. The pool of <code>gba.reactive.pool-size</code> connections is built from the same connection details as
+ * the JDBC DataSource, but it is deliberately not a bean: Spring Boot backs off its DataSource as soon as an R2DBC ConnectionFactory bean exists, and JPA,
+ * Flyway and every JDBC service keep using the DataSource. These connections come on top of the DataSource's and are not bounded by its
+ * {@link org.greenbuttonalliance.gbaresourceserver.usage.bulkhead.DatabaseBulkheads}; the pool size is their limit.
+ */
+@Component
+@Slf4j
+public class ReactiveDatabase {
+	private static final String JDBC_PREFIX = "jdbc:postgresql:";
+	// pgJDBC parameters and the r2dbc-postgresql options that mean the same
+	private static final Map<String, String> MAPPED_PARAMETERS = Map.of(
+		"sslmode", "sslMode",
+		"sslrootcert", "sslRootCert",
+		"sslcert", "sslCert",
+		"sslkey", "sslKey",
+		"sslpassword", "sslPassword",
+		"currentSchema", "currentSchema",
+		"ApplicationName", "applicationName",
+		"tcpKeepAlive", "tcpKeepAlive",
+		"targetServerType", "targetServerType",
+		"preparedStatementCacheQueries", "preparedStatementCacheQueries");
+	// pgJDBC parameters that only tune its own logging, batching or statement handling, and change neither what is read nor how it is secured
+	private static final Set<String> JDBC_ONLY_PARAMETERS = Set.of("loggerLevel", "loggerFile", "prepareThreshold", "preparedStatementCacheSizeMiB",
+		"defaultRowFetchSize", "reWriteBatchedInserts", "binaryTransfer");
+
+	private final ConnectionPool pool;
+	private final DatabaseClient databaseClient;
+
+	@Autowired
+	public ReactiveDatabase(JdbcConnectionDetails jdbc, @Value("${gba.reactive.pool-size:10}") int poolSize) {
+		ConnectionFactoryOptions.Builder options = ConnectionFactoryOptions.parse(r2dbcUrl(jdbc.getJdbcUrl())).mutate();
+		if (jdbc.getUsername() != null) {
+			options.option(ConnectionFactoryOptions.USER, jdbc.getUsername());
+		}
+		if (jdbc.getPassword() != null) {
+			options.option(ConnectionFactoryOptions.PASSWORD, jdbc.getPassword());
+		}
+		this.pool = new ConnectionPool(ConnectionPoolConfiguration.builder(ConnectionFactories.get(options.build()))
+			.name("gba-reactive")
+			.initialSize(0)
+			.maxSize(poolSize)
+			.build());
+		this.databaseClient = DatabaseClient.create(pool);
+		log.info("Reactive read path: R2DBC pool of {} connections", poolSize);
+	}
+
+	public DatabaseClient databaseClient() {
+		return databaseClient;
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		pool.dispose();
+	}
+
+	/**
+	 * The R2DBC URL of a PostgreSQL JDBC URL. Its query parameters are pgJDBC settings: those with an r2dbc-postgresql counterpart, such as
+	 * <code>sslmode</code> and <code>currentSchema</code>, become that option, so the reactive pool connects as securely and to the same schema as the
+	 * DataSource; those that only tune pgJDBC itself are dropped.
+	 *
+	 * @throws IllegalStateException for a URL of another database, or with a parameter that is neither, rather than connect without it
+	 */
+	static String r2dbcUrl(String jdbcUrl) {
+		if (jdbcUrl == null || !jdbcUrl.startsWith(JDBC_PREFIX)) {
+			throw new IllegalStateException("The reactive read path needs a PostgreSQL database, not " + jdbcUrl);
+		}
+		int query = jdbcUrl.indexOf('?');
+		String r2dbcUrl = "r2dbc:postgresql:" + jdbcUrl.substring(JDBC_PREFIX.length(), query < 0 ? jdbcUrl.length() : query);
+		if (query < 0) {
+			return r2dbcUrl;
+		}
+
+		Map<String, String> options = new LinkedHashMap<>();
+		String ssl = null;
+		for (String parameter : jdbcUrl.substring(query + 1).split("&")) {
+			if (parameter.isEmpty()) {
+				continue;
+			}
+			int equals = parameter.indexOf('=');
+			String name = URLDecoder.decode(equals < 0 ? parameter : parameter.substring(0, equals), StandardCharsets.UTF_8);
+			// still encoded, as the R2DBC URL decodes it again
+			String value = equals < 0 ? "" : parameter.substring(equals + 1);
+			if (MAPPED_PARAMETERS.containsKey(name)) {
+				options.put(MAPPED_PARAMETERS.get(name), value);
+			} else if (name.equals("ssl")) {
+				ssl = value;
+			} else if (name.equals("connectTimeout")) {
+				// seconds in pgJDBC, a Duration in R2DBC
+				options.put("connectTimeout", "PT" + value + "S");
+			} else if (!JDBC_ONLY_PARAMETERS.contains(name)) {
+				throw new IllegalStateException("The reactive read path cannot apply the JDBC URL parameter " + name + " of " + jdbcUrl);
+			}
+		}
+		if (ssl != null && !options.containsKey("sslMode")) {
+			// as pgJDBC reads ssl without an sslmode
+			options.put("sslMode", ssl.isEmpty() || ssl.equalsIgnoreCase("true") ? "verify-full" : "disable");
+		}
+		if (options.isEmpty()) {
+			return r2dbcUrl;
+		}
+		StringJoiner joined = new StringJoiner("&", "?", "");
+		options.forEach((name, value) -> joined.add(name + "=" + value));
+		return r2dbcUrl + joined;
+	}
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.greenbuttonalliance.gbaresourceserver.usage.reactive;
+
+import org.greenbuttonalliance.gbaresourceserver.usage.access.UsagePointAccess;
+import org.greenbuttonalliance.gbaresourceserver.usage.scope.EspiScope;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.UUID;
+
+/**
+ * Reads IntervalBlocks and their IntervalReadings over R2DBC, next to the JPA
+ * {@link org.greenbuttonalliance.gbaresourceserver.usage.repository.IntervalBlockRepository}. Rows are fetched <code>gba.reactive.fetch-size</code> at a time
+ * as the subscriber asks for them, so a slow consumer holds back the database cursor instead of rows piling up on the heap.
+ */
+@Repository
+public class ReactiveIntervalBlockRepository {
+	private static final String METER_READING_EXISTS = """
+		SELECT mr.usage_point_uuid FROM usage.meter_reading mr LEFT JOIN usage.reading_type rt ON rt.uuid = mr.reading_type_uuid
+		WHERE mr.uuid = $1%s""";
+	private static final String READINGS = """
+		SELECT b.uuid, b.start, b.duration, r.start, r.duration, r.value, r.cost
+		FROM usage.interval_block b LEFT JOIN usage.interval_reading r ON r.block_uuid = b.uuid
+		WHERE b.meter_reading_uuid = $1 AND b.start < $2 AND b.start + b.duration > $3 AND b.start >= $4
+		ORDER BY b.start, b.uuid, r.start""";
+
+	private final DatabaseClient databaseClient;
+	private final int fetchSize;
+
+	@Autowired
+	public ReactiveIntervalBlockRepository(ReactiveDatabase reactiveDatabase, @Value("${gba.reactive.fetch-size:500}") int fetchSize) {
+		this.databaseClient = reactiveDatabase.databaseClient();
+		this.fetchSize = fetchSize;
+	}
+
+	/**
+	 * Whether the MeterReading exists, <code>scope</code> allows its interval length and <code>usagePointAccess</code> its UsagePoint.
+	 */
+	public Mono<Boolean> existsMeterReadingById(UUID meterReadingUuid, EspiScope scope, UsagePointAccess usagePointAccess) {
+		return databaseClient.sql(METER_READING_EXISTS.formatted(scope.intervalLengthPredicate("rt.interval_length")))
+			.bind(0, meterReadingUuid)
+			.map(row -> usagePointAccess.permits(row.get(0, UUID.class)))
+			.first()
+			.defaultIfEmpty(false);
+	}
+
+	/**
+	 * The readings of the MeterReading's IntervalBlocks overlapping <code>[from, to)</code> that start no earlier than <code>historyStart</code>, block by
+	 * block in order of start.
+	 */
+	public Flux<IntervalReadingRow> findReadingsByMeterReadingUuid(UUID meterReadingUuid, long from, long to, long historyStart) {
+		return databaseClient.sql(READINGS)
+			.filter(statement -> statement.fetchSize(fetchSize))
+			.bind(0, meterReadingUuid)
+			.bind(1, to)
+			.bind(2, from)
+			.bind(3, historyStart)
+			.map(row -> new IntervalReadingRow(row.get(0, UUID.class), row.get(1, Long.class), row.get(2, Long.class), row.get(3, Long.class),
+				row.get(4, Long.class), row.get(5, Long.class), row.get(6, Long.class)))
+			.all();
+	}
+}
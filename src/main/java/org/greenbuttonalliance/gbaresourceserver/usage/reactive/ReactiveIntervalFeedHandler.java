@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.greenbuttonalliance.gbaresourceserver.usage.reactive;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.greenbuttonalliance.gbaresourceserver.usage.access.UsagePointAccess;
+import org.greenbuttonalliance.gbaresourceserver.usage.access.UsagePointAccessResolver;
+import org.greenbuttonalliance.gbaresourceserver.usage.controller.exception.EntityNotFoundByIdException;
+import org.greenbuttonalliance.gbaresourceserver.usage.controller.exception.GbaControllerException;
+import org.greenbuttonalliance.gbaresourceserver.usage.controller.exception.InvalidRequestParameterException;
+import org.greenbuttonalliance.gbaresourceserver.usage.controller.exception.UnauthorizedException;
+import org.greenbuttonalliance.gbaresourceserver.usage.model.MeterReading;
+import org.greenbuttonalliance.gbaresourceserver.usage.scope.EspiScope;
+import org.greenbuttonalliance.gbaresourceserver.usage.scope.EspiScopeResolver;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.BodyInserters;
+import org.springframework.web.reactive.function.server.ServerRequest;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.UUID;
+
+/**
+ * Handles <code>GET /espi/1_1/reactive/MeterReading/{meterReadingId}/IntervalBlock?from&amp;to</code>, the reactive counterpart of a MeterReading's
+ * IntervalBlock feed. Errors are answered like {@link org.greenbuttonalliance.gbaresourceserver.usage.controller.exception.DefaultExceptionHandler} answers
+ * them on the servlet side.
+ */
+@Component
+@Slf4j
+@RequiredArgsConstructor(onConstructor = @__(@Autowired))
+public class ReactiveIntervalFeedHandler {
+	private final ReactiveIntervalFeedService reactiveIntervalFeedService;
+	private final EspiScopeResolver espiScopeResolver;
+	private final UsagePointAccessResolver usagePointAccessResolver;
+
+	/**
+	 * The MeterReading's IntervalBlocks overlapping <code>[from, to)</code> (epoch seconds).
+	 */
+	public Mono<ServerResponse> getIntervalBlocks(ServerRequest request) {
+		UUID meterReadingUuid;
+		long from;
+		long to;
+		try {
+			meterReadingUuid = uuidVariable(request, "meterReadingId");
+			from = longParameter(request, "from", 0);
+			to = longParameter(request, "to", Long.MAX_VALUE);
+			if (from >= to) {
+				throw new InvalidRequestParameterException("to", to, "a time after from");
+			}
+		} catch (InvalidRequestParameterException e) {
+			return error(request, HttpStatus.BAD_REQUEST, e);
+		}
+
+		DataBufferFactory bufferFactory = request.exchange().getResponse().bufferFactory();
+		// resolving a token that is not cached reads the database over JDBC, which must stay off the event loop
+		String authorization = request.headers().firstHeader(HttpHeaders.AUTHORIZATION);
+		return Mono.fromCallable(() -> new Grant(espiScopeResolver.resolve(authorization), usagePointAccessResolver.resolve(authorization)))
+			.subscribeOn(Schedulers.boundedElastic())
+			.flatMap(grant -> reactiveIntervalFeedService.existsMeterReading(meterReadingUuid, grant.scope(), grant.usagePointAccess())
+				.flatMap(exists -> exists
+					? ServerResponse.ok().contentType(MediaType.APPLICATION_ATOM_XML).body(BodyInserters.fromDataBuffers(
+						reactiveIntervalFeedService.intervalBlockFeed(meterReadingUuid, from, to, grant.scope(), bufferFactory)))
+					: error(request, HttpStatus.NOT_FOUND, new EntityNotFoundByIdException(MeterReading.class, meterReadingUuid))))
+			.onErrorResume(UnauthorizedException.class, e -> error(request, HttpStatus.UNAUTHORIZED, e));
+	}
+
+	private static UUID uuidVariable(ServerRequest request, String name) {
+		String value = request.pathVariable(name);
+		try {
+			return UUID.fromString(value);
+		} catch (IllegalArgumentException e) {
+			throw new InvalidRequestParameterException(name, value, "a UUID");
+		}
+	}
+
+	private static long longParameter(ServerRequest request, String name, long defaultValue) {
+		String value = request.queryParam(name).orElse(null);
+		if (value == null) {
+			return defaultValue;
+		}
+		try {
+			return Long.parseLong(value);
+		} catch (NumberFormatException e) {
+			throw new InvalidRequestParameterException(name, value, "epoch seconds");
+		}
+	}
+
+	private static Mono<ServerResponse> error(ServerRequest request, HttpStatus status, GbaControllerException e) {
+		log.error("{} at {}", e.getInternalErrorMessage(), request.path());
+		return ServerResponse.status(status).contentType(MediaType.TEXT_PLAIN)
+			.headers(headers -> {
+				if (status == HttpStatus.UNAUTHORIZED) {
+					headers.set(HttpHeaders.WWW_AUTHENTICATE, "Bearer");
+				}
+			})
+			.bodyValue(e.getExternalErrorMessage());
+	}
+
+	private record Grant(EspiScope scope, UsagePointAccess usagePointAccess) {
+	}
+}
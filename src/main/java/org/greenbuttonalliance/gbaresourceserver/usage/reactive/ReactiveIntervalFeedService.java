@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.greenbuttonalliance.gbaresourceserver.usage.reactive;
+
+import com.github.f4b6a3.uuid.UuidCreator;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.greenbuttonalliance.gbaresourceserver.usage.access.UsagePointAccess;
+import org.greenbuttonalliance.gbaresourceserver.usage.scope.EspiScope;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Renders a MeterReading's IntervalBlocks as an Atom feed of {@link DataBuffer}s, one per entry, straight from the rows of
+ * {@link ReactiveIntervalBlockRepository}. Nothing is buffered beyond the block being rendered: the next block is only read once the one before it has been
+ * taken by the subscriber, so a slow client holds back the database cursor rather than a thread or the heap.
+ * <p>
+ * Feeds being streamed are counted as <code>gba.reactive.feeds.active</code> and the entries sent as <code>gba.reactive.feed.entries</code>.
+ */
+@Service
+public class ReactiveIntervalFeedService {
+	private static final String FOOTER = "</feed>\n";
+
+	private final ReactiveIntervalBlockRepository reactiveIntervalBlockRepository;
+	private final AtomicInteger activeFeeds = new AtomicInteger();
+	private final Counter entries;
+
+	@Autowired
+	public ReactiveIntervalFeedService(ReactiveIntervalBlockRepository reactiveIntervalBlockRepository, MeterRegistry meterRegistry) {
+		this.reactiveIntervalBlockRepository = reactiveIntervalBlockRepository;
+		Gauge.builder("gba.reactive.feeds.active", activeFeeds, AtomicInteger::get)
+			.description("Interval feeds being streamed on the reactive read path")
+			.register(meterRegistry);
+		this.entries = Counter.builder("gba.reactive.feed.entries")
+			.description("IntervalBlock entries streamed on the reactive read path")
+			.register(meterRegistry);
+	}
+
+	public Mono<Boolean> existsMeterReading(UUID meterReadingUuid, EspiScope scope, UsagePointAccess usagePointAccess) {
+		return reactiveIntervalBlockRepository.existsMeterReadingById(meterReadingUuid, scope, usagePointAccess);
+	}
+
+	/**
+	 * The feed of the MeterReading's IntervalBlocks overlapping <code>[from, to)</code> within <code>scope</code>'s history, with all of their readings.
+	 */
+	public Flux<DataBuffer> intervalBlockFeed(UUID meterReadingUuid, long from, long to, EspiScope scope, DataBufferFactory bufferFactory) {
+		String updated = Instant.now().truncatedTo(ChronoUnit.SECONDS).toString();
+		String up = STR."/espi/1_1/resource/MeterReading/\{meterReadingUuid}";
+		String header = STR."""
+			<?xml version="1.0" encoding="UTF-8"?>
+			<feed xmlns="http://www.w3.org/2005/Atom" xmlns:espi="http://naesb.org/espi">
+				<id>urn:uuid:\{UuidCreator.getNameBasedSha1(up + "/IntervalBlock")}</id>
+				<title>Green Button Usage Feed</title>
+				<updated>\{updated}</updated>
+			""";
+		Flux<String> blocks = reactiveIntervalBlockRepository.findReadingsByMeterReadingUuid(meterReadingUuid, from, to,
+				scope.historyStart(Instant.now().getEpochSecond()))
+			.bufferUntilChanged(IntervalReadingRow::blockUuid)
+			.map(rows -> entry(rows, up, updated))
+			.doOnNext(entry -> entries.increment());
+		return Flux.concat(Mono.just(header), blocks, Mono.just(FOOTER))
+			.map(text -> bufferFactory.wrap(text.getBytes(StandardCharsets.UTF_8)))
+			.doOnSubscribe(subscription -> activeFeeds.incrementAndGet())
+			.doFinally(signal -> activeFeeds.decrementAndGet());
+	}
+
+	private static String entry(List<IntervalReadingRow> rows, String up, String updated) {
+		IntervalReadingRow block = rows.getFirst();
+		StringBuilder entry = new StringBuilder(256 + rows.size() * 160);
+		entry.append(STR."\t<entry>\n\t\t<id>urn:uuid:\{block.blockUuid()}</id>\n");
+		entry.append(STR."\t\t<link rel=\"self\" href=\"/espi/1_1/resource/IntervalBlock/\{block.blockUuid()}\" type=\"espi-entry/IntervalBlock\"/>\n");
+		entry.append(STR."\t\t<link rel=\"up\" href=\"\{up}\" type=\"espi-entry/MeterReading\"/>\n\t\t<title>IntervalBlock</title>\n\t\t<content>\n");
+		entry.append(STR."\t\t\t<espi:IntervalBlock>\n\t\t\t\t<espi:interval><espi:duration>\{block.blockDuration()}</espi:duration><espi:start>\{block.blockStart()}</espi:start></espi:interval>\n");
+		for (IntervalReadingRow row : rows) {
+			if (row.start() == null) {
+				continue;
+			}
+			entry.append("\t\t\t\t<espi:IntervalReading>");
+			if (row.cost() != null) {
+				entry.append(STR."<espi:cost>\{row.cost()}</espi:cost>");
+			}
+			entry.append(STR."<espi:timePeriod><espi:duration>\{row.duration()}</espi:duration><espi:start>\{row.start()}</espi:start></espi:timePeriod>");
+			if (row.value() != null) {
+				entry.append(STR."<espi:value>\{row.value()}</espi:value>");
+			}
+			entry.append("</espi:IntervalReading>\n");
+		}
+		entry.append(STR."\t\t\t</espi:IntervalBlock>\n\t\t</content>\n\t\t<updated>\{updated}</updated>\n\t</entry>\n");
+		return entry.toString();
+	}
+}
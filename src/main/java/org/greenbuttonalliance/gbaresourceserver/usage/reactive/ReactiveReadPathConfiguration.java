@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.greenbuttonalliance.gbaresourceserver.usage.reactive;
+
+import org.springframework.boot.web.servlet.ServletRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.server.reactive.ServletHttpHandlerAdapter;
+import org.springframework.web.reactive.function.server.RequestPredicates;
+import org.springframework.web.reactive.function.server.RouterFunction;
+import org.springframework.web.reactive.function.server.RouterFunctions;
+import org.springframework.web.reactive.function.server.ServerResponse;
+
+/**
+ * Mounts the reactive read path under <code>/espi/1_1/reactive</code>, next to the Spring MVC controllers. Its routes run in their own servlet on the
+ * container's non-blocking IO, so a response is written only as fast as the client reads it and no thread waits on a slow client in the meantime.
+ */
+@Configuration
+public class ReactiveReadPathConfiguration {
+	public static final String PATH = "/espi/1_1/reactive";
+
+	@Bean
+	public ServletRegistrationBean<ServletHttpHandlerAdapter> reactiveReadPath(ReactiveIntervalFeedHandler reactiveIntervalFeedHandler) {
+		RouterFunction<ServerResponse> routes = RouterFunctions.route(RequestPredicates.GET("/MeterReading/{meterReadingId}/IntervalBlock"),
+			reactiveIntervalFeedHandler::getIntervalBlocks);
+		ServletRegistrationBean<ServletHttpHandlerAdapter> registration = new ServletRegistrationBean<>(
+			new ServletHttpHandlerAdapter(RouterFunctions.toHttpHandler(routes)), PATH + "/*");
+		registration.setName("reactiveReadPath");
+		registration.setAsyncSupported(true);
+		registration.setLoadOnStartup(1);
+		return registration;
+	}
+}
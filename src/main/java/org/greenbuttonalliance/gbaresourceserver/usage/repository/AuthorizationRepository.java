@@ -16,11 +16,24 @@
 package org.greenbuttonalliance.gbaresourceserver.usage.repository;
 
 import org.greenbuttonalliance.gbaresourceserver.usage.model.Authorization;
+import org.greenbuttonalliance.gbaresourceserver.usage.token.ResolvedToken;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
+import java.util.Optional;
 import java.util.UUID;
 
 @Repository
 public interface AuthorizationRepository extends JpaRepository<Authorization, UUID> {
+
+	/**
+	 * The Authorization whose access token has the SHA-256 <code>accessTokenHash</code>. A token that more than one Authorization holds cannot tell which of
+	 * them it stands for, so it resolves to none.
+	 */
+	@Query("SELECT new org.greenbuttonalliance.gbaresourceserver.usage.token.ResolvedToken(a.uuid, a.expiresAt, a.scope, a.status, a.resourceUri, " +
+		"ai.clientId, ai.thirdPartyApplicationType, ai.thirdPartyApplicationUse) FROM Authorization a JOIN a.applicationInformation ai " +
+		"WHERE a.accessTokenHash = :accessTokenHash " +
+		"AND NOT EXISTS (SELECT 1 FROM Authorization other WHERE other.accessTokenHash = :accessTokenHash AND other.uuid <> a.uuid)")
+	Optional<ResolvedToken> findResolvedTokenByAccessTokenHash(byte[] accessTokenHash);
 }
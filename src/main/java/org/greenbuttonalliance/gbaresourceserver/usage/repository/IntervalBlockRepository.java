@@ -17,10 +17,19 @@ package org.greenbuttonalliance.gbaresourceserver.usage.repository;
 
 import org.greenbuttonalliance.gbaresourceserver.usage.model.IntervalBlock;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
+import java.util.List;
 import java.util.UUID;
 
 @Repository
-public interface IntervalBlockRepository extends JpaRepository<IntervalBlock, UUID> {
+public interface IntervalBlockRepository extends JpaRepository<IntervalBlock, UUID>, IntervalBlockRepositoryCustom {
+
+	/**
+	 * Loads every block (with its readings and their qualities) below a single UsagePoint in one round trip, ordered the way they are rendered in a feed.
+	 */
+	@Query("SELECT ib FROM IntervalBlock ib LEFT JOIN FETCH ib.intervalReadings ir LEFT JOIN FETCH ir.readingQualities " +
+		"WHERE ib.meterReading.usagePoint.uuid = :usagePointUuid ORDER BY ib.meterReading.uuid, ib.interval.start")
+	List<IntervalBlock> findAllByUsagePointUuid(UUID usagePointUuid);
 }
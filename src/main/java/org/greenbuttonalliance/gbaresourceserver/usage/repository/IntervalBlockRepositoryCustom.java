@@ -0,0 +1,36 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.greenbuttonalliance.gbaresourceserver.usage.repository;
+
+import org.greenbuttonalliance.gbaresourceserver.usage.model.IntervalBlock;
+import org.greenbuttonalliance.gbaresourceserver.usage.scope.EspiScope;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Queries of {@link IntervalBlockRepository} whose conditions depend on the client's {@link EspiScope}, implemented in
+ * {@link IntervalBlockRepositoryCustomImpl}.
+ */
+public interface IntervalBlockRepositoryCustom {
+
+	/**
+	 * The blocks below any of the UsagePoints, or below every UsagePoint for null, that the scope lets the client see: those of a MeterReading whose
+	 * interval length it grants, starting no earlier than its history reaches back at <code>now</code> (epoch seconds).
+	 */
+	List<IntervalBlock> findAllInScope(Collection<UUID> usagePointUuids, EspiScope scope, long now);
+}
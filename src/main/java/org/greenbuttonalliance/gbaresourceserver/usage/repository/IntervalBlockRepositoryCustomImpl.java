@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.greenbuttonalliance.gbaresourceserver.usage.repository;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.TypedQuery;
+import org.greenbuttonalliance.gbaresourceserver.usage.model.IntervalBlock;
+import org.greenbuttonalliance.gbaresourceserver.usage.scope.EspiScope;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * The scope is applied in the query, the way the JDBC readers of interval data apply it, so that blocks the client may not see are never loaded.
+ */
+class IntervalBlockRepositoryCustomImpl implements IntervalBlockRepositoryCustom {
+	private static final String IN_SCOPE = """
+		SELECT ib FROM IntervalBlock ib JOIN ib.meterReading mr LEFT JOIN mr.readingType rt
+		WHERE ib.interval.start >= :historyStart%s%s""";
+
+	@PersistenceContext
+	private EntityManager entityManager;
+
+	@Override
+	public List<IntervalBlock> findAllInScope(Collection<UUID> usagePointUuids, EspiScope scope, long now) {
+		if (usagePointUuids != null && usagePointUuids.isEmpty()) {
+			return List.of();
+		}
+		String usagePointPredicate = usagePointUuids == null ? "" : " AND mr.usagePoint.uuid IN :usagePointUuids";
+		TypedQuery<IntervalBlock> query = entityManager.createQuery(IN_SCOPE.formatted(usagePointPredicate,
+			scope.intervalLengthPredicate("rt.intervalLength")), IntervalBlock.class);
+		query.setParameter("historyStart", scope.historyStart(now));
+		if (usagePointUuids != null) {
+			query.setParameter("usagePointUuids", usagePointUuids);
+		}
+		return query.getResultList();
+	}
+}
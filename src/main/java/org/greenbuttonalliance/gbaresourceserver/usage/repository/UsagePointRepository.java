@@ -17,10 +17,15 @@ package org.greenbuttonalliance.gbaresourceserver.usage.repository;
 
 import org.greenbuttonalliance.gbaresourceserver.usage.model.UsagePoint;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
+import java.util.List;
 import java.util.UUID;
 
 @Repository
 public interface UsagePointRepository extends JpaRepository<UsagePoint, UUID> {
+
+	@Query("SELECT up.uuid FROM UsagePoint up WHERE up.retailCustomer.uuid = :retailCustomerUuid ORDER BY up.uuid")
+	List<UUID> findUuidsByRetailCustomerUuid(UUID retailCustomerUuid);
 }
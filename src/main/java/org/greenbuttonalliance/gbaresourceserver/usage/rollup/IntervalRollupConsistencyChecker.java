@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.greenbuttonalliance.gbaresourceserver.usage.rollup;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.greenbuttonalliance.gbaresourceserver.usage.controller.exception.EntityNotFoundByIdException;
+import org.greenbuttonalliance.gbaresourceserver.usage.model.MeterReading;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.Array;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Validates a MeterReading's rollup tables against <code>interval_reading</code> by recomputing every bucket and comparing it with the stored row.
+ */
+@Component
+@Slf4j
+public class IntervalRollupConsistencyChecker {
+	private static final int SAMPLE_SIZE = 10;
+	private static final String ROLLUP_ALIASES = "(meter_reading_uuid, bucket_start, readings, value_sum, value_min, value_max, value_last, cost_sum, cost_min, cost_max)";
+	private static final String AGGREGATE_COLUMNS = "%1$s.readings, %1$s.value_sum, %1$s.value_min, %1$s.value_max, %1$s.value_last, %1$s.cost_sum, %1$s.cost_min, %1$s.cost_max";
+	private static final String STATE = """
+		SELECT s.tz_offset = coalesce(tc.tz_offset, 0) FROM usage.interval_rollup_state s
+		JOIN usage.meter_reading mr ON mr.uuid = s.meter_reading_uuid
+		LEFT JOIN usage.usage_point up ON up.uuid = mr.usage_point_uuid
+		LEFT JOIN usage.time_configuration tc ON tc.uuid = up.time_configuration_uuid
+		WHERE s.meter_reading_uuid = ?""";
+	// a bucket mismatches when it is missing on either side or any of its aggregates differ
+	private static final String MISMATCHES = """
+		SELECT count(*), (array_agg(coalesce(e.bucket_start, s.bucket_start) ORDER BY coalesce(e.bucket_start, s.bucket_start)))[1:%d]
+		FROM (%s) AS e %s
+		FULL OUTER JOIN (SELECT * FROM %s WHERE meter_reading_uuid = ?) s ON s.bucket_start = e.bucket_start
+		WHERE (%s) IS DISTINCT FROM (%s)""";
+
+	private final JdbcTemplate jdbcTemplate;
+	private final Counter inconsistencies;
+
+	@Autowired
+	public IntervalRollupConsistencyChecker(JdbcTemplate jdbcTemplate, MeterRegistry meterRegistry) {
+		this.jdbcTemplate = jdbcTemplate;
+		this.inconsistencies = Counter.builder("gba.rollup.inconsistencies")
+			.description("Rollup buckets found to differ from the readings they were computed from")
+			.register(meterRegistry);
+	}
+
+	/**
+	 * Compares the stored hourly and daily buckets of the MeterReading with buckets freshly aggregated from its readings, aligned to its current tz_offset.
+	 */
+	@Transactional(readOnly = true)
+	public RollupConsistency check(UUID meterReadingUuid) {
+		List<Long> tzOffsets = jdbcTemplate.queryForList(IntervalRollupMaintainer.TZ_OFFSET, Long.class, meterReadingUuid);
+		if (tzOffsets.isEmpty()) {
+			throw new EntityNotFoundByIdException(MeterReading.class, meterReadingUuid);
+		}
+		long tzOffset = tzOffsets.getFirst();
+		boolean stored = jdbcTemplate.queryForList(STATE, Boolean.class, meterReadingUuid).stream().findFirst().orElse(false);
+
+		Mismatches hourly = mismatches(IntervalRollupMaintainer.HOURLY_TABLE, meterReadingUuid, tzOffset);
+		Mismatches daily = mismatches(IntervalRollupMaintainer.DAILY_TABLE, meterReadingUuid, tzOffset);
+		RollupConsistency consistency = new RollupConsistency(meterReadingUuid, stored, hourly.count(), hourly.starts(), daily.count(), daily.starts());
+		if (!consistency.consistent()) {
+			inconsistencies.increment(hourly.count() + daily.count());
+			log.warn("Rollups of MeterReading {} differ from its readings in {} hourly and {} daily buckets", meterReadingUuid, hourly.count(), daily.count());
+		}
+		return consistency;
+	}
+
+	private Mismatches mismatches(String table, UUID meterReadingUuid, long tzOffset) {
+		String sql = MISMATCHES.formatted(SAMPLE_SIZE, IntervalRollupMaintainer.bucketsOf(IntervalRollupMaintainer.bucketSeconds(table)), ROLLUP_ALIASES, table,
+			AGGREGATE_COLUMNS.formatted("e"), AGGREGATE_COLUMNS.formatted("s"));
+		return jdbcTemplate.queryForObject(sql, (rs, rowNum) -> {
+			Array starts = rs.getArray(2);
+			return new Mismatches(rs.getLong(1), starts == null ? List.of() : Arrays.asList((Long[]) starts.getArray()));
+		}, meterReadingUuid, tzOffset, tzOffset, meterReadingUuid, meterReadingUuid);
+	}
+
+	private record Mismatches(long count, List<Long> starts) {
+	}
+}
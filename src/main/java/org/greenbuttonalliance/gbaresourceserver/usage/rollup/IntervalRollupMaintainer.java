@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.greenbuttonalliance.gbaresourceserver.usage.rollup;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Keeps the hourly and daily rollup tables in step with <code>interval_reading</code>.
+ * <p>
+ * {@link #refresh} runs inside every interval data write and recomputes only the buckets the written readings fall into, from the readings themselves, so it
+ * is correct whatever order writes arrive in. {@link #rebuild} recomputes all of one MeterReading's buckets and records it as complete; until then the rollup
+ * API reads raw readings for it. The two are serialized per MeterReading with an advisory lock, shared by refreshes and exclusive for a rebuild, so a rebuild
+ * never drops what a concurrent write refreshed.
+ */
+@Component
+@Slf4j
+public class IntervalRollupMaintainer {
+	static final String HOURLY_TABLE = "usage.interval_rollup_hourly";
+	static final String DAILY_TABLE = "usage.interval_rollup_daily";
+	static final int HOUR_SECONDS = 3600;
+	static final int DAY_SECONDS = 86400;
+
+	private static final int LOCK_CLASS = 0x524f4c4c;
+	private static final String ROLLUP_COLUMNS = "meter_reading_uuid, bucket_start, readings, value_sum, value_min, value_max, value_last, cost_sum, cost_min, cost_max";
+	// the aggregates of one bucket, over readings aliased r; value_last is what CUMULATIVE registers are totalled from
+	static final String AGGREGATES = """
+		count(*), sum(r.value)::bigint, min(r.value), max(r.value), (array_agg(r.value ORDER BY r.start DESC) FILTER (WHERE r.value IS NOT NULL))[1],
+		sum(r.cost)::bigint, min(r.cost), max(r.cost)""";
+	static final String TZ_OFFSET = """
+		SELECT coalesce(tc.tz_offset, 0) FROM usage.meter_reading mr
+		LEFT JOIN usage.usage_point up ON up.uuid = mr.usage_point_uuid
+		LEFT JOIN usage.time_configuration tc ON tc.uuid = up.time_configuration_uuid
+		WHERE mr.uuid = ?""";
+	private static final String LOCK_SHARED = """
+		SELECT count(pg_advisory_xact_lock_shared(%d, hashtext(m::text))) FROM (SELECT DISTINCT unnest(?::uuid[]) AS m) meter_readings""".formatted(LOCK_CLASS);
+	private static final String LOCK_EXCLUSIVE = "SELECT pg_advisory_xact_lock(%d, hashtext(?::text))".formatted(LOCK_CLASS);
+	// the buckets the changed readings fall into, each recomputed from all of its readings
+	private static final String REFRESH = """
+		INSERT INTO %1$s (%2$s)
+		SELECT k.meter_reading_uuid, k.bucket_start, %3$s
+		FROM (
+			SELECT DISTINCT c.meter_reading_uuid, (c.start + coalesce(tc.tz_offset, 0)) / %4$d * %4$d - coalesce(tc.tz_offset, 0) AS bucket_start
+			FROM unnest(?::uuid[], ?::bigint[]) AS c (meter_reading_uuid, start)
+			LEFT JOIN usage.meter_reading mr ON mr.uuid = c.meter_reading_uuid
+			LEFT JOIN usage.usage_point up ON up.uuid = mr.usage_point_uuid
+			LEFT JOIN usage.time_configuration tc ON tc.uuid = up.time_configuration_uuid
+		) k
+		JOIN usage.interval_block b ON b.meter_reading_uuid = k.meter_reading_uuid AND b.start < k.bucket_start + %4$d AND b.start + b.duration > k.bucket_start
+		JOIN usage.interval_reading r ON r.block_uuid = b.uuid AND r.start >= k.bucket_start AND r.start < k.bucket_start + %4$d
+		GROUP BY k.meter_reading_uuid, k.bucket_start
+		ON CONFLICT (meter_reading_uuid, bucket_start) DO UPDATE
+		SET readings = EXCLUDED.readings, value_sum = EXCLUDED.value_sum, value_min = EXCLUDED.value_min, value_max = EXCLUDED.value_max,
+			value_last = EXCLUDED.value_last, cost_sum = EXCLUDED.cost_sum, cost_min = EXCLUDED.cost_min, cost_max = EXCLUDED.cost_max""";
+	private static final String DELETE = "DELETE FROM %s WHERE meter_reading_uuid = ?";
+	private static final String REBUILD = "INSERT INTO %s (%s) %s";
+	private static final String MARK_REBUILT = """
+		INSERT INTO usage.interval_rollup_state (meter_reading_uuid, tz_offset, rebuilt) VALUES (?, ?, ?)
+		ON CONFLICT (meter_reading_uuid) DO UPDATE SET tz_offset = EXCLUDED.tz_offset, rebuilt = EXCLUDED.rebuilt""";
+
+	private final JdbcTemplate jdbcTemplate;
+	private final Timer refreshes;
+	private final Counter rebuilds;
+
+	@Autowired
+	public IntervalRollupMaintainer(JdbcTemplate jdbcTemplate, MeterRegistry meterRegistry) {
+		this.jdbcTemplate = jdbcTemplate;
+		this.refreshes = Timer.builder("gba.rollup.refresh")
+			.description("Time to recompute the rollup buckets touched by one interval data write")
+			.register(meterRegistry);
+		this.rebuilds = Counter.builder("gba.rollup.rebuilds")
+			.description("MeterReadings whose rollups were rebuilt from their readings")
+			.register(meterRegistry);
+	}
+
+	/**
+	 * Recomputes the hourly and daily buckets containing the given readings, identified by MeterReading and start. Joins the caller's transaction, so the
+	 * rollups commit together with the readings.
+	 */
+	@Transactional(propagation = Propagation.MANDATORY)
+	public void refresh(Collection<UUID> meterReadingUuids, Collection<Long> starts) {
+		if (meterReadingUuids.isEmpty()) {
+			return;
+		}
+		UUID[] meterReadings = meterReadingUuids.toArray(UUID[]::new);
+		Long[] readingStarts = starts.toArray(Long[]::new);
+		refreshes.record(() -> {
+			jdbcTemplate.query(con -> statement(con, LOCK_SHARED, con.createArrayOf("uuid", meterReadings)), rs -> {
+			});
+			for (String table : List.of(HOURLY_TABLE, DAILY_TABLE)) {
+				jdbcTemplate.update(con -> statement(con, REFRESH.formatted(table, ROLLUP_COLUMNS, AGGREGATES, bucketSeconds(table)),
+					con.createArrayOf("uuid", meterReadings), con.createArrayOf("bigint", readingStarts)));
+			}
+		});
+	}
+
+	/**
+	 * Recomputes every rollup bucket of the MeterReading from its readings and marks its rollups complete for its current tz_offset.
+	 */
+	@Transactional
+	public void rebuild(UUID meterReadingUuid) {
+		jdbcTemplate.query(LOCK_EXCLUSIVE, rs -> {
+		}, meterReadingUuid.toString());
+		long tzOffset = jdbcTemplate.queryForList(TZ_OFFSET, Long.class, meterReadingUuid).stream().findFirst().orElse(0L);
+		for (String table : List.of(HOURLY_TABLE, DAILY_TABLE)) {
+			jdbcTemplate.update(DELETE.formatted(table), meterReadingUuid);
+			jdbcTemplate.update(REBUILD.formatted(table, ROLLUP_COLUMNS, bucketsOf(bucketSeconds(table))), meterReadingUuid, tzOffset, tzOffset,
+				meterReadingUuid);
+		}
+		jdbcTemplate.update(MARK_REBUILT, meterReadingUuid, tzOffset, Timestamp.valueOf(LocalDateTime.now()));
+		rebuilds.increment();
+	}
+
+	/**
+	 * A query for all of one MeterReading's buckets of <code>bucketSeconds</code> in rollup table columns. Its parameters are the MeterReading, the tz_offset
+	 * twice and the MeterReading again.
+	 */
+	static String bucketsOf(int bucketSeconds) {
+		return """
+			SELECT ?::uuid, (r.start + ?) / %1$d * %1$d - ?, %2$s
+			FROM usage.interval_reading r JOIN usage.interval_block b ON b.uuid = r.block_uuid
+			WHERE b.meter_reading_uuid = ?
+			GROUP BY 2""".formatted(bucketSeconds, AGGREGATES);
+	}
+
+	static int bucketSeconds(String table) {
+		return HOURLY_TABLE.equals(table) ? HOUR_SECONDS : DAY_SECONDS;
+	}
+
+	private static PreparedStatement statement(Connection con, String sql, Object... parameters) throws SQLException {
+		PreparedStatement ps = con.prepareStatement(sql);
+		for (int i = 0; i < parameters.length; i++) {
+			ps.setObject(i + 1, parameters[i]);
+		}
+		return ps;
+	}
+}
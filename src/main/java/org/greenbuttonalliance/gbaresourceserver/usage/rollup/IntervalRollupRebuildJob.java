@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.greenbuttonalliance.gbaresourceserver.usage.rollup;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rebuilds rollups in the background, one MeterReading at a time, so the rollup API can move from raw readings to the rollup tables without a migration
+ * holding up startup.
+ * <p>
+ * Every <code>gba.rollup.rebuild-interval-ms</code> it looks for MeterReadings with interval data whose rollups were never rebuilt, or were rebuilt for a
+ * tz_offset their UsagePoint no longer has, and rebuilds them. {@link #request} queues a rebuild of one MeterReading on demand.
+ */
+@Component
+@Slf4j
+public class IntervalRollupRebuildJob {
+	private static final String STALE = """
+		SELECT mr.uuid FROM usage.meter_reading mr
+		LEFT JOIN usage.usage_point up ON up.uuid = mr.usage_point_uuid
+		LEFT JOIN usage.time_configuration tc ON tc.uuid = up.time_configuration_uuid
+		LEFT JOIN usage.interval_rollup_state s ON s.meter_reading_uuid = mr.uuid
+		WHERE s.tz_offset IS DISTINCT FROM coalesce(tc.tz_offset, 0)
+		AND EXISTS (SELECT 1 FROM usage.interval_block b WHERE b.meter_reading_uuid = mr.uuid)""";
+
+	private final IntervalRollupMaintainer intervalRollupMaintainer;
+	private final JdbcTemplate jdbcTemplate;
+	private final long rebuildIntervalMillis;
+	private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("gba-rollup-rebuild").daemon()
+		.factory());
+	// queued but not yet started, so a MeterReading found stale again before its rebuild ran is not rebuilt twice
+	private final Set<UUID> queued = ConcurrentHashMap.newKeySet();
+
+	@Autowired
+	public IntervalRollupRebuildJob(IntervalRollupMaintainer intervalRollupMaintainer, JdbcTemplate jdbcTemplate,
+									@Value("${gba.rollup.rebuild-interval-ms:60000}") long rebuildIntervalMillis) {
+		this.intervalRollupMaintainer = intervalRollupMaintainer;
+		this.jdbcTemplate = jdbcTemplate;
+		this.rebuildIntervalMillis = rebuildIntervalMillis;
+	}
+
+	@EventListener(ApplicationReadyEvent.class)
+	void start() {
+		if (rebuildIntervalMillis > 0) {
+			executor.scheduleWithFixedDelay(this::rebuildStale, 0, rebuildIntervalMillis, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	@PreDestroy
+	void stop() throws InterruptedException {
+		executor.shutdownNow();
+		executor.awaitTermination(30, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Queues a rebuild of the MeterReading's rollups, unless one is already waiting.
+	 *
+	 * @return whether a rebuild was queued
+	 */
+	public boolean request(UUID meterReadingUuid) {
+		if (!queued.add(meterReadingUuid)) {
+			return false;
+		}
+		executor.execute(() -> rebuild(meterReadingUuid));
+		return true;
+	}
+
+	private void rebuildStale() {
+		try {
+			List<UUID> stale = jdbcTemplate.queryForList(STALE, UUID.class);
+			if (!stale.isEmpty()) {
+				log.info("Rebuilding the rollups of {} MeterReadings", stale.size());
+			}
+			stale.forEach(this::request);
+		} catch (RuntimeException e) {
+			// the next sweep tries again
+			log.error("Could not look for MeterReadings with stale rollups", e);
+		}
+	}
+
+	private void rebuild(UUID meterReadingUuid) {
+		queued.remove(meterReadingUuid);
+		try {
+			intervalRollupMaintainer.rebuild(meterReadingUuid);
+		} catch (RuntimeException e) {
+			log.error("Could not rebuild the rollups of MeterReading {}", meterReadingUuid, e);
+		}
+	}
+}
@@ -0,0 +1,265 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.greenbuttonalliance.gbaresourceserver.usage.rollup;
+
+import org.greenbuttonalliance.gbaresourceserver.common.model.enums.UnitMultiplierKind;
+import org.greenbuttonalliance.gbaresourceserver.common.model.enums.UnitSymbolKind;
+import org.greenbuttonalliance.gbaresourceserver.usage.model.enums.AccumulationKind;
+import org.greenbuttonalliance.gbaresourceserver.usage.scope.EspiScope;
+import org.greenbuttonalliance.gbaresourceserver.usage.time.LocalTimeTable;
+import org.greenbuttonalliance.gbaresourceserver.usage.time.LocalTimeTables;
+import org.greenbuttonalliance.gbaresourceserver.usage.units.UnitScale;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import javax.sql.DataSource;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.function.BinaryOperator;
+import java.util.function.Consumer;
+
+/**
+ * Rolls a MeterReading's IntervalReadings up into time buckets in the database, so only one row per bucket ever leaves it. Rows are read through a cursor and
+ * handed on one at a time, so a long range never sits in memory. Call {@link #forEachRollup} inside a transaction, or the driver fetches everything at once.
+ * <p>
+ * Once {@link IntervalRollupMaintainer} has rebuilt a MeterReading's rollups, hours and days are read straight from the rollup tables and months are summed
+ * from the days; until then they are aggregated from the readings. Where the UsagePoint observes daylight saving time, its local days start at a different
+ * offset in summer, so days and months are instead merged in order from hours of standard time, or from shorter slices of the readings if daylight saving
+ * time is not a whole number of hours.
+ */
+@Repository
+public class IntervalRollupRepository {
+	private static final int FETCH_SIZE = 1000;
+	// latest representable second, so that an open-ended range still has a last bucket
+	private static final long MAX_EPOCH_SECOND = 253402300799L;
+	private static final String TARGET = """
+		SELECT tc.tz_offset, rt.accumulation_behavior::text, coalesce(s.tz_offset = coalesce(tc.tz_offset, 0), false), rt.uom::text,
+			rt.power_of_ten_multiplier::text, mr.usage_point_uuid, tc.dst_offset, tc.dst_start_rule, tc.dst_end_rule
+		FROM usage.meter_reading mr
+		LEFT JOIN usage.reading_type rt ON rt.uuid = mr.reading_type_uuid
+		LEFT JOIN usage.usage_point up ON up.uuid = mr.usage_point_uuid
+		LEFT JOIN usage.time_configuration tc ON tc.uuid = up.time_configuration_uuid
+		LEFT JOIN usage.interval_rollup_state s ON s.meter_reading_uuid = mr.uuid
+		WHERE mr.uuid = ?%s""";
+	// value_last is what CUMULATIVE registers need: the register at the end of the bucket
+	private static final String READING_BUCKETS = """
+		SELECT %s - ? AS bucket, count(*), sum(value)::bigint, min(value), max(value),
+			(array_agg(value ORDER BY start DESC) FILTER (WHERE value IS NOT NULL))[1], sum(cost)::bigint, min(cost), max(cost)
+		FROM (
+			SELECT r.start, r.value, r.cost, r.start + ? AS local_start FROM usage.interval_reading r
+			JOIN usage.interval_block b ON b.uuid = r.block_uuid
+			WHERE b.meter_reading_uuid = ? AND r.start >= ? AND r.start < ? AND b.start >= ?
+		) readings
+		GROUP BY 1
+		ORDER BY 1""";
+	private static final String STORED_BUCKETS = """
+		SELECT bucket_start, readings, value_sum, value_min, value_max, value_last, cost_sum, cost_min, cost_max FROM %s
+		WHERE meter_reading_uuid = ? AND bucket_start >= ? AND bucket_start < ? AND bucket_start >= ?
+		ORDER BY bucket_start""";
+	private static final String STORED_MONTHS = """
+		SELECT %s - ? AS bucket, sum(readings)::bigint, sum(value_sum)::bigint, min(value_min), max(value_max),
+			(array_agg(value_last ORDER BY bucket_start DESC) FILTER (WHERE value_last IS NOT NULL))[1], sum(cost_sum)::bigint, min(cost_min), max(cost_max)
+		FROM (
+			SELECT d.*, d.bucket_start + ? AS local_start FROM %s d
+			WHERE d.meter_reading_uuid = ? AND d.bucket_start >= ? AND d.bucket_start < ? AND d.bucket_start >= ?
+		) days
+		GROUP BY 1
+		ORDER BY 1""";
+
+	private final JdbcTemplate jdbcTemplate;
+	private final LocalTimeTables localTimeTables;
+
+	@Autowired
+	public IntervalRollupRepository(DataSource dataSource, LocalTimeTables localTimeTables) {
+		this.jdbcTemplate = new JdbcTemplate(dataSource);
+		this.jdbcTemplate.setFetchSize(FETCH_SIZE);
+		this.localTimeTables = localTimeTables;
+	}
+
+	/**
+	 * The MeterReading as a client of <code>scope</code> may roll it up, or empty when it does not exist or has an interval length the scope leaves out.
+	 */
+	public Optional<RollupTarget> findTarget(UUID meterReadingUuid, EspiScope scope) {
+		long historyStart = scope.historyStart(Instant.now().getEpochSecond());
+		return jdbcTemplate.query(TARGET.formatted(scope.intervalLengthPredicate("rt.interval_length")), (rs, rowNum) -> {
+			String accumulationBehavior = rs.getString(2);
+			String uom = rs.getString(4);
+			String multiplier = rs.getString(5);
+			LocalTimeTable localTime = localTimeTables.of(rs.getLong(1), rs.getObject(7, Long.class), rs.getBytes(8), rs.getBytes(9));
+			return new RollupTarget(meterReadingUuid, rs.getObject(6, UUID.class), localTime,
+				ValueAggregation.of(accumulationBehavior == null ? null : AccumulationKind.valueOf(accumulationBehavior)), rs.getBoolean(3),
+				UnitScale.of(uom == null ? null : UnitSymbolKind.valueOf(uom), multiplier == null ? null : UnitMultiplierKind.valueOf(multiplier)), historyStart);
+		}, meterReadingUuid).stream().findFirst();
+	}
+
+	/**
+	 * Hands every non-empty bucket overlapping <code>[from, to)</code> to <code>consumer</code>, in order. Buckets are always whole, so the readings of the
+	 * first and last bucket that lie outside the range are included, but never readings of IntervalBlocks starting before the target's
+	 * <code>historyStart</code>, nor stored buckets starting before it.
+	 */
+	public void forEachRollup(RollupTarget target, RollupInterval interval, long from, long to, Consumer<IntervalRollup> consumer) {
+		LocalTimeTable localTime = target.localTime();
+		long firstBucket = interval.bucketStart(Math.clamp(from, -MAX_EPOCH_SECOND, MAX_EPOCH_SECOND), localTime);
+		long queryTo = interval.nextBucketStart(interval.bucketStart(Math.clamp(to - 1, firstBucket, MAX_EPOCH_SECOND), localTime), localTime);
+		// a register needs the bucket before the first one to know how far it moved in the first one
+		long queryFrom = target.aggregation() == ValueAggregation.CUMULATIVE ? interval.previousBucketStart(firstBucket, localTime) : firstBucket;
+		int offsetSeconds = localTime.tzOffset();
+
+		RollupAccumulator accumulator = new RollupAccumulator(target, interval, firstBucket, consumer);
+		if (interval != RollupInterval.HOUR && localTime.observesDst()) {
+			int slice = standardTimeSlice(localTime.dstOffset());
+			LocalBucketMerger merger = new LocalBucketMerger(interval, localTime, accumulator);
+			if (target.stored() && slice == 3600) {
+				jdbcTemplate.query(STORED_BUCKETS.formatted(IntervalRollupMaintainer.HOURLY_TABLE), rs -> {
+					merger.accept(bucketRow(rs));
+				}, target.meterReadingUuid(), queryFrom, queryTo, target.historyStart());
+			} else {
+				jdbcTemplate.query(READING_BUCKETS.formatted("local_start / %1$d * %1$d".formatted(slice)), rs -> {
+					merger.accept(bucketRow(rs));
+				}, offsetSeconds, offsetSeconds, target.meterReadingUuid(), queryFrom, queryTo, target.historyStart());
+			}
+			merger.flush();
+		} else if (!target.stored()) {
+			jdbcTemplate.query(READING_BUCKETS.formatted(interval.bucketSql()), rs -> {
+				accumulator.accept(bucketRow(rs));
+			}, offsetSeconds, offsetSeconds, target.meterReadingUuid(), queryFrom, queryTo, target.historyStart());
+		} else if (interval == RollupInterval.MONTH) {
+			jdbcTemplate.query(STORED_MONTHS.formatted(interval.bucketSql(), IntervalRollupMaintainer.DAILY_TABLE), rs -> {
+				accumulator.accept(bucketRow(rs));
+			}, offsetSeconds, offsetSeconds, target.meterReadingUuid(), queryFrom, queryTo, target.historyStart());
+		} else {
+			String table = interval == RollupInterval.HOUR ? IntervalRollupMaintainer.HOURLY_TABLE : IntervalRollupMaintainer.DAILY_TABLE;
+			jdbcTemplate.query(STORED_BUCKETS.formatted(table), rs -> {
+				accumulator.accept(bucketRow(rs));
+			}, target.meterReadingUuid(), queryFrom, queryTo, target.historyStart());
+		}
+	}
+
+	/**
+	 * The longest slice of standard time that hours and the daylight saving offset are both made of, so no slice straddles a transition.
+	 */
+	static int standardTimeSlice(int dstOffset) {
+		int slice = 3600;
+		int rest = Math.abs(dstOffset);
+		while (rest != 0) {
+			int remainder = slice % rest;
+			slice = rest;
+			rest = remainder;
+		}
+		return slice;
+	}
+
+	private static BucketRow bucketRow(ResultSet rs) throws SQLException {
+		return new BucketRow(rs.getLong(1), rs.getLong(2), rs.getObject(3, Long.class), rs.getObject(4, Long.class), rs.getObject(5, Long.class),
+			rs.getObject(6, Long.class), rs.getObject(7, Long.class), rs.getObject(8, Long.class), rs.getObject(9, Long.class));
+	}
+
+	/**
+	 * A bucket as the database aggregates it, before the ValueAggregation decides what its total is.
+	 */
+	private record BucketRow(long start, long readings, Long valueSum, Long valueMin, Long valueMax, Long valueLast, Long costSum, Long costMin, Long costMax) {
+		BucketRow startingAt(long start) {
+			return new BucketRow(start, readings, valueSum, valueMin, valueMax, valueLast, costSum, costMin, costMax);
+		}
+
+		/**
+		 * This row and the one right after it as one row.
+		 */
+		BucketRow merge(BucketRow next) {
+			return new BucketRow(start, readings + next.readings, combine(valueSum, next.valueSum, Long::sum), combine(valueMin, next.valueMin, Math::min),
+				combine(valueMax, next.valueMax, Math::max), next.valueLast != null ? next.valueLast : valueLast, combine(costSum, next.costSum, Long::sum),
+				combine(costMin, next.costMin, Math::min), combine(costMax, next.costMax, Math::max));
+		}
+
+		private static Long combine(Long a, Long b, BinaryOperator<Long> operator) {
+			return a == null ? b : b == null ? a : operator.apply(a, b);
+		}
+	}
+
+	/**
+	 * Merges consecutive rows of slices of standard time into the local day or month they fall in and hands each on once it is complete.
+	 */
+	private static final class LocalBucketMerger {
+		private final RollupInterval interval;
+		private final LocalTimeTable localTime;
+		private final RollupAccumulator accumulator;
+		private BucketRow merged;
+		private long mergedEnd;
+
+		LocalBucketMerger(RollupInterval interval, LocalTimeTable localTime, RollupAccumulator accumulator) {
+			this.interval = interval;
+			this.localTime = localTime;
+			this.accumulator = accumulator;
+		}
+
+		void accept(BucketRow row) {
+			if (merged != null && row.start() < mergedEnd) {
+				merged = merged.merge(row);
+				return;
+			}
+			flush();
+			long start = interval.bucketStart(row.start(), localTime);
+			merged = row.startingAt(start);
+			mergedEnd = interval.nextBucketStart(start, localTime);
+		}
+
+		void flush() {
+			if (merged != null) {
+				accumulator.accept(merged);
+				merged = null;
+			}
+		}
+	}
+
+	/**
+	 * Turns bucket rows into rollups, carrying the previous bucket's register value along for CUMULATIVE readings.
+	 */
+	private static final class RollupAccumulator {
+		private final RollupTarget target;
+		private final RollupInterval interval;
+		private final long firstBucket;
+		private final Consumer<IntervalRollup> consumer;
+		private BucketRow previous;
+
+		RollupAccumulator(RollupTarget target, RollupInterval interval, long firstBucket, Consumer<IntervalRollup> consumer) {
+			this.target = target;
+			this.interval = interval;
+			this.firstBucket = firstBucket;
+			this.consumer = consumer;
+		}
+
+		void accept(BucketRow row) {
+			long next = interval.nextBucketStart(row.start(), target.localTime());
+			if (row.start() >= firstBucket) {
+				Long total = switch (target.aggregation()) {
+					case ADDITIVE -> row.valueSum();
+					case INSTANTANEOUS -> null;
+					// only a register read at the end of the bucket just before tells how far it moved in this one
+					case CUMULATIVE -> previous != null && previous.valueLast() != null && row.valueLast() != null
+						&& interval.nextBucketStart(previous.start(), target.localTime()) == row.start() ? row.valueLast() - previous.valueLast() : null;
+				};
+				consumer.accept(new IntervalRollup(row.start(), next - row.start(), row.readings(), total, row.valueMin(), row.valueMax(), row.costSum(),
+					row.costMin(), row.costMax()));
+			}
+			previous = row;
+		}
+	}
+}
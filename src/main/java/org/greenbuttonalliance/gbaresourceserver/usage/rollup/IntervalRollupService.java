@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.greenbuttonalliance.gbaresourceserver.usage.rollup;
+
+import org.greenbuttonalliance.gbaresourceserver.usage.bulkhead.DatabaseBulkheads;
+import org.greenbuttonalliance.gbaresourceserver.usage.controller.exception.EntityNotFoundByIdException;
+import org.greenbuttonalliance.gbaresourceserver.usage.model.MeterReading;
+import org.greenbuttonalliance.gbaresourceserver.usage.scope.EspiScope;
+import org.greenbuttonalliance.gbaresourceserver.usage.units.UnitScale;
+import org.greenbuttonalliance.gbaresourceserver.usage.units.ValueUnits;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+/**
+ * Serves per-bucket aggregates of a MeterReading's readings, so charts of daily or monthly usage no longer need every 15-minute reading. The response is written
+ * while the rows come in from the database.
+ */
+@Service
+public class IntervalRollupService {
+	private final IntervalRollupRepository intervalRollupRepository;
+	private final TransactionTemplate readOnlyTransaction;
+	private final DatabaseBulkheads databaseBulkheads;
+
+	@Autowired
+	public IntervalRollupService(IntervalRollupRepository intervalRollupRepository, PlatformTransactionManager transactionManager,
+								 DatabaseBulkheads databaseBulkheads) {
+		this.intervalRollupRepository = intervalRollupRepository;
+		this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+		this.readOnlyTransaction.setReadOnly(true);
+		this.databaseBulkheads = databaseBulkheads;
+	}
+
+	public RollupTarget findTarget(UUID meterReadingUuid, EspiScope scope) {
+		return databaseBulkheads.current().call(() -> intervalRollupRepository.findTarget(meterReadingUuid, scope)).orElseThrow(() -> new EntityNotFoundByIdException(MeterReading.class, meterReadingUuid));
+	}
+
+	/**
+	 * Writes the rollups of the buckets overlapping <code>[from, to)</code> as an <code>&lt;IntervalRollups&gt;</code> document. In
+	 * {@link ValueUnits#CANONICAL} units the values are scaled by the target's {@link UnitScale} and the document names their <code>uom</code>; costs are
+	 * never scaled.
+	 */
+	public void writeRollups(RollupTarget target, RollupInterval interval, long from, long to, ValueUnits units, OutputStream out) {
+		Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 1 << 14);
+		UnitScale scale = units == ValueUnits.CANONICAL ? target.scale() : null;
+		try {
+			writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+			writer.write(STR."<IntervalRollups meterReading=\"\{target.meterReadingUuid()}\" interval=\"\{interval.getParameter()}\" valueAggregation=\"\{target.aggregation()}\"");
+			writer.write(scale == null ? ">\n" : STR." uom=\"\{scale.uom()}\">\n");
+			databaseBulkheads.current().run(() -> readOnlyTransaction.executeWithoutResult(status ->
+				intervalRollupRepository.forEachRollup(target, interval, from, to, rollup -> write(writer, rollup, scale))));
+			writer.write("</IntervalRollups>\n");
+			writer.flush();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private static void write(Writer writer, IntervalRollup rollup, UnitScale scale) {
+		try {
+			writer.write(STR."<IntervalRollup><start>\{rollup.start()}</start><duration>\{rollup.duration()}</duration><readings>\{rollup.readings()}</readings>");
+			writeAggregates(writer, "value", rollup.valueTotal(), rollup.valueMin(), rollup.valueMax(), scale);
+			writeAggregates(writer, "cost", rollup.costTotal(), rollup.costMin(), rollup.costMax(), null);
+			writer.write("</IntervalRollup>\n");
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private static void writeAggregates(Writer writer, String element, Long total, Long min, Long max, UnitScale scale) throws IOException {
+		if (total == null && min == null && max == null) {
+			return;
+		}
+		writer.write('<');
+		writer.write(element);
+		writer.write('>');
+		writeLeaf(writer, "total", total, scale);
+		writeLeaf(writer, "min", min, scale);
+		writeLeaf(writer, "max", max, scale);
+		writer.write("</");
+		writer.write(element);
+		writer.write('>');
+	}
+
+	private static void writeLeaf(Writer writer, String element, Long value, UnitScale scale) throws IOException {
+		if (value != null) {
+			String text = scale == null ? value.toString() : UnitScale.format(scale.apply(value));
+			writer.write(STR."<\{element}>\{text}</\{element}>");
+		}
+	}
+}
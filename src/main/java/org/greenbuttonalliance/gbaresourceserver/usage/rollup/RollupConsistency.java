@@ -0,0 +1,30 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.greenbuttonalliance.gbaresourceserver.usage.rollup;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * How a MeterReading's rollup tables compare with its readings: how many buckets are missing, superfluous or different, and the first few of them.
+ * <code>stored</code> tells whether the rollup API currently reads from the tables.
+ */
+public record RollupConsistency(UUID meterReading, boolean stored, long hourlyMismatches, List<Long> hourlyMismatchStarts, long dailyMismatches,
+								List<Long> dailyMismatchStarts) {
+	public boolean consistent() {
+		return hourlyMismatches == 0 && dailyMismatches == 0;
+	}
+}
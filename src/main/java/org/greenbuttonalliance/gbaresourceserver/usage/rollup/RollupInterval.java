@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.greenbuttonalliance.gbaresourceserver.usage.rollup;
+
+import org.greenbuttonalliance.gbaresourceserver.usage.controller.exception.InvalidRequestParameterException;
+import org.greenbuttonalliance.gbaresourceserver.usage.time.LocalTimeTable;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.stream.Collectors;
+
+/**
+ * The bucket sizes readings can be rolled up into. Days and months follow the UsagePoint's local time, daylight saving time included, so a day runs from local
+ * midnight to local midnight and is 23 or 25 hours long across a transition. Hours are hours of local standard time, which are hours of daylight time too
+ * wherever daylight saving time moves clocks by whole hours.
+ */
+public enum RollupInterval {
+	HOUR("hour", "local_start / 3600 * 3600"),
+	DAY("day", "local_start / 86400 * 86400"),
+	MONTH("month", "extract(epoch FROM date_trunc('month', to_timestamp(local_start) AT TIME ZONE 'UTC'))::bigint");
+
+	private final String parameter;
+	private final String bucketSql;
+
+	RollupInterval(String parameter, String bucketSql) {
+		this.parameter = parameter;
+		this.bucketSql = bucketSql;
+	}
+
+	public static RollupInterval fromParameter(String parameter) {
+		return Arrays.stream(values())
+			.filter(interval -> interval.parameter.equalsIgnoreCase(parameter))
+			.findFirst()
+			.orElseThrow(() -> new InvalidRequestParameterException("interval", parameter,
+				Arrays.stream(values()).map(interval -> interval.parameter).collect(Collectors.joining(", "))));
+	}
+
+	public String getParameter() {
+		return parameter;
+	}
+
+	/**
+	 * SQL that truncates the <code>local_start</code> column (epoch seconds shifted to local standard time) to the start of its bucket, still in local time.
+	 * Only right for days and months where local time is standard time all year.
+	 */
+	String bucketSql() {
+		return bucketSql;
+	}
+
+	/**
+	 * @return the start of the bucket containing <code>epochSecond</code>, as a UTC epoch second
+	 */
+	public long bucketStart(long epochSecond, LocalTimeTable localTime) {
+		if (this == HOUR) {
+			return Math.floorDiv(epochSecond + localTime.tzOffset(), 3600) * 3600 - localTime.tzOffset();
+		}
+		LocalDate day = localTime.toLocalDateTime(epochSecond).toLocalDate();
+		return localTime.toEpochSecond((this == DAY ? day : day.withDayOfMonth(1)).atStartOfDay());
+	}
+
+	/**
+	 * @return the start of the bucket after the one starting at <code>bucketStart</code>, as a UTC epoch second
+	 */
+	public long nextBucketStart(long bucketStart, LocalTimeTable localTime) {
+		return switch (this) {
+			case HOUR -> bucketStart + 3600;
+			case DAY -> localTime.toEpochSecond(localTime.toLocalDateTime(bucketStart).plusDays(1));
+			case MONTH -> localTime.toEpochSecond(localTime.toLocalDateTime(bucketStart).plusMonths(1));
+		};
+	}
+
+	/**
+	 * @return the start of the bucket before the one starting at <code>bucketStart</code>, as a UTC epoch second
+	 */
+	public long previousBucketStart(long bucketStart, LocalTimeTable localTime) {
+		return switch (this) {
+			case HOUR -> bucketStart - 3600;
+			case DAY -> localTime.toEpochSecond(localTime.toLocalDateTime(bucketStart).minusDays(1));
+			case MONTH -> localTime.toEpochSecond(localTime.toLocalDateTime(bucketStart).minusMonths(1));
+		};
+	}
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.greenbuttonalliance.gbaresourceserver.usage.rollup;
+
+import org.greenbuttonalliance.gbaresourceserver.usage.scope.EspiScope;
+import org.greenbuttonalliance.gbaresourceserver.usage.time.LocalTimeTable;
+import org.greenbuttonalliance.gbaresourceserver.usage.units.UnitScale;
+
+import java.util.UUID;
+
+/**
+ * What a MeterReading's readings are rolled up by: its UsagePoint's local time and its ReadingType's {@link ValueAggregation}. The UsagePoint is kept to
+ * check the client's access to it. <code>stored</code> tells whether its hourly and daily rollup tables are complete for the standard-time offset of that
+ * local time, so rollups can be read from them, and <code>scale</code> turns its values into canonical units. <code>historyStart</code> is the earliest
+ * IntervalBlock start the client's {@link EspiScope} lets it see.
+ */
+public record RollupTarget(UUID meterReadingUuid, UUID usagePointUuid, LocalTimeTable localTime, ValueAggregation aggregation, boolean stored, UnitScale scale,
+						   long historyStart) {
+}
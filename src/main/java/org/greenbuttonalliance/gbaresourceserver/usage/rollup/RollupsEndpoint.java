@@ -0,0 +1,48 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.greenbuttonalliance.gbaresourceserver.usage.rollup;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.UUID;
+
+/**
+ * Operator access to a MeterReading's rollups at <code>/actuator/rollups/{meterReading}</code>, once <code>rollups</code> is added to
+ * <code>management.endpoints.web.exposure.include</code>: a GET checks them against the readings, a POST queues a rebuild.
+ */
+@Component
+@Endpoint(id = "rollups")
+@RequiredArgsConstructor(onConstructor = @__(@Autowired))
+public class RollupsEndpoint {
+	private final IntervalRollupConsistencyChecker intervalRollupConsistencyChecker;
+	private final IntervalRollupRebuildJob intervalRollupRebuildJob;
+
+	@ReadOperation
+	public RollupConsistency check(@Selector UUID meterReading) {
+		return intervalRollupConsistencyChecker.check(meterReading);
+	}
+
+	@WriteOperation
+	public boolean rebuild(@Selector UUID meterReading) {
+		return intervalRollupRebuildJob.request(meterReading);
+	}
+}
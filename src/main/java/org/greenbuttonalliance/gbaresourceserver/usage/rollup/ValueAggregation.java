@@ -0,0 +1,48 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.greenbuttonalliance.gbaresourceserver.usage.rollup;
+
+import org.greenbuttonalliance.gbaresourceserver.usage.model.enums.AccumulationKind;
+
+/**
+ * How the <code>value</code>s of a MeterReading combine within a bucket, following its ReadingType's <code>accumulationBehavior</code>.
+ */
+public enum ValueAggregation {
+	/**
+	 * Each reading is the quantity for its own interval (deltaData, and readings without a ReadingType), so the bucket total is their sum.
+	 */
+	ADDITIVE,
+	/**
+	 * Each reading is a register value that only grows, so the bucket total is the last value of the bucket minus the last value of the bucket before.
+	 */
+	CUMULATIVE,
+	/**
+	 * Each reading is a level at a point in time (e.g. demand or voltage), so values do not add up and buckets only have a minimum and maximum.
+	 */
+	INSTANTANEOUS;
+
+	public static ValueAggregation of(AccumulationKind accumulationBehavior) {
+		if (accumulationBehavior == null) {
+			return ADDITIVE;
+		}
+		return switch (accumulationBehavior) {
+			case NONE, DELTA_DATA -> ADDITIVE;
+			case BULK_QUANTITY, CONTINUOUS_CUMULATIVE, CUMULATIVE, SUMMATION -> CUMULATIVE;
+			case INDICATING, TIME_DELAY, INSTANTANEOUS, LATCHING_QUANTITY, BOUNDED_QUANTITY -> INSTANTANEOUS;
+		};
+	}
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.greenbuttonalliance.gbaresourceserver.usage.scope;
+
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Locale;
+import java.util.stream.Collectors;
+
+/**
+ * An ESPI scope string such as <code>FB=1_3_4_5_13_14_39;IntervalDuration=900;BlockDuration=monthly;HistoryLength=13</code>, compiled once into what the
+ * queries of interval data need to enforce it:
+ * <ul>
+ *     <li>the ReadingType interval lengths a client may see, from <code>IntervalDuration</code> (several as <code>900_3600</code>), as a SQL predicate
+ *     on <code>reading_type.interval_length</code>; a scope whose function blocks leave out FB_4, interval metering, sees no interval data at all</li>
+ *     <li>how far back its history reaches, <code>HistoryLength</code> counted in <code>BlockDuration</code>s (daily, weekly, monthly, billingPeriod as
+ *     monthly, seasonal as three months, or yearly), or in seconds without a <code>BlockDuration</code>, as the earliest
+ *     <code>interval_block.start</code> it is served</li>
+ * </ul>
+ * Other terms of the scope are kept as they were given and not enforced here.
+ */
+public final class EspiScope {
+	public static final int INTERVAL_METERING = 4;
+	private static final int MAX_FUNCTION_BLOCK = 255;
+	// every block starts after it, so a history predicate bound to it lets everything through
+	public static final long NO_HISTORY_LIMIT = Long.MIN_VALUE;
+	public static final EspiScope UNRESTRICTED = new EspiScope("", null, new long[0], null, 0, "");
+	public static final EspiScope NOTHING = new EspiScope("", new BitSet(), new long[0], null, 0, " AND FALSE");
+
+	private final String scope;
+	private final BitSet functionBlocks;
+	private final long[] intervalDurations;
+	private final String blockDuration;
+	private final long historyLength;
+	private final String intervalLengthPredicate;
+
+	private EspiScope(String scope, BitSet functionBlocks, long[] intervalDurations, String blockDuration, long historyLength,
+					  String intervalLengthPredicate) {
+		this.scope = scope;
+		this.functionBlocks = functionBlocks;
+		this.intervalDurations = intervalDurations;
+		this.blockDuration = blockDuration;
+		this.historyLength = historyLength;
+		this.intervalLengthPredicate = intervalLengthPredicate;
+	}
+
+	/**
+	 * @throws IllegalArgumentException when a term the server enforces cannot be read
+	 */
+	public static EspiScope compile(String scope) {
+		BitSet functionBlocks = null;
+		long[] intervalDurations = new long[0];
+		String blockDuration = null;
+		long historyLength = 0;
+		for (String term : scope.split(";")) {
+			int equals = term.indexOf('=');
+			String name = equals < 0 ? term.trim() : term.substring(0, equals).trim();
+			String value = equals < 0 ? "" : term.substring(equals + 1).trim();
+			switch (name) {
+				case "FB" -> {
+					functionBlocks = new BitSet();
+					for (long functionBlock : numbers(scope, name, value)) {
+						if (functionBlock > MAX_FUNCTION_BLOCK) {
+							throw new IllegalArgumentException("Scope " + scope + " has a function block " + functionBlock + " above " + MAX_FUNCTION_BLOCK);
+						}
+						functionBlocks.set((int) functionBlock);
+					}
+				}
+				case "IntervalDuration" -> intervalDurations = Arrays.stream(numbers(scope, name, value)).sorted().distinct().toArray();
+				case "BlockDuration" -> {
+					blockDuration = value;
+					monthsOrDaysPerBlock(scope, blockDuration);
+				}
+				case "HistoryLength" -> historyLength = numbers(scope, name, value)[0];
+				default -> {
+				}
+			}
+		}
+
+		String intervalLengthPredicate;
+		if (functionBlocks != null && !functionBlocks.get(INTERVAL_METERING)) {
+			intervalLengthPredicate = " AND FALSE";
+		} else if (intervalDurations.length > 0) {
+			intervalLengthPredicate = Arrays.stream(intervalDurations).mapToObj(Long::toString).collect(Collectors.joining(", ", " AND %s IN (", ")"));
+		} else {
+			intervalLengthPredicate = "";
+		}
+		return new EspiScope(scope, functionBlocks, intervalDurations, blockDuration, historyLength, intervalLengthPredicate);
+	}
+
+	public String getScope() {
+		return scope;
+	}
+
+	public boolean allowsFunctionBlock(int functionBlock) {
+		return functionBlocks == null || functionBlocks.get(functionBlock);
+	}
+
+	/**
+	 * Whether a ReadingType of this interval length, in seconds, may be seen; the same as {@link #intervalLengthPredicate(String)}.
+	 */
+	public boolean allowsIntervalLength(Long intervalLength) {
+		if (intervalLengthPredicate.isEmpty()) {
+			return true;
+		}
+		return intervalLength != null && allowsFunctionBlock(INTERVAL_METERING) && Arrays.binarySearch(intervalDurations, intervalLength) >= 0;
+	}
+
+	/**
+	 * <code>AND</code>-ed to a query's conditions, keeps the rows whose <code>column</code>, a ReadingType interval length, this scope allows; empty when it
+	 * allows any.
+	 */
+	public String intervalLengthPredicate(String column) {
+		return intervalLengthPredicate.isEmpty() ? "" : intervalLengthPredicate.formatted(column);
+	}
+
+	/**
+	 * The earliest IntervalBlock start, in epoch seconds, that may be served at <code>now</code>, or {@link #NO_HISTORY_LIMIT}. Whole blocks are counted in
+	 * UTC.
+	 */
+	public long historyStart(long now) {
+		if (historyLength <= 0) {
+			return NO_HISTORY_LIMIT;
+		}
+		try {
+			if (blockDuration == null) {
+				return Math.subtractExact(now, historyLength);
+			}
+			long[] monthsOrDays = monthsOrDaysPerBlock(scope, blockDuration);
+			return LocalDateTime.ofEpochSecond(now, 0, ZoneOffset.UTC)
+				.minusMonths(Math.multiplyExact(monthsOrDays[0], historyLength))
+				.minusDays(Math.multiplyExact(monthsOrDays[1], historyLength))
+				.toEpochSecond(ZoneOffset.UTC);
+		} catch (DateTimeException | ArithmeticException e) {
+			// reaches back before any date there can be readings for
+			return NO_HISTORY_LIMIT;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "EspiScope[" + scope + "]";
+	}
+
+	private static long[] numbers(String scope, String name, String value) {
+		try {
+			long[] numbers = Arrays.stream(value.split("_")).mapToLong(Long::parseLong).toArray();
+			if (Arrays.stream(numbers).anyMatch(number -> number < 0)) {
+				throw new NumberFormatException();
+			}
+			return numbers;
+		} catch (NumberFormatException | ArithmeticException e) {
+			throw new IllegalArgumentException("Scope " + scope + " has " + name + "=" + value + " instead of non-negative numbers separated by _", e);
+		}
+	}
+
+	private static long[] monthsOrDaysPerBlock(String scope, String blockDuration) {
+		return switch (blockDuration.toLowerCase(Locale.ROOT)) {
+			case "daily" -> new long[]{0, 1};
+			case "weekly" -> new long[]{0, 7};
+			case "monthly", "billingperiod" -> new long[]{1, 0};
+			case "seasonal" -> new long[]{3, 0};
+			case "yearly" -> new long[]{12, 0};
+			default -> throw new IllegalArgumentException("Scope " + scope + " has an unknown BlockDuration " + blockDuration);
+		};
+	}
+}
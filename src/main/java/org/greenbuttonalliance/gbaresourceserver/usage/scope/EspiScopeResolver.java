@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.greenbuttonalliance.gbaresourceserver.usage.scope;
+
+import jakarta.servlet.http.HttpServletRequest;
+import org.greenbuttonalliance.gbaresourceserver.usage.controller.exception.UnauthorizedException;
+import org.greenbuttonalliance.gbaresourceserver.usage.token.ResolvedToken;
+import org.greenbuttonalliance.gbaresourceserver.usage.token.TokenResolutionService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.MethodParameter;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+import org.springframework.web.bind.support.WebDataBinderFactory;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.method.support.HandlerMethodArgumentResolver;
+import org.springframework.web.method.support.ModelAndViewContainer;
+
+/**
+ * The {@link EspiScope} of a request, from the Authorization its bearer token belongs to, handed to controller methods that take one. A token that does
+ * not resolve to an active Authorization sees {@link EspiScope#NOTHING}. A request without a bearer token is turned away, unless
+ * <code>gba.access.allow-anonymous</code> is set for a deployment that authenticates its callers some other way, in which case it is not restricted.
+ */
+@Component
+public class EspiScopeResolver implements HandlerMethodArgumentResolver {
+	private final TokenResolutionService tokenResolutionService;
+	private final boolean allowAnonymous;
+
+	@Autowired
+	public EspiScopeResolver(TokenResolutionService tokenResolutionService, @Value("${gba.access.allow-anonymous:false}") boolean allowAnonymous) {
+		this.tokenResolutionService = tokenResolutionService;
+		this.allowAnonymous = allowAnonymous;
+	}
+
+	/**
+	 * @throws UnauthorizedException for a request without a bearer token while anonymous access is off
+	 */
+	public EspiScope resolve(String authorizationHeader) {
+		String accessToken = TokenResolutionService.bearerToken(authorizationHeader);
+		if (accessToken == null) {
+			if (!allowAnonymous) {
+				throw new UnauthorizedException("No bearer token");
+			}
+			return EspiScope.UNRESTRICTED;
+		}
+		return tokenResolutionService.resolve(accessToken).map(ResolvedToken::espiScope).orElse(EspiScope.NOTHING);
+	}
+
+	@Override
+	public boolean supportsParameter(MethodParameter parameter) {
+		return parameter.getParameterType() == EspiScope.class;
+	}
+
+	@Override
+	public EspiScope resolveArgument(MethodParameter parameter, ModelAndViewContainer mavContainer, NativeWebRequest webRequest,
+									 WebDataBinderFactory binderFactory) {
+		HttpServletRequest request = webRequest.getNativeRequest(HttpServletRequest.class);
+		return resolve(request == null ? null : request.getHeader(HttpHeaders.AUTHORIZATION));
+	}
+}
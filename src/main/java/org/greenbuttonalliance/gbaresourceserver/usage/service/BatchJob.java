@@ -0,0 +1,37 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.greenbuttonalliance.gbaresourceserver.usage.service;
+
+import java.util.UUID;
+
+/**
+ * A run of one of the Batch jobs that work through the whole database, as {@link BatchJobService} last saw it. Times are epoch seconds; <code>result</code>
+ * is the job's counts once it has succeeded, and <code>error</code> what it failed with.
+ */
+public record BatchJob(UUID id, String kind, Status status, long started, Long finished, Object result, String error) {
+
+	public enum Status {
+		RUNNING, SUCCEEDED, FAILED
+	}
+
+	BatchJob succeeded(long finishedAt, Object jobResult) {
+		return new BatchJob(id, kind, Status.SUCCEEDED, started, finishedAt, jobResult, null);
+	}
+
+	BatchJob failed(long finishedAt, String jobError) {
+		return new BatchJob(id, kind, Status.FAILED, started, finishedAt, null, jobError);
+	}
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.greenbuttonalliance.gbaresourceserver.usage.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.greenbuttonalliance.gbaresourceserver.usage.controller.exception.BatchJobRunningException;
+import org.greenbuttonalliance.gbaresourceserver.usage.workload.Workload;
+import org.greenbuttonalliance.gbaresourceserver.usage.workload.WorkloadClass;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.function.Supplier;
+
+/**
+ * Runs the Batch jobs that derive, rate or validate across the whole database in the background, one at a time. Each of them fans out over a pool of its own
+ * and would hold a request thread, and the client's connection, for as long as it takes; two of them at once would only compete for the same bulk
+ * connections. {@link #start} hands the job to a thread of its own and answers at once, and turns the job away while another one is running. The last
+ * <code>gba.batch.job-history</code> jobs stay around for {@link #find}.
+ */
+@Service
+@Slf4j
+public class BatchJobService {
+	private final int history;
+	// guarded by this; in the order the jobs started
+	private final Map<UUID, BatchJob> jobs = new LinkedHashMap<>();
+	private BatchJob running;
+
+	@Autowired
+	public BatchJobService(@Value("${gba.batch.job-history:100}") int history) {
+		this.history = Math.max(1, history);
+	}
+
+	/**
+	 * Starts the work as a bulk job of the given kind on a thread of its own.
+	 *
+	 * @return the job, still running
+	 * @throws BatchJobRunningException while another job is running
+	 */
+	public synchronized BatchJob start(String kind, Supplier<?> work) {
+		if (running != null) {
+			throw new BatchJobRunningException(running.kind(), running.id());
+		}
+		BatchJob job = new BatchJob(UUID.randomUUID(), kind, BatchJob.Status.RUNNING, Instant.now().getEpochSecond(), null, null, null);
+		Thread.ofPlatform().name("gba-batch-job").daemon().start(() -> run(job, work));
+		running = job;
+		update(job);
+		return job;
+	}
+
+	public synchronized Optional<BatchJob> find(UUID id) {
+		return Optional.ofNullable(jobs.get(id));
+	}
+
+	private void run(BatchJob job, Supplier<?> work) {
+		BatchJob finished;
+		try (Workload.Scope ignored = Workload.enter(WorkloadClass.BULK)) {
+			finished = job.succeeded(Instant.now().getEpochSecond(), work.get());
+		} catch (RuntimeException e) {
+			log.error("Batch job {} {} failed", job.kind(), job.id(), e);
+			finished = job.failed(Instant.now().getEpochSecond(), e.getMessage());
+		}
+		synchronized (this) {
+			running = null;
+			update(finished);
+		}
+	}
+
+	private void update(BatchJob job) {
+		jobs.put(job.id(), job);
+		// the running job is the newest, so never the one to go
+		while (jobs.size() > history) {
+			jobs.remove(jobs.keySet().iterator().next());
+		}
+	}
+}
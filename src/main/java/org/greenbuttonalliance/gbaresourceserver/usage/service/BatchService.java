@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.greenbuttonalliance.gbaresourceserver.usage.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.greenbuttonalliance.gbaresourceserver.usage.access.UsagePointAccess;
+import org.greenbuttonalliance.gbaresourceserver.usage.bulkhead.Bulkhead;
+import org.greenbuttonalliance.gbaresourceserver.usage.bulkhead.DatabaseBulkheads;
+import org.greenbuttonalliance.gbaresourceserver.usage.controller.exception.EntityNotFoundByIdException;
+import org.greenbuttonalliance.gbaresourceserver.usage.model.RetailCustomer;
+import org.greenbuttonalliance.gbaresourceserver.usage.repository.IntervalBlockRepository;
+import org.greenbuttonalliance.gbaresourceserver.usage.repository.RetailCustomerRepository;
+import org.greenbuttonalliance.gbaresourceserver.usage.repository.UsagePointRepository;
+import org.greenbuttonalliance.gbaresourceserver.usage.web.dto.IntervalBlockDto;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Builds the "download my data" export for a RetailCustomer. Each UsagePoint subtree is independent, so the subtrees are fetched and rendered concurrently on virtual
+ * threads and stitched back together in UsagePoint order. The subtrees take their connections through the bulk {@link Bulkhead}, which keeps the fan-out from
+ * exhausting the pool or starving interactive requests. Only the UsagePoints of the caller's {@link UsagePointAccess} are exported.
+ */
+@Service
+@Slf4j
+public class BatchService {
+	private final RetailCustomerRepository retailCustomerRepository;
+	private final UsagePointRepository usagePointRepository;
+	private final IntervalBlockRepository intervalBlockRepository;
+	private final TransactionTemplate readOnlyTransaction;
+	private final Bulkhead bulk;
+
+	@Autowired
+	public BatchService(RetailCustomerRepository retailCustomerRepository, UsagePointRepository usagePointRepository, IntervalBlockRepository intervalBlockRepository,
+						PlatformTransactionManager transactionManager, DatabaseBulkheads databaseBulkheads) {
+		this.retailCustomerRepository = retailCustomerRepository;
+		this.usagePointRepository = usagePointRepository;
+		this.intervalBlockRepository = intervalBlockRepository;
+		this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+		this.readOnlyTransaction.setReadOnly(true);
+		this.bulk = databaseBulkheads.bulk();
+	}
+
+	/**
+	 * @return the Atom entries of every UsagePoint below the RetailCustomer that the access permits, one string per UsagePoint, in UsagePoint order
+	 * @throws EntityNotFoundByIdException for a RetailCustomer that does not exist, or none of whose UsagePoints a restricted access permits
+	 */
+	public List<String> renderRetailCustomer(UUID retailCustomerUuid, UsagePointAccess usagePointAccess) {
+		if (!retailCustomerRepository.existsById(retailCustomerUuid)) {
+			throw new EntityNotFoundByIdException(RetailCustomer.class, retailCustomerUuid);
+		}
+		List<UUID> usagePointUuids = usagePointRepository.findUuidsByRetailCustomerUuid(retailCustomerUuid);
+		if (!usagePointAccess.isUnrestricted()) {
+			usagePointUuids = usagePointUuids.stream().filter(usagePointAccess::permits).toList();
+			if (usagePointUuids.isEmpty()) {
+				throw new EntityNotFoundByIdException(RetailCustomer.class, retailCustomerUuid);
+			}
+		}
+
+		try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+			List<Future<String>> subtrees = new ArrayList<>(usagePointUuids.size());
+			for (UUID usagePointUuid : usagePointUuids) {
+				subtrees.add(executor.submit(() -> bulk.call(() -> readOnlyTransaction.execute(status -> renderUsagePoint(usagePointUuid)))));
+			}
+
+			List<String> rendered = new ArrayList<>(subtrees.size());
+			for (Future<String> subtree : subtrees) {
+				rendered.add(subtree.get());
+			}
+			return rendered;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while exporting RetailCustomer " + retailCustomerUuid, e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException re) {
+				throw re;
+			}
+			throw new IllegalStateException("Failed to export RetailCustomer " + retailCustomerUuid, e.getCause());
+		}
+	}
+
+	private String renderUsagePoint(UUID usagePointUuid) {
+		StringBuilder entries = new StringBuilder();
+		intervalBlockRepository.findAllByUsagePointUuid(usagePointUuid).stream()
+			.map(IntervalBlockDto::fromIntervalBlock)
+			.forEach(dto -> entries.append(dto.addEntryWrapper("IntervalBlock", dto.getContent())));
+		return entries.toString();
+	}
+}
@@ -16,11 +16,16 @@
 package org.greenbuttonalliance.gbaresourceserver.usage.service;
 
 import lombok.RequiredArgsConstructor;
+import org.greenbuttonalliance.gbaresourceserver.usage.access.UsagePointAccess;
 import org.greenbuttonalliance.gbaresourceserver.usage.model.IntervalBlock;
+import org.greenbuttonalliance.gbaresourceserver.usage.model.ReadingType;
 import org.greenbuttonalliance.gbaresourceserver.usage.repository.IntervalBlockRepository;
+import org.greenbuttonalliance.gbaresourceserver.usage.scope.EspiScope;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import java.time.Instant;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
@@ -40,4 +45,21 @@ public class IntervalBlockService {
 	public List<IntervalBlock> findAll() {
 		return intervalBlockRepository.findAll();
 	}
+
+	/**
+	 * The blocks below the UsagePoints of the access that the scope lets the client see.
+	 */
+	public List<IntervalBlock> findAll(EspiScope scope, UsagePointAccess usagePointAccess) {
+		return intervalBlockRepository.findAllInScope(usagePointAccess.isUnrestricted() ? null : Arrays.asList(usagePointAccess.usagePointUuids()), scope,
+			Instant.now().getEpochSecond());
+	}
+
+	/**
+	 * Whether the scope lets the client see the block: one of a MeterReading whose interval length it grants, within its history.
+	 */
+	public boolean isInScope(IntervalBlock intervalBlock, EspiScope scope) {
+		ReadingType readingType = intervalBlock.getMeterReading().getReadingType();
+		return scope.allowsIntervalLength(readingType == null ? null : readingType.getIntervalLength())
+			&& intervalBlock.getInterval().getStart() >= scope.historyStart(Instant.now().getEpochSecond());
+	}
 }
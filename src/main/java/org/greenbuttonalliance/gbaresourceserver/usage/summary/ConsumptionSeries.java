@@ -0,0 +1,32 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.greenbuttonalliance.gbaresourceserver.usage.summary;
+
+import org.greenbuttonalliance.gbaresourceserver.common.model.enums.UnitMultiplierKind;
+import org.greenbuttonalliance.gbaresourceserver.common.model.enums.UnitSymbolKind;
+import org.greenbuttonalliance.gbaresourceserver.usage.model.enums.CommodityKind;
+
+import java.util.UUID;
+
+/**
+ * A MeterReading whose readings are consumption per interval, with the units of its ReadingType, which derived measurements are reported in.
+ */
+record ConsumptionSeries(UUID meterReadingUuid, boolean reverse, UnitSymbolKind uom, UnitMultiplierKind powerOfTenMultiplier, CommodityKind commodity,
+						 String readingTypeRef) {
+	boolean sameUnitsAs(ConsumptionSeries other) {
+		return uom == other.uom && powerOfTenMultiplier == other.powerOfTenMultiplier;
+	}
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.greenbuttonalliance.gbaresourceserver.usage.summary;
+
+import java.util.Arrays;
+
+/**
+ * The readings of a partition of MeterReadings as parallel primitive arrays rather than one object per reading, so a partition of several million readings
+ * costs 24 bytes per reading, 32 with their ids, and is scanned without chasing pointers. Rows are appended in whatever order the database returns them;
+ * {@link #groupBySeries} then orders them by series with a counting sort and by start within each series, keeping the order they arrived in for equal starts,
+ * after which the readings of series <code>s</code> are <code>[from(s), to(s))</code>. Both summary derivation and validation read their partitions into
+ * these.
+ */
+public final class ReadingColumns {
+	private final int seriesCount;
+	private int size;
+	private int[] series;
+	// null unless the ids are kept
+	private long[] ids;
+	private long[] starts;
+	private int[] durations;
+	private long[] values;
+	private int[] seriesOffsets;
+
+	public ReadingColumns(int seriesCount, int initialCapacity) {
+		this(seriesCount, initialCapacity, false);
+	}
+
+	/**
+	 * @param withIds whether to keep the ids of the readings, for passes that have to refer back to the rows they read
+	 */
+	public ReadingColumns(int seriesCount, int initialCapacity, boolean withIds) {
+		this.seriesCount = seriesCount;
+		int capacity = Math.max(16, initialCapacity);
+		this.series = new int[capacity];
+		this.ids = withIds ? new long[capacity] : null;
+		this.starts = new long[capacity];
+		this.durations = new int[capacity];
+		this.values = new long[capacity];
+	}
+
+	public void add(int seriesIndex, long start, int duration, long value) {
+		if (size == starts.length) {
+			grow();
+		}
+		series[size] = seriesIndex;
+		starts[size] = start;
+		durations[size] = duration;
+		values[size] = value;
+		size++;
+	}
+
+	/**
+	 * Appends a reading with its id; only for columns that keep them.
+	 */
+	public void add(int seriesIndex, long id, long start, int duration, long value) {
+		if (size == starts.length) {
+			grow();
+		}
+		ids[size] = id;
+		add(seriesIndex, start, duration, value);
+	}
+
+	private void grow() {
+		int capacity = size + (size >> 1);
+		series = Arrays.copyOf(series, capacity);
+		if (ids != null) {
+			ids = Arrays.copyOf(ids, capacity);
+		}
+		starts = Arrays.copyOf(starts, capacity);
+		durations = Arrays.copyOf(durations, capacity);
+		values = Arrays.copyOf(values, capacity);
+	}
+
+	/**
+	 * Reorders the readings by series and start. The series column is dropped afterwards; {@link #from} and {@link #to} replace it.
+	 */
+	public void groupBySeries() {
+		int[] offsets = new int[seriesCount + 1];
+		for (int i = 0; i < size; i++) {
+			offsets[series[i] + 1]++;
+		}
+		for (int s = 0; s < seriesCount; s++) {
+			offsets[s + 1] += offsets[s];
+		}
+		int[] next = Arrays.copyOf(offsets, seriesCount);
+		long[] sortedIds = ids != null ? new long[size] : null;
+		long[] sortedStarts = new long[size];
+		int[] sortedDurations = new int[size];
+		long[] sortedValues = new long[size];
+		for (int i = 0; i < size; i++) {
+			int target = next[series[i]]++;
+			if (ids != null) {
+				sortedIds[target] = ids[i];
+			}
+			sortedStarts[target] = starts[i];
+			sortedDurations[target] = durations[i];
+			sortedValues[target] = values[i];
+		}
+		ids = sortedIds;
+		starts = sortedStarts;
+		durations = sortedDurations;
+		values = sortedValues;
+		series = null;
+		seriesOffsets = offsets;
+		for (int s = 0; s < seriesCount; s++) {
+			sortByStart(offsets[s], offsets[s + 1]);
+		}
+	}
+
+	/**
+	 * Readings mostly arrive in order already, block by block, so this only pays for a sort where they do not.
+	 */
+	private void sortByStart(int from, int to) {
+		int i = from + 1;
+		while (i < to && starts[i - 1] <= starts[i]) {
+			i++;
+		}
+		if (i >= to) {
+			return;
+		}
+		Integer[] order = new Integer[to - from];
+		for (int k = 0; k < order.length; k++) {
+			order[k] = from + k;
+		}
+		// stable, so readings with the same start stay in the order they arrived
+		Arrays.sort(order, (a, b) -> Long.compare(starts[a], starts[b]));
+		if (ids != null) {
+			long[] sortedIds = new long[order.length];
+			for (int k = 0; k < order.length; k++) {
+				sortedIds[k] = ids[order[k]];
+			}
+			System.arraycopy(sortedIds, 0, ids, from, order.length);
+		}
+		long[] sortedStarts = new long[order.length];
+		int[] sortedDurations = new int[order.length];
+		long[] sortedValues = new long[order.length];
+		for (int k = 0; k < order.length; k++) {
+			sortedStarts[k] = starts[order[k]];
+			sortedDurations[k] = durations[order[k]];
+			sortedValues[k] = values[order[k]];
+		}
+		System.arraycopy(sortedStarts, 0, starts, from, order.length);
+		System.arraycopy(sortedDurations, 0, durations, from, order.length);
+		System.arraycopy(sortedValues, 0, values, from, order.length);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int from(int seriesIndex) {
+		return seriesOffsets[seriesIndex];
+	}
+
+	public int to(int seriesIndex) {
+		return seriesOffsets[seriesIndex + 1];
+	}
+
+	/**
+	 * The backing array of ids, or null if they are not kept; only <code>[0, size())</code> is used.
+	 */
+	public long[] ids() {
+		return ids;
+	}
+
+	/**
+	 * The backing array of starts, for passes that work on the columns directly; only <code>[0, size())</code> is used.
+	 */
+	public long[] starts() {
+		return starts;
+	}
+
+	public int[] durations() {
+		return durations;
+	}
+
+	public long[] values() {
+		return values;
+	}
+}
@@ -0,0 +1,27 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.greenbuttonalliance.gbaresourceserver.usage.summary;
+
+/**
+ * Counts of what one derivation run read and wrote. UsagePoints without consumption readings in the period get no UsageSummary, so <code>summaries</code> may
+ * be less than <code>usagePoints</code>.
+ */
+public record SummaryDerivation(long usagePoints, long summaries, long intervalReadings, int partitions) {
+	SummaryDerivation plus(SummaryDerivation other) {
+		return new SummaryDerivation(usagePoints + other.usagePoints, summaries + other.summaries, intervalReadings + other.intervalReadings,
+			partitions + other.partitions);
+	}
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.greenbuttonalliance.gbaresourceserver.usage.summary;
+
+/**
+ * The billing period UsageSummaries are derived for, and how far into it interval data is to be taken into account. <code>asOf</code> is capped at the end of
+ * the period, so deriving a closed period always reflects all of it.
+ */
+public record SummaryPeriod(long start, long duration, long asOf) {
+	public SummaryPeriod {
+		if (duration <= 0) {
+			throw new IllegalArgumentException("Billing period duration must be positive, was " + duration);
+		}
+		asOf = Math.min(asOf, start + duration);
+		if (asOf <= start) {
+			throw new IllegalArgumentException("Billing period starting at " + start + " has not begun at " + asOf);
+		}
+	}
+
+	public long end() {
+		return start + duration;
+	}
+}
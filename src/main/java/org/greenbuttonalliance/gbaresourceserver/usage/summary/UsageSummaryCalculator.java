@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.greenbuttonalliance.gbaresourceserver.usage.summary;
+
+import org.greenbuttonalliance.gbaresourceserver.common.model.DateTimeInterval;
+import org.greenbuttonalliance.gbaresourceserver.common.model.SummaryMeasurement;
+import org.greenbuttonalliance.gbaresourceserver.common.model.enums.UnitSymbolKind;
+import org.greenbuttonalliance.gbaresourceserver.usage.demand.SlidingDemand;
+import org.greenbuttonalliance.gbaresourceserver.usage.model.UsageSummary;
+import org.greenbuttonalliance.gbaresourceserver.usage.model.enums.QualityOfReading;
+import org.greenbuttonalliance.gbaresourceserver.usage.net.NetSeries;
+import org.greenbuttonalliance.gbaresourceserver.usage.time.LocalTimeTable;
+
+import java.time.LocalDate;
+
+/**
+ * Derives the measurements of one UsagePoint's UsageSummary from the readings of its forward and (optional) reverse consumption series, in one pass over each.
+ * Net measurements are taken from the {@link NetSeries} the two are merged into. Days are days of the UsagePoint's local time, so they are 23 or 25 hours long across a daylight saving transition; "current day" is the day <code>asOf</code> falls in. The peak demand is the highest
+ * {@link SlidingDemand} over <code>demandWindow</code> seconds among the windows starting in the billing period.
+ */
+final class UsageSummaryCalculator {
+	private static final int PERIOD = 0;
+	private static final int LAST_PERIOD = 1;
+	private static final int CURRENT_DAY = 2;
+	private static final int PREVIOUS_DAY = 3;
+	private static final int CURRENT_DAY_LAST_YEAR = 4;
+	private static final int PREVIOUS_DAY_LAST_YEAR = 5;
+	private static final int WINDOWS = 6;
+
+	private final SummaryPeriod period;
+	private final LocalTimeTable localTime;
+	private final SlidingDemand demand;
+	private final NetSeries net;
+	private final int demandWindow;
+	private final long[] windowStarts = new long[WINDOWS];
+	private final long[] windowEnds = new long[WINDOWS];
+
+	UsageSummaryCalculator(SummaryPeriod period, LocalTimeTable localTime, SlidingDemand demand, NetSeries net, int demandWindow) {
+		this.period = period;
+		this.localTime = localTime;
+		this.demand = demand;
+		this.net = net;
+		this.demandWindow = demandWindow;
+		LocalDate currentDay = localTime.toLocalDateTime(period.asOf() - 1).toLocalDate();
+		long currentDayStart = localTime.toEpochSecond(currentDay.atStartOfDay());
+		LocalDate lastYearDay = currentDay.minusYears(1);
+		long lastYearDayStart = localTime.toEpochSecond(lastYearDay.atStartOfDay());
+		window(PERIOD, period.start(), period.asOf());
+		window(LAST_PERIOD, period.start() - period.duration(), period.start());
+		window(CURRENT_DAY, currentDayStart, period.asOf());
+		window(PREVIOUS_DAY, localTime.toEpochSecond(currentDay.minusDays(1).atStartOfDay()), currentDayStart);
+		window(CURRENT_DAY_LAST_YEAR, lastYearDayStart, localTime.toEpochSecond(lastYearDay.plusDays(1).atStartOfDay()));
+		window(PREVIOUS_DAY_LAST_YEAR, localTime.toEpochSecond(lastYearDay.minusDays(1).atStartOfDay()), lastYearDayStart);
+	}
+
+	/**
+	 * @param reverse the reverse series, or <code>null</code> if the UsagePoint has none in the units of <code>forward</code>
+	 * @param ratchet the highest peak demand of earlier billing periods within the ratchet period, or <code>null</code>
+	 * @return the UsageSummary, or <code>null</code> if <code>forward</code> has no readings in the billing period
+	 */
+	UsageSummary derive(ReadingColumns readings, int forwardSeries, ConsumptionSeries forward, int reverseSeries, ConsumptionSeries reverse,
+						SummaryMeasurement ratchet, long ratchetStart) {
+		Totals consumed = totals(readings.starts(), readings.values(), readings.from(forwardSeries), readings.to(forwardSeries));
+		if ((consumed.present & 1 << PERIOD) == 0) {
+			return null;
+		}
+		Totals netted = consumed;
+		if (reverse != null) {
+			net.merge(readings.starts(), readings.durations(), readings.values(), readings.from(forwardSeries), readings.to(forwardSeries),
+				readings.starts(), readings.durations(), readings.values(), readings.from(reverseSeries), readings.to(reverseSeries));
+			netted = totals(net.starts(), net.values(), 0, net.size());
+		}
+
+		UsageSummary summary = new UsageSummary()
+			.setBillingPeriod(new DateTimeInterval().setStart(period.start()).setDuration(period.duration()))
+			.setCurrentBillingPeriodOverAllConsumption(total(consumed, PERIOD, forward))
+			.setOverallConsumptionLastPeriod(total(consumed, LAST_PERIOD, forward))
+			.setCurrentDayOverallConsumption(total(consumed, CURRENT_DAY, forward))
+			.setPreviousDayOverallConsumption(total(consumed, PREVIOUS_DAY, forward))
+			.setPreviousDayLastYearOverallConsumption(total(consumed, PREVIOUS_DAY_LAST_YEAR, forward))
+			.setCurrentDayNetConsumption(total(netted, CURRENT_DAY, forward))
+			.setPreviousDayNetConsumption(total(netted, PREVIOUS_DAY, forward))
+			.setCurrentDayLastYearNetConsumption(total(netted, CURRENT_DAY_LAST_YEAR, forward))
+			.setQualityOfReading(QualityOfReading.DERIVED)
+			.setStatusTimeStamp(period.asOf())
+			.setCommodity(forward.commodity());
+
+		UnitSymbolKind demandUom = demandUom(forward.uom());
+		if (demandUom != null && demand.peak(readings.starts(), readings.durations(), readings.values(), readings.from(forwardSeries),
+			readings.to(forwardSeries), demandWindow, windowStarts[PERIOD], windowEnds[PERIOD])) {
+			SummaryMeasurement peak = measurement(demand.peakDemand(), demand.peakStart(), forward).setUom(demandUom);
+			summary.setPeakDemand(peak);
+			SummaryMeasurement highest = ratchet != null && ratchet.getValue() > peak.getValue() ? ratchet : peak;
+			summary.setRatchetDemand(measurement(highest.getValue(), highest.getTimeStamp(), forward).setUom(demandUom))
+				.setRatchetDemandPeriod(new DateTimeInterval().setStart(ratchetStart).setDuration(period.asOf() - ratchetStart));
+		}
+		return summary;
+	}
+
+	private Totals totals(long[] starts, long[] values, int from, int to) {
+		Totals totals = new Totals();
+		for (int i = from; i < to; i++) {
+			long start = starts[i];
+			long value = values[i];
+			for (int w = 0; w < WINDOWS; w++) {
+				if (start >= windowStarts[w] && start < windowEnds[w]) {
+					totals.sums[w] += value;
+					totals.present |= 1 << w;
+				}
+			}
+		}
+		return totals;
+	}
+
+	private SummaryMeasurement total(Totals totals, int window, ConsumptionSeries forward) {
+		return (totals.present & 1 << window) == 0 ? null : measurement(totals.sums[window], windowStarts[window], forward);
+	}
+
+	private static SummaryMeasurement measurement(long value, long timeStamp, ConsumptionSeries series) {
+		return new SummaryMeasurement()
+			.setValue(value)
+			.setTimeStamp(timeStamp)
+			.setUom(series.uom())
+			.setPowerOfTenMultiplier(series.powerOfTenMultiplier())
+			.setReadingTypeRef(series.readingTypeRef());
+	}
+
+	/**
+	 * The unit of the rate of a consumption unit, or <code>null</code> if demand is not reported for it.
+	 */
+	private static UnitSymbolKind demandUom(UnitSymbolKind consumptionUom) {
+		if (consumptionUom == null) {
+			return null;
+		}
+		return switch (consumptionUom) {
+			case W_H -> UnitSymbolKind.W;
+			case V_A_H -> UnitSymbolKind.V_A;
+			case V_A_RH -> UnitSymbolKind.V_A_R;
+			default -> null;
+		};
+	}
+
+	private void window(int window, long start, long end) {
+		windowStarts[window] = start;
+		windowEnds[window] = end;
+	}
+
+	private static final class Totals {
+		final long[] sums = new long[WINDOWS];
+		int present;
+	}
+}
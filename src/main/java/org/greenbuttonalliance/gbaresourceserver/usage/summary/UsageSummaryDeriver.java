@@ -0,0 +1,458 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.greenbuttonalliance.gbaresourceserver.usage.summary;
+
+import com.github.f4b6a3.uuid.UuidCreator;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.greenbuttonalliance.gbaresourceserver.common.model.DateTimeInterval;
+import org.greenbuttonalliance.gbaresourceserver.common.model.SummaryMeasurement;
+import org.greenbuttonalliance.gbaresourceserver.common.model.enums.UnitMultiplierKind;
+import org.greenbuttonalliance.gbaresourceserver.common.model.enums.UnitSymbolKind;
+import org.greenbuttonalliance.gbaresourceserver.usage.bulkhead.DatabaseBulkheads;
+import org.greenbuttonalliance.gbaresourceserver.usage.demand.SlidingDemand;
+import org.greenbuttonalliance.gbaresourceserver.usage.model.UsageSummary;
+import org.greenbuttonalliance.gbaresourceserver.usage.model.enums.AccumulationKind;
+import org.greenbuttonalliance.gbaresourceserver.usage.model.enums.CommodityKind;
+import org.greenbuttonalliance.gbaresourceserver.usage.model.enums.FlowDirectionKind;
+import org.greenbuttonalliance.gbaresourceserver.usage.net.NetSeries;
+import org.greenbuttonalliance.gbaresourceserver.usage.rollup.ValueAggregation;
+import org.greenbuttonalliance.gbaresourceserver.usage.time.LocalTimeTable;
+import org.greenbuttonalliance.gbaresourceserver.usage.time.LocalTimeTables;
+import org.greenbuttonalliance.gbaresourceserver.usage.workload.Workload;
+import org.greenbuttonalliance.gbaresourceserver.usage.workload.WorkloadClass;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Derives the UsageSummary of every UsagePoint for a billing period from its interval data, instead of waiting for a billing system to supply one.
+ * <p>
+ * UsagePoints are cut into partitions of <code>gba.summary.partition-size</code>, which a dedicated fork-join pool of <code>gba.summary.parallelism</code>
+ * threads works through as bulk work, by default as many as the bulk partition of the connection pool has permits. For each partition the consumption
+ * readings of the billing period, the period before it and the two days a year before the current one are read through a cursor into {@link ReadingColumns},
+ * every summary is computed by a {@link UsageSummaryCalculator} pass over those arrays, and the summaries are upserted in JDBC batches of
+ * <code>gba.summary.write-batch-size</code>. A derived summary's id is a name-based UUID of its UsagePoint and billing period, so deriving a period again
+ * replaces its summaries.
+ * <p>
+ * The consumption series of a UsagePoint is its additive forward MeterReading with the shortest intervals; a reverse MeterReading in the same units is
+ * merged with it into a {@link NetSeries} for the net measurements. The peak demand is over windows of <code>gba.summary.demand-window</code> seconds. The ratchet demand is the highest
+ * peak demand of this and of the derived or supplied summaries whose billing period started within <code>gba.summary.ratchet-months</code> before this one.
+ */
+@Service
+@Slf4j
+public class UsageSummaryDeriver {
+	private static final int FETCH_SIZE = 10000;
+	private static final String DESCRIPTION = "Derived from interval data";
+	private static final String USAGE_POINTS = "SELECT DISTINCT usage_point_uuid FROM usage.meter_reading WHERE usage_point_uuid IS NOT NULL ORDER BY 1";
+	private static final String TARGETS = """
+		SELECT up.uuid, coalesce(tc.tz_offset, 0), up.self_link_href, tc.dst_offset, tc.dst_start_rule, tc.dst_end_rule
+		FROM unnest(?::uuid[]) AS p (uuid)
+		JOIN usage.usage_point up ON up.uuid = p.uuid
+		LEFT JOIN usage.time_configuration tc ON tc.uuid = up.time_configuration_uuid""";
+	private static final String SERIES = """
+		SELECT mr.usage_point_uuid, mr.uuid, rt.accumulation_behavior::text, rt.flow_direction::text, rt.uom::text, rt.power_of_ten_multiplier::text,
+			rt.commodity::text, rt.self_link_href
+		FROM usage.meter_reading mr LEFT JOIN usage.reading_type rt ON rt.uuid = mr.reading_type_uuid
+		WHERE mr.usage_point_uuid = ANY(?::uuid[])
+		ORDER BY mr.usage_point_uuid, rt.interval_length NULLS LAST, mr.uuid""";
+	// two ranges per series: the last and the current billing period, and the two days a year before the current day
+	private static final String READINGS = """
+		SELECT s.series, r.start, r.duration, r.value
+		FROM unnest(?::uuid[], ?::bigint[], ?::bigint[], ?::bigint[], ?::bigint[]) WITH ORDINALITY AS s (meter_reading_uuid, from1, to1, from2, to2, series)
+		CROSS JOIN LATERAL (VALUES (s.from1, s.to1), (s.from2, s.to2)) AS w (range_start, range_end)
+		JOIN usage.interval_block b ON b.meter_reading_uuid = s.meter_reading_uuid AND b.start < w.range_end AND b.start + b.duration > w.range_start
+		JOIN usage.interval_reading r ON r.block_uuid = b.uuid AND r.start >= w.range_start AND r.start < w.range_end
+		WHERE r.value IS NOT NULL""";
+	private static final String RATCHETS = """
+		SELECT DISTINCT ON (k.usage_point_uuid) k.usage_point_uuid, s.peak_demand_value, s.peak_demand_time_stamp
+		FROM unnest(?::uuid[], ?::bigint[]) AS k (usage_point_uuid, ratchet_start)
+		JOIN usage.usage_summaries s ON s.usage_point_uuid = k.usage_point_uuid AND s.billing_period_start >= k.ratchet_start AND s.billing_period_start < ?
+		WHERE s.peak_demand_value IS NOT NULL
+		ORDER BY k.usage_point_uuid, s.peak_demand_value DESC""";
+	private static final List<MeasurementColumns> MEASUREMENTS = List.of(
+		new MeasurementColumns("overall_consumption_last_period", "overall_consumption_reading_type_ref", UsageSummary::getOverallConsumptionLastPeriod),
+		new MeasurementColumns("current_billing_period_overall_consumption", UsageSummary::getCurrentBillingPeriodOverAllConsumption),
+		new MeasurementColumns("current_day_last_year_net_consumption", UsageSummary::getCurrentDayLastYearNetConsumption),
+		new MeasurementColumns("current_day_net_consumption", UsageSummary::getCurrentDayNetConsumption),
+		new MeasurementColumns("current_day_overall_consumption", UsageSummary::getCurrentDayOverallConsumption),
+		new MeasurementColumns("peak_demand", UsageSummary::getPeakDemand),
+		new MeasurementColumns("previous_day_last_year_overall_consumption", UsageSummary::getPreviousDayLastYearOverallConsumption),
+		new MeasurementColumns("previous_day_net_consumption", UsageSummary::getPreviousDayNetConsumption),
+		new MeasurementColumns("previous_day_overall_consumption", UsageSummary::getPreviousDayOverallConsumption),
+		new MeasurementColumns("ratchet_demand", UsageSummary::getRatchetDemand));
+	private static final List<String> SUMMARY_COLUMNS = Stream.concat(
+		Stream.of("description", "updated", "self_link_href", "up_link_href", "billing_period_start", "billing_period_duration", "quality_of_reading",
+			"ratchet_demand_period_start", "ratchet_demand_period_duration", "status_time_stamp", "commodity", "usage_point_uuid"),
+		MEASUREMENTS.stream().flatMap(MeasurementColumns::columns)).toList();
+	private static final String UPSERT = """
+		INSERT INTO usage.usage_summaries (uuid, published, %s) VALUES (?, ?, %s)
+		ON CONFLICT (uuid) DO UPDATE SET %s""".formatted(
+		String.join(", ", SUMMARY_COLUMNS),
+		SUMMARY_COLUMNS.stream().map(column -> "?").collect(Collectors.joining(", ")),
+		SUMMARY_COLUMNS.stream().map(column -> column + " = EXCLUDED." + column).collect(Collectors.joining(", ")));
+
+	private final JdbcTemplate jdbcTemplate;
+	private final LocalTimeTables localTimeTables;
+	private final TransactionTemplate transactionTemplate;
+	private final TransactionTemplate readOnlyTransaction;
+	private final int partitionSize;
+	private final int writeBatchSize;
+	private final int ratchetMonths;
+	private final int demandWindow;
+	private final ForkJoinPool pool;
+
+	private final Timer partitions;
+	private final Counter readingsRead;
+	private final Counter summariesWritten;
+
+	@Autowired
+	public UsageSummaryDeriver(DataSource dataSource, PlatformTransactionManager transactionManager, MeterRegistry meterRegistry,
+							   LocalTimeTables localTimeTables, DatabaseBulkheads databaseBulkheads,
+							   @Value("${gba.summary.partition-size:200}") int partitionSize,
+							   @Value("${gba.summary.parallelism:0}") int parallelism,
+							   @Value("${gba.summary.write-batch-size:500}") int writeBatchSize,
+							   @Value("${gba.summary.ratchet-months:11}") int ratchetMonths,
+							   @Value("${gba.summary.demand-window:900}") int demandWindow) {
+		this.jdbcTemplate = new JdbcTemplate(dataSource);
+		this.jdbcTemplate.setFetchSize(FETCH_SIZE);
+		this.localTimeTables = localTimeTables;
+		this.transactionTemplate = new TransactionTemplate(transactionManager);
+		this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+		this.readOnlyTransaction.setReadOnly(true);
+		this.partitionSize = partitionSize;
+		this.writeBatchSize = writeBatchSize;
+		this.ratchetMonths = ratchetMonths;
+		this.demandWindow = demandWindow;
+		this.pool = databaseBulkheads.newBulkWorkerPool(parallelism);
+
+		this.partitions = Timer.builder("gba.summary.partition")
+			.description("Time to read, derive and write the UsageSummaries of one partition of UsagePoints")
+			.register(meterRegistry);
+		this.readingsRead = Counter.builder("gba.summary.readings")
+			.description("IntervalReadings read to derive UsageSummaries")
+			.register(meterRegistry);
+		this.summariesWritten = Counter.builder("gba.summary.summaries")
+			.description("UsageSummaries derived from interval data and written")
+			.register(meterRegistry);
+	}
+
+	@PreDestroy
+	void shutdown() throws InterruptedException {
+		pool.shutdown();
+		pool.awaitTermination(30, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Derives the summaries of every UsagePoint that has MeterReadings.
+	 */
+	public SummaryDerivation derive(SummaryPeriod period) {
+		List<UUID> usagePointUuids;
+		try (Workload.Scope ignored = Workload.enter(WorkloadClass.BULK)) {
+			usagePointUuids = jdbcTemplate.queryForList(USAGE_POINTS, UUID.class);
+		}
+		return derive(period, usagePointUuids);
+	}
+
+	public SummaryDerivation derive(SummaryPeriod period, List<UUID> usagePointUuids) {
+		List<List<UUID>> partitionList = new ArrayList<>();
+		for (int from = 0; from < usagePointUuids.size(); from += partitionSize) {
+			partitionList.add(usagePointUuids.subList(from, Math.min(from + partitionSize, usagePointUuids.size())));
+		}
+		if (partitionList.isEmpty()) {
+			return new SummaryDerivation(0, 0, 0, 0);
+		}
+		long started = System.nanoTime();
+		SummaryDerivation derivation = pool.invoke(new PartitionTask(period, partitionList, 0, partitionList.size()));
+		log.info("Derived {} UsageSummaries for {} UsagePoints from {} readings in {} ms", derivation.summaries(), derivation.usagePoints(),
+			derivation.intervalReadings(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+		return derivation;
+	}
+
+	/**
+	 * Splits its range of partitions in halves until a single partition is left, so idle workers steal the other halves.
+	 */
+	private final class PartitionTask extends RecursiveTask<SummaryDerivation> {
+		private final SummaryPeriod period;
+		private final List<List<UUID>> partitionList;
+		private final int from;
+		private final int to;
+
+		PartitionTask(SummaryPeriod period, List<List<UUID>> partitionList, int from, int to) {
+			this.period = period;
+			this.partitionList = partitionList;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected SummaryDerivation compute() {
+			if (to - from == 1) {
+				return partitions.record(() -> derivePartition(period, partitionList.get(from)));
+			}
+			int middle = (from + to) >>> 1;
+			PartitionTask left = new PartitionTask(period, partitionList, from, middle);
+			left.fork();
+			SummaryDerivation right = new PartitionTask(period, partitionList, middle, to).compute();
+			return left.join().plus(right);
+		}
+	}
+
+	private SummaryDerivation derivePartition(SummaryPeriod period, List<UUID> usagePointUuids) {
+		UUID[] usagePoints = usagePointUuids.toArray(UUID[]::new);
+		PartitionData data = readOnlyTransaction.execute(status -> read(period, usagePoints));
+
+		List<DerivedSummary> derived = new ArrayList<>(data.targets().size());
+		SlidingDemand demand = new SlidingDemand();
+		NetSeries net = new NetSeries();
+		for (Target target : data.targets()) {
+			if (target.forwardSeries() < 0) {
+				continue;
+			}
+			ConsumptionSeries forward = data.series().get(target.forwardSeries());
+			ConsumptionSeries reverse = target.reverseSeries() < 0 ? null : data.series().get(target.reverseSeries());
+			UsageSummary summary = new UsageSummaryCalculator(period, target.localTime(), demand, net, demandWindow).derive(data.readings(), target.forwardSeries(), forward,
+				target.reverseSeries(), reverse, data.ratchets().get(target.usagePointUuid()), ratchetStart(period, target.localTime()));
+			if (summary != null) {
+				derived.add(new DerivedSummary(target, summary));
+			}
+		}
+		write(period, derived);
+
+		readingsRead.increment(data.readings().size());
+		summariesWritten.increment(derived.size());
+		return new SummaryDerivation(usagePoints.length, derived.size(), data.readings().size(), 1);
+	}
+
+	private PartitionData read(SummaryPeriod period, UUID[] usagePoints) {
+		Map<UUID, Target> targets = new LinkedHashMap<>();
+		jdbcTemplate.query(con -> {
+			PreparedStatement ps = con.prepareStatement(TARGETS);
+			ps.setArray(1, con.createArrayOf("uuid", usagePoints));
+			return ps;
+		}, rs -> {
+			UUID usagePoint = rs.getObject(1, UUID.class);
+			LocalTimeTable localTime = localTimeTables.of(rs.getLong(2), rs.getObject(4, Long.class), rs.getBytes(5), rs.getBytes(6));
+			targets.put(usagePoint, new Target(usagePoint, localTime, rs.getString(3), -1, -1));
+		});
+
+		// the first additive series of each direction, in order of interval length, is the UsagePoint's
+		List<ConsumptionSeries> series = new ArrayList<>();
+		jdbcTemplate.query(con -> {
+			PreparedStatement ps = con.prepareStatement(SERIES);
+			ps.setArray(1, con.createArrayOf("uuid", usagePoints));
+			return ps;
+		}, rs -> {
+			Target target = targets.get(rs.getObject(1, UUID.class));
+			String accumulation = rs.getString(3);
+			String direction = rs.getString(4);
+			FlowDirectionKind flowDirection = direction == null ? FlowDirectionKind.FORWARD : FlowDirectionKind.valueOf(direction);
+			if (target == null || ValueAggregation.of(accumulation == null ? null : AccumulationKind.valueOf(accumulation)) != ValueAggregation.ADDITIVE
+				|| (flowDirection != FlowDirectionKind.FORWARD && flowDirection != FlowDirectionKind.REVERSE)) {
+				return;
+			}
+			boolean reverse = flowDirection == FlowDirectionKind.REVERSE;
+			if ((reverse ? target.reverseSeries() : target.forwardSeries()) >= 0) {
+				return;
+			}
+			series.add(new ConsumptionSeries(rs.getObject(2, UUID.class), reverse, enumOrNull(UnitSymbolKind.class, rs.getString(5)),
+				enumOrNull(UnitMultiplierKind.class, rs.getString(6)), enumOrNull(CommodityKind.class, rs.getString(7)), rs.getString(8)));
+			targets.put(target.usagePointUuid(), reverse ? target.withReverseSeries(series.size() - 1) : target.withForwardSeries(series.size() - 1));
+		});
+		// a reverse series in other units cannot be subtracted
+		targets.replaceAll((uuid, target) -> target.reverseSeries() >= 0 && (target.forwardSeries() < 0
+			|| !series.get(target.reverseSeries()).sameUnitsAs(series.get(target.forwardSeries()))) ? target.withReverseSeries(-1) : target);
+
+		ReadingColumns readings = readReadings(period, targets.values(), series);
+		return new PartitionData(List.copyOf(targets.values()), series, readings, readRatchets(period, targets.values()));
+	}
+
+	private ReadingColumns readReadings(SummaryPeriod period, Iterable<Target> targets, List<ConsumptionSeries> series) {
+		int count = series.size();
+		UUID[] meterReadings = new UUID[count];
+		Long[] from1 = new Long[count];
+		Long[] to1 = new Long[count];
+		Long[] from2 = new Long[count];
+		Long[] to2 = new Long[count];
+		for (Target target : targets) {
+			LocalTimeTable localTime = target.localTime();
+			LocalDate lastYearDay = localTime.toLocalDateTime(period.asOf() - 1).toLocalDate().minusYears(1);
+			for (int index : new int[]{target.forwardSeries(), target.reverseSeries()}) {
+				if (index >= 0) {
+					meterReadings[index] = series.get(index).meterReadingUuid();
+					from1[index] = period.start() - period.duration();
+					to1[index] = period.asOf();
+					from2[index] = localTime.toEpochSecond(lastYearDay.minusDays(1).atStartOfDay());
+					to2[index] = localTime.toEpochSecond(lastYearDay.plusDays(1).atStartOfDay());
+				}
+			}
+		}
+		ReadingColumns readings = new ReadingColumns(count, 1 << 16);
+		if (count > 0) {
+			jdbcTemplate.query(con -> {
+				PreparedStatement ps = con.prepareStatement(READINGS);
+				ps.setArray(1, con.createArrayOf("uuid", meterReadings));
+				ps.setArray(2, con.createArrayOf("bigint", from1));
+				ps.setArray(3, con.createArrayOf("bigint", to1));
+				ps.setArray(4, con.createArrayOf("bigint", from2));
+				ps.setArray(5, con.createArrayOf("bigint", to2));
+				return ps;
+			}, rs -> {
+				readings.add(rs.getInt(1) - 1, rs.getLong(2), rs.getInt(3), rs.getLong(4));
+			});
+		}
+		readings.groupBySeries();
+		return readings;
+	}
+
+	private Map<UUID, SummaryMeasurement> readRatchets(SummaryPeriod period, Iterable<Target> targets) {
+		List<UUID> usagePoints = new ArrayList<>();
+		List<Long> ratchetStarts = new ArrayList<>();
+		for (Target target : targets) {
+			usagePoints.add(target.usagePointUuid());
+			ratchetStarts.add(ratchetStart(period, target.localTime()));
+		}
+		Map<UUID, SummaryMeasurement> ratchets = new HashMap<>();
+		jdbcTemplate.query(con -> {
+			PreparedStatement ps = con.prepareStatement(RATCHETS);
+			ps.setArray(1, con.createArrayOf("uuid", usagePoints.toArray()));
+			ps.setArray(2, con.createArrayOf("bigint", ratchetStarts.toArray()));
+			ps.setLong(3, period.start());
+			return ps;
+		}, rs -> {
+			ratchets.put(rs.getObject(1, UUID.class), new SummaryMeasurement().setValue(rs.getLong(2)).setTimeStamp(rs.getObject(3, Long.class)));
+		});
+		return ratchets;
+	}
+
+	private void write(SummaryPeriod period, List<DerivedSummary> derived) {
+		Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+		transactionTemplate.executeWithoutResult(status -> {
+			for (int from = 0; from < derived.size(); from += writeBatchSize) {
+				jdbcTemplate.batchUpdate(UPSERT, derived.subList(from, Math.min(from + writeBatchSize, derived.size())), writeBatchSize,
+					(ps, summary) -> bind(ps, period, summary, now));
+			}
+		});
+	}
+
+	private static void bind(PreparedStatement ps, SummaryPeriod period, DerivedSummary derived, Timestamp now) throws SQLException {
+		UsageSummary summary = derived.summary();
+		Target target = derived.target();
+		UUID uuid = derivedSummaryUuid(target.usagePointUuid(), period.start());
+		String upLinkHref = target.usagePointHref() == null ? null : target.usagePointHref() + "/UsageSummary";
+		int i = 0;
+		ps.setObject(++i, uuid);
+		ps.setTimestamp(++i, now);
+		ps.setString(++i, DESCRIPTION);
+		ps.setTimestamp(++i, now);
+		ps.setString(++i, upLinkHref == null ? null : upLinkHref + "/" + uuid);
+		ps.setString(++i, upLinkHref);
+		ps.setLong(++i, summary.getBillingPeriod().getStart());
+		ps.setLong(++i, summary.getBillingPeriod().getDuration());
+		ps.setString(++i, nameOrNull(summary.getQualityOfReading()));
+		DateTimeInterval ratchetPeriod = summary.getRatchetDemandPeriod();
+		ps.setObject(++i, ratchetPeriod == null ? null : ratchetPeriod.getStart(), Types.BIGINT);
+		ps.setObject(++i, ratchetPeriod == null ? null : ratchetPeriod.getDuration(), Types.BIGINT);
+		ps.setLong(++i, summary.getStatusTimeStamp());
+		ps.setString(++i, nameOrNull(summary.getCommodity()));
+		ps.setObject(++i, target.usagePointUuid());
+		for (MeasurementColumns columns : MEASUREMENTS) {
+			SummaryMeasurement measurement = columns.measurement().apply(summary);
+			ps.setString(++i, measurement == null ? null : nameOrNull(measurement.getPowerOfTenMultiplier()));
+			ps.setObject(++i, measurement == null ? null : measurement.getTimeStamp(), Types.BIGINT);
+			ps.setString(++i, measurement == null ? null : nameOrNull(measurement.getUom()));
+			ps.setObject(++i, measurement == null ? null : measurement.getValue(), Types.BIGINT);
+			ps.setString(++i, measurement == null ? null : measurement.getReadingTypeRef());
+		}
+	}
+
+	/**
+	 * The id of the UsageSummary derived for a UsagePoint and the billing period starting at <code>billingPeriodStart</code>.
+	 */
+	public static UUID derivedSummaryUuid(UUID usagePointUuid, long billingPeriodStart) {
+		return UuidCreator.getNameBasedSha1(usagePointUuid + "/UsageSummary/" + billingPeriodStart);
+	}
+
+	private long ratchetStart(SummaryPeriod period, LocalTimeTable localTime) {
+		return localTime.toEpochSecond(localTime.toLocalDateTime(period.start()).minusMonths(ratchetMonths));
+	}
+
+	private static <E extends Enum<E>> E enumOrNull(Class<E> type, String name) {
+		return name == null ? null : Enum.valueOf(type, name);
+	}
+
+	private static String nameOrNull(Enum<?> value) {
+		return value == null ? null : value.name();
+	}
+
+	/**
+	 * A UsagePoint of the partition and the indexes of its forward and reverse {@link ConsumptionSeries}, or -1.
+	 */
+	private record Target(UUID usagePointUuid, LocalTimeTable localTime, String usagePointHref, int forwardSeries, int reverseSeries) {
+		Target withForwardSeries(int series) {
+			return new Target(usagePointUuid, localTime, usagePointHref, series, reverseSeries);
+		}
+
+		Target withReverseSeries(int series) {
+			return new Target(usagePointUuid, localTime, usagePointHref, forwardSeries, series);
+		}
+	}
+
+	private record PartitionData(List<Target> targets, List<ConsumptionSeries> series, ReadingColumns readings, Map<UUID, SummaryMeasurement> ratchets) {
+	}
+
+	private record DerivedSummary(Target target, UsageSummary summary) {
+	}
+
+	/**
+	 * The five columns <code>usage_summaries</code> stores a SummaryMeasurement in.
+	 */
+	private record MeasurementColumns(String prefix, String readingTypeRefColumn, Function<UsageSummary, SummaryMeasurement> measurement) {
+		MeasurementColumns(String prefix, Function<UsageSummary, SummaryMeasurement> measurement) {
+			this(prefix, prefix + "_reading_type_ref", measurement);
+		}
+
+		Stream<String> columns() {
+			return Stream.of(prefix + "_potm", prefix + "_time_stamp", prefix + "_uom", prefix + "_value", readingTypeRefColumn);
+		}
+	}
+}
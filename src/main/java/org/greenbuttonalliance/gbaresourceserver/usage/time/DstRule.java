@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.greenbuttonalliance.gbaresourceserver.usage.time;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.temporal.TemporalAdjusters;
+
+/**
+ * A decoded ESPI <code>DstRuleType</code>, the four bytes of a TimeConfiguration's <code>dstStartRule</code> or <code>dstEndRule</code>. Read as a big-endian
+ * integer, bits 0-11 are the seconds and bits 12-16 the hour of the transition, bits 17-19 the day of the week (1 is Monday), bits 20-24 the day of the month,
+ * bits 25-27 the operator and bits 28-31 the month:
+ * <ul>
+ *     <li>0: on the day of the month</li>
+ *     <li>1: on the first day of the week on or after the day of the month</li>
+ *     <li>2-6: on the first to fifth day of the week in the month, or the last one if there are only four</li>
+ *     <li>7: on the last day of the week in the month</li>
+ * </ul>
+ * The time is the local wall-clock time before the transition, so standard time for the start of daylight saving time and daylight time for its end.
+ */
+public record DstRule(int month, int operator, int dayOfMonth, int dayOfWeek, int secondOfDay) {
+	private static final int DISABLED = 0xFFFFFFFF;
+
+	/**
+	 * @return the rule, or null if there is none: empty, not four bytes, <code>FFFFFFFF</code> (disabled) or not a valid date rule
+	 */
+	public static DstRule decode(byte[] encoded) {
+		if (encoded == null || encoded.length != 4) {
+			return null;
+		}
+		int bits = (encoded[0] & 0xFF) << 24 | (encoded[1] & 0xFF) << 16 | (encoded[2] & 0xFF) << 8 | (encoded[3] & 0xFF);
+		if (bits == DISABLED) {
+			return null;
+		}
+		int month = bits >>> 28;
+		int operator = bits >>> 25 & 0x7;
+		int dayOfMonth = bits >>> 20 & 0x1F;
+		int dayOfWeek = bits >>> 17 & 0x7;
+		int hour = bits >>> 12 & 0x1F;
+		int seconds = bits & 0xFFF;
+		boolean valid = month >= 1 && month <= 12 && hour < 24 && seconds < 3600
+			&& (operator == 0 ? dayOfMonth >= 1 : dayOfWeek >= 1 && (operator != 1 || dayOfMonth >= 1));
+		return valid ? new DstRule(month, operator, dayOfMonth, dayOfWeek, hour * 3600 + seconds) : null;
+	}
+
+	/**
+	 * @return the day the rule falls on in <code>year</code>; a day of the month past the end of a shorter month is its last day
+	 */
+	public LocalDate date(int year) {
+		YearMonth yearMonth = YearMonth.of(year, month);
+		if (operator <= 1) {
+			LocalDate day = yearMonth.atDay(Math.min(dayOfMonth, yearMonth.lengthOfMonth()));
+			return operator == 0 ? day : day.with(TemporalAdjusters.nextOrSame(DayOfWeek.of(dayOfWeek)));
+		}
+		LocalDate last = yearMonth.atDay(1).with(TemporalAdjusters.lastInMonth(DayOfWeek.of(dayOfWeek)));
+		if (operator == 7) {
+			return last;
+		}
+		LocalDate nth = yearMonth.atDay(1).with(TemporalAdjusters.dayOfWeekInMonth(operator - 1, DayOfWeek.of(dayOfWeek)));
+		return nth.isAfter(last) ? last : nth;
+	}
+
+	/**
+	 * @param wallClockOffset the offset from UTC of the local time the rule is stated in
+	 * @return the epoch second of the transition in <code>year</code>
+	 */
+	public long instant(int year, long wallClockOffset) {
+		return date(year).toEpochDay() * 86400 + secondOfDay - wallClockOffset;
+	}
+}
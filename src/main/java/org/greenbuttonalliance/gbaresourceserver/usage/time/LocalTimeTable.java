@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.greenbuttonalliance.gbaresourceserver.usage.time;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The offset from UTC of a TimeConfiguration's local time at any instant, with the daylight saving transitions of a range of years precomputed.
+ * <p>
+ * The transitions are sorted into one array, and time is cut into buckets of 2<sup>16</sup> seconds, about 18 hours, each holding the index of the first
+ * transition at or after its start. Since a year has only two transitions, a bucket never holds more than two, so {@link #offsetAt} is a shift, one table read
+ * and two branch-free comparisons. Instants outside the range of years fall back to computing the transitions of their year. Instances are immutable and
+ * shared by every UsagePoint with the same rules, see {@link LocalTimeTables}.
+ */
+public final class LocalTimeTable {
+	static final int BUCKET_SHIFT = 16;
+	// far enough out that subtracting any instant of the table's range cannot overflow
+	private static final long NEVER = Long.MAX_VALUE / 2;
+
+	private final int tzOffset;
+	private final int dstOffset;
+	private final DstRule start;
+	private final DstRule end;
+	private final long base;
+	private final int[] firstTransition;
+	private final long[] transitions;
+	private final int[] offsets;
+
+	private LocalTimeTable(int tzOffset, int dstOffset, DstRule start, DstRule end, long base, int[] firstTransition, long[] transitions, int[] offsets) {
+		this.tzOffset = tzOffset;
+		this.dstOffset = dstOffset;
+		this.start = start;
+		this.end = end;
+		this.base = base;
+		this.firstTransition = firstTransition;
+		this.transitions = transitions;
+		this.offsets = offsets;
+	}
+
+	/**
+	 * A table for local time that is always <code>tzOffset</code> seconds ahead of UTC.
+	 */
+	public static LocalTimeTable fixed(int tzOffset) {
+		return new LocalTimeTable(tzOffset, 0, null, null, 0, new int[0], new long[0], new int[0]);
+	}
+
+	/**
+	 * Computes the transitions of the years <code>[firstYear, lastYear]</code>. Without both rules, or without a daylight saving offset, local time is
+	 * standard time all year.
+	 */
+	public static LocalTimeTable compile(int tzOffset, int dstOffset, DstRule start, DstRule end, int firstYear, int lastYear) {
+		if (start == null || end == null || dstOffset == 0) {
+			return fixed(tzOffset);
+		}
+		List<long[]> changes = new ArrayList<>(2 * (lastYear - firstYear + 1));
+		for (int year = firstYear; year <= lastYear; year++) {
+			changes.add(new long[]{start.instant(year, tzOffset), tzOffset + dstOffset});
+			changes.add(new long[]{end.instant(year, tzOffset + dstOffset), tzOffset});
+		}
+		changes.sort(Comparator.comparingLong(change -> change[0]));
+
+		int count = changes.size();
+		// two sentinels, so that both comparisons of a lookup always have a transition to compare with
+		long[] transitions = new long[count + 2];
+		int[] offsets = new int[count + 1];
+		offsets[0] = changes.getFirst()[1] == tzOffset ? tzOffset + dstOffset : tzOffset;
+		for (int i = 0; i < count; i++) {
+			transitions[i] = changes.get(i)[0];
+			offsets[i + 1] = (int) changes.get(i)[1];
+		}
+		transitions[count] = NEVER;
+		transitions[count + 1] = NEVER;
+
+		long base = LocalDate.of(firstYear, 1, 1).toEpochDay() * 86400 - tzOffset;
+		long tableEnd = LocalDate.of(lastYear + 1, 1, 1).toEpochDay() * 86400 - tzOffset;
+		int[] firstTransition = new int[(int) ((tableEnd - base) >>> BUCKET_SHIFT) + 1];
+		int next = 0;
+		for (int bucket = 0; bucket < firstTransition.length; bucket++) {
+			long bucketStart = base + ((long) bucket << BUCKET_SHIFT);
+			while (next < count && transitions[next] < bucketStart) {
+				next++;
+			}
+			firstTransition[bucket] = next;
+		}
+		return new LocalTimeTable(tzOffset, dstOffset, start, end, base, firstTransition, transitions, offsets);
+	}
+
+	/**
+	 * @return the local time of the instant, as the epoch second of the same wall-clock time in UTC
+	 */
+	public long toLocal(long epochSecond) {
+		return epochSecond + offsetAt(epochSecond);
+	}
+
+	/**
+	 * @return the wall-clock time of the instant in local time
+	 */
+	public LocalDateTime toLocalDateTime(long epochSecond) {
+		return LocalDateTime.ofEpochSecond(toLocal(epochSecond), 0, ZoneOffset.UTC);
+	}
+
+	/**
+	 * The inverse of {@link #toLocalDateTime}. A wall-clock time that occurs twice, in the hour a transition repeats, is its first occurrence; one that a
+	 * transition skips is taken as far past the transition as it lies past the start of the gap, as {@link java.time.ZonedDateTime} does.
+	 */
+	public long toEpochSecond(LocalDateTime local) {
+		long localEpochSecond = local.toEpochSecond(ZoneOffset.UTC);
+		long standard = localEpochSecond - tzOffset;
+		long daylight = standard - dstOffset;
+		long earlier = Math.min(standard, daylight);
+		long later = Math.max(standard, daylight);
+		if (toLocal(earlier) == localEpochSecond) {
+			return earlier;
+		}
+		return later;
+	}
+
+	/**
+	 * @return the offset of local time from UTC at the instant, including daylight saving time if it is in effect
+	 */
+	public int offsetAt(long epochSecond) {
+		// instants before the base wrap around to a bucket past the end
+		long bucket = (epochSecond - base) >>> BUCKET_SHIFT;
+		if (bucket >= firstTransition.length) {
+			return computeOffsetAt(epochSecond);
+		}
+		int i = firstTransition[(int) bucket];
+		i += (int) ((transitions[i] - epochSecond - 1) >>> 63);
+		i += (int) ((transitions[i] - epochSecond - 1) >>> 63);
+		return offsets[i];
+	}
+
+	public int tzOffset() {
+		return tzOffset;
+	}
+
+	public int dstOffset() {
+		return dstOffset;
+	}
+
+	public boolean observesDst() {
+		return start != null;
+	}
+
+	private int computeOffsetAt(long epochSecond) {
+		if (start == null) {
+			return tzOffset;
+		}
+		int year = LocalDate.ofEpochDay(Math.floorDiv(epochSecond + tzOffset, 86400)).getYear();
+		long dstStart = start.instant(year, tzOffset);
+		long dstEnd = end.instant(year, tzOffset + dstOffset);
+		// in the southern hemisphere daylight time spans the turn of the year
+		boolean dst = dstStart < dstEnd ? epochSecond >= dstStart && epochSecond < dstEnd : epochSecond >= dstStart || epochSecond < dstEnd;
+		return dst ? tzOffset + dstOffset : tzOffset;
+	}
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.greenbuttonalliance.gbaresourceserver.usage.time;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.greenbuttonalliance.gbaresourceserver.usage.model.TimeConfiguration;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Interns {@link LocalTimeTable}s by the rules they are compiled from, so the many UsagePoints of a utility share the one table of their time zone rather than
+ * each holding a copy. Tables cover the years <code>gba.time.first-year</code> to <code>gba.time.last-year</code>. Rules that cannot be decoded, as well as
+ * a missing rule, mean standard time all year, so every such TimeConfiguration of the same offset maps to the same table.
+ */
+@Component
+public class LocalTimeTables {
+	private final Map<Rules, LocalTimeTable> tables = new ConcurrentHashMap<>();
+	private final int firstYear;
+	private final int lastYear;
+
+	@Autowired
+	public LocalTimeTables(MeterRegistry meterRegistry, @Value("${gba.time.first-year:1990}") int firstYear,
+						   @Value("${gba.time.last-year:2060}") int lastYear) {
+		this.firstYear = firstYear;
+		this.lastYear = lastYear;
+		Gauge.builder("gba.time.tables", tables, Map::size)
+			.description("Distinct TimeConfiguration rule sets compiled into local time tables")
+			.register(meterRegistry);
+	}
+
+	public LocalTimeTable of(TimeConfiguration timeConfiguration) {
+		return of(timeConfiguration.getTzOffset(), timeConfiguration.getDstOffset(), timeConfiguration.getDstStartRule(),
+			timeConfiguration.getDstEndRule());
+	}
+
+	/**
+	 * @param tzOffset  the <code>tzOffset</code> of a TimeConfiguration, or 0 for a UsagePoint without one
+	 * @param dstOffset the <code>dstOffset</code>, or null
+	 */
+	public LocalTimeTable of(long tzOffset, Long dstOffset, byte[] dstStartRule, byte[] dstEndRule) {
+		DstRule start = DstRule.decode(dstStartRule);
+		DstRule end = DstRule.decode(dstEndRule);
+		Rules rules = start == null || end == null || dstOffset == null || dstOffset == 0
+			? new Rules((int) tzOffset, 0, null, null)
+			: new Rules((int) tzOffset, dstOffset.intValue(), start, end);
+		return tables.computeIfAbsent(rules, key -> LocalTimeTable.compile(key.tzOffset(), key.dstOffset(), key.start(), key.end(), firstYear, lastYear));
+	}
+
+	private record Rules(int tzOffset, int dstOffset, DstRule start, DstRule end) {
+	}
+}
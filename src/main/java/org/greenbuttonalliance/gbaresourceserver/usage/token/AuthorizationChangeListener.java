@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.greenbuttonalliance.gbaresourceserver.usage.token;
+
+import jakarta.persistence.PostPersist;
+import jakarta.persistence.PostRemove;
+import jakarta.persistence.PostUpdate;
+import org.greenbuttonalliance.gbaresourceserver.usage.model.Authorization;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.UUID;
+
+/**
+ * Drops the cached tokens of an {@link Authorization} that is updated or deleted, once when the change is flushed and again when its transaction has
+ * completed, so that a lookup made in between cannot leave the old state cached. The token an Authorization is saved with is dropped too, whichever
+ * Authorization it was cached for, since a token that another Authorization holds as well no longer resolves. Created by Hibernate through Spring, where
+ * the {@link TokenResolutionService} may not exist, as in repository tests.
+ */
+public class AuthorizationChangeListener {
+	private final ObjectProvider<TokenResolutionService> tokenResolutionService;
+
+	public AuthorizationChangeListener(ObjectProvider<TokenResolutionService> tokenResolutionService) {
+		this.tokenResolutionService = tokenResolutionService;
+	}
+
+	@PostPersist
+	@PostUpdate
+	@PostRemove
+	public void authorizationChanged(Authorization authorization) {
+		TokenResolutionService service = tokenResolutionService.getIfAvailable();
+		if (service == null) {
+			return;
+		}
+		UUID authorizationUuid = authorization.getUuid();
+		String accessToken = authorization.getAccessToken();
+		invalidate(service, authorizationUuid, accessToken);
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+				@Override
+				public void afterCompletion(int status) {
+					invalidate(service, authorizationUuid, accessToken);
+				}
+			});
+		}
+	}
+
+	private static void invalidate(TokenResolutionService service, UUID authorizationUuid, String accessToken) {
+		service.invalidate(authorizationUuid);
+		if (accessToken != null) {
+			service.invalidateAccessToken(accessToken);
+		}
+	}
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.greenbuttonalliance.gbaresourceserver.usage.token;
+
+import lombok.extern.slf4j.Slf4j;
+import org.greenbuttonalliance.gbaresourceserver.usage.admission.ClientApplication;
+import org.greenbuttonalliance.gbaresourceserver.usage.model.enums.AuthorizationStatus;
+import org.greenbuttonalliance.gbaresourceserver.usage.model.enums.ThirdPartyApplicationType;
+import org.greenbuttonalliance.gbaresourceserver.usage.model.enums.ThirdPartyApplicationUse;
+import org.greenbuttonalliance.gbaresourceserver.usage.scope.EspiScope;
+
+import java.util.UUID;
+
+/**
+ * What an ESPI call needs to know of the {@link org.greenbuttonalliance.gbaresourceserver.usage.model.Authorization} its bearer token belongs to, and of the
+ * third-party application it was issued to. Its scope is compiled when the token is resolved, so it is compiled once for as long as the token is cached;
+ * a scope that cannot be compiled lets the token see nothing.
+ *
+ * @param expiresAt in epoch-seconds
+ */
+@Slf4j
+public record ResolvedToken(UUID authorizationUuid, long expiresAt, String scope, AuthorizationStatus status, String resourceUri, String clientId,
+							ThirdPartyApplicationType thirdPartyApplicationType, ThirdPartyApplicationUse thirdPartyApplicationUse, EspiScope espiScope) {
+
+	public ResolvedToken(UUID authorizationUuid, long expiresAt, String scope, AuthorizationStatus status, String resourceUri, String clientId,
+						 ThirdPartyApplicationType thirdPartyApplicationType, ThirdPartyApplicationUse thirdPartyApplicationUse) {
+		this(authorizationUuid, expiresAt, scope, status, resourceUri, clientId, thirdPartyApplicationType, thirdPartyApplicationUse,
+			compile(authorizationUuid, scope));
+	}
+
+	public boolean isValidAt(long epochSecond) {
+		return status == AuthorizationStatus.ACTIVE && expiresAt > epochSecond;
+	}
+
+	public ClientApplication clientApplication() {
+		return new ClientApplication(clientId, thirdPartyApplicationType, thirdPartyApplicationUse);
+	}
+
+	private static EspiScope compile(UUID authorizationUuid, String scope) {
+		try {
+			return scope == null ? EspiScope.NOTHING : EspiScope.compile(scope);
+		} catch (IllegalArgumentException e) {
+			log.error("{} of Authorization {}", e.getMessage(), authorizationUuid);
+			return EspiScope.NOTHING;
+		}
+	}
+}
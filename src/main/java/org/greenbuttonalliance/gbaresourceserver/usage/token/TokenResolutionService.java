@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.greenbuttonalliance.gbaresourceserver.usage.token;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.greenbuttonalliance.gbaresourceserver.usage.cache.BoundedCache;
+import org.greenbuttonalliance.gbaresourceserver.usage.model.Authorization;
+import org.greenbuttonalliance.gbaresourceserver.usage.repository.AuthorizationRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Clock;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Resolves bearer tokens to the active, unexpired {@link Authorization} they belong to. Tokens are looked up by the index on their SHA-256 and kept in a
+ * {@link BoundedCache}, up to <code>gba.token.cache-size</code> of them, until their <code>expiresAt</code>, so that validating a token a third-party
+ * application keeps presenting is one map read. A token that resolves to nothing, because it is unknown, revoked or expired, is remembered as such for
+ * <code>gba.token.negative-cache-ttl</code> seconds, up to <code>gba.token.negative-cache-size</code> of them, so that a client retrying a bad token is
+ * turned away without a query each time.
+ * <p>
+ * A cached token, resolved or not, is dropped as soon as its Authorization is created, updated or deleted through JPA (see
+ * {@link AuthorizationChangeListener}), which is how a revocation takes effect; code that changes authorizations otherwise must call
+ * {@link #invalidate(UUID)} or {@link #invalidateAccessToken(String)}. Lookups are counted as <code>gba.token.resolutions</code>, tagged
+ * <code>result=hit</code>, <code>miss</code> or <code>invalid</code> for tokens that are unknown, revoked or expired.
+ */
+@Service
+public class TokenResolutionService {
+	private static final String BEARER_PREFIX = "bearer ";
+
+	private final AuthorizationRepository authorizationRepository;
+	private final Clock clock;
+	private final BoundedCache<String, ResolvedToken> cache;
+	private final long negativeCacheTtl;
+	private final BoundedCache<String, Unresolved> unresolved;
+	// bumped by every invalidation, so that a lookup that raced one does not cache what it read
+	private final AtomicLong invalidations = new AtomicLong();
+	private final Counter hits;
+	private final Counter misses;
+	private final Counter invalid;
+
+	@Autowired
+	public TokenResolutionService(AuthorizationRepository authorizationRepository, MeterRegistry meterRegistry,
+								  @Value("${gba.token.cache-size:10000}") int cacheSize,
+								  @Value("${gba.token.negative-cache-ttl:30}") long negativeCacheTtl,
+								  @Value("${gba.token.negative-cache-size:10000}") int negativeCacheSize) {
+		this(authorizationRepository, meterRegistry, Clock.systemUTC(), cacheSize, negativeCacheTtl, negativeCacheSize);
+	}
+
+	TokenResolutionService(AuthorizationRepository authorizationRepository, MeterRegistry meterRegistry, Clock clock, int cacheSize, long negativeCacheTtl,
+						   int negativeCacheSize) {
+		this.authorizationRepository = authorizationRepository;
+		this.clock = clock;
+		this.cache = new BoundedCache<>(cacheSize);
+		this.negativeCacheTtl = negativeCacheTtl;
+		this.unresolved = new BoundedCache<>(negativeCacheTtl > 0 ? negativeCacheSize : 0);
+		this.hits = counter(meterRegistry, "hit");
+		this.misses = counter(meterRegistry, "miss");
+		this.invalid = counter(meterRegistry, "invalid");
+		Gauge.builder("gba.token.cache.size", cache, BoundedCache::size)
+			.description("Cached access tokens")
+			.register(meterRegistry);
+		Gauge.builder("gba.token.negative-cache.size", unresolved, BoundedCache::size)
+			.description("Cached access tokens that resolve to no active authorization")
+			.register(meterRegistry);
+	}
+
+	public Optional<ResolvedToken> resolve(String accessToken) {
+		long now = clock.instant().getEpochSecond();
+		ResolvedToken cached = cache.get(accessToken);
+		if (cached != null) {
+			if (cached.isValidAt(now)) {
+				hits.increment();
+				return Optional.of(cached);
+			}
+			cache.remove(accessToken, cached);
+		}
+		Unresolved known = unresolved.get(accessToken);
+		if (known != null) {
+			if (now - known.foundAt() < negativeCacheTtl) {
+				invalid.increment();
+				return Optional.empty();
+			}
+			unresolved.remove(accessToken, known);
+		}
+
+		long invalidationsBefore = invalidations.get();
+		ResolvedToken resolved = authorizationRepository.findResolvedTokenByAccessTokenHash(Authorization.hashAccessToken(accessToken)).orElse(null);
+		if (resolved == null || !resolved.isValidAt(now)) {
+			invalid.increment();
+			Unresolved found = new Unresolved(resolved == null ? null : resolved.authorizationUuid(), now);
+			unresolved.put(accessToken, found);
+			if (invalidations.get() != invalidationsBefore) {
+				unresolved.remove(accessToken, found);
+			}
+			return Optional.empty();
+		}
+		misses.increment();
+		cache.put(accessToken, resolved);
+		if (invalidations.get() != invalidationsBefore) {
+			cache.remove(accessToken, resolved);
+		}
+		return Optional.of(resolved);
+	}
+
+	/**
+	 * The token of an <code>Authorization: Bearer</code> header, or null for no header or another scheme.
+	 */
+	public static String bearerToken(String authorizationHeader) {
+		if (authorizationHeader == null || !authorizationHeader.regionMatches(true, 0, BEARER_PREFIX, 0, BEARER_PREFIX.length())) {
+			return null;
+		}
+		String token = authorizationHeader.substring(BEARER_PREFIX.length()).trim();
+		return token.isEmpty() ? null : token;
+	}
+
+	/**
+	 * Drops the cached tokens of an Authorization, so that they are looked up again on their next use.
+	 */
+	public void invalidate(UUID authorizationUuid) {
+		invalidations.incrementAndGet();
+		cache.removeIf(token -> token.authorizationUuid().equals(authorizationUuid));
+		unresolved.removeIf(token -> authorizationUuid.equals(token.authorizationUuid()));
+	}
+
+	/**
+	 * Drops a cached token, whichever Authorization it resolved to or if it resolved to none, so that it is looked up again on its next use.
+	 */
+	public void invalidateAccessToken(String accessToken) {
+		invalidations.incrementAndGet();
+		cache.remove(accessToken);
+		unresolved.remove(accessToken);
+	}
+
+	private static Counter counter(MeterRegistry meterRegistry, String result) {
+		return Counter.builder("gba.token.resolutions")
+			.description("Bearer tokens resolved from the cache, from the database, or not at all")
+			.tag("result", result)
+			.register(meterRegistry);
+	}
+
+	/**
+	 * A token found to resolve to nothing usable at <code>foundAt</code>, with the Authorization it belongs to if it is revoked or expired.
+	 */
+	private record Unresolved(UUID authorizationUuid, long foundAt) {
+	}
+}
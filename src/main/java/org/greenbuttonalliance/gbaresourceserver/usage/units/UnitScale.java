@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.greenbuttonalliance.gbaresourceserver.usage.units;
+
+import org.greenbuttonalliance.gbaresourceserver.common.model.enums.UnitMultiplierKind;
+import org.greenbuttonalliance.gbaresourceserver.common.model.enums.UnitSymbolKind;
+
+import java.math.BigDecimal;
+
+/**
+ * How a ReadingType's raw values become values in a canonical unit: Wh for energy, m³ for volume and therms for heat, with the powerOfTenMultiplier folded in.
+ * Units with no canonical counterpart keep their own symbol and only lose the multiplier.
+ * <p>
+ * A value is scaled as <code>value * numerator / denominator</code> rather than by a single factor, so that dividing by a power of ten is exact to the last
+ * digit: 1234 Wh at MILLI becomes 1.234, not 1.2340000000000002. Every combination of unit and multiplier is worked out once, when the class is loaded, so
+ * resolving a scale is two array lookups.
+ */
+public record UnitScale(UnitSymbolKind uom, double numerator, double denominator) {
+	private static final UnitScale[][] SCALES = new UnitScale[UnitSymbolKind.values().length][UnitMultiplierKind.values().length];
+
+	static {
+		for (UnitSymbolKind uom : UnitSymbolKind.values()) {
+			UnitScale unit = canonical(uom);
+			for (UnitMultiplierKind multiplier : UnitMultiplierKind.values()) {
+				double power = Math.pow(10, Math.abs(multiplier.schemaValue));
+				SCALES[uom.ordinal()][multiplier.ordinal()] = multiplier.schemaValue >= 0
+					? new UnitScale(unit.uom(), unit.numerator() * power, unit.denominator())
+					: new UnitScale(unit.uom(), unit.numerator(), unit.denominator() * power);
+			}
+		}
+	}
+
+	/**
+	 * @param uom        the ReadingType's unit, or null for none
+	 * @param multiplier the ReadingType's powerOfTenMultiplier, or null for none
+	 */
+	public static UnitScale of(UnitSymbolKind uom, UnitMultiplierKind multiplier) {
+		return SCALES[(uom == null ? UnitSymbolKind.NONE : uom).ordinal()][(multiplier == null ? UnitMultiplierKind.NONE : multiplier).ordinal()];
+	}
+
+	// exact ratios, so that e.g. 0.028316846592 m³ per ft³ is not itself a rounded double
+	private static UnitScale canonical(UnitSymbolKind uom) {
+		return switch (uom) {
+			case J -> new UnitScale(UnitSymbolKind.W_H, 1, 3600);
+			case BTU -> new UnitScale(UnitSymbolKind.THERM, 1, 1e5);
+			case FT3 -> new UnitScale(UnitSymbolKind.M3, 28316846592d, 1e12);
+			case FT3_COMPENSATED -> new UnitScale(UnitSymbolKind.M3_COMPENSATED, 28316846592d, 1e12);
+			case FT3_COMPENSATED_PER_H -> new UnitScale(UnitSymbolKind.M3_COMPENSATED_PER_H, 28316846592d, 1e12);
+			case LITRE -> new UnitScale(UnitSymbolKind.M3, 1, 1e3);
+			case LITRE_COMPENSATED -> new UnitScale(UnitSymbolKind.M3_COMPENSATED, 1, 1e3);
+			case LITRE_UNCOMPENSATED -> new UnitScale(UnitSymbolKind.M3_UNCOMPENSATED, 1, 1e3);
+			case LITRE_PER_H -> new UnitScale(UnitSymbolKind.M3_PER_H, 1, 1e3);
+			case LITRE_COMPENSATED_PER_H -> new UnitScale(UnitSymbolKind.M3_COMPENSATED_PER_H, 1, 1e3);
+			case LITRE_UNCOMPENSATED_PER_H -> new UnitScale(UnitSymbolKind.M3_UNCOMPENSATED_PER_H, 1, 1e3);
+			case US_GAL -> new UnitScale(UnitSymbolKind.M3, 3785411784d, 1e12);
+			case US_GAL_PER_H -> new UnitScale(UnitSymbolKind.M3_PER_H, 3785411784d, 1e12);
+			case IMPERIAL_GAL -> new UnitScale(UnitSymbolKind.M3, 454609, 1e8);
+			case IMPERIAL_GAL_PER_H -> new UnitScale(UnitSymbolKind.M3_PER_H, 454609, 1e8);
+			default -> new UnitScale(uom, 1, 1);
+		};
+	}
+
+	public double apply(long value) {
+		return value * numerator / denominator;
+	}
+
+	/**
+	 * Scales <code>values[from, to)</code> into the same positions of <code>out</code>.
+	 */
+	public void apply(long[] values, int from, int to, double[] out) {
+		double numerator = this.numerator;
+		double denominator = this.denominator;
+		for (int i = from; i < to; i++) {
+			out[i] = values[i] * numerator / denominator;
+		}
+	}
+
+	/**
+	 * Writes a scaled value the way XML wants a decimal: without an exponent, and without a fraction when it is whole.
+	 */
+	public static String format(double value) {
+		if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+			return Long.toString((long) value);
+		}
+		String text = Double.toString(value);
+		// only very large or very small values get an exponent, so this is rarely taken
+		return text.indexOf('E') < 0 ? text : BigDecimal.valueOf(value).stripTrailingZeros().toPlainString();
+	}
+}
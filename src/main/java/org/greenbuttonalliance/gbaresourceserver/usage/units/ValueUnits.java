@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.greenbuttonalliance.gbaresourceserver.usage.units;
+
+import org.greenbuttonalliance.gbaresourceserver.usage.controller.exception.InvalidRequestParameterException;
+
+import java.util.Arrays;
+import java.util.stream.Collectors;
+
+/**
+ * The units a computed endpoint reports values in: as stored, in the ReadingType's uom and powerOfTenMultiplier, or in the canonical unit of its
+ * {@link UnitScale}.
+ */
+public enum ValueUnits {
+	READING("reading"),
+	CANONICAL("canonical");
+
+	private final String parameter;
+
+	ValueUnits(String parameter) {
+		this.parameter = parameter;
+	}
+
+	public static ValueUnits fromParameter(String parameter) {
+		return Arrays.stream(values())
+			.filter(units -> units.parameter.equalsIgnoreCase(parameter))
+			.findFirst()
+			.orElseThrow(() -> new InvalidRequestParameterException("units", parameter,
+				Arrays.stream(values()).map(units -> units.parameter).collect(Collectors.joining(", "))));
+	}
+
+	public String getParameter() {
+		return parameter;
+	}
+}
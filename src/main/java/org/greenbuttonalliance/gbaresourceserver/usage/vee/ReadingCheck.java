@@ -0,0 +1,39 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.greenbuttonalliance.gbaresourceserver.usage.vee;
+
+/**
+ * What validation finds wrong with the interval data of a MeterReading.
+ */
+public enum ReadingCheck {
+	/**
+	 * Time between two consecutive readings that no reading covers. The missing intervals are estimated where possible.
+	 */
+	GAP,
+	/**
+	 * A reading that starts before the reading ahead of it ends, whether it repeats the same start or overlaps it.
+	 */
+	DUPLICATE,
+	/**
+	 * A reading whose rate is more than <code>gba.vee.spike-factor</code> times the median rate of its series.
+	 */
+	SPIKE,
+	/**
+	 * A negative quantity in a series that does not measure net flow.
+	 */
+	NEGATIVE
+}
@@ -0,0 +1,358 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.greenbuttonalliance.gbaresourceserver.usage.vee;
+
+import com.github.f4b6a3.uuid.UuidCreator;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.greenbuttonalliance.gbaresourceserver.usage.bulkhead.DatabaseBulkheads;
+import org.greenbuttonalliance.gbaresourceserver.usage.ingest.IntervalBlockRecord;
+import org.greenbuttonalliance.gbaresourceserver.usage.ingest.IntervalDataWriter;
+import org.greenbuttonalliance.gbaresourceserver.usage.ingest.IntervalDataWriter.StoredBlock;
+import org.greenbuttonalliance.gbaresourceserver.usage.ingest.IntervalReadingRecord;
+import org.greenbuttonalliance.gbaresourceserver.usage.model.enums.AccumulationKind;
+import org.greenbuttonalliance.gbaresourceserver.usage.model.enums.QualityOfReading;
+import org.greenbuttonalliance.gbaresourceserver.usage.rollup.ValueAggregation;
+import org.greenbuttonalliance.gbaresourceserver.usage.summary.ReadingColumns;
+import org.greenbuttonalliance.gbaresourceserver.usage.vee.ReadingValidator.Estimate;
+import org.greenbuttonalliance.gbaresourceserver.usage.vee.ReadingValidator.Flag;
+import org.greenbuttonalliance.gbaresourceserver.usage.vee.ReadingValidator.SeriesValidation;
+import org.greenbuttonalliance.gbaresourceserver.usage.workload.Workload;
+import org.greenbuttonalliance.gbaresourceserver.usage.workload.WorkloadClass;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Validates the interval data of every MeterReading over a range of time, and estimates what is missing (VEE).
+ * <p>
+ * MeterReadings are cut into partitions of <code>gba.vee.partition-size</code>, which a dedicated fork-join pool of <code>gba.vee.parallelism</code> threads
+ * works through as bulk work, by default as many as the bulk partition of the connection pool has permits. For each partition the readings of the range and
+ * of the week before it are read through a cursor, a {@link ReadingValidator} checks each series, and in one transaction the duplicate, negative and spiking
+ * readings get the quality {@link QualityOfReading#QUESTIONABLE} and the estimated readings are written through {@link IntervalDataWriter}, so rollups
+ * follow. An estimated reading goes into the stored block that covers it, or else into a new block that fills the space between the stored blocks around it.
+ * <p>
+ * Only additive series are validated; cumulative and instantaneous values cannot be interpolated by rate. Readings stored without a value count as missing,
+ * and an estimate replaces them. Validating a range again finds the same readings but flags each only once, and the gaps it filled are gone; when actual
+ * readings for an estimated interval arrive later, they replace the estimate and its quality like any re-delivery.
+ */
+@Service
+@Slf4j
+public class ReadingValidationService {
+	private static final int FETCH_SIZE = 10000;
+	private static final String METER_READINGS = "SELECT uuid FROM usage.meter_reading ORDER BY 1";
+	private static final String SERIES = """
+		SELECT mr.uuid, mr.self_link_href, rt.accumulation_behavior::text, rt.flow_direction::text, rt.interval_length
+		FROM unnest(?::uuid[]) AS p (uuid)
+		JOIN usage.meter_reading mr ON mr.uuid = p.uuid
+		LEFT JOIN usage.reading_type rt ON rt.uuid = mr.reading_type_uuid
+		ORDER BY mr.uuid""";
+	private static final String READINGS = """
+		SELECT s.series, r.id, r.start, r.duration, r.value
+		FROM unnest(?::uuid[]) WITH ORDINALITY AS s (meter_reading_uuid, series)
+		JOIN usage.interval_block b ON b.meter_reading_uuid = s.meter_reading_uuid AND b.start < ? AND b.start + b.duration > ?
+		JOIN usage.interval_reading r ON r.block_uuid = b.uuid AND r.start >= ? AND r.start < ?
+		WHERE r.value IS NOT NULL
+		ORDER BY s.series, r.start, r.id""";
+	private static final String FLAG_QUESTIONABLE = """
+		INSERT INTO usage.reading_quality (quality, reading_id)
+		SELECT CAST('QUESTIONABLE' AS usage.quality_of_reading), r.id FROM unnest(?::bigint[]) AS r (id)
+		WHERE NOT EXISTS (SELECT FROM usage.reading_quality q WHERE q.reading_id = r.id AND q.quality = 'QUESTIONABLE')""";
+
+	private final JdbcTemplate jdbcTemplate;
+	private final TransactionTemplate transactionTemplate;
+	private final TransactionTemplate readOnlyTransaction;
+	private final IntervalDataWriter intervalDataWriter;
+	private final int partitionSize;
+	private final double spikeFactor;
+	private final long interpolationLimit;
+	private final ForkJoinPool pool;
+
+	private final Timer partitions;
+	private final Counter readingsValidated;
+	private final Map<ReadingCheck, Counter> findings = new EnumMap<>(ReadingCheck.class);
+	private final Map<QualityOfReading, Counter> estimates = new EnumMap<>(QualityOfReading.class);
+
+	@Autowired
+	public ReadingValidationService(DataSource dataSource, PlatformTransactionManager transactionManager, IntervalDataWriter intervalDataWriter,
+									MeterRegistry meterRegistry, DatabaseBulkheads databaseBulkheads,
+									@Value("${gba.vee.partition-size:200}") int partitionSize,
+									@Value("${gba.vee.parallelism:0}") int parallelism,
+									@Value("${gba.vee.spike-factor:10}") double spikeFactor,
+									@Value("${gba.vee.interpolation-limit:3600}") long interpolationLimit) {
+		this.jdbcTemplate = new JdbcTemplate(dataSource);
+		this.jdbcTemplate.setFetchSize(FETCH_SIZE);
+		this.transactionTemplate = new TransactionTemplate(transactionManager);
+		this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+		this.readOnlyTransaction.setReadOnly(true);
+		this.intervalDataWriter = intervalDataWriter;
+		this.partitionSize = partitionSize;
+		this.spikeFactor = spikeFactor;
+		this.interpolationLimit = interpolationLimit;
+		this.pool = databaseBulkheads.newBulkWorkerPool(parallelism);
+
+		this.partitions = Timer.builder("gba.vee.partition")
+			.description("Time to read, validate and write the interval data of one partition of MeterReadings")
+			.register(meterRegistry);
+		this.readingsValidated = Counter.builder("gba.vee.readings")
+			.description("IntervalReadings read to validate")
+			.register(meterRegistry);
+		for (ReadingCheck check : ReadingCheck.values()) {
+			findings.put(check, Counter.builder("gba.vee.findings")
+				.description("Gaps found, and IntervalReadings flagged as questionable, by validation check")
+				.tag("check", check.name().toLowerCase())
+				.register(meterRegistry));
+		}
+		for (QualityOfReading quality : List.of(QualityOfReading.ESTIMATED_USING_LINEAR_INTERPOLATION, QualityOfReading.ESTIMATED_USING_REFERENCE_DAY)) {
+			estimates.put(quality, Counter.builder("gba.vee.estimates")
+				.description("IntervalReadings estimated for missing intervals, by estimation method")
+				.tag("quality", quality.name())
+				.register(meterRegistry));
+		}
+	}
+
+	@PreDestroy
+	void shutdown() throws InterruptedException {
+		pool.shutdown();
+		pool.awaitTermination(30, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Validates the readings of every MeterReading that start within <code>[rangeStart, rangeEnd)</code>.
+	 */
+	public ValidationRun validate(long rangeStart, long rangeEnd) {
+		List<UUID> meterReadingUuids;
+		try (Workload.Scope ignored = Workload.enter(WorkloadClass.BULK)) {
+			meterReadingUuids = jdbcTemplate.queryForList(METER_READINGS, UUID.class);
+		}
+		return validate(rangeStart, rangeEnd, meterReadingUuids);
+	}
+
+	public ValidationRun validate(long rangeStart, long rangeEnd, List<UUID> meterReadingUuids) {
+		List<List<UUID>> partitionList = new ArrayList<>();
+		for (int from = 0; from < meterReadingUuids.size(); from += partitionSize) {
+			partitionList.add(meterReadingUuids.subList(from, Math.min(from + partitionSize, meterReadingUuids.size())));
+		}
+		if (partitionList.isEmpty()) {
+			return new ValidationRun(0, 0, 0, 0, 0, 0, 0, 0);
+		}
+		long started = System.nanoTime();
+		ValidationRun run = pool.invoke(new PartitionTask(rangeStart, rangeEnd, partitionList, 0, partitionList.size()));
+		log.info("Validated {} readings of {} MeterReadings in {} ms: {} duplicates, {} negatives, {} spikes, {} gaps, {} readings estimated",
+			run.intervalReadings(), run.meterReadings(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started), run.duplicates(), run.negatives(),
+			run.spikes(), run.gaps(), run.estimated());
+		return run;
+	}
+
+	/**
+	 * Splits its range of partitions in halves until a single partition is left, so idle workers steal the other halves.
+	 */
+	private final class PartitionTask extends RecursiveTask<ValidationRun> {
+		private final long rangeStart;
+		private final long rangeEnd;
+		private final List<List<UUID>> partitionList;
+		private final int from;
+		private final int to;
+
+		PartitionTask(long rangeStart, long rangeEnd, List<List<UUID>> partitionList, int from, int to) {
+			this.rangeStart = rangeStart;
+			this.rangeEnd = rangeEnd;
+			this.partitionList = partitionList;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected ValidationRun compute() {
+			if (to - from == 1) {
+				return partitions.record(() -> validatePartition(rangeStart, rangeEnd, partitionList.get(from)));
+			}
+			int middle = (from + to) >>> 1;
+			PartitionTask left = new PartitionTask(rangeStart, rangeEnd, partitionList, from, middle);
+			left.fork();
+			ValidationRun right = new PartitionTask(rangeStart, rangeEnd, partitionList, middle, to).compute();
+			return left.join().plus(right);
+		}
+	}
+
+	private ValidationRun validatePartition(long rangeStart, long rangeEnd, List<UUID> meterReadingUuids) {
+		UUID[] meterReadings = meterReadingUuids.toArray(UUID[]::new);
+		PartitionData data = readOnlyTransaction.execute(status -> read(rangeStart, rangeEnd, meterReadings));
+		ReadingColumns readings = data.readings();
+
+		ReadingValidator validator = new ReadingValidator(spikeFactor, interpolationLimit);
+		long[] found = new long[ReadingCheck.values().length];
+		Set<Long> questionable = new LinkedHashSet<>();
+		Map<Series, List<Estimate>> estimated = new LinkedHashMap<>();
+		for (int s = 0; s < data.series().size(); s++) {
+			Series series = data.series().get(s);
+			SeriesValidation validation = validator.validate(readings.ids(), readings.starts(), readings.durations(), readings.values(), readings.from(s),
+				readings.to(s), rangeStart, rangeEnd, series.intervalLength(), series.signed());
+			for (Flag flag : validation.flags()) {
+				found[flag.check().ordinal()]++;
+				questionable.add(flag.readingId());
+			}
+			found[ReadingCheck.GAP.ordinal()] += validation.gaps();
+			if (!validation.estimates().isEmpty()) {
+				estimated.put(series, validation.estimates());
+			}
+		}
+		write(rangeStart, rangeEnd, questionable, estimated);
+
+		readingsValidated.increment(readings.size());
+		for (ReadingCheck check : ReadingCheck.values()) {
+			findings.get(check).increment(found[check.ordinal()]);
+		}
+		estimated.values().forEach(list -> list.forEach(estimate -> estimates.get(estimate.quality()).increment()));
+		return new ValidationRun(data.series().size(), readings.size(), found[ReadingCheck.DUPLICATE.ordinal()], found[ReadingCheck.NEGATIVE.ordinal()],
+			found[ReadingCheck.SPIKE.ordinal()], found[ReadingCheck.GAP.ordinal()], estimated.values().stream().mapToLong(List::size).sum(), 1);
+	}
+
+	private PartitionData read(long rangeStart, long rangeEnd, UUID[] meterReadings) {
+		List<Series> series = new ArrayList<>();
+		jdbcTemplate.query(con -> {
+			PreparedStatement ps = con.prepareStatement(SERIES);
+			ps.setArray(1, con.createArrayOf("uuid", meterReadings));
+			return ps;
+		}, rs -> {
+			String accumulation = rs.getString(3);
+			if (ValueAggregation.of(accumulation == null ? null : AccumulationKind.valueOf(accumulation)) != ValueAggregation.ADDITIVE) {
+				return;
+			}
+			UUID meterReading = rs.getObject(1, UUID.class);
+			String selfLinkHref = rs.getString(2);
+			String base = selfLinkHref != null ? selfLinkHref : "/espi/1_1/resource/MeterReading/" + meterReading;
+			series.add(new Series(meterReading, base + "/IntervalBlock", rs.getInt(5), "NET".equals(rs.getString(4))));
+		});
+
+		ReadingColumns readings = new ReadingColumns(series.size(), 1 << 12, true);
+		if (!series.isEmpty()) {
+			long readFrom = rangeStart - ReadingValidator.LOOKBACK;
+			jdbcTemplate.query(con -> {
+				PreparedStatement ps = con.prepareStatement(READINGS);
+				ps.setArray(1, con.createArrayOf("uuid", series.stream().map(Series::meterReadingUuid).toArray()));
+				ps.setLong(2, rangeEnd);
+				ps.setLong(3, readFrom);
+				ps.setLong(4, readFrom);
+				ps.setLong(5, rangeEnd);
+				return ps;
+			}, rs -> {
+				readings.add(rs.getInt(1) - 1, rs.getLong(2), rs.getLong(3), rs.getInt(4), rs.getLong(5));
+			});
+		}
+		// already in order, as the query returns them; this only finds where each series starts
+		readings.groupBySeries();
+		return new PartitionData(series, readings);
+	}
+
+	private void write(long rangeStart, long rangeEnd, Set<Long> questionable, Map<Series, List<Estimate>> estimated) {
+		if (questionable.isEmpty() && estimated.isEmpty()) {
+			return;
+		}
+		transactionTemplate.executeWithoutResult(status -> {
+			if (!questionable.isEmpty()) {
+				jdbcTemplate.update(con -> {
+					PreparedStatement ps = con.prepareStatement(FLAG_QUESTIONABLE);
+					ps.setArray(1, con.createArrayOf("bigint", questionable.toArray()));
+					return ps;
+				});
+			}
+			if (!estimated.isEmpty()) {
+				intervalDataWriter.write(estimatedBlocks(rangeStart, rangeEnd, estimated));
+			}
+		});
+	}
+
+	private List<IntervalBlockRecord> estimatedBlocks(long rangeStart, long rangeEnd, Map<Series, List<Estimate>> estimated) {
+		int count = estimated.size();
+		UUID[] meterReadings = estimated.keySet().stream().map(Series::meterReadingUuid).toArray(UUID[]::new);
+		Long[] rangeStarts = new Long[count];
+		Long[] rangeEnds = new Long[count];
+		// the blocks of the readings either side of a gap lie within the range that was read
+		Arrays.fill(rangeStarts, rangeStart - ReadingValidator.LOOKBACK);
+		Arrays.fill(rangeEnds, rangeEnd);
+		Map<UUID, NavigableMap<Long, StoredBlock>> stored = intervalDataWriter.overlappingBlocks(meterReadings, rangeStarts, rangeEnds);
+
+		List<IntervalBlockRecord> blocks = new ArrayList<>();
+		estimated.forEach((series, seriesEstimates) -> {
+			NavigableMap<Long, StoredBlock> seriesBlocks = stored.computeIfAbsent(series.meterReadingUuid(), meterReading -> new TreeMap<>());
+			Map<UUID, Slot> slots = new LinkedHashMap<>();
+			for (Estimate estimate : seriesEstimates) {
+				StoredBlock block = blockFor(series, seriesBlocks, estimate);
+				slots.computeIfAbsent(block.uuid(), uuid -> new Slot(block, new ArrayList<>())).readings().add(new IntervalReadingRecord(estimate.start(),
+					estimate.duration(), estimate.value(), null, null, null, null, List.of(estimate.quality())));
+			}
+			slots.values().forEach(slot -> blocks.add(new IntervalBlockRecord(slot.block().uuid(), series.meterReadingUuid(), slot.block().selfLinkHref(),
+				slot.block().upLinkHref(), null, null, slot.block().start(), slot.block().duration(), slot.readings())));
+		});
+		return blocks;
+	}
+
+	/**
+	 * @return the block covering the estimate, or else a new one between the blocks on either side of it, which later estimates then also go into
+	 */
+	private static StoredBlock blockFor(Series series, NavigableMap<Long, StoredBlock> blocks, Estimate estimate) {
+		Map.Entry<Long, StoredBlock> before = blocks.floorEntry(estimate.start());
+		if (before != null && estimate.start() < before.getValue().end()) {
+			return before.getValue();
+		}
+		Map.Entry<Long, StoredBlock> after = blocks.higherEntry(estimate.start());
+		long start = before != null ? before.getValue().end() : estimate.start();
+		long end = after != null ? after.getKey() : estimate.start() + estimate.duration();
+		UUID uuid = UuidCreator.getNameBasedSha1(series.meterReadingUuid(), Long.toString(start));
+		StoredBlock block = new StoredBlock(uuid, series.meterReadingUuid(), start, end - start, series.intervalBlocksHref() + "/" + uuid,
+			series.intervalBlocksHref());
+		blocks.put(start, block);
+		return block;
+	}
+
+	/**
+	 * An additive MeterReading of the partition: where its IntervalBlocks are linked, the interval length of its ReadingType or 0, and whether it measures
+	 * net flow.
+	 */
+	private record Series(UUID meterReadingUuid, String intervalBlocksHref, int intervalLength, boolean signed) {
+	}
+
+	private record PartitionData(List<Series> series, ReadingColumns readings) {
+	}
+
+	private record Slot(StoredBlock block, List<IntervalReadingRecord> readings) {
+	}
+}
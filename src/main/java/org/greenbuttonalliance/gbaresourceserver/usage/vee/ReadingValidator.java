@@ -0,0 +1,199 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.greenbuttonalliance.gbaresourceserver.usage.vee;
+
+import org.greenbuttonalliance.gbaresourceserver.usage.model.enums.QualityOfReading;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Validation and estimation of the readings of one additive series, held as parallel primitive arrays sorted by start and then id.
+ * <p>
+ * A reading that starts before the reading ahead of it ends is a {@link ReadingCheck#DUPLICATE} and is otherwise ignored. A negative reading, unless the series
+ * measures net flow, and a reading whose rate exceeds <code>spikeFactor</code> times the median rate of the series are invalid; like duplicates they are flagged
+ * and never used to estimate from. Time between two readings that no reading covers is a {@link ReadingCheck#GAP}, which is cut into intervals of the
+ * series' interval length. A gap of at most <code>interpolationLimit</code> seconds between two valid readings is filled by interpolating linearly between
+ * their rates; any other interval is copied from the valid reading with the same start a week earlier, or else a day earlier, and left missing when there is
+ * none.
+ * <p>
+ * Only readings and intervals that start within the range being validated are flagged and estimated. Readings before the range are the baseline for the
+ * median and the reference days, so callers include {@link #LOOKBACK} seconds of them. Instances keep their scratch space between calls and are not
+ * thread-safe.
+ */
+public final class ReadingValidator {
+	public static final long DAY = 86400;
+	/**
+	 * How far before the range readings are needed as the baseline.
+	 */
+	public static final long LOOKBACK = 7 * DAY;
+	// the same weekday is the closer match for a load shape, so it is tried first
+	private static final long[] REFERENCE_DAYS = {7 * DAY, DAY};
+	// fewer readings with a positive rate than this give no reliable median, and no reading is taken for a spike
+	static final int MIN_SPIKE_BASELINE = 24;
+
+	private static final byte VALID = 0;
+	private static final byte DUPLICATE = 1;
+	private static final byte INVALID = 2;
+
+	private final double spikeFactor;
+	private final long interpolationLimit;
+	private byte[] states = new byte[16];
+	private double[] rates = new double[16];
+
+	public ReadingValidator(double spikeFactor, long interpolationLimit) {
+		this.spikeFactor = spikeFactor;
+		this.interpolationLimit = interpolationLimit;
+	}
+
+	/**
+	 * Validates the readings <code>[from, to)</code> that start within <code>[rangeStart, rangeEnd)</code> and estimates the missing intervals of the range.
+	 *
+	 * @param intervalLength the length of the intervals a gap is cut into, or 0 to use the duration of the reading before the gap
+	 * @param signed         whether the series measures net flow, which may be negative
+	 */
+	public SeriesValidation validate(long[] ids, long[] starts, int[] durations, long[] values, int from, int to, long rangeStart, long rangeEnd,
+									 int intervalLength, boolean signed) {
+		int count = to - from;
+		if (states.length < count) {
+			states = new byte[Math.max(count, 2 * states.length)];
+			rates = new double[states.length];
+		} else {
+			Arrays.fill(states, 0, count, VALID);
+		}
+		List<Flag> flags = new ArrayList<>();
+
+		long end = Long.MIN_VALUE;
+		for (int i = from; i < to; i++) {
+			boolean inRange = starts[i] >= rangeStart && starts[i] < rangeEnd;
+			if (starts[i] < end) {
+				states[i - from] = DUPLICATE;
+				if (inRange) {
+					flags.add(new Flag(ids[i], ReadingCheck.DUPLICATE));
+				}
+				continue;
+			}
+			end = starts[i] + durations[i];
+			if (values[i] < 0 && !signed) {
+				states[i - from] = INVALID;
+				if (inRange) {
+					flags.add(new Flag(ids[i], ReadingCheck.NEGATIVE));
+				}
+			}
+		}
+
+		int positive = 0;
+		for (int i = from; i < to; i++) {
+			if (states[i - from] == VALID && values[i] > 0 && durations[i] > 0) {
+				rates[positive++] = (double) values[i] / durations[i];
+			}
+		}
+		if (positive >= MIN_SPIKE_BASELINE) {
+			Arrays.sort(rates, 0, positive);
+			double threshold = spikeFactor * rates[positive / 2];
+			for (int i = from; i < to; i++) {
+				if (states[i - from] == VALID && durations[i] > 0 && (double) values[i] / durations[i] > threshold) {
+					states[i - from] = INVALID;
+					if (starts[i] >= rangeStart && starts[i] < rangeEnd) {
+						flags.add(new Flag(ids[i], ReadingCheck.SPIKE));
+					}
+				}
+			}
+		}
+
+		int gaps = 0;
+		List<Estimate> estimates = new ArrayList<>();
+		int previous = -1;
+		for (int i = from; i < to; i++) {
+			if (states[i - from] == DUPLICATE) {
+				continue;
+			}
+			if (previous >= 0) {
+				long gapStart = starts[previous] + durations[previous];
+				if (starts[i] > gapStart && starts[i] > rangeStart && gapStart < rangeEnd) {
+					gaps++;
+					estimate(starts, durations, values, from, to, previous, i, rangeStart, rangeEnd, intervalLength, estimates);
+				}
+			}
+			previous = i;
+		}
+		return new SeriesValidation(flags, gaps, estimates);
+	}
+
+	private void estimate(long[] starts, int[] durations, long[] values, int from, int to, int before, int after, long rangeStart, long rangeEnd,
+						  int intervalLength, List<Estimate> estimates) {
+		long gapStart = starts[before] + durations[before];
+		long gapEnd = starts[after];
+		int slot = intervalLength > 0 ? intervalLength : durations[before];
+		if (slot <= 0) {
+			return;
+		}
+		boolean interpolate = gapEnd - gapStart <= interpolationLimit && states[before - from] == VALID && states[after - from] == VALID
+			&& durations[before] > 0 && durations[after] > 0;
+		double beforeMiddle = starts[before] + durations[before] / 2.0;
+		double afterMiddle = starts[after] + durations[after] / 2.0;
+		double beforeRate = durations[before] > 0 ? (double) values[before] / durations[before] : 0;
+		double afterRate = durations[after] > 0 ? (double) values[after] / durations[after] : 0;
+
+		for (long start = gapStart; start < gapEnd; start += slot) {
+			int duration = (int) Math.min(slot, gapEnd - start);
+			if (start < rangeStart || start >= rangeEnd) {
+				continue;
+			}
+			if (interpolate) {
+				double rate = beforeRate + (afterRate - beforeRate) * (start + duration / 2.0 - beforeMiddle) / (afterMiddle - beforeMiddle);
+				estimates.add(new Estimate(start, duration, Math.round(rate * duration), QualityOfReading.ESTIMATED_USING_LINEAR_INTERPOLATION));
+				continue;
+			}
+			int reference = referenceReading(starts, durations, from, to, start);
+			if (reference >= 0) {
+				estimates.add(new Estimate(start, duration, Math.round((double) values[reference] * duration / durations[reference]),
+					QualityOfReading.ESTIMATED_USING_REFERENCE_DAY));
+			}
+		}
+	}
+
+	private int referenceReading(long[] starts, int[] durations, int from, int to, long start) {
+		for (long daysBack : REFERENCE_DAYS) {
+			int i = Arrays.binarySearch(starts, from, to, start - daysBack);
+			if (i < 0) {
+				continue;
+			}
+			// the search may land on any of several readings with this start, and only the first of them is not a duplicate
+			while (i > from && starts[i - 1] == starts[i]) {
+				i--;
+			}
+			if (states[i - from] == VALID && durations[i] > 0) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	public record Flag(long readingId, ReadingCheck check) {
+	}
+
+	public record Estimate(long start, int duration, long value, QualityOfReading quality) {
+	}
+
+	/**
+	 * What validating one series found: the readings to flag as questionable, how many gaps there are and the intervals estimated for them.
+	 */
+	public record SeriesValidation(List<Flag> flags, int gaps, List<Estimate> estimates) {
+	}
+}
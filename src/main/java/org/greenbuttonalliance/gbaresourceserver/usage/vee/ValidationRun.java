@@ -0,0 +1,28 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.greenbuttonalliance.gbaresourceserver.usage.vee;
+
+/**
+ * Counts of what one validation run read, found and estimated. Gaps without a usable reference day are counted but stay unfilled, so <code>estimated</code>
+ * says nothing about how many gaps are left.
+ */
+public record ValidationRun(long meterReadings, long intervalReadings, long duplicates, long negatives, long spikes, long gaps, long estimated, int partitions) {
+	ValidationRun plus(ValidationRun other) {
+		return new ValidationRun(meterReadings + other.meterReadings, intervalReadings + other.intervalReadings, duplicates + other.duplicates,
+			negatives + other.negatives, spikes + other.spikes, gaps + other.gaps, estimated + other.estimated, partitions + other.partitions);
+	}
+}
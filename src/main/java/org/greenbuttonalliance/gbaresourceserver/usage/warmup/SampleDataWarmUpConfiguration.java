@@ -0,0 +1,224 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.greenbuttonalliance.gbaresourceserver.usage.warmup;
+
+import org.greenbuttonalliance.gbaresourceserver.common.model.DateTimeInterval;
+import org.greenbuttonalliance.gbaresourceserver.usage.access.UsagePointAccess;
+import org.greenbuttonalliance.gbaresourceserver.usage.bulkhead.DatabaseBulkheads;
+import org.greenbuttonalliance.gbaresourceserver.usage.controller.exception.EntityNotFoundByIdException;
+import org.greenbuttonalliance.gbaresourceserver.usage.demand.DemandService;
+import org.greenbuttonalliance.gbaresourceserver.usage.model.IntervalBlock;
+import org.greenbuttonalliance.gbaresourceserver.usage.model.IntervalReading;
+import org.greenbuttonalliance.gbaresourceserver.usage.model.ReadingQuality;
+import org.greenbuttonalliance.gbaresourceserver.usage.model.enums.QualityOfReading;
+import org.greenbuttonalliance.gbaresourceserver.usage.rollup.IntervalRollupService;
+import org.greenbuttonalliance.gbaresourceserver.usage.rollup.RollupInterval;
+import org.greenbuttonalliance.gbaresourceserver.usage.rollup.RollupTarget;
+import org.greenbuttonalliance.gbaresourceserver.usage.scope.EspiScope;
+import org.greenbuttonalliance.gbaresourceserver.usage.service.IntervalBlockService;
+import org.greenbuttonalliance.gbaresourceserver.usage.time.LocalTimeTables;
+import org.greenbuttonalliance.gbaresourceserver.usage.units.ValueUnits;
+import org.greenbuttonalliance.gbaresourceserver.usage.web.dto.IdentifiedObjectDto;
+import org.greenbuttonalliance.gbaresourceserver.usage.web.dto.IntervalBlockDto;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.annotation.Order;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.io.OutputStream;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Supplier;
+
+/**
+ * The {@link WarmUpTask}s of the {@link StartupWarmUp}, which take the same paths as requests do:
+ * <ul>
+ *     <li><code>interval-block-render</code> renders a copy of the first IntervalBlock of <code>V0.1.99__usage_interval_sample_data.sql</code>, built in
+ *     memory, so JAXB is warm even where the database has none</li>
+ *     <li><code>interval-blocks</code> loads and renders the sample IntervalBlocks one by one and as the feed of their UsagePoint</li>
+ *     <li><code>interval-rollups</code> and <code>demand</code> stream every kind of rollup and demand of their MeterReading</li>
+ *     <li><code>local-time-tables</code> loads the local time table of every TimeConfiguration</li>
+ * </ul>
+ * The sample IntervalBlocks are those of <code>V0.1.99</code> where their MeterReading exists, and otherwise a few of any MeterReading. Where there are no
+ * IntervalBlocks at all, the tasks that need them fail once and are left out.
+ */
+@Configuration
+public class SampleDataWarmUpConfiguration {
+	private static final UUID[] V0_1_99_INTERVAL_BLOCKS = {
+		UUID.fromString("55df1aa4-c63f-5cd5-abd4-59164c448ee0"),
+		UUID.fromString("e6d44d83-a357-58df-b8fb-296cebf4fca0"),
+		UUID.fromString("549cca03-0083-5fd5-ab90-1fbadf535fd6")
+	};
+	private static final String SAMPLE_METER_READING = """
+		SELECT b.meter_reading_uuid FROM usage.interval_block b
+		JOIN usage.meter_reading mr ON mr.uuid = b.meter_reading_uuid
+		%s
+		LIMIT 1""";
+	private static final String SAMPLE_INTERVAL_BLOCKS = """
+		SELECT uuid FROM usage.interval_block
+		WHERE meter_reading_uuid = ?
+		ORDER BY uuid = ANY(?) DESC, start
+		LIMIT 3""";
+	// long enough for every interval to have several buckets
+	private static final long RANGE_SECONDS = 400L * 86400;
+
+	@Bean
+	@Order(1)
+	WarmUpTask intervalBlockRenderWarmUp() {
+		return new WarmUpTask("interval-block-render", () -> {
+			IntervalBlockDto intervalBlockDto = IntervalBlockDto.fromIntervalBlock(firstSampleIntervalBlock());
+			IdentifiedObjectDto.addParentWrapper(intervalBlockDto.addEntryWrapper("IntervalBlock", intervalBlockDto.getContent()), "IntervalBlock");
+		});
+	}
+
+	@Bean
+	@Order(2)
+	WarmUpTask intervalBlockWarmUp(SampleData sampleData, IntervalBlockService intervalBlockService, IntervalRollupService intervalRollupService,
+								   PlatformTransactionManager transactionManager, DatabaseBulkheads databaseBulkheads) {
+		TransactionTemplate readOnlyTransaction = new TransactionTemplate(transactionManager);
+		readOnlyTransaction.setReadOnly(true);
+		return new WarmUpTask("interval-blocks", () -> databaseBulkheads.current().run(() -> readOnlyTransaction.executeWithoutResult(status -> {
+			Sample sample = sampleData.get();
+			StringBuilder entries = new StringBuilder();
+			for (UUID uuid : sample.intervalBlocks()) {
+				IntervalBlock intervalBlock = intervalBlockService.findByUuid(uuid)
+					.orElseThrow(() -> new EntityNotFoundByIdException(IntervalBlock.class, uuid));
+				IntervalBlockDto intervalBlockDto = IntervalBlockDto.fromIntervalBlock(intervalBlock);
+				entries.append(intervalBlockDto.addEntryWrapper("IntervalBlock", intervalBlockDto.getContent()));
+			}
+			UUID usagePointUuid = intervalRollupService.findTarget(sample.meterReading(), EspiScope.UNRESTRICTED).usagePointUuid();
+			if (usagePointUuid != null) {
+				intervalBlockService.findAll(EspiScope.UNRESTRICTED, UsagePointAccess.of(List.of(usagePointUuid))).stream()
+					.map(IntervalBlockDto::fromIntervalBlock)
+					.forEach(dto -> entries.append(dto.addEntryWrapper("IntervalBlock", dto.getContent())));
+			}
+			IdentifiedObjectDto.addParentWrapper(entries.toString(), "IntervalBlock");
+		})));
+	}
+
+	@Bean
+	@Order(3)
+	WarmUpTask intervalRollupWarmUp(SampleData sampleData, IntervalRollupService intervalRollupService) {
+		return new WarmUpTask("interval-rollups", () -> {
+			Sample sample = sampleData.get();
+			RollupTarget target = intervalRollupService.findTarget(sample.meterReading(), EspiScope.UNRESTRICTED);
+			for (RollupInterval interval : RollupInterval.values()) {
+				for (ValueUnits units : ValueUnits.values()) {
+					intervalRollupService.writeRollups(target, interval, sample.from(), sample.from() + RANGE_SECONDS, units, OutputStream.nullOutputStream());
+				}
+			}
+		});
+	}
+
+	@Bean
+	@Order(4)
+	WarmUpTask demandWarmUp(SampleData sampleData, IntervalRollupService intervalRollupService, DemandService demandService) {
+		return new WarmUpTask("demand", () -> {
+			Sample sample = sampleData.get();
+			RollupTarget target = intervalRollupService.findTarget(sample.meterReading(), EspiScope.UNRESTRICTED);
+			for (RollupInterval interval : RollupInterval.values()) {
+				demandService.writeDemand(target, interval, sample.from(), Math.min(sample.from() + RANGE_SECONDS, demandService.rangeEnd(sample.from(), null)),
+					900, 11, ValueUnits.CANONICAL, OutputStream.nullOutputStream());
+			}
+		});
+	}
+
+	@Bean
+	@Order(5)
+	WarmUpTask localTimeTableWarmUp(DataSource dataSource, LocalTimeTables localTimeTables, DatabaseBulkheads databaseBulkheads) {
+		JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+		return new WarmUpTask("local-time-tables", () -> databaseBulkheads.current().run(() -> jdbcTemplate.query(
+			"SELECT DISTINCT tz_offset, dst_offset, dst_start_rule, dst_end_rule FROM usage.time_configuration",
+			rs -> {
+				localTimeTables.of(rs.getLong(1), rs.getObject(2) == null ? null : rs.getLong(2), rs.getBytes(3), rs.getBytes(4));
+			})));
+	}
+
+	@Bean
+	SampleData sampleData(DataSource dataSource, DatabaseBulkheads databaseBulkheads) {
+		return new SampleData(new JdbcTemplate(dataSource), databaseBulkheads);
+	}
+
+	private static IntervalBlock firstSampleIntervalBlock() {
+		IntervalBlock intervalBlock = new IntervalBlock();
+		intervalBlock.setUuid(V0_1_99_INTERVAL_BLOCKS[0]);
+		intervalBlock.setPublished(LocalDateTime.of(2012, 3, 2, 5, 0));
+		intervalBlock.setUpdated(LocalDateTime.of(2012, 3, 2, 5, 0));
+		intervalBlock.setInterval(new DateTimeInterval().setStart(1330578000L).setDuration(86400L));
+		intervalBlock.getIntervalReadings().add(sampleReading(intervalBlock, 974, 1330578000L, 282, QualityOfReading.VALID, QualityOfReading.RAW,
+			QualityOfReading.DERIVED));
+		intervalBlock.getIntervalReadings().add(sampleReading(intervalBlock, 965, 1330578900L, 323, QualityOfReading.OTHER, QualityOfReading.VALID));
+		intervalBlock.getIntervalReadings().add(sampleReading(intervalBlock, 922, 1334445553L, 350, QualityOfReading.QUESTIONABLE,
+			QualityOfReading.VALID));
+		return intervalBlock;
+	}
+
+	private static IntervalReading sampleReading(IntervalBlock intervalBlock, long cost, long start, long value, QualityOfReading... qualities) {
+		IntervalReading intervalReading = new IntervalReading()
+			.setBlock(intervalBlock)
+			.setCost(cost)
+			.setTimePeriod(new DateTimeInterval().setStart(start).setDuration(900L))
+			.setValue(value);
+		for (QualityOfReading quality : qualities) {
+			intervalReading.getReadingQualities().add(new ReadingQuality().setQuality(quality).setReading(intervalReading));
+		}
+		return intervalReading;
+	}
+
+	/**
+	 * Looks the sample IntervalBlocks up on first use, once.
+	 */
+	static final class SampleData implements Supplier<Sample> {
+		private final JdbcTemplate jdbcTemplate;
+		private final DatabaseBulkheads databaseBulkheads;
+		private volatile Sample sample;
+
+		private SampleData(JdbcTemplate jdbcTemplate, DatabaseBulkheads databaseBulkheads) {
+			this.jdbcTemplate = jdbcTemplate;
+			this.databaseBulkheads = databaseBulkheads;
+		}
+
+		@Override
+		public Sample get() {
+			Sample found = sample;
+			if (found == null) {
+				found = databaseBulkheads.current().call(this::find);
+				sample = found;
+			}
+			return found;
+		}
+
+		private Sample find() {
+			UUID meterReading = jdbcTemplate.query(SAMPLE_METER_READING.formatted("WHERE b.uuid = ANY(?)"), (rs, rowNum) -> rs.getObject(1, UUID.class),
+				(Object) V0_1_99_INTERVAL_BLOCKS).stream().findFirst()
+				.or(() -> jdbcTemplate.query(SAMPLE_METER_READING.formatted(""), (rs, rowNum) -> rs.getObject(1, UUID.class)).stream().findFirst())
+				.orElseThrow(() -> new IllegalStateException("No IntervalBlocks of a MeterReading to warm up with"));
+			List<UUID> intervalBlocks = jdbcTemplate.query(SAMPLE_INTERVAL_BLOCKS, (rs, rowNum) -> rs.getObject(1, UUID.class), meterReading,
+				V0_1_99_INTERVAL_BLOCKS);
+			Long from = jdbcTemplate.queryForObject("SELECT min(start) FROM usage.interval_block WHERE uuid = ANY(?)", Long.class,
+				(Object) intervalBlocks.toArray(UUID[]::new));
+			return new Sample(meterReading, intervalBlocks, from == null ? 0 : from);
+		}
+	}
+
+	record Sample(UUID meterReading, List<UUID> intervalBlocks, long from) {
+	}
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.greenbuttonalliance.gbaresourceserver.usage.warmup;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Warms the application up before it takes traffic, so the first requests after a deploy are not the ones that build JAXB contexts, compile Hibernate
+ * query plans, fill reference caches and get the JIT going. Every {@link WarmUpTask} is run <code>gba.warm-up.rounds</code> times, or for as many rounds as
+ * fit in <code>gba.warm-up.max-duration</code>, and then once more to measure it warm. A task that fails is reported and dropped; it does not hold
+ * startup back.
+ * <p>
+ * It runs as an {@link ApplicationRunner}, which Spring Boot calls before it marks the application as accepting traffic, so the readiness probe
+ * (<code>/actuator/health/readiness</code>) stays down until the warm-up is done. It is also a {@link HealthIndicator}, out of service until then, whose
+ * details give how long it took and the latency of each task on its first run and once warm. The duration is recorded as <code>gba.warm-up.duration</code>
+ * and the latencies as <code>gba.warm-up.latency</code>, tagged with the task and <code>phase=cold</code> or <code>warm</code>.
+ */
+@Component
+@Slf4j
+public class StartupWarmUp implements ApplicationRunner, HealthIndicator {
+	private final List<WarmUpTask> tasks;
+	private final MeterRegistry meterRegistry;
+	private final boolean enabled;
+	private final int rounds;
+	private final long maxDurationNanos;
+	private final LongSupplier nanoClock;
+	private volatile Health health = Health.outOfService().build();
+
+	@Autowired
+	public StartupWarmUp(List<WarmUpTask> tasks, MeterRegistry meterRegistry, @Value("${gba.warm-up.enabled:true}") boolean enabled,
+						 @Value("${gba.warm-up.rounds:20}") int rounds, @Value("${gba.warm-up.max-duration:30s}") Duration maxDuration) {
+		this(tasks, meterRegistry, enabled, rounds, maxDuration, System::nanoTime);
+	}
+
+	StartupWarmUp(List<WarmUpTask> tasks, MeterRegistry meterRegistry, boolean enabled, int rounds, Duration maxDuration, LongSupplier nanoClock) {
+		this.tasks = tasks;
+		this.meterRegistry = meterRegistry;
+		this.enabled = enabled;
+		this.rounds = rounds;
+		this.maxDurationNanos = maxDuration.toNanos();
+		this.nanoClock = nanoClock;
+	}
+
+	@Override
+	public void run(ApplicationArguments args) {
+		if (!enabled) {
+			health = Health.up().withDetail("enabled", false).build();
+			return;
+		}
+		long started = nanoClock.getAsLong();
+		Map<String, Long> cold = new LinkedHashMap<>();
+		Map<String, String> failed = new LinkedHashMap<>();
+		List<WarmUpTask> warming = new ArrayList<>(tasks);
+		warming.removeIf(task -> !time(task, "cold", cold, failed));
+		int round = 1;
+		for (; round < rounds && nanoClock.getAsLong() - started < maxDurationNanos; round++) {
+			warming.removeIf(task -> !attempt(task, failed));
+		}
+		long duration = nanoClock.getAsLong() - started;
+		Map<String, Long> warm = new LinkedHashMap<>();
+		warming.forEach(task -> time(task, "warm", warm, failed));
+
+		Timer.builder("gba.warm-up.duration")
+			.description("Time spent warming up before taking traffic")
+			.register(meterRegistry)
+			.record(duration, TimeUnit.NANOSECONDS);
+		Map<String, Object> latencies = new LinkedHashMap<>();
+		cold.forEach((name, nanos) -> latencies.put(name, Map.of("coldMillis", millis(nanos), "warmMillis", millis(warm.getOrDefault(name, nanos)))));
+		health = Health.up()
+			.withDetail("durationMillis", millis(duration))
+			.withDetail("rounds", round)
+			.withDetail("latency", latencies)
+			.withDetail("failed", failed)
+			.build();
+		log.info("Warmed up in {} ms over {} rounds; latency by task (cold -> warm ms): {}{}", millis(duration), round, latencies,
+			failed.isEmpty() ? "" : "; failed: " + failed.keySet());
+	}
+
+	@Override
+	public Health health() {
+		return health;
+	}
+
+	private boolean time(WarmUpTask task, String phase, Map<String, Long> latencies, Map<String, String> failed) {
+		long started = nanoClock.getAsLong();
+		if (!attempt(task, failed)) {
+			return false;
+		}
+		long nanos = nanoClock.getAsLong() - started;
+		latencies.put(task.name(), nanos);
+		Timer.builder("gba.warm-up.latency")
+			.description("Latency of a warm-up task on its first run and once warm")
+			.tag("task", task.name())
+			.tag("phase", phase)
+			.register(meterRegistry)
+			.record(nanos, TimeUnit.NANOSECONDS);
+		return true;
+	}
+
+	private static boolean attempt(WarmUpTask task, Map<String, String> failed) {
+		try {
+			task.work().run();
+			return true;
+		} catch (RuntimeException e) {
+			log.warn("Warm-up task {} failed: {}", task.name(), e.toString());
+			failed.put(task.name(), e.toString());
+			return false;
+		}
+	}
+
+	private static double millis(long nanos) {
+		return Math.round(nanos / 1e4) / 100.0;
+	}
+}
@@ -0,0 +1,24 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.greenbuttonalliance.gbaresourceserver.usage.warmup;
+
+/**
+ * Representative work the {@link StartupWarmUp} runs before the application takes traffic: a render or query of the kind requests make, or the loading
+ * of a reference cache. It is run many times, so it must be bounded and leave nothing behind.
+ */
+public record WarmUpTask(String name, Runnable work) {
+}
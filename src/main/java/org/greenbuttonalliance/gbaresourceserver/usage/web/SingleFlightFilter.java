@@ -0,0 +1,388 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.greenbuttonalliance.gbaresourceserver.usage.web;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.ServletRequest;
+import jakarta.servlet.ServletResponse;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletRequestWrapper;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpServletResponseWrapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Coalesces identical concurrent GETs of <code>/espi/1_1/resource/</code>, as third-party applications polling on the same quarter hour send them: the first
+ * request runs as usual while its response is buffered, and requests for the same key that arrive before it is rendered wait for it and are sent the same
+ * status, headers and bytes instead of querying and rendering the feed again.
+ * <p>
+ * The key is the path, every query parameter sorted by name (ESPI's <code>published-min</code>, <code>updated-max</code>, <code>max-results</code> and
+ * <code>depth</code> among them, in whatever order they were sent) and the <code>Authorization</code> header, so requests made with different authorizations
+ * never share a response. The waiting requests are released as soon as the first request's response is rendered, before it is written to that request's
+ * client, so a slow client only delays itself. When the first request fails, answers with a server error, writes more than
+ * <code>gba.single-flight.max-body-bytes</code> or streams its response (which is written while it is rendered, so it is passed through rather than
+ * buffered), the waiting requests run on their own; so do requests that waited longer than <code>gba.single-flight.wait-timeout-ms</code>.
+ * <p>
+ * The {@link org.greenbuttonalliance.gbaresourceserver.usage.admission.AdmissionControlFilter} runs first, so a waiting request holds its application's
+ * concurrency slot while it waits; the wait timeout is what bounds how long a stuck first request can hold them.
+ * <p>
+ * Requests are counted as <code>gba.single-flight.requests</code>, tagged <code>result=led</code> for the ones that ran, <code>coalesced</code> for the ones
+ * sent a shared response and <code>fallback</code> for the ones that waited and then had to run; <code>gba.single-flight.waiting</code> is how many wait.
+ */
+@Component
+public class SingleFlightFilter extends OncePerRequestFilter {
+	private static final String PATH_PREFIX = "/espi/1_1/resource/";
+	// set by the container for each response, or, for type and length, from the shared body
+	private static final Set<String> UNSHARED_HEADERS = Set.of("content-type", "content-length", "transfer-encoding", "connection", "date", "keep-alive");
+
+	private final ConcurrentHashMap<String, CompletableFuture<SharedResponse>> inFlight = new ConcurrentHashMap<>();
+	private final AtomicInteger waiting = new AtomicInteger();
+	private final boolean enabled;
+	private final int maxBodyBytes;
+	private final long waitTimeoutMillis;
+	private final Counter led;
+	private final Counter coalesced;
+	private final Counter fallbacks;
+
+	@Autowired
+	public SingleFlightFilter(MeterRegistry meterRegistry, @Value("${gba.single-flight.enabled:true}") boolean enabled,
+							  @Value("${gba.single-flight.max-body-bytes:8388608}") int maxBodyBytes,
+							  @Value("${gba.single-flight.wait-timeout-ms:2000}") long waitTimeoutMillis) {
+		this.enabled = enabled;
+		this.maxBodyBytes = maxBodyBytes;
+		this.waitTimeoutMillis = waitTimeoutMillis;
+		this.led = requestCounter(meterRegistry, "led");
+		this.coalesced = requestCounter(meterRegistry, "coalesced");
+		this.fallbacks = requestCounter(meterRegistry, "fallback");
+		Gauge.builder("gba.single-flight.waiting", waiting, AtomicInteger::get)
+			.description("Requests waiting for an identical request in flight")
+			.register(meterRegistry);
+	}
+
+	@Override
+	protected boolean shouldNotFilter(HttpServletRequest request) {
+		return !enabled || !HttpMethod.GET.matches(request.getMethod()) || !request.getRequestURI().startsWith(PATH_PREFIX);
+	}
+
+	@Override
+	protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain) throws ServletException, IOException {
+		String key = key(request);
+		CompletableFuture<SharedResponse> flight = new CompletableFuture<>();
+		CompletableFuture<SharedResponse> leader = inFlight.putIfAbsent(key, flight);
+		if (leader != null) {
+			SharedResponse shared = await(leader);
+			if (shared != null) {
+				coalesced.increment();
+				shared.writeTo(response);
+				return;
+			}
+			fallbacks.increment();
+			filterChain.doFilter(request, response);
+			return;
+		}
+
+		led.increment();
+		BufferingResponseWrapper buffering = new BufferingResponseWrapper(response, maxBodyBytes, () -> land(key, flight, null));
+		try {
+			filterChain.doFilter(new PassThroughOnAsyncRequestWrapper(request, buffering), buffering);
+			if (!request.isAsyncStarted()) {
+				land(key, flight, buffering.sharedResponse());
+				buffering.writeBuffered();
+			}
+		} finally {
+			land(key, flight, null);
+		}
+	}
+
+	private SharedResponse await(CompletableFuture<SharedResponse> leader) {
+		waiting.incrementAndGet();
+		try {
+			return leader.get(waitTimeoutMillis, TimeUnit.MILLISECONDS);
+		} catch (TimeoutException | ExecutionException e) {
+			return null;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for an identical request in flight", e);
+		} finally {
+			waiting.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Ends a flight, once: later calls for the same flight do nothing.
+	 */
+	private void land(String key, CompletableFuture<SharedResponse> flight, SharedResponse shared) {
+		inFlight.remove(key, flight);
+		flight.complete(shared);
+	}
+
+	static String key(HttpServletRequest request) {
+		StringBuilder key = new StringBuilder(request.getRequestURI());
+		char separator = '?';
+		for (Map.Entry<String, String[]> parameter : new TreeMap<>(request.getParameterMap()).entrySet()) {
+			for (String value : parameter.getValue()) {
+				key.append(separator).append(parameter.getKey()).append('=').append(value);
+				separator = '&';
+			}
+		}
+		String authorization = request.getHeader(HttpHeaders.AUTHORIZATION);
+		return authorization == null ? key.toString() : key.append(' ').append(authorization).toString();
+	}
+
+	private static Counter requestCounter(MeterRegistry meterRegistry, String result) {
+		return Counter.builder("gba.single-flight.requests")
+			.description("Requests to the resource API by whether they ran or shared an identical request's response")
+			.tag("result", result)
+			.register(meterRegistry);
+	}
+
+	/**
+	 * What waiting requests are sent: the first request's status, headers and body.
+	 */
+	private record SharedResponse(int status, String contentType, List<Map.Entry<String, String>> headers, byte[] body) {
+		void writeTo(HttpServletResponse response) throws IOException {
+			response.setStatus(status);
+			if (contentType != null) {
+				response.setContentType(contentType);
+			}
+			for (Map.Entry<String, String> header : headers) {
+				response.addHeader(header.getKey(), header.getValue());
+			}
+			response.setContentLength(body.length);
+			response.getOutputStream().write(body);
+		}
+	}
+
+	/**
+	 * Switches the response to passing through before the request goes async, so a streamed response is written as it is rendered.
+	 */
+	private static final class PassThroughOnAsyncRequestWrapper extends HttpServletRequestWrapper {
+		private final BufferingResponseWrapper response;
+
+		PassThroughOnAsyncRequestWrapper(HttpServletRequest request, BufferingResponseWrapper response) {
+			super(request);
+			this.response = response;
+		}
+
+		@Override
+		public AsyncContext startAsync() {
+			response.passThrough();
+			return super.startAsync();
+		}
+
+		@Override
+		public AsyncContext startAsync(ServletRequest servletRequest, ServletResponse servletResponse) {
+			response.passThrough();
+			return super.startAsync(servletRequest, servletResponse);
+		}
+	}
+
+	/**
+	 * Holds the body back until the response is rendered, up to a limit; past the limit, or once told to, it writes what it holds and passes the rest
+	 * through as it is written.
+	 */
+	private static final class BufferingResponseWrapper extends HttpServletResponseWrapper {
+		private final int maxBodyBytes;
+		private final Runnable onPassThrough;
+		private final Body buffer = new Body();
+		private boolean passingThrough;
+		private ServletOutputStream outputStream;
+		private PrintWriter writer;
+
+		BufferingResponseWrapper(HttpServletResponse response, int maxBodyBytes, Runnable onPassThrough) {
+			super(response);
+			this.maxBodyBytes = maxBodyBytes;
+			this.onPassThrough = onPassThrough;
+		}
+
+		@Override
+		public ServletOutputStream getOutputStream() {
+			if (outputStream == null) {
+				outputStream = new ServletOutputStream() {
+					@Override
+					public void write(int b) throws IOException {
+						write(new byte[]{(byte) b}, 0, 1);
+					}
+
+					@Override
+					public void write(byte[] b, int off, int len) throws IOException {
+						if (!passingThrough && buffer.size() + len > maxBodyBytes) {
+							startPassingThrough();
+						}
+						if (passingThrough) {
+							getResponse().getOutputStream().write(b, off, len);
+						} else {
+							buffer.write(b, off, len);
+						}
+					}
+
+					@Override
+					public void flush() throws IOException {
+						if (passingThrough) {
+							getResponse().getOutputStream().flush();
+						}
+					}
+
+					@Override
+					public boolean isReady() {
+						try {
+							return !passingThrough || getResponse().getOutputStream().isReady();
+						} catch (IOException e) {
+							throw new UncheckedIOException(e);
+						}
+					}
+
+					@Override
+					public void setWriteListener(WriteListener writeListener) {
+						try {
+							getResponse().getOutputStream().setWriteListener(writeListener);
+						} catch (IOException e) {
+							throw new UncheckedIOException(e);
+						}
+					}
+				};
+			}
+			return outputStream;
+		}
+
+		@Override
+		public PrintWriter getWriter() throws IOException {
+			if (writer == null) {
+				writer = new PrintWriter(new OutputStreamWriter(getOutputStream(), getCharacterEncoding()));
+			}
+			return writer;
+		}
+
+		@Override
+		public void flushBuffer() throws IOException {
+			if (writer != null) {
+				writer.flush();
+			}
+			if (passingThrough) {
+				super.flushBuffer();
+			}
+		}
+
+		@Override
+		public void resetBuffer() {
+			buffer.reset();
+			super.resetBuffer();
+		}
+
+		@Override
+		public void reset() {
+			buffer.reset();
+			super.reset();
+		}
+
+		/**
+		 * Writes what is held back and passes the rest of the body through; the response can then no longer be shared.
+		 */
+		void passThrough() {
+			if (writer != null) {
+				writer.flush();
+			}
+			startPassingThrough();
+		}
+
+		private void startPassingThrough() {
+			if (passingThrough) {
+				return;
+			}
+			passingThrough = true;
+			onPassThrough.run();
+			try {
+				if (buffer.size() > 0) {
+					buffer.writeTo(getResponse().getOutputStream());
+				}
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			buffer.reset();
+		}
+
+		/**
+		 * Writes the held back body once the response is rendered.
+		 */
+		void writeBuffered() throws IOException {
+			flushBuffer();
+			if (passingThrough) {
+				return;
+			}
+			passingThrough = true;
+			if (buffer.size() > 0) {
+				if (!isCommitted()) {
+					setContentLength(buffer.size());
+				}
+				buffer.writeTo(getResponse().getOutputStream());
+			}
+		}
+
+		SharedResponse sharedResponse() throws IOException {
+			flushBuffer();
+			if (passingThrough || getStatus() >= HttpServletResponse.SC_INTERNAL_SERVER_ERROR) {
+				return null;
+			}
+			List<Map.Entry<String, String>> headers = new ArrayList<>();
+			for (String name : getHeaderNames()) {
+				if (!UNSHARED_HEADERS.contains(name.toLowerCase(Locale.ROOT))) {
+					getHeaders(name).forEach(value -> headers.add(Map.entry(name, value)));
+				}
+			}
+			return new SharedResponse(getStatus(), getContentType(), List.copyOf(headers), buffer.toByteArray());
+		}
+	}
+
+	private static final class Body extends ByteArrayOutputStream {
+
+		// not synchronized, unlike the method it overrides, so a virtual thread blocked writing to a slow client does not pin its carrier thread
+		@Override
+		public void writeTo(OutputStream out) throws IOException {
+			out.write(buf, 0, count);
+		}
+	}
+}
@@ -33,7 +33,9 @@ import java.io.StringWriter;
 import java.security.MessageDigest;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static java.lang.System.*;
 
@@ -72,6 +74,9 @@ public abstract class IdentifiedObjectDto extends IdentifiedObject implements Se
 
 	private static final DateTimeFormatter dtf = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss'Z'");
 
+	// a JAXBContext is thread-safe and costly to build, so each DTO class builds its own once
+	private static final Map<Class<?>, JAXBContext> jaxbContexts = new ConcurrentHashMap<>();
+
 	public String addEntryWrapper(String title, String content) {
 		return getEntryPrefix(title) + content + getEntrySuffix();
 	}
@@ -82,7 +87,7 @@ public abstract class IdentifiedObjectDto extends IdentifiedObject implements Se
 
 	public String getContent() {
 		try {
-			JAXBContext context = JAXBContext.newInstance(this.getClass());
+			JAXBContext context = jaxbContext(this.getClass());
 			Marshaller mar = context.createMarshaller();
 			mar.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
 			mar.setProperty(Marshaller.JAXB_FRAGMENT, true);
@@ -94,6 +99,18 @@ public abstract class IdentifiedObjectDto extends IdentifiedObject implements Se
 		}
 		return null;
 	}
+
+	public static JAXBContext jaxbContext(Class<? extends IdentifiedObjectDto> dtoClass) throws JAXBException {
+		JAXBContext context = jaxbContexts.get(dtoClass);
+		if (context == null) {
+			context = JAXBContext.newInstance(dtoClass);
+			JAXBContext raced = jaxbContexts.putIfAbsent(dtoClass, context);
+			if (raced != null) {
+				context = raced;
+			}
+		}
+		return context;
+	}
 //
 //	public String getContent() {
 //		try {
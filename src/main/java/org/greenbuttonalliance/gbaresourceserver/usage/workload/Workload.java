@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.greenbuttonalliance.gbaresourceserver.usage.workload;
+
+/**
+ * The {@link WorkloadClass} of the work the current thread is doing, which picks the database bulkhead it takes its permits from. Entered for each request
+ * by the {@link WorkloadClassificationFilter} and carried over to the threads that stream its response by the {@link WorkloadTaskDecorator}; the workers of
+ * a fork-join pool made with a {@link WorkloadForkJoinWorkerThreadFactory} do its class of work, and work on any other thread is interactive.
+ */
+public final class Workload {
+	private static final ThreadLocal<WorkloadClass> CURRENT = new ThreadLocal<>();
+
+	private Workload() {
+	}
+
+	public static WorkloadClass current() {
+		WorkloadClass workloadClass = CURRENT.get();
+		return workloadClass == null ? WorkloadClass.INTERACTIVE : workloadClass;
+	}
+
+	/**
+	 * Makes the current thread's work the given class until the returned scope is closed, which restores the class it was before.
+	 */
+	public static Scope enter(WorkloadClass workloadClass) {
+		Scope scope = new Scope(CURRENT.get());
+		CURRENT.set(workloadClass);
+		return scope;
+	}
+
+	public static void runAs(WorkloadClass workloadClass, Runnable work) {
+		try (Scope ignored = enter(workloadClass)) {
+			work.run();
+		}
+	}
+
+	public record Scope(WorkloadClass previous) implements AutoCloseable {
+
+		@Override
+		public void close() {
+			if (previous == null) {
+				CURRENT.remove();
+			} else {
+				CURRENT.set(previous);
+			}
+		}
+	}
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.greenbuttonalliance.gbaresourceserver.usage.workload;
+
+import java.util.Locale;
+
+/**
+ * The kinds of work that compete for the connection pool, each scheduled in a partition of it of its own (see
+ * {@link org.greenbuttonalliance.gbaresourceserver.usage.bulkhead.DatabaseBulkheads}).
+ */
+public enum WorkloadClass {
+	/**
+	 * Requests a person is waiting on, from the portal or an application acting for one.
+	 */
+	INTERACTIVE,
+	/**
+	 * Third-party applications fetching data on their own schedule.
+	 */
+	POLLING,
+	/**
+	 * Exports, imports and reads spanning long periods.
+	 */
+	BULK;
+
+	/**
+	 * The name used in properties and meter tags.
+	 */
+	public String key() {
+		return name().toLowerCase(Locale.ROOT);
+	}
+}
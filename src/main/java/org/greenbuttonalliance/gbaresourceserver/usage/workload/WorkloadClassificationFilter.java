@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.greenbuttonalliance.gbaresourceserver.usage.workload;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Classes each request with the {@link WorkloadClassifier} and runs the rest of the chain as that {@link Workload}, so its database work is scheduled in
+ * the partition of the connection pool for its class. The class is also set as the request attribute {@link #ATTRIBUTE}, and requests are counted as
+ * <code>gba.workload.requests</code>, tagged with their class. Runs after the
+ * {@link org.greenbuttonalliance.gbaresourceserver.usage.admission.AdmissionControlFilter}, so requests it turns away are not classed.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 20)
+public class WorkloadClassificationFilter extends OncePerRequestFilter {
+	public static final String ATTRIBUTE = WorkloadClass.class.getName();
+
+	private final WorkloadClassifier workloadClassifier;
+	private final Map<WorkloadClass, Counter> requests = new EnumMap<>(WorkloadClass.class);
+
+	@Autowired
+	public WorkloadClassificationFilter(WorkloadClassifier workloadClassifier, MeterRegistry meterRegistry) {
+		this.workloadClassifier = workloadClassifier;
+		for (WorkloadClass workloadClass : WorkloadClass.values()) {
+			requests.put(workloadClass, Counter.builder("gba.workload.requests")
+				.description("Requests by the workload they were classed as")
+				.tag("class", workloadClass.key())
+				.register(meterRegistry));
+		}
+	}
+
+	@Override
+	protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain) throws ServletException, IOException {
+		WorkloadClass workloadClass = workloadClassifier.classify(request);
+		request.setAttribute(ATTRIBUTE, workloadClass);
+		requests.get(workloadClass).increment();
+		try (Workload.Scope ignored = Workload.enter(workloadClass)) {
+			filterChain.doFilter(request, response);
+		}
+	}
+}
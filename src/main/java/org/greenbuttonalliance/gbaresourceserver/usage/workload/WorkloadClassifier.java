@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.greenbuttonalliance.gbaresourceserver.usage.workload;
+
+import jakarta.servlet.http.HttpServletRequest;
+import org.greenbuttonalliance.gbaresourceserver.usage.model.enums.ThirdPartyApplicationUse;
+import org.greenbuttonalliance.gbaresourceserver.usage.token.ResolvedToken;
+import org.greenbuttonalliance.gbaresourceserver.usage.token.TokenResolutionService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+/**
+ * Tells which {@link WorkloadClass} a request is, from the first of these that applies:
+ * <ol>
+ *     <li>Batch requests, which export whole subscriptions, are bulk.</li>
+ *     <li>Requests estimated to be large are bulk: ones whose body is longer than <code>gba.workload.bulk-content-length</code> bytes (1 MiB), and ones
+ *     whose <code>from</code> and <code>to</code> (epoch seconds, <code>to</code> defaulting to now) span longer than <code>gba.workload.bulk-span</code>
+ *     (31 days).</li>
+ *     <li>Requests made with the bearer token of a third-party application are classed by its <code>ThirdPartyApplicationUse</code>, as set with
+ *     <code>gba.workload.use.&lt;use&gt;</code> (e.g. <code>gba.workload.use.academic=bulk</code>). By default applications for energy management and
+ *     comparisons poll, and those for government, academic and law-enforcement use are bulk.</li>
+ *     <li>Anything else is interactive.</li>
+ * </ol>
+ */
+@Component
+public class WorkloadClassifier {
+	private static final String BATCH_PATH_PREFIX = "/espi/1_1/resource/Batch";
+
+	private final Function<String, Optional<ResolvedToken>> tokens;
+	private final Map<ThirdPartyApplicationUse, WorkloadClass> byUse = new EnumMap<>(ThirdPartyApplicationUse.class);
+	private final long bulkContentLength;
+	private final long bulkSpanSeconds;
+	private final LongSupplier epochSecondClock;
+
+	@Autowired
+	public WorkloadClassifier(TokenResolutionService tokenResolutionService, Environment environment,
+							  @Value("${gba.workload.bulk-content-length:1048576}") long bulkContentLength,
+							  @Value("${gba.workload.bulk-span:31d}") Duration bulkSpan) {
+		this(tokenResolutionService::resolve, environment, bulkContentLength, bulkSpan, () -> Instant.now().getEpochSecond());
+	}
+
+	WorkloadClassifier(Function<String, Optional<ResolvedToken>> tokens, Environment environment, long bulkContentLength, Duration bulkSpan,
+					   LongSupplier epochSecondClock) {
+		this.tokens = tokens;
+		this.bulkContentLength = bulkContentLength;
+		this.bulkSpanSeconds = bulkSpan.toSeconds();
+		this.epochSecondClock = epochSecondClock;
+		for (ThirdPartyApplicationUse use : ThirdPartyApplicationUse.values()) {
+			String property = "gba.workload.use." + use.name().toLowerCase(Locale.ROOT).replace('_', '-');
+			String configured = environment.getProperty(property);
+			byUse.put(use, configured == null ? defaultFor(use) : WorkloadClass.valueOf(configured.trim().toUpperCase(Locale.ROOT)));
+		}
+	}
+
+	public WorkloadClass classify(HttpServletRequest request) {
+		if (request.getRequestURI().startsWith(BATCH_PATH_PREFIX) || isLarge(request)) {
+			return WorkloadClass.BULK;
+		}
+		String accessToken = TokenResolutionService.bearerToken(request.getHeader(HttpHeaders.AUTHORIZATION));
+		ThirdPartyApplicationUse use = accessToken == null ? null : tokens.apply(accessToken)
+			.map(ResolvedToken::thirdPartyApplicationUse)
+			.orElse(null);
+		return use == null ? WorkloadClass.INTERACTIVE : byUse.get(use);
+	}
+
+	private boolean isLarge(HttpServletRequest request) {
+		if (request.getContentLengthLong() > bulkContentLength) {
+			return true;
+		}
+		// the parameters of other methods may be in a form body the endpoint has yet to read
+		Long from = HttpMethod.GET.matches(request.getMethod()) ? epochSecond(request.getParameter("from")) : null;
+		if (from == null) {
+			return false;
+		}
+		Long to = epochSecond(request.getParameter("to"));
+		long until = to == null ? epochSecondClock.getAsLong() : to;
+		try {
+			return Math.subtractExact(until, from) > bulkSpanSeconds;
+		} catch (ArithmeticException e) {
+			return until > from;
+		}
+	}
+
+	private static Long epochSecond(String parameter) {
+		if (parameter == null) {
+			return null;
+		}
+		try {
+			return Long.parseLong(parameter);
+		} catch (NumberFormatException e) {
+			// left for the endpoint to reject
+			return null;
+		}
+	}
+
+	private static WorkloadClass defaultFor(ThirdPartyApplicationUse use) {
+		return switch (use) {
+			case ENERGY_MANAGEMENT, COMPARISONS -> WorkloadClass.POLLING;
+			case GOVERNMENT, ACADEMIC, LAW_ENFORCEMENT -> WorkloadClass.BULK;
+		};
+	}
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.greenbuttonalliance.gbaresourceserver.usage.workload;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+
+/**
+ * Makes the workers of a fork-join pool do the given {@link WorkloadClass} of work for as long as they live, so that the connections they take come from
+ * its partition rather than the interactive one that is the default for threads outside a request.
+ */
+public class WorkloadForkJoinWorkerThreadFactory implements ForkJoinPool.ForkJoinWorkerThreadFactory {
+	private final WorkloadClass workloadClass;
+
+	public WorkloadForkJoinWorkerThreadFactory(WorkloadClass workloadClass) {
+		this.workloadClass = workloadClass;
+	}
+
+	@Override
+	public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+		return new WorkloadWorkerThread(pool, workloadClass);
+	}
+
+	private static final class WorkloadWorkerThread extends ForkJoinWorkerThread {
+		private final WorkloadClass workloadClass;
+
+		WorkloadWorkerThread(ForkJoinPool pool, WorkloadClass workloadClass) {
+			super(null, pool, true);
+			this.workloadClass = workloadClass;
+		}
+
+		@Override
+		protected void onStart() {
+			super.onStart();
+			// never closed: the class is the worker's until it terminates
+			Workload.enter(workloadClass);
+		}
+	}
+}
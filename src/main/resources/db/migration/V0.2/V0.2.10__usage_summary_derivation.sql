@@ -0,0 +1,3 @@
+-- derivation finds a partition's meter readings by usage point, and the ratchet demand of earlier billing periods by usage point and period start
+CREATE INDEX IF NOT EXISTS meter_reading_usage_point_uuid_idx ON usage.meter_reading (usage_point_uuid);
+CREATE INDEX IF NOT EXISTS usage_summaries_usage_point_uuid_billing_period_start_idx ON usage.usage_summaries (usage_point_uuid, billing_period_start);
@@ -0,0 +1,40 @@
+-- a tariff schedule prices the energy of every service delivery point with its tariff_profile from effective_date on, until a later schedule of the same
+-- profile and rider takes over; a schedule with a rider_type applies on top of the base schedule (rider_type NULL) to service delivery points enrolled in a
+-- TariffRiderRef of that type. Prices are in hundred-thousandths of the currency, like IntervalReading.cost, per kWh unless stated otherwise
+CREATE TABLE IF NOT EXISTS usage.tariff_schedule (
+  id BIGSERIAL PRIMARY KEY,
+  tariff_profile TEXT NOT NULL,
+  rider_type TEXT,
+  effective_date BIGINT NOT NULL,
+  currency TEXT,
+  -- per billing period
+  fixed_charge BIGINT NOT NULL DEFAULT 0,
+  -- added to readings flagged as critical peak (IntervalReading.cpp > 0)
+  cpp_price BIGINT NOT NULL DEFAULT 0,
+  UNIQUE NULLS NOT DISTINCT (tariff_profile, rider_type, effective_date)
+);
+
+-- the time-of-use periods of a schedule, as minutes of the local standard day; a period whose end is not after its start runs past midnight
+CREATE TABLE IF NOT EXISTS usage.tariff_tou_period (
+  schedule_id BIGINT NOT NULL REFERENCES usage.tariff_schedule ON DELETE CASCADE,
+  day_type TEXT NOT NULL CHECK (day_type IN ('WEEKDAY', 'WEEKEND')),
+  start_minute INT NOT NULL CHECK (start_minute >= 0 AND start_minute < 1440),
+  end_minute INT NOT NULL CHECK (end_minute >= 0 AND end_minute <= 1440),
+  tou SMALLINT NOT NULL,
+  price BIGINT NOT NULL,
+  PRIMARY KEY (schedule_id, day_type, start_minute)
+);
+
+-- consumption tiers of a schedule: from lower_bound Wh of billing period consumption on, price is added to the time-of-use price
+CREATE TABLE IF NOT EXISTS usage.tariff_tier (
+  schedule_id BIGINT NOT NULL REFERENCES usage.tariff_schedule ON DELETE CASCADE,
+  tier SMALLINT NOT NULL,
+  lower_bound BIGINT NOT NULL,
+  price BIGINT NOT NULL,
+  PRIMARY KEY (schedule_id, tier)
+);
+
+-- line_item has no working id generator; rated line items are inserted with plain SQL
+CREATE SEQUENCE IF NOT EXISTS usage.line_item_id_seq START 100001;
+ALTER TABLE usage.line_item ALTER COLUMN id SET DEFAULT nextval('usage.line_item_id_seq');
+CREATE INDEX IF NOT EXISTS line_item_usage_summary_uuid_idx ON usage.line_item (usage_summary_uuid);
@@ -0,0 +1,3 @@
+-- power quality aggregation finds each usage point's summaries by the start of their summary interval
+CREATE INDEX IF NOT EXISTS electric_power_quality_summaries_usage_point_uuid_start_idx ON usage.electric_power_quality_summaries (usage_point_uuid, start);
+CREATE INDEX IF NOT EXISTS usage_point_outage_region_idx ON usage.usage_point (outage_region);
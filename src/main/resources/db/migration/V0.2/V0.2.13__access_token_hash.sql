@@ -0,0 +1,6 @@
+-- bearer tokens are resolved by the SHA-256 of their UTF-8 bytes, so the index holds digests rather than the tokens themselves; Authorization sets the
+-- digest whenever it is persisted or updated, and anything else writing access tokens must set it too
+ALTER TABLE usage.authorization ADD COLUMN IF NOT EXISTS access_token_hash BYTEA;
+UPDATE usage.authorization SET access_token_hash = sha256(convert_to(access_token, 'UTF8')) WHERE access_token IS NOT NULL AND access_token_hash IS NULL;
+-- not unique, since existing rows may share a token: AuthorizationRepository resolves a token held by more than one Authorization to none of them
+CREATE INDEX IF NOT EXISTS authorization_access_token_hash_idx ON usage.authorization (access_token_hash);
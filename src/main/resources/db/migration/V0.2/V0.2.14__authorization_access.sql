@@ -0,0 +1,3 @@
+-- the UsagePoints an Authorization grants are found through its Subscriptions, from either side of each link
+CREATE INDEX IF NOT EXISTS subscription_authorization_id_idx ON usage.subscription (authorization_id);
+CREATE INDEX IF NOT EXISTS usage_point_subscription_uuid_idx ON usage.usage_point (subscription_uuid);
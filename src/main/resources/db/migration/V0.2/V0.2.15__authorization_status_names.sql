@@ -0,0 +1,2 @@
+-- Authorization.status was persisted by ordinal into its TEXT column; it is now mapped by name, so stored ordinals are rewritten to the names they stood for
+UPDATE usage.authorization SET status = CASE status WHEN '0' THEN 'REVOKED' WHEN '1' THEN 'ACTIVE' WHEN '2' THEN 'DENIED' END WHERE status IN ('0', '1', '2');
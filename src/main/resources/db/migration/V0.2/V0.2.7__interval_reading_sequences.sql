@@ -0,0 +1,3 @@
+-- the sample data in V0.1.99 inserts explicit ids, which leaves the BIGSERIAL sequences behind the data and makes the next generated id collide
+SELECT setval(pg_get_serial_sequence('usage.interval_reading', 'id'), COALESCE((SELECT MAX(id) FROM usage.interval_reading), 0) + 1, false);
+SELECT setval(pg_get_serial_sequence('usage.reading_quality', 'id'), COALESCE((SELECT MAX(id) FROM usage.reading_quality), 0) + 1, false);
@@ -0,0 +1,46 @@
+-- V0.1.99 inserts its sample readings positionally, which put each start into duration and each duration into start
+UPDATE usage.interval_reading SET start = duration, duration = start WHERE id BETWEEN 1 AND 5 AND start = 900 AND duration > 86400;
+
+-- rows removed below to make room for the natural keys are copied here first, with the row that replaces them; drop these tables once nobody needs them
+CREATE TABLE IF NOT EXISTS usage.interval_block_dedup_backup (LIKE usage.interval_block, merged_into UUID NOT NULL, backed_up TIMESTAMP NOT NULL DEFAULT now());
+CREATE TABLE IF NOT EXISTS usage.interval_reading_dedup_backup (LIKE usage.interval_reading, replaced_by BIGINT NOT NULL,
+                                                                backed_up TIMESTAMP NOT NULL DEFAULT now());
+CREATE TABLE IF NOT EXISTS usage.reading_quality_dedup_backup (LIKE usage.reading_quality, backed_up TIMESTAMP NOT NULL DEFAULT now());
+
+-- blocks of the same MeterReading and start are merged into the most recently updated of them: it takes over their readings and is widened to cover them
+CREATE TEMPORARY TABLE interval_block_merge AS
+SELECT uuid, merged_into FROM (
+  SELECT uuid, first_value(uuid) OVER (PARTITION BY meter_reading_uuid, start ORDER BY updated DESC NULLS LAST, uuid DESC) AS merged_into
+  FROM usage.interval_block WHERE start IS NOT NULL
+) blocks
+WHERE uuid <> merged_into;
+
+INSERT INTO usage.interval_block_dedup_backup SELECT block.*, merge.merged_into FROM usage.interval_block block JOIN interval_block_merge merge USING (uuid);
+
+UPDATE usage.interval_block keeper SET duration = merged.block_end - keeper.start
+FROM (
+  SELECT merge.merged_into, MAX(block.start + block.duration) AS block_end
+  FROM interval_block_merge merge JOIN usage.interval_block block USING (uuid)
+  GROUP BY merge.merged_into
+) merged
+WHERE keeper.uuid = merged.merged_into AND merged.block_end > keeper.start + COALESCE(keeper.duration, 0);
+
+UPDATE usage.interval_reading reading SET block_uuid = merge.merged_into FROM interval_block_merge merge WHERE reading.block_uuid = merge.uuid;
+DELETE FROM usage.interval_block block USING interval_block_merge merge WHERE block.uuid = merge.uuid;
+DROP TABLE interval_block_merge;
+
+-- a re-delivered reading replaces the earlier one, so only the newest of any duplicates is kept; deleting the others cascades to their qualities
+CREATE TEMPORARY TABLE interval_reading_replaced AS
+SELECT older.id, MAX(newer.id) AS replaced_by
+FROM usage.interval_reading older JOIN usage.interval_reading newer ON newer.block_uuid = older.block_uuid AND newer.start = older.start AND newer.id > older.id
+GROUP BY older.id;
+
+INSERT INTO usage.interval_reading_dedup_backup SELECT reading.*, replaced.replaced_by FROM usage.interval_reading reading JOIN interval_reading_replaced replaced USING (id);
+INSERT INTO usage.reading_quality_dedup_backup SELECT quality.* FROM usage.reading_quality quality JOIN interval_reading_replaced replaced ON quality.reading_id = replaced.id;
+DELETE FROM usage.interval_reading reading USING interval_reading_replaced replaced WHERE reading.id = replaced.id;
+DROP TABLE interval_reading_replaced;
+
+-- natural keys for idempotent ingest (INSERT ... ON CONFLICT); they also serve lookups of a block's readings and a meter reading's blocks by time
+CREATE UNIQUE INDEX IF NOT EXISTS interval_block_meter_reading_uuid_start_key ON usage.interval_block (meter_reading_uuid, start);
+CREATE UNIQUE INDEX IF NOT EXISTS interval_reading_block_uuid_start_key ON usage.interval_reading (block_uuid, start);
+CREATE INDEX IF NOT EXISTS reading_quality_reading_id_idx ON usage.reading_quality (reading_id);
@@ -0,0 +1,41 @@
+-- the V0.1.99 sample blocks have no interval; give them the span of their readings so blocks can be found by time
+UPDATE usage.interval_block b SET start = r.first_start, duration = r.last_end - r.first_start
+FROM (SELECT block_uuid, MIN(start) AS first_start, MAX(start + duration) AS last_end FROM usage.interval_reading GROUP BY block_uuid) r
+WHERE b.start IS NULL AND r.block_uuid = b.uuid;
+
+-- per-bucket aggregates of interval_reading, kept current by every interval data write; bucket_start is the UTC epoch second at which the bucket starts in
+-- the UsagePoint's local standard time, and value_last is the last non-null value in the bucket, which cumulative registers are totalled from
+CREATE TABLE IF NOT EXISTS usage.interval_rollup_hourly (
+  meter_reading_uuid UUID NOT NULL,
+  bucket_start BIGINT NOT NULL,
+  readings BIGINT NOT NULL,
+  value_sum BIGINT,
+  value_min BIGINT,
+  value_max BIGINT,
+  value_last BIGINT,
+  cost_sum BIGINT,
+  cost_min BIGINT,
+  cost_max BIGINT,
+  PRIMARY KEY (meter_reading_uuid, bucket_start)
+);
+
+CREATE TABLE IF NOT EXISTS usage.interval_rollup_daily (
+  meter_reading_uuid UUID NOT NULL,
+  bucket_start BIGINT NOT NULL,
+  readings BIGINT NOT NULL,
+  value_sum BIGINT,
+  value_min BIGINT,
+  value_max BIGINT,
+  value_last BIGINT,
+  cost_sum BIGINT,
+  cost_min BIGINT,
+  cost_max BIGINT,
+  PRIMARY KEY (meter_reading_uuid, bucket_start)
+);
+
+-- a meter reading's rollups are complete once rebuilt from its readings, and only for as long as its UsagePoint keeps the tz_offset they were aligned to
+CREATE TABLE IF NOT EXISTS usage.interval_rollup_state (
+  meter_reading_uuid UUID PRIMARY KEY,
+  tz_offset BIGINT NOT NULL,
+  rebuilt TIMESTAMP NOT NULL
+);
@@ -0,0 +1,199 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.greenbuttonalliance.gbaresourceserver;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.jdbc.JdbcConnectionDetails;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.*;
+
+/**
+ * Time to ready and first-request latency of the packaged application, started as its own JVM the way it is deployed:
+ * <ul>
+ *     <li>default: the executable jar <code>mvn package</code> builds</li>
+ *     <li>fast-start: that jar extracted by <code>mvn -Pfast-start package</code>, started with Spring AOT and the AppCDS archive of its
+ *     training run</li>
+ * </ul>
+ * Time to ready runs from launching the JVM to the readiness probe answering 200, so it includes the start-up warm-up; first-request latency is
+ * the first day rollup of a generated MeterReading after that. The modes take turns for {@value #DEFAULT_RUNS} runs each and their
+ * medians are compared.
+ * <p>
+ * Both artifacts have to be built first; <code>mvn -Pfast-start package</code> leaves both. Not picked up by a plain <code>mvn test</code>; run it
+ * with <code>mvn test -Dtest=StartupBenchmark</code>, optionally setting <code>-Dbenchmark.runs</code>.
+ */
+@Testcontainers
+@SpringBootTest
+public class StartupBenchmark {
+	private static final int DEFAULT_RUNS = 3;
+	private static final int RUNS = Integer.getInteger("benchmark.runs", DEFAULT_RUNS);
+	private static final Duration READY_TIMEOUT = Duration.ofMinutes(3);
+	private static final Path TARGET = Path.of("target");
+	private static final String JAR = "gba-resource-server-0.0.1-SNAPSHOT.jar";
+	private static final int DAYS = 30;
+	private static final long PERIOD_START = 1_700_000_000L;
+
+	@Container
+	@ServiceConnection
+	static PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>("postgres:latest");
+
+	// the context of the test itself has migrated the database the started applications use
+	@Autowired
+	private JdbcConnectionDetails connectionDetails;
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	private final HttpClient httpClient = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(1)).build();
+
+	@Test
+	public void timeToReadyByPackaging() throws Exception {
+		Path fastStart = TARGET.resolve("fast-start");
+		assumeTrue(Files.exists(TARGET.resolve(JAR)) && Files.exists(fastStart.resolve("application.jsa")),
+			"build both artifacts first with mvn -Pfast-start package");
+
+		UUID meterReading = generate();
+		String firstRequest = "/espi/1_1/resource/MeterReading/" + meterReading + "/IntervalRollup?interval=day";
+
+		Map<String, List<String>> modes = new LinkedHashMap<>();
+		modes.put("default", List.of("-jar", TARGET.resolve(JAR).toString()));
+		modes.put("fast-start", List.of("-XX:SharedArchiveFile=" + fastStart.resolve("application.jsa"), "-Dspring.aot.enabled=true", "-jar",
+			fastStart.resolve(JAR).toString()));
+
+		Map<String, List<Startup>> startups = new LinkedHashMap<>();
+		for (int run = 0; run < RUNS; run++) {
+			for (Map.Entry<String, List<String>> mode : modes.entrySet()) {
+				Startup startup = start(mode.getValue(), firstRequest);
+				System.out.printf("mode=%s run=%d ready=%dms first-request=%.1fms%n", mode.getKey(), run + 1, startup.readyMillis(),
+					startup.firstRequestMillis());
+				startups.computeIfAbsent(mode.getKey(), key -> new ArrayList<>()).add(startup);
+			}
+		}
+
+		Map<String, Startup> medians = new LinkedHashMap<>();
+		startups.forEach((mode, runs) -> {
+			Startup median = new Startup((long) median(runs.stream().mapToDouble(Startup::readyMillis).toArray()),
+				median(runs.stream().mapToDouble(Startup::firstRequestMillis).toArray()));
+			System.out.printf("mode=%s median ready=%dms first-request=%.1fms%n", mode, median.readyMillis(), median.firstRequestMillis());
+			medians.put(mode, median);
+		});
+		assertThat(medians.get("fast-start").readyMillis()).isLessThan(medians.get("default").readyMillis());
+	}
+
+	private Startup start(List<String> launch, String firstRequest) throws Exception {
+		int port = freePort();
+		List<String> command = new ArrayList<>(List.of(Path.of(System.getProperty("java.home"), "bin", "java").toString(), "--enable-preview"));
+		command.addAll(launch);
+		command.addAll(List.of("--server.port=" + port, "--spring.docker.compose.enabled=false", "--logging.level.root=WARN", "--gba.access.allow-anonymous=true",
+			"--gba.ingest.realtime.journal-dir=" + Files.createTempDirectory("gba-journal"),
+			"--spring.datasource.url=" + connectionDetails.getJdbcUrl(), "--spring.datasource.username=" + connectionDetails.getUsername(),
+			"--spring.datasource.password=" + Objects.toString(connectionDetails.getPassword(), "")));
+
+		long launched = System.nanoTime();
+		Process process = new ProcessBuilder(command).redirectErrorStream(true)
+			.redirectOutput(ProcessBuilder.Redirect.to(File.createTempFile("startup", ".log"))).start();
+		try {
+			long deadline = launched + READY_TIMEOUT.toNanos();
+			while (status(port, "/actuator/health/readiness") != 200) {
+				assertThat(process.isAlive()).as("application exited before it was ready").isTrue();
+				assertThat(System.nanoTime()).as("application ready within %s", READY_TIMEOUT).isLessThan(deadline);
+				Thread.sleep(20);
+			}
+			long ready = System.nanoTime();
+			assertThat(status(port, firstRequest)).isEqualTo(200);
+			return new Startup(TimeUnit.NANOSECONDS.toMillis(ready - launched), (System.nanoTime() - ready) / 1_000_000.0);
+		} finally {
+			process.destroy();
+			if (!process.waitFor(30, TimeUnit.SECONDS)) {
+				process.destroyForcibly();
+			}
+		}
+	}
+
+	// a MeterReading of a month of 15-minute readings, which the warm-up also picks up, as the migrated sample IntervalBlocks lack theirs
+	private UUID generate() {
+		UUID readingType = UUID.randomUUID();
+		UUID usagePoint = UUID.randomUUID();
+		UUID meterReading = UUID.randomUUID();
+		jdbcTemplate.update("INSERT INTO usage.reading_type (uuid, accumulation_behavior, flow_direction, uom, power_of_ten_multiplier, interval_length) " +
+			"VALUES (?, 'DELTA_DATA', 'FORWARD', 'W_H', 'NONE', 900)", readingType);
+		jdbcTemplate.update("INSERT INTO usage.usage_point (uuid, self_link_href) VALUES (?, ?)", usagePoint,
+			"https://localhost/espi/1_1/resource/UsagePoint/" + usagePoint);
+		jdbcTemplate.update("INSERT INTO usage.meter_reading (uuid, usage_point_uuid, reading_type_uuid) VALUES (?, ?, ?)", meterReading, usagePoint,
+			readingType);
+		jdbcTemplate.update("""
+			INSERT INTO usage.interval_block (uuid, meter_reading_uuid, start, duration, published, updated)
+			SELECT md5(? || '/' || d)::uuid, ?, ? + d * 86400, 86400, now(), now() FROM generate_series(0, ?) AS d""",
+			meterReading.toString(), meterReading, PERIOD_START, DAYS - 1);
+		jdbcTemplate.update("""
+			INSERT INTO usage.interval_reading (block_uuid, start, duration, value)
+			SELECT md5(? || '/' || d)::uuid, ? + d * 86400 + q * 900, 900, 100 + (d * 13 + q * 31) % 500
+			FROM generate_series(0, ?) AS d, generate_series(0, 95) AS q""", meterReading.toString(), PERIOD_START, DAYS - 1);
+		return meterReading;
+	}
+
+	private int status(int port, String path) throws InterruptedException {
+		try {
+			return httpClient.send(HttpRequest.newBuilder(URI.create("http://localhost:" + port + path)).build(), HttpResponse.BodyHandlers.discarding())
+				.statusCode();
+		} catch (IOException e) {
+			// not listening yet
+			return -1;
+		}
+	}
+
+	private static int freePort() throws IOException {
+		try (ServerSocket socket = new ServerSocket(0)) {
+			return socket.getLocalPort();
+		}
+	}
+
+	private static double median(double[] values) {
+		double[] sorted = values.clone();
+		Arrays.sort(sorted);
+		return sorted[sorted.length / 2];
+	}
+
+	private record Startup(long readyMillis, double firstRequestMillis) {
+	}
+}
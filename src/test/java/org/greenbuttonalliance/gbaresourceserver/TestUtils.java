@@ -153,7 +153,7 @@ public class TestUtils {
 									.updated(LocalDateTime.parse("2012-03-03 05:00:00", SQL_FORMATTER))
 									.interval(new DateTimeInterval()
 										.setDuration(10L)
-										.setStart(11L))
+										.setStart(21L))
 									.build())
 							.collect(Collectors.toSet()))
 						.build()
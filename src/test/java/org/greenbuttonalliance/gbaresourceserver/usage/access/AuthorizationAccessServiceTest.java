@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.greenbuttonalliance.gbaresourceserver.usage.access;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.RequiredArgsConstructor;
+import org.greenbuttonalliance.gbaresourceserver.usage.bulkhead.DatabaseBulkheads;
+import org.greenbuttonalliance.gbaresourceserver.usage.model.Authorization;
+import org.greenbuttonalliance.gbaresourceserver.usage.model.Subscription;
+import org.greenbuttonalliance.gbaresourceserver.usage.model.UsagePoint;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.*;
+
+@Testcontainers
+@DataJpaTest(showSql = false)
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Import({AuthorizationAccessService.class, DatabaseBulkheads.class, SimpleMeterRegistry.class})
+@RequiredArgsConstructor(onConstructor = @__(@Autowired))
+public class AuthorizationAccessServiceTest {
+	private final AuthorizationAccessService authorizationAccessService;
+	private final SimpleMeterRegistry meterRegistry;
+	private final JdbcTemplate jdbcTemplate;
+	private final ObjectProvider<AuthorizationAccessService> authorizationAccessServiceProvider;
+
+	@Container
+	@ServiceConnection
+	static PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>("postgres:latest");
+
+	@Test
+	public void accessFor_findsTheUsagePointsOfTheAuthorizationsSubscriptions() {
+		UUID ownSubscription = subscription(null);
+		UUID authorization = authorization(ownSubscription);
+		UUID linkedSubscription = subscription(authorization);
+		// linked by the Subscription's UsagePoint and by the UsagePoints' Subscription
+		UUID first = usagePoint(null);
+		UUID second = usagePoint(ownSubscription);
+		UUID third = usagePoint(linkedSubscription);
+		jdbcTemplate.update("UPDATE usage.subscription SET usage_point_uuid = ? WHERE uuid = ?", first, ownSubscription);
+		UUID other = usagePoint(subscription(null));
+
+		UsagePointAccess access = authorizationAccessService.accessFor(authorization);
+
+		assertThat(access.size()).isEqualTo(3);
+		assertThat(access.permits(first)).isTrue();
+		assertThat(access.permits(second)).isTrue();
+		assertThat(access.permits(third)).isTrue();
+		assertThat(access.permits(other)).isFalse();
+		assertThat(authorizationAccessService.accessFor(UUID.randomUUID())).isEqualTo(UsagePointAccess.NONE);
+	}
+
+	@Test
+	public void accessFor_answersFromTheCacheAndAppliesGrantsToIt() {
+		UUID authorization = authorization(null);
+		UUID subscription = subscription(authorization);
+		UUID first = usagePoint(subscription);
+		double misses = lookups("miss");
+		double hits = lookups("hit");
+		authorizationAccessService.accessFor(authorization);
+
+		UUID second = usagePoint(subscription);
+		assertThat(authorizationAccessService.accessFor(authorization).permits(second)).isFalse();
+		authorizationAccessService.granted(authorization, second);
+		assertThat(authorizationAccessService.accessFor(authorization).permits(second)).isTrue();
+		authorizationAccessService.revoked(authorization, first);
+		assertThat(authorizationAccessService.accessFor(authorization).permits(first)).isFalse();
+
+		assertThat(lookups("miss") - misses).isEqualTo(1);
+		assertThat(lookups("hit") - hits).isEqualTo(3);
+	}
+
+	@Test
+	public void changedSubscription_dropsItsAuthorizationsEntry() {
+		UUID authorization = authorization(null);
+		UUID subscription = subscription(authorization);
+		authorizationAccessService.accessFor(authorization);
+		double misses = lookups("miss");
+
+		UUID usagePoint = usagePoint(subscription);
+		new AccessChangeListener(authorizationAccessServiceProvider).changed(Subscription.builder().uuid(subscription)
+			.authorization(Authorization.builder().uuid(authorization).build()).build());
+
+		assertThat(authorizationAccessService.accessFor(authorization).permits(usagePoint)).isTrue();
+		assertThat(lookups("miss") - misses).isEqualTo(1);
+	}
+
+	@Test
+	public void changedUsagePoint_dropsTheEntriesThatGrantIt() {
+		UUID authorization = authorization(null);
+		UUID subscription = subscription(authorization);
+		UUID usagePoint = usagePoint(subscription);
+		assertThat(authorizationAccessService.accessFor(authorization).permits(usagePoint)).isTrue();
+		AccessChangeListener listener = new AccessChangeListener(authorizationAccessServiceProvider);
+
+		jdbcTemplate.update("UPDATE usage.usage_point SET subscription_uuid = NULL WHERE uuid = ?", usagePoint);
+		listener.changed(UsagePoint.builder().uuid(usagePoint).build());
+		assertThat(authorizationAccessService.accessFor(authorization).permits(usagePoint)).isFalse();
+
+		jdbcTemplate.update("UPDATE usage.usage_point SET subscription_uuid = ? WHERE uuid = ?", subscription, usagePoint);
+		listener.changed(UsagePoint.builder().uuid(usagePoint).subscriptionUuid(subscription).build());
+		assertThat(authorizationAccessService.accessFor(authorization).permits(usagePoint)).isTrue();
+	}
+
+	@Test
+	public void persistedAuthorization_dropsItsEntry() {
+		UUID subscription = subscription(null);
+		UUID usagePoint = usagePoint(subscription);
+		UUID authorization = UUID.randomUUID();
+		assertThat(authorizationAccessService.accessFor(authorization)).isEqualTo(UsagePointAccess.NONE);
+
+		jdbcTemplate.update("INSERT INTO usage.authorization (uuid, subscription_id) VALUES (?, ?)", authorization, subscription);
+		new AccessChangeListener(authorizationAccessServiceProvider).persisted(Authorization.builder().uuid(authorization)
+			.subscription(Subscription.builder().uuid(subscription).build()).build());
+
+		assertThat(authorizationAccessService.accessFor(authorization).permits(usagePoint)).isTrue();
+	}
+
+	private double lookups(String result) {
+		return meterRegistry.get("gba.access.lookups").tag("result", result).counter().count();
+	}
+
+	private UUID subscription(UUID authorization) {
+		UUID subscription = UUID.randomUUID();
+		jdbcTemplate.update("INSERT INTO usage.subscription (uuid, authorization_id) VALUES (?, ?)", subscription, authorization);
+		return subscription;
+	}
+
+	private UUID authorization(UUID subscription) {
+		UUID authorization = UUID.randomUUID();
+		jdbcTemplate.update("INSERT INTO usage.authorization (uuid, subscription_id) VALUES (?, ?)", authorization, subscription);
+		return authorization;
+	}
+
+	private UUID usagePoint(UUID subscription) {
+		UUID usagePoint = UUID.randomUUID();
+		jdbcTemplate.update("INSERT INTO usage.usage_point (uuid, subscription_uuid) VALUES (?, ?)", usagePoint, subscription);
+		return usagePoint;
+	}
+}
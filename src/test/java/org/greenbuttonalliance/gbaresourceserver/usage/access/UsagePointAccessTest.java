@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.greenbuttonalliance.gbaresourceserver.usage.access;
+
+import org.greenbuttonalliance.gbaresourceserver.usage.controller.exception.EntityNotFoundByIdException;
+import org.greenbuttonalliance.gbaresourceserver.usage.model.MeterReading;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class UsagePointAccessTest {
+	private final List<UUID> granted = IntStream.range(0, 1000).mapToObj(i -> UUID.randomUUID()).toList();
+
+	@Test
+	public void permits_findsExactlyTheGrantedUsagePoints() {
+		UsagePointAccess access = UsagePointAccess.of(granted);
+
+		assertThat(access.size()).isEqualTo(1000);
+		assertThat(granted).allMatch(access::permits);
+		assertThat(access.permits(UUID.randomUUID())).isFalse();
+		assertThat(access.permits(null)).isFalse();
+		// ids sharing their most significant half are told apart by the other
+		UUID first = granted.getFirst();
+		assertThat(access.permits(new UUID(first.getMostSignificantBits(), first.getLeastSignificantBits() + 1))).isFalse();
+	}
+
+	@Test
+	public void withAndWithout_makeNewInstancesInOrder() {
+		UsagePointAccess access = UsagePointAccess.of(granted.subList(0, 500));
+		List<UUID> added = new ArrayList<>(granted.subList(500, 1000));
+
+		UsagePointAccess grown = access;
+		for (UUID usagePoint : added) {
+			grown = grown.with(usagePoint);
+		}
+		assertThat(grown).isEqualTo(UsagePointAccess.of(granted));
+		assertThat(grown.with(added.getFirst())).isSameAs(grown);
+		assertThat(access.size()).isEqualTo(500);
+
+		UsagePointAccess shrunk = grown;
+		for (UUID usagePoint : added) {
+			shrunk = shrunk.without(usagePoint);
+		}
+		assertThat(shrunk).isEqualTo(access);
+		assertThat(shrunk.permits(added.getLast())).isFalse();
+	}
+
+	@Test
+	public void usagePointUuids_areThoseGranted() {
+		assertThat(UsagePointAccess.of(granted).usagePointUuids()).containsExactlyInAnyOrderElementsOf(granted);
+		assertThat(UsagePointAccess.UNRESTRICTED.usagePointUuids()).isNull();
+	}
+
+	@Test
+	public void require_hidesResourcesOutsideTheGrant() {
+		UUID meterReading = UUID.randomUUID();
+
+		assertThatNoException().isThrownBy(() -> UsagePointAccess.UNRESTRICTED.require(null, MeterReading.class, meterReading));
+		assertThatNoException().isThrownBy(() -> UsagePointAccess.of(granted).require(granted.get(7), MeterReading.class, meterReading));
+		assertThatExceptionOfType(EntityNotFoundByIdException.class)
+			.isThrownBy(() -> UsagePointAccess.NONE.require(granted.get(7), MeterReading.class, meterReading))
+			.satisfies(e -> assertThat(e.getInternalErrorMessage()).isEqualTo("Cannot find MeterReading with ID " + meterReading));
+	}
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.greenbuttonalliance.gbaresourceserver.usage.admission;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import org.greenbuttonalliance.gbaresourceserver.usage.controller.exception.TooManyRequestsException;
+import org.greenbuttonalliance.gbaresourceserver.usage.model.enums.ThirdPartyApplicationType;
+import org.greenbuttonalliance.gbaresourceserver.usage.model.enums.ThirdPartyApplicationUse;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.servlet.HandlerExceptionResolver;
+import org.springframework.web.servlet.ModelAndView;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class AdmissionControlFilterTest {
+	private static final Map<String, ClientApplication> TOKENS = Map.of(
+		"crawler", new ClientApplication("crawler-client", ThirdPartyApplicationType.WEB, ThirdPartyApplicationUse.COMPARISONS),
+		"thermostat", new ClientApplication("thermostat-client", ThirdPartyApplicationType.DEVICE, ThirdPartyApplicationUse.ENERGY_MANAGEMENT)
+	);
+	// renders rejections the way DefaultExceptionHandler does
+	private static final HandlerExceptionResolver RESOLVER = (request, response, handler, e) -> {
+		if (e instanceof TooManyRequestsException tooManyRequests) {
+			response.setStatus(429);
+			response.setHeader(HttpHeaders.RETRY_AFTER, Long.toString(tooManyRequests.getRetryAfterSeconds()));
+		} else {
+			response.setStatus(401);
+			response.setHeader(HttpHeaders.WWW_AUTHENTICATE, "Bearer");
+		}
+		return new ModelAndView();
+	};
+
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+	private final AtomicLong now = new AtomicLong();
+	private final MockEnvironment environment = new MockEnvironment()
+		.withProperty("gba.admission.rate-per-second", "1")
+		.withProperty("gba.admission.burst", "2")
+		.withProperty("gba.admission.max-concurrent", "1")
+		.withProperty("gba.admission.type.device.burst", "5")
+		.withProperty("gba.admission.use.energy-management.max-concurrent", "3");
+	private AdmissionControlFilter filter = filter(false);
+	private final AtomicInteger runs = new AtomicInteger();
+
+	@Test
+	public void doFilter_rejectsAnApplicationOverItsRateWithRetryAfter() throws Exception {
+		assertThat(get("Bearer crawler").getStatus()).isEqualTo(200);
+		assertThat(get("Bearer crawler").getStatus()).isEqualTo(200);
+
+		MockHttpServletResponse rejected = get("Bearer crawler");
+
+		assertThat(rejected.getStatus()).isEqualTo(429);
+		assertThat(rejected.getHeader(HttpHeaders.RETRY_AFTER)).isEqualTo("1");
+		assertThat(runs.get()).isEqualTo(2);
+		assertThat(meterRegistry.get("gba.admission.requests").tags("client_id", "crawler-client", "result", "admitted").counter().count()).isEqualTo(2);
+		assertThat(meterRegistry.get("gba.admission.requests").tags("client_id", "crawler-client", "result", "rate_limited").counter().count()).isEqualTo(1);
+
+		now.addAndGet(TimeUnit.SECONDS.toNanos(1));
+
+		assertThat(get("Bearer crawler").getStatus()).isEqualTo(200);
+	}
+
+	@Test
+	public void doFilter_limitsEachApplicationOnItsOwn() throws Exception {
+		for (int i = 0; i < 3; i++) {
+			get("Bearer crawler");
+		}
+
+		assertThat(get("Bearer thermostat").getStatus()).isEqualTo(200);
+	}
+
+	@Test
+	public void doFilter_rejectsAnApplicationOverItsConcurrentRequests() throws Exception {
+		MockHttpServletResponse[] nested = new MockHttpServletResponse[1];
+		FilterChain chain = (request, response) -> nested[0] = get("Bearer crawler");
+
+		filter.doFilter(request("Bearer crawler"), new MockHttpServletResponse(), chain);
+
+		assertThat(nested[0].getStatus()).isEqualTo(429);
+		assertThat(meterRegistry.get("gba.admission.requests").tags("client_id", "crawler-client", "result", "concurrency_limited").counter().count())
+			.isEqualTo(1);
+		assertThat(meterRegistry.get("gba.admission.in-flight").tag("client_id", "crawler-client").gauge().value()).isZero();
+	}
+
+	@Test
+	public void doFilter_turnsAwayRequestsWithoutAKnownToken() throws Exception {
+		MockHttpServletResponse anonymous = get(null);
+
+		assertThat(anonymous.getStatus()).isEqualTo(401);
+		assertThat(anonymous.getHeader(HttpHeaders.WWW_AUTHENTICATE)).isEqualTo("Bearer");
+		assertThat(get("Bearer unknown").getStatus()).isEqualTo(401);
+		assertThat(runs.get()).isZero();
+	}
+
+	@Test
+	public void doFilter_leavesRequestsWithoutATokenToTheEndpointWhenAnonymousAccessIsAllowed() throws Exception {
+		filter = filter(true);
+
+		for (int i = 0; i < 5; i++) {
+			assertThat(get(null).getStatus()).isEqualTo(200);
+		}
+		assertThat(get("Bearer unknown").getStatus()).isEqualTo(401);
+		assertThat(runs.get()).isEqualTo(5);
+	}
+
+	@Test
+	public void limitsFor_prefersTheUseThenTheTypeThenTheDefault() {
+		AdmissionLimits limits = new AdmissionPolicy(environment).limitsFor(ThirdPartyApplicationType.DEVICE, ThirdPartyApplicationUse.ENERGY_MANAGEMENT);
+
+		assertThat(limits).isEqualTo(new AdmissionLimits(1, 5, 3));
+	}
+
+	private AdmissionControlFilter filter(boolean allowAnonymous) {
+		return new AdmissionControlFilter(token -> Optional.ofNullable(TOKENS.get(token)), new AdmissionPolicy(environment), RESOLVER, meterRegistry,
+			now::get, true, allowAnonymous);
+	}
+
+	private MockHttpServletResponse get(String authorization) throws ServletException, IOException {
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		filter.doFilter(request(authorization), response, (req, res) -> runs.incrementAndGet());
+		return response;
+	}
+
+	private static MockHttpServletRequest request(String authorization) {
+		MockHttpServletRequest request = new MockHttpServletRequest("GET", "/espi/1_1/resource/UsagePoint");
+		if (authorization != null) {
+			request.addHeader(HttpHeaders.AUTHORIZATION, authorization);
+		}
+		return request;
+	}
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.greenbuttonalliance.gbaresourceserver.usage.admission;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class TokenBucketTest {
+	private final AtomicLong now = new AtomicLong(TimeUnit.SECONDS.toNanos(100));
+	private final TokenBucket bucket = new TokenBucket(2, 3, now::get);
+
+	@Test
+	public void tryTake_allowsABurstThenAsksToWaitForTheNextToken() {
+		assertThat(bucket.tryTake()).isZero();
+		assertThat(bucket.tryTake()).isZero();
+		assertThat(bucket.tryTake()).isZero();
+
+		assertThat(bucket.tryTake()).isEqualTo(TimeUnit.MILLISECONDS.toNanos(500));
+	}
+
+	@Test
+	public void tryTake_refillsAtTheRate() {
+		for (int i = 0; i < 3; i++) {
+			bucket.tryTake();
+		}
+
+		now.addAndGet(TimeUnit.MILLISECONDS.toNanos(500));
+
+		assertThat(bucket.tryTake()).isZero();
+		assertThat(bucket.tryTake()).isPositive();
+	}
+
+	@Test
+	public void tryTake_neverHoldsMoreThanTheBurst() {
+		now.addAndGet(TimeUnit.HOURS.toNanos(1));
+
+		assertThat(bucket.tryTake()).isZero();
+		assertThat(bucket.tryTake()).isZero();
+		assertThat(bucket.tryTake()).isZero();
+		assertThat(bucket.tryTake()).isPositive();
+	}
+
+	@Test
+	public void tryTake_handsOutEachTokenOnceUnderContention() throws InterruptedException {
+		TokenBucket slow = new TokenBucket(0.001, 100, now::get);
+		AtomicLong taken = new AtomicLong();
+		Thread[] threads = new Thread[8];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = Thread.ofPlatform().start(() -> {
+				for (int j = 0; j < 1000; j++) {
+					if (slow.tryTake() == 0) {
+						taken.incrementAndGet();
+					}
+				}
+			});
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		assertThat(taken.get()).isEqualTo(100);
+	}
+}
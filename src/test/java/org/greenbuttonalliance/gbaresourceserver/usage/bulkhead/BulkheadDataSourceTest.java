@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.greenbuttonalliance.gbaresourceserver.usage.bulkhead;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.RequiredArgsConstructor;
+import org.greenbuttonalliance.gbaresourceserver.usage.controller.exception.BulkheadFullException;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import javax.sql.DataSource;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.*;
+
+@Testcontainers
+@DataJpaTest(showSql = false, properties = {"gba.workload.interactive.limit=1", "gba.bulkhead.acquire-timeout=0"})
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Import({DatabaseBulkheads.class, BulkheadDataSourcePostProcessor.class, SimpleMeterRegistry.class})
+@RequiredArgsConstructor(onConstructor = @__(@Autowired))
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+public class BulkheadDataSourceTest {
+	private final DataSource dataSource;
+	private final JdbcTemplate jdbcTemplate;
+	private final PlatformTransactionManager transactionManager;
+	private final MeterRegistry meterRegistry;
+
+	@Container
+	@ServiceConnection
+	static PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>("postgres:latest");
+
+	@Test
+	public void getConnection_holdsAPermitFromBeginToCommitOfATransaction() {
+		assertThat(dataSource).isInstanceOf(BulkheadDataSource.class);
+
+		new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+			jdbcTemplate.queryForObject("SELECT 1", Integer.class);
+			// between its statements the transaction still holds its connection, and with it the only interactive permit
+			assertThat(activeInteractivePermits()).isEqualTo(1);
+			assertThatThrownBy(() -> queryOnAnotherThread().get()).hasRootCauseInstanceOf(BulkheadFullException.class);
+			assertThat(jdbcTemplate.queryForObject("SELECT 2", Integer.class)).isEqualTo(2);
+		});
+
+		assertThat(activeInteractivePermits()).isZero();
+	}
+
+	@Test
+	public void getConnection_returnsThePermitWhenTheConnectionIsClosed() throws Exception {
+		assertThat(queryOnAnotherThread().get()).isEqualTo(3);
+		assertThat(activeInteractivePermits()).isZero();
+		assertThat(jdbcTemplate.queryForObject("SELECT 3", Integer.class)).isEqualTo(3);
+	}
+
+	private Future<Integer> queryOnAnotherThread() {
+		try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+			return executor.submit(() -> jdbcTemplate.queryForObject("SELECT 3", Integer.class));
+		}
+	}
+
+	private double activeInteractivePermits() {
+		return meterRegistry.get("gba.bulkhead.active").tag("bulkhead", "interactive").gauge().value();
+	}
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.greenbuttonalliance.gbaresourceserver.usage.bulkhead;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import javax.sql.DataSource;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.*;
+
+/**
+ * Throughput of simulated feed requests that hold a connection for a short query and then spend longer writing to a slow client, on a pool of
+ * {@value #POOL_SIZE} connections:
+ * <ul>
+ *     <li>platform: a fixed pool of {@value #PLATFORM_THREADS} request threads, as Tomcat has by default</li>
+ *     <li>virtual: a virtual thread per request with nothing in front of the pool, so every request waits inside it and many time out</li>
+ *     <li>bulkhead: a virtual thread per request with a {@link Bulkhead} sized to the pool, so requests queue at the bulkhead and none waits in the pool</li>
+ * </ul>
+ * Not picked up by a plain <code>mvn test</code>; run it with <code>mvn test -Dtest=BulkheadLoadBenchmark</code>, optionally setting
+ * <code>-Dbenchmark.requests</code>, <code>-Dbenchmark.queryMillis</code> and <code>-Dbenchmark.renderMillis</code>.
+ */
+@Testcontainers
+@SpringBootTest
+public class BulkheadLoadBenchmark {
+	private static final int REQUESTS = Integer.getInteger("benchmark.requests", 5000);
+	private static final int QUERY_MILLIS = Integer.getInteger("benchmark.queryMillis", 5);
+	private static final int RENDER_MILLIS = Integer.getInteger("benchmark.renderMillis", 200);
+	private static final int POOL_SIZE = 8;
+	private static final int PLATFORM_THREADS = 200;
+	private static final long CONNECTION_TIMEOUT_MILLIS = 1000;
+
+	@Container
+	@ServiceConnection
+	static PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>("postgres:latest");
+
+	@Autowired
+	private DataSource dataSource;
+
+	@Test
+	public void throughputByExecutionMode() throws InterruptedException, SQLException {
+		try (HikariDataSource pool = pool()) {
+			JdbcTemplate jdbcTemplate = new JdbcTemplate(pool);
+			// one untimed round so JIT and the pool are warm for the first measured one
+			run("warm-up", pool, jdbcTemplate, () -> Executors.newFixedThreadPool(PLATFORM_THREADS), null, REQUESTS / 10);
+
+			Result platform = run("platform", pool, jdbcTemplate, () -> Executors.newFixedThreadPool(PLATFORM_THREADS), null, REQUESTS);
+			Result virtual = run("virtual", pool, jdbcTemplate, Executors::newVirtualThreadPerTaskExecutor, null, REQUESTS);
+			SimpleMeterRegistry meters = new SimpleMeterRegistry();
+			Bulkhead bulkhead = new Bulkhead("interactive", POOL_SIZE, Duration.ofSeconds(30), meters);
+			Result bulkheaded = run("bulkhead", pool, jdbcTemplate, Executors::newVirtualThreadPerTaskExecutor, bulkhead, REQUESTS);
+
+			Timer queue = meters.get("gba.bulkhead.queue").timer();
+			ValueAtPercentile[] percentiles = queue.takeSnapshot().percentileValues();
+			System.out.printf("bulkhead queue p50=%.1fms p99=%.1fms max=%.1fms%n", percentiles[0].value(TimeUnit.MILLISECONDS),
+				percentiles[1].value(TimeUnit.MILLISECONDS), queue.max(TimeUnit.MILLISECONDS));
+
+			assertThat(bulkheaded.failed()).isZero();
+			assertThat(bulkheaded.maxPending()).isLessThan(POOL_SIZE);
+			assertThat(bulkheaded.perSecond()).isGreaterThan(platform.perSecond());
+			assertThat(virtual.failed()).isPositive();
+		}
+	}
+
+	private Result run(String mode, HikariDataSource pool, JdbcTemplate jdbcTemplate, Supplier<ExecutorService> executors, Bulkhead bulkhead, int requests)
+		throws InterruptedException {
+		AtomicInteger failed = new AtomicInteger();
+		AtomicInteger maxPending = new AtomicInteger();
+		AtomicBoolean running = new AtomicBoolean(true);
+		Thread sampler = Thread.ofVirtual().start(() -> {
+			while (running.get()) {
+				maxPending.accumulateAndGet(pool.getHikariPoolMXBean().getThreadsAwaitingConnection(), Math::max);
+				sleep(1);
+			}
+		});
+
+		long started = System.nanoTime();
+		try (ExecutorService executor = executors.get()) {
+			for (int i = 0; i < requests; i++) {
+				executor.submit(() -> {
+					try {
+						if (bulkhead == null) {
+							query(jdbcTemplate);
+						} else {
+							bulkhead.run(() -> query(jdbcTemplate));
+						}
+						// the response is written after the connection is back in the pool
+						sleep(RENDER_MILLIS);
+					} catch (RuntimeException e) {
+						failed.incrementAndGet();
+					}
+				});
+			}
+		}
+		double seconds = (System.nanoTime() - started) / 1e9;
+		running.set(false);
+		sampler.join();
+
+		Result result = new Result((requests - failed.get()) / seconds, failed.get(), maxPending.get());
+		System.out.printf("mode=%s requests=%d time=%.2fs requests/s=%.0f failed=%d maxPoolWaiters=%d%n", mode, requests, seconds, result.perSecond(),
+			result.failed(), result.maxPending());
+		return result;
+	}
+
+	private static void query(JdbcTemplate jdbcTemplate) {
+		jdbcTemplate.queryForObject("SELECT pg_sleep(?)", Object.class, QUERY_MILLIS / 1000.0);
+	}
+
+	private HikariDataSource pool() throws SQLException {
+		HikariDataSource configured = dataSource.unwrap(HikariDataSource.class);
+		HikariConfig config = new HikariConfig();
+		config.setJdbcUrl(configured.getJdbcUrl());
+		config.setUsername(configured.getUsername());
+		config.setPassword(configured.getPassword());
+		config.setMaximumPoolSize(POOL_SIZE);
+		config.setMinimumIdle(POOL_SIZE);
+		config.setConnectionTimeout(CONNECTION_TIMEOUT_MILLIS);
+		// started here rather than on first use, so the pool can be watched from the start
+		return new HikariDataSource(config);
+	}
+
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private record Result(double perSecond, int failed, int maxPending) {
+	}
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.greenbuttonalliance.gbaresourceserver.usage.bulkhead;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.greenbuttonalliance.gbaresourceserver.usage.controller.exception.BulkheadFullException;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class BulkheadTest {
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+	@Test
+	public void call_neverRunsMoreThanItsPermitsAtOnce() throws InterruptedException {
+		Bulkhead bulkhead = new Bulkhead("test", 3, Duration.ofSeconds(10), meterRegistry);
+		AtomicInteger running = new AtomicInteger();
+		AtomicInteger mostRunning = new AtomicInteger();
+
+		try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+			for (int i = 0; i < 50; i++) {
+				executor.submit(() -> bulkhead.run(() -> {
+					mostRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+					sleep(5);
+					running.decrementAndGet();
+				}));
+			}
+		}
+
+		assertThat(mostRunning.get()).isEqualTo(3);
+		assertThat(meterRegistry.get("gba.bulkhead.queue").tag("bulkhead", "test").timer().count()).isEqualTo(50);
+		assertThat(meterRegistry.get("gba.bulkhead.active").gauge().value()).isZero();
+	}
+
+	@Test
+	public void call_servesWaitingCallersInArrivalOrder() throws InterruptedException {
+		Bulkhead bulkhead = new Bulkhead("test", 1, Duration.ofSeconds(10), meterRegistry);
+		List<Integer> served = new CopyOnWriteArrayList<>();
+		CountDownLatch holding = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+
+		try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+			executor.submit(() -> bulkhead.run(() -> {
+				holding.countDown();
+				await(release);
+			}));
+			holding.await();
+			for (int i = 0; i < 5; i++) {
+				int caller = i;
+				executor.submit(() -> bulkhead.run(() -> served.add(caller)));
+				// each caller is queued before the next one arrives
+				while (meterRegistry.get("gba.bulkhead.waiting").gauge().value() < i + 1) {
+					Thread.onSpinWait();
+				}
+			}
+			release.countDown();
+		}
+
+		assertThat(served).containsExactly(0, 1, 2, 3, 4);
+	}
+
+	@Test
+	public void call_runsNestedWorkWithThePermitAlreadyHeld() {
+		Bulkhead interactive = new Bulkhead("interactive", 1, Duration.ofMillis(50), meterRegistry);
+		Bulkhead bulk = new Bulkhead("bulk", 1, Duration.ofMillis(50), meterRegistry);
+
+		String result = bulk.call(() -> interactive.call(() -> bulk.call(() -> "nested")));
+
+		assertThat(result).isEqualTo("nested");
+		assertThat(meterRegistry.get("gba.bulkhead.queue").tag("bulkhead", "interactive").timer().count()).isZero();
+	}
+
+	@Test
+	public void enter_returnsThePermitWhenClosedOnAnotherThread() throws Exception {
+		Bulkhead bulkhead = new Bulkhead("test", 1, Duration.ofMillis(50), meterRegistry);
+		Bulkhead.Permit permit = bulkhead.enter();
+
+		try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+			executor.submit(permit::close).get();
+		}
+		permit.close();
+
+		assertThat(meterRegistry.get("gba.bulkhead.active").gauge().value()).isZero();
+		// the thread that took it no longer counts as holding one, so it queues for its next permit again
+		try (Bulkhead.Permit next = bulkhead.enter()) {
+			assertThat(meterRegistry.get("gba.bulkhead.active").gauge().value()).isEqualTo(1);
+		}
+		assertThat(meterRegistry.get("gba.bulkhead.queue").timer().count()).isEqualTo(2);
+	}
+
+	@Test
+	public void call_rejectsCallersThatWaitLongerThanTheAcquireTimeout() throws InterruptedException {
+		Bulkhead bulkhead = new Bulkhead("test", 1, Duration.ofMillis(50), meterRegistry);
+		CountDownLatch holding = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+
+		try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+			executor.submit(() -> bulkhead.run(() -> {
+				holding.countDown();
+				await(release);
+			}));
+			holding.await();
+
+			assertThatThrownBy(() -> bulkhead.run(() -> fail("ran without a permit")))
+				.isInstanceOf(BulkheadFullException.class)
+				.extracting("retryAfterSeconds").isEqualTo(1L);
+			release.countDown();
+		}
+
+		assertThat(meterRegistry.get("gba.bulkhead.rejected").counter().count()).isEqualTo(1);
+		assertThat(meterRegistry.get("gba.bulkhead.queue").timer().max(TimeUnit.MILLISECONDS)).isGreaterThanOrEqualTo(50);
+		assertThat(bulkhead.call(() -> "after release")).isEqualTo("after release");
+	}
+
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static void await(CountDownLatch latch) {
+		try {
+			latch.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.greenbuttonalliance.gbaresourceserver.usage.bulkhead;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.greenbuttonalliance.gbaresourceserver.usage.controller.exception.BulkheadFullException;
+import org.greenbuttonalliance.gbaresourceserver.usage.workload.WorkloadClass;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class WeightedFairSchedulerTest {
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+	@Test
+	public void constructor_rejectsPartitionsReservingMoreThanTheCapacity() {
+		Map<WorkloadClass, PoolPartition> partitions = new EnumMap<>(WorkloadClass.class);
+		partitions.put(WorkloadClass.INTERACTIVE, new PoolPartition(1, 3, 4));
+		partitions.put(WorkloadClass.BULK, new PoolPartition(1, 2, 4));
+
+		assertThatThrownBy(() -> new WeightedFairScheduler(4, partitions))
+			.isInstanceOf(IllegalArgumentException.class);
+	}
+
+	@Test
+	public void bulkhead_neverRunsMoreThanTheLimitOrTheCapacity() throws InterruptedException {
+		WeightedFairScheduler scheduler = scheduler(4,
+			WorkloadClass.INTERACTIVE, new PoolPartition(4, 0, 4),
+			WorkloadClass.BULK, new PoolPartition(1, 0, 1));
+		Bulkhead interactive = bulkhead(scheduler, WorkloadClass.INTERACTIVE);
+		Bulkhead bulk = bulkhead(scheduler, WorkloadClass.BULK);
+		AtomicInteger running = new AtomicInteger();
+		AtomicInteger mostRunning = new AtomicInteger();
+		AtomicInteger runningBulk = new AtomicInteger();
+		AtomicInteger mostRunningBulk = new AtomicInteger();
+
+		try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+			for (int i = 0; i < 40; i++) {
+				executor.submit(() -> interactive.run(() -> {
+					mostRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+					sleep(2);
+					running.decrementAndGet();
+				}));
+				executor.submit(() -> bulk.run(() -> {
+					mostRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+					mostRunningBulk.accumulateAndGet(runningBulk.incrementAndGet(), Math::max);
+					sleep(2);
+					runningBulk.decrementAndGet();
+					running.decrementAndGet();
+				}));
+			}
+		}
+
+		assertThat(mostRunning.get()).isEqualTo(4);
+		assertThat(mostRunningBulk.get()).isEqualTo(1);
+		assertThat(meterRegistry.get("gba.bulkhead.active").tag("bulkhead", "interactive").gauge().value()).isZero();
+		assertThat(meterRegistry.get("gba.bulkhead.active").tag("bulkhead", "bulk").gauge().value()).isZero();
+	}
+
+	@Test
+	public void bulkhead_keepsReservedPermitsForTheirWorkload() throws InterruptedException {
+		WeightedFairScheduler scheduler = scheduler(4,
+			WorkloadClass.INTERACTIVE, new PoolPartition(1, 2, 4),
+			WorkloadClass.BULK, new PoolPartition(1, 0, 4));
+		Bulkhead interactive = bulkhead(scheduler, WorkloadClass.INTERACTIVE);
+		Bulkhead bulk = bulkhead(scheduler, WorkloadClass.BULK, Duration.ofMillis(50));
+		CountDownLatch holding = new CountDownLatch(2);
+		CountDownLatch release = new CountDownLatch(1);
+
+		try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+			for (int i = 0; i < 2; i++) {
+				executor.submit(() -> bulk.run(() -> {
+					holding.countDown();
+					await(release);
+				}));
+			}
+			holding.await();
+
+			assertThatThrownBy(() -> bulk.run(() -> fail("ran in a reserved permit")))
+				.isInstanceOf(BulkheadFullException.class);
+			assertThat(interactive.call(() -> interactive.getName())).isEqualTo("interactive");
+			release.countDown();
+		}
+
+		assertThat(bulk.call(() -> "after release")).isEqualTo("after release");
+	}
+
+	@Test
+	public void bulkhead_servesWaitingWorkloadsInProportionToTheirWeights() throws InterruptedException {
+		WeightedFairScheduler scheduler = scheduler(1,
+			WorkloadClass.INTERACTIVE, new PoolPartition(3, 0, 1),
+			WorkloadClass.BULK, new PoolPartition(1, 0, 1));
+		Bulkhead interactive = bulkhead(scheduler, WorkloadClass.INTERACTIVE);
+		Bulkhead bulk = bulkhead(scheduler, WorkloadClass.BULK);
+		List<WorkloadClass> served = new CopyOnWriteArrayList<>();
+		CountDownLatch holding = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+
+		try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+			executor.submit(() -> bulk.run(() -> {
+				holding.countDown();
+				await(release);
+			}));
+			holding.await();
+			for (int i = 0; i < 8; i++) {
+				executor.submit(() -> bulk.run(() -> served.add(WorkloadClass.BULK)));
+				executor.submit(() -> interactive.run(() -> served.add(WorkloadClass.INTERACTIVE)));
+			}
+			// every caller is queued before the permit is released
+			while (waiting("bulk") < 8 || waiting("interactive") < 8) {
+				Thread.onSpinWait();
+			}
+			release.countDown();
+		}
+
+		assertThat(served.subList(0, 8)).containsExactly(
+			WorkloadClass.INTERACTIVE, WorkloadClass.BULK, WorkloadClass.INTERACTIVE, WorkloadClass.INTERACTIVE,
+			WorkloadClass.INTERACTIVE, WorkloadClass.BULK, WorkloadClass.INTERACTIVE, WorkloadClass.INTERACTIVE);
+		assertThat(served).hasSize(16);
+	}
+
+	private WeightedFairScheduler scheduler(int capacity, WorkloadClass first, PoolPartition firstPartition, WorkloadClass second,
+											PoolPartition secondPartition) {
+		Map<WorkloadClass, PoolPartition> partitions = new EnumMap<>(WorkloadClass.class);
+		partitions.put(first, firstPartition);
+		partitions.put(second, secondPartition);
+		return new WeightedFairScheduler(capacity, partitions);
+	}
+
+	private Bulkhead bulkhead(WeightedFairScheduler scheduler, WorkloadClass workloadClass) {
+		return bulkhead(scheduler, workloadClass, Duration.ofSeconds(10));
+	}
+
+	private Bulkhead bulkhead(WeightedFairScheduler scheduler, WorkloadClass workloadClass, Duration acquireTimeout) {
+		return scheduler.bulkhead(workloadClass, workloadClass.key(), acquireTimeout, meterRegistry);
+	}
+
+	private double waiting(String bulkhead) {
+		return meterRegistry.get("gba.bulkhead.waiting").tag("bulkhead", bulkhead).gauge().value();
+	}
+
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static void await(CountDownLatch latch) {
+		try {
+			latch.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
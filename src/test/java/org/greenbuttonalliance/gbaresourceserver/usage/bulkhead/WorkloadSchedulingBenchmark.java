@@ -0,0 +1,203 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.greenbuttonalliance.gbaresourceserver.usage.bulkhead;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.greenbuttonalliance.gbaresourceserver.usage.workload.WorkloadClass;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import javax.sql.DataSource;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.*;
+
+/**
+ * Latency of interactive requests on a pool of {@value #POOL_SIZE} connections while third-party applications poll and a bulk export runs:
+ * <ul>
+ *     <li>alone: interactive requests only, as a reference</li>
+ *     <li>shared: the two fixed bulkheads there were before workloads were classified, with polls counted as interactive and the export in the bulk
+ *     bulkhead, so interactive requests queue behind every poll</li>
+ *     <li>scheduled: a {@link WeightedFairScheduler} with the partitions {@link DatabaseBulkheads} gives a pool of this size by default</li>
+ * </ul>
+ * {@value #INTERACTIVE_CLIENTS} interactive clients each send a {@value #INTERACTIVE_QUERY_MILLIS} ms query and think for
+ * {@value #INTERACTIVE_THINK_MILLIS} ms; {@value #POLLING_CLIENTS} polling clients and {@value #BULK_CLIENTS} export writers send
+ * {@value #POLLING_QUERY_MILLIS} ms and {@value #BULK_QUERY_MILLIS} ms queries back to back.
+ * <p>
+ * Not picked up by a plain <code>mvn test</code>; run it with <code>mvn test -Dtest=WorkloadSchedulingBenchmark</code>, optionally setting
+ * <code>-Dbenchmark.seconds</code>.
+ */
+@Testcontainers
+@SpringBootTest
+public class WorkloadSchedulingBenchmark {
+	private static final int SECONDS = Integer.getInteger("benchmark.seconds", 10);
+	private static final int POOL_SIZE = 8;
+	private static final int INTERACTIVE_CLIENTS = 4;
+	private static final int INTERACTIVE_QUERY_MILLIS = 5;
+	private static final int INTERACTIVE_THINK_MILLIS = 20;
+	private static final int POLLING_CLIENTS = 24;
+	private static final int POLLING_QUERY_MILLIS = 20;
+	private static final int BULK_CLIENTS = 8;
+	private static final int BULK_QUERY_MILLIS = 100;
+
+	@Container
+	@ServiceConnection
+	static PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>("postgres:latest");
+
+	@Autowired
+	private DataSource dataSource;
+
+	@Test
+	public void interactiveLatencyByScheduling() throws InterruptedException, SQLException {
+		try (HikariDataSource pool = pool()) {
+			JdbcTemplate jdbcTemplate = new JdbcTemplate(pool);
+			// one short untimed round so JIT and the pool are warm for the measured ones
+			run("warm-up", jdbcTemplate, scheduled(), true, Math.max(1, SECONDS / 5));
+
+			Latency alone = run("alone", jdbcTemplate, scheduled(), false, SECONDS);
+			SimpleMeterRegistry meters = new SimpleMeterRegistry();
+			Bulkhead sharedInteractive = new Bulkhead("interactive", POOL_SIZE - POOL_SIZE / 4, Duration.ofSeconds(30), meters);
+			Map<WorkloadClass, Bulkhead> shared = new EnumMap<>(WorkloadClass.class);
+			shared.put(WorkloadClass.INTERACTIVE, sharedInteractive);
+			shared.put(WorkloadClass.POLLING, sharedInteractive);
+			shared.put(WorkloadClass.BULK, new Bulkhead("bulk", POOL_SIZE / 4, Duration.ofSeconds(30), meters));
+			Latency sharedLatency = run("shared", jdbcTemplate, shared, true, SECONDS);
+			Latency scheduledLatency = run("scheduled", jdbcTemplate, scheduled(), true, SECONDS);
+
+			System.out.printf("interactive p99 under load / alone: shared=%.1fx scheduled=%.1fx%n", sharedLatency.p99() / alone.p99(),
+				scheduledLatency.p99() / alone.p99());
+			assertThat(scheduledLatency.failed()).isZero();
+			assertThat(scheduledLatency.p99()).isLessThan(sharedLatency.p99() / 2);
+			assertThat(scheduledLatency.p99()).isLessThan(alone.p99() * 2);
+			assertThat(scheduledLatency.otherQueries()).isPositive();
+		}
+	}
+
+	private Latency run(String mode, JdbcTemplate jdbcTemplate, Map<WorkloadClass, Bulkhead> bulkheads, boolean underLoad, int seconds)
+		throws InterruptedException {
+		ConcurrentLinkedQueue<Long> interactiveNanos = new ConcurrentLinkedQueue<>();
+		AtomicInteger failed = new AtomicInteger();
+		AtomicInteger otherQueries = new AtomicInteger();
+		long until = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+
+		try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+			for (int i = 0; i < INTERACTIVE_CLIENTS; i++) {
+				executor.submit(() -> {
+					while (System.nanoTime() < until) {
+						long started = System.nanoTime();
+						try {
+							bulkheads.get(WorkloadClass.INTERACTIVE).run(() -> query(jdbcTemplate, INTERACTIVE_QUERY_MILLIS));
+							interactiveNanos.add(System.nanoTime() - started);
+						} catch (RuntimeException e) {
+							failed.incrementAndGet();
+						}
+						sleep(INTERACTIVE_THINK_MILLIS);
+					}
+				});
+			}
+			if (underLoad) {
+				for (int i = 0; i < POLLING_CLIENTS; i++) {
+					executor.submit(() -> load(jdbcTemplate, bulkheads.get(WorkloadClass.POLLING), POLLING_QUERY_MILLIS, until, otherQueries));
+				}
+				for (int i = 0; i < BULK_CLIENTS; i++) {
+					executor.submit(() -> load(jdbcTemplate, bulkheads.get(WorkloadClass.BULK), BULK_QUERY_MILLIS, until, otherQueries));
+				}
+			}
+		}
+
+		long[] sorted = interactiveNanos.stream().mapToLong(Long::longValue).sorted().toArray();
+		Latency latency = new Latency(percentile(sorted, 0.5), percentile(sorted, 0.99), failed.get(), otherQueries.get());
+		System.out.printf("mode=%s interactive requests=%d p50=%.1fms p99=%.1fms failed=%d polling+bulk queries=%d%n", mode, sorted.length, latency.p50(),
+			latency.p99(), latency.failed(), latency.otherQueries());
+		return latency;
+	}
+
+	private static void load(JdbcTemplate jdbcTemplate, Bulkhead bulkhead, int queryMillis, long until, AtomicInteger queries) {
+		while (System.nanoTime() < until) {
+			try {
+				bulkhead.run(() -> query(jdbcTemplate, queryMillis));
+				queries.incrementAndGet();
+			} catch (RuntimeException e) {
+				// rejected polls and export writes are retried
+			}
+		}
+	}
+
+	private static Map<WorkloadClass, Bulkhead> scheduled() {
+		Map<WorkloadClass, PoolPartition> partitions = new EnumMap<>(WorkloadClass.class);
+		partitions.put(WorkloadClass.INTERACTIVE, new PoolPartition(8, POOL_SIZE / 2, POOL_SIZE));
+		partitions.put(WorkloadClass.POLLING, new PoolPartition(2, Math.max(1, POOL_SIZE / 8), POOL_SIZE / 2));
+		partitions.put(WorkloadClass.BULK, new PoolPartition(1, 0, POOL_SIZE / 4));
+		WeightedFairScheduler scheduler = new WeightedFairScheduler(POOL_SIZE, partitions);
+		SimpleMeterRegistry meters = new SimpleMeterRegistry();
+		Map<WorkloadClass, Bulkhead> bulkheads = new EnumMap<>(WorkloadClass.class);
+		for (WorkloadClass workloadClass : WorkloadClass.values()) {
+			bulkheads.put(workloadClass, scheduler.bulkhead(workloadClass, workloadClass.key(), Duration.ofSeconds(30), meters));
+		}
+		return bulkheads;
+	}
+
+	private static double percentile(long[] sorted, double percentile) {
+		if (sorted.length == 0) {
+			return Double.NaN;
+		}
+		int index = (int) Math.min(sorted.length - 1, Math.ceil(percentile * sorted.length) - 1);
+		return sorted[Math.max(0, index)] / 1e6;
+	}
+
+	private static void query(JdbcTemplate jdbcTemplate, int millis) {
+		jdbcTemplate.queryForObject("SELECT pg_sleep(?)", Object.class, millis / 1000.0);
+	}
+
+	private HikariDataSource pool() throws SQLException {
+		HikariDataSource configured = dataSource.unwrap(HikariDataSource.class);
+		HikariConfig config = new HikariConfig();
+		config.setJdbcUrl(configured.getJdbcUrl());
+		config.setUsername(configured.getUsername());
+		config.setPassword(configured.getPassword());
+		config.setMaximumPoolSize(POOL_SIZE);
+		config.setMinimumIdle(POOL_SIZE);
+		return new HikariDataSource(config);
+	}
+
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private record Latency(double p50, double p99, int failed, int otherQueries) {
+	}
+}
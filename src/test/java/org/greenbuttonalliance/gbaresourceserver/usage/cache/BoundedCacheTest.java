@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.greenbuttonalliance.gbaresourceserver.usage.cache;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class BoundedCacheTest {
+	@Test
+	public void put_dropsTheEntryUsedLongestAgoWhenFull() {
+		BoundedCache<String, Integer> cache = new BoundedCache<>(2);
+		cache.put("a", 1);
+		cache.put("b", 2);
+		cache.get("a");
+
+		cache.put("c", 3);
+
+		assertThat(cache.size()).isEqualTo(2);
+		assertThat(cache.get("b")).isNull();
+		assertThat(cache.get("a")).isEqualTo(1);
+		assertThat(cache.get("c")).isEqualTo(3);
+	}
+
+	@Test
+	public void put_keepsNothingWithoutRoom() {
+		BoundedCache<String, Integer> cache = new BoundedCache<>(0);
+
+		cache.put("a", 1);
+
+		assertThat(cache.get("a")).isNull();
+		assertThat(cache.size()).isZero();
+	}
+
+	@Test
+	public void update_replacesAValueAndMarksItUsed() {
+		BoundedCache<String, Integer> cache = new BoundedCache<>(2);
+		cache.put("a", 1);
+		cache.put("b", 2);
+
+		cache.update("a", value -> value + 10);
+		cache.update("missing", value -> value + 10);
+		cache.put("c", 3);
+
+		assertThat(cache.get("a")).isEqualTo(11);
+		assertThat(cache.get("missing")).isNull();
+		assertThat(cache.get("b")).isNull();
+	}
+
+	@Test
+	public void remove_takesAValueOnlyWhileItIsTheOneMapped() {
+		BoundedCache<String, String> cache = new BoundedCache<>(10);
+		String loaded = new String("value");
+		String newer = new String("value");
+		cache.put("a", loaded);
+		cache.put("a", newer);
+
+		cache.remove("a", loaded);
+		assertThat(cache.get("a")).isSameAs(newer);
+
+		cache.remove("a", newer);
+		assertThat(cache.get("a")).isNull();
+	}
+
+	@Test
+	public void removeIf_dropsEveryMatchingValue() {
+		BoundedCache<String, Integer> cache = new BoundedCache<>(10);
+		cache.put("a", 1);
+		cache.put("b", 2);
+		cache.put("c", 3);
+
+		cache.removeIf(value -> value % 2 == 1);
+
+		assertThat(cache.size()).isEqualTo(1);
+		assertThat(cache.get("b")).isEqualTo(2);
+	}
+}
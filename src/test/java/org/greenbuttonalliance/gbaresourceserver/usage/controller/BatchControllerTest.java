@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.greenbuttonalliance.gbaresourceserver.usage.controller;
+
+import lombok.RequiredArgsConstructor;
+import org.greenbuttonalliance.gbaresourceserver.usage.ingest.SyntheticFeeds;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.web.servlet.MockMvc;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.net.URI;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.hamcrest.Matchers.containsString;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+@Testcontainers
+// open-in-view is off as GbaResourceServerApplication sets it; a bulk partition of one permit is the tightest an export has to get by with
+@SpringBootTest(properties = {"spring.jpa.open-in-view=false", "gba.workload.bulk.limit=1", "gba.bulkhead.acquire-timeout=5",
+	"gba.access.allow-anonymous=true"})
+@AutoConfigureMockMvc
+@RequiredArgsConstructor(onConstructor = @__(@Autowired))
+public class BatchControllerTest {
+	private static final Pattern SELF_LINK = Pattern.compile("<link rel=\"self\" href=\"([^\"]*)\"");
+
+	private final MockMvc mockMvc;
+	private final JdbcTemplate jdbcTemplate;
+
+	@Container
+	@ServiceConnection
+	static PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>("postgres:latest");
+
+	@Test
+	public void getRetailCustomer_rendersTheIntervalBlocksOfEveryUsagePointInUsagePointOrder() throws Exception {
+		UUID retailCustomer = importedRetailCustomer("ordered", 12, 2);
+
+		List<String> exported = selfLinks(export(retailCustomer));
+
+		// rendered concurrently, but stitched back together in the order of the UsagePoints, their MeterReadings and the blocks' starts
+		assertThat(exported).hasSize(12 * 2).containsExactlyElementsOf(jdbcTemplate.queryForList("""
+			SELECT ib.self_link_href FROM usage.interval_block ib JOIN usage.meter_reading mr ON mr.uuid = ib.meter_reading_uuid
+			JOIN usage.usage_point up ON up.uuid = mr.usage_point_uuid WHERE up.retail_customer_uuid = ? ORDER BY up.uuid, mr.uuid, ib.start""",
+			String.class, retailCustomer));
+	}
+
+	@Test
+	public void getRetailCustomer_servesConcurrentExportsFromASinglePermitBulkPartition() throws Exception {
+		// different RetailCustomers, so the requests are not coalesced into one
+		List<UUID> retailCustomers = List.of(importedRetailCustomer("concurrent-a", 4, 1), importedRetailCustomer("concurrent-b", 4, 1));
+		CountDownLatch start = new CountDownLatch(1);
+
+		try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+			List<Future<String>> exports = retailCustomers.stream()
+				.map(retailCustomer -> executor.submit(() -> {
+					start.await();
+					return export(retailCustomer);
+				}))
+				.toList();
+			start.countDown();
+
+			for (Future<String> export : exports) {
+				assertThat(selfLinks(export.get(30, TimeUnit.SECONDS))).hasSize(4);
+			}
+		}
+	}
+
+	@Test
+	public void getRetailCustomer_rendersAnEmptyFeedForARetailCustomerWithoutUsagePoints() throws Exception {
+		UUID retailCustomer = retailCustomer();
+
+		assertThat(selfLinks(export(retailCustomer))).isEmpty();
+	}
+
+	@Test
+	public void getRetailCustomer_answers404ForAnUnknownRetailCustomer() throws Exception {
+		mockMvc.perform(get("/espi/1_1/resource/Batch/RetailCustomer/{id}", UUID.randomUUID()))
+			.andExpect(status().isNotFound());
+	}
+
+	@Test
+	public void postIntervalReadingValidation_runsInTheBackgroundAndIsPolledAtItsLocation() throws Exception {
+		String location = mockMvc.perform(post("/espi/1_1/resource/Batch/IntervalReading/Validation").param("from", "0"))
+			.andExpect(status().isAccepted())
+			.andExpect(content().string(containsString("<status>RUNNING</status>")))
+			.andReturn().getResponse().getHeader(HttpHeaders.LOCATION);
+		assertThat(location).matches(".*/espi/1_1/resource/Batch/Job/[0-9a-f-]{36}");
+
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+		String job;
+		do {
+			assertThat(System.nanoTime()).as("job finished by now").isLessThan(deadline);
+			Thread.sleep(50);
+			job = mockMvc.perform(get(URI.create(location))).andExpect(status().isOk()).andReturn().getResponse().getContentAsString();
+		} while (job.contains("<status>RUNNING</status>"));
+		assertThat(job).contains("<status>SUCCEEDED</status>", "<kind>Validation</kind>", "<meterReadings>");
+	}
+
+	@Test
+	public void getJob_answers404ForAnUnknownJob() throws Exception {
+		mockMvc.perform(get("/espi/1_1/resource/Batch/Job/{id}", UUID.randomUUID()))
+			.andExpect(status().isNotFound());
+	}
+
+	private String export(UUID retailCustomer) throws Exception {
+		return mockMvc.perform(get("/espi/1_1/resource/Batch/RetailCustomer/{id}", retailCustomer))
+			.andExpect(status().isOk())
+			.andReturn().getResponse().getContentAsString();
+	}
+
+	private UUID importedRetailCustomer(String prefix, int usagePoints, int days) throws Exception {
+		UUID retailCustomer = retailCustomer();
+		mockMvc.perform(post("/espi/1_1/resource/Batch/RetailCustomer/{id}/UsagePoint", retailCustomer)
+				.contentType(MediaType.APPLICATION_ATOM_XML)
+				.content(SyntheticFeeds.feed(prefix + "-" + retailCustomer, usagePoints, days)))
+			.andExpect(status().isOk());
+		return retailCustomer;
+	}
+
+	private UUID retailCustomer() {
+		UUID retailCustomer = UUID.randomUUID();
+		jdbcTemplate.update("INSERT INTO usage.retail_customer (uuid) VALUES (?)", retailCustomer);
+		return retailCustomer;
+	}
+
+	private static List<String> selfLinks(String feed) {
+		return SELF_LINK.matcher(feed).results().map(match -> match.group(1)).toList();
+	}
+}
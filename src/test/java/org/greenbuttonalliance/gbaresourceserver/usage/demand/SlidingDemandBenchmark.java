@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.greenbuttonalliance.gbaresourceserver.usage.demand;
+
+import org.junit.jupiter.api.Test;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Collection;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmark of {@link SlidingDemand} over a year to a century of 15-minute readings, reporting the time per reading, which stays flat if the passes are
+ * linear. Not picked up by a plain <code>mvn test</code>; run it with <code>mvn test -Dtest=SlidingDemandBenchmark</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+public class SlidingDemandBenchmark {
+	@Param({"35040", "350400", "3504000"})
+	public int readings;
+
+	private long[] starts;
+	private int[] durations;
+	private long[] values;
+	private long[] bucketStarts;
+	private int buckets;
+	private long[] peakDemands;
+	private long[] peakStarts;
+	private long[] ratchetStarts;
+	private long[] ratchetDemands;
+	private long[] ratchetTimes;
+	private final SlidingDemand demand = new SlidingDemand();
+
+	@Setup
+	public void generate() {
+		Random random = new Random(readings);
+		starts = new long[readings];
+		durations = new int[readings];
+		values = new long[readings];
+		for (int i = 0; i < readings; i++) {
+			starts[i] = i * 900L;
+			durations[i] = 900;
+			values[i] = random.nextInt(5000);
+		}
+		// daily buckets, with a ratchet period of 330 days
+		buckets = readings / 96 + 1;
+		bucketStarts = new long[buckets + 1];
+		ratchetStarts = new long[buckets];
+		for (int b = 0; b <= buckets; b++) {
+			bucketStarts[b] = b * 86400L;
+		}
+		for (int b = 0; b < buckets; b++) {
+			ratchetStarts[b] = bucketStarts[b] - 330 * 86400L;
+		}
+		peakDemands = new long[buckets];
+		peakStarts = new long[buckets];
+		ratchetDemands = new long[buckets];
+		ratchetTimes = new long[buckets];
+	}
+
+	@Benchmark
+	public long peak() {
+		demand.peak(starts, durations, values, 0, readings, 3600, 0, Long.MAX_VALUE);
+		return demand.peakDemand();
+	}
+
+	@Benchmark
+	public long peaksAndRatchets() {
+		demand.peaks(starts, durations, values, 0, readings, 3600, bucketStarts, buckets, peakDemands, peakStarts);
+		demand.ratchets(bucketStarts, peakDemands, peakStarts, buckets, ratchetStarts, ratchetDemands, ratchetTimes);
+		return ratchetDemands[buckets - 1];
+	}
+
+	@Test
+	public void timePerReadingBySize() throws RunnerException {
+		Collection<RunResult> results = new Runner(new OptionsBuilder().include(SlidingDemandBenchmark.class.getName() + "\\.(peak|peaksAndRatchets)$").build())
+			.run();
+		for (RunResult result : results) {
+			int size = Integer.parseInt(result.getParams().getParam("readings"));
+			double micros = result.getPrimaryResult().getScore();
+			System.out.printf("benchmark=%s readings=%d time=%.1fus ns/reading=%.2f%n", result.getParams().getBenchmark(), size, micros,
+				micros * 1000 / size);
+		}
+	}
+}
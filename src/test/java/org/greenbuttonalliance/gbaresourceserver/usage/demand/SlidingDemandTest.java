@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.greenbuttonalliance.gbaresourceserver.usage.demand;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class SlidingDemandTest {
+
+	@Test
+	public void peak_sumsTheReadingsInsideEachWindow() {
+		// 15-minute readings in Wh; the 30-minute window starting at 900 holds 600 + 900
+		long[] starts = {0, 900, 1800, 2700, 3600};
+		int[] durations = {900, 900, 900, 900, 900};
+		long[] values = {300, 600, 900, 200, 800};
+		SlidingDemand demand = new SlidingDemand();
+
+		assertThat(demand.peak(starts, durations, values, 0, 5, 1800, 0, 3600)).isTrue();
+		assertThat(demand.peakDemand()).isEqualTo(3000);
+		assertThat(demand.peakStart()).isEqualTo(900);
+
+		// a window shorter than the intervals is as long as they are
+		assertThat(demand.peak(starts, durations, values, 0, 5, 60, 0, 3600)).isTrue();
+		assertThat(demand.peakDemand()).isEqualTo(3600);
+		assertThat(demand.peakStart()).isEqualTo(1800);
+
+		// only windows starting in the range count
+		assertThat(demand.peak(starts, durations, values, 0, 5, 1800, 2700, 5000)).isTrue();
+		assertThat(demand.peakDemand()).isEqualTo(2000);
+		assertThat(demand.peakStart()).isEqualTo(2700);
+		assertThat(demand.peak(starts, durations, values, 0, 5, 1800, 5000, 6000)).isFalse();
+	}
+
+	@Test
+	public void peak_treatsGapsAsNoConsumption() {
+		long[] starts = {0, 7200};
+		int[] durations = {3600, 3600};
+		long[] values = {1000, 1500};
+		SlidingDemand demand = new SlidingDemand();
+
+		assertThat(demand.peak(starts, durations, values, 0, 2, 7200, 0, 10800)).isTrue();
+		assertThat(demand.peakDemand()).isEqualTo(750);
+		assertThat(demand.peakStart()).isEqualTo(7200);
+	}
+
+	@Test
+	public void peaks_matchesABruteForceScanPerBucket() {
+		Random random = new Random(42);
+		int n = 5000;
+		long[] starts = new long[n];
+		int[] durations = new int[n];
+		long[] values = new long[n];
+		long time = 0;
+		for (int i = 0; i < n; i++) {
+			// mostly 15-minute readings, with gaps
+			time += random.nextInt(10) == 0 ? 900 * (1 + random.nextInt(8)) : 0;
+			starts[i] = time;
+			durations[i] = 900;
+			values[i] = random.nextInt(5000);
+			time += 900;
+		}
+		int buckets = (int) (time / 86400) + 1;
+		long[] bucketStarts = new long[buckets + 1];
+		for (int b = 0; b <= buckets; b++) {
+			bucketStarts[b] = b * 86400L;
+		}
+		long[] peakDemands = new long[buckets];
+		long[] peakStarts = new long[buckets];
+
+		for (int window : new int[]{900, 1800, 3600}) {
+			new SlidingDemand().peaks(starts, durations, values, 0, n, window, bucketStarts, buckets, peakDemands, peakStarts);
+
+			for (int b = 0; b < buckets; b++) {
+				long expected = Long.MIN_VALUE;
+				for (int i = 0; i < n; i++) {
+					if (starts[i] >= bucketStarts[b] && starts[i] < bucketStarts[b + 1]) {
+						long sum = 0;
+						for (int j = i; j < n && starts[j] + durations[j] <= starts[i] + window; j++) {
+							sum += values[j];
+						}
+						expected = Math.max(expected, sum * 3600 / window);
+					}
+				}
+				if (expected == Long.MIN_VALUE) {
+					assertThat(peakStarts[b]).isEqualTo(SlidingDemand.NONE);
+				} else {
+					assertThat(peakDemands[b]).as("bucket %d, window %d", b, window).isEqualTo(expected);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void ratchets_takeTheHighestPeakOfTheRatchetPeriod() {
+		long[] bucketStarts = {0, 10, 20, 30, 40, 50, 60};
+		long[] peakDemands = {500, 300, 0, 400, 100, 200};
+		long[] peakStarts = {1, 11, SlidingDemand.NONE, 31, 41, 51};
+		long[] ratchetStarts = {-20, -10, 0, 10, 20, 30};
+		long[] ratchetDemands = new long[6];
+		long[] ratchetTimes = new long[6];
+
+		new SlidingDemand().ratchets(bucketStarts, peakDemands, peakStarts, 6, ratchetStarts, ratchetDemands, ratchetTimes);
+
+		assertThat(ratchetDemands).containsExactly(500, 500, 500, 400, 400, 400);
+		assertThat(ratchetTimes).containsExactly(1, 1, 1, 31, 31, 31);
+	}
+
+	@Test
+	public void ratchets_leaveBucketsWithoutPeaksEmpty() {
+		long[] bucketStarts = {0, 10, 20, 30};
+		long[] peakStarts = {SlidingDemand.NONE, 11, SlidingDemand.NONE};
+		long[] ratchetTimes = new long[3];
+
+		new SlidingDemand().ratchets(bucketStarts, new long[]{0, 700, 0}, peakStarts, 3, new long[]{0, 10, 20}, new long[3], ratchetTimes);
+
+		assertThat(ratchetTimes).containsExactly(SlidingDemand.NONE, 11, SlidingDemand.NONE);
+	}
+}
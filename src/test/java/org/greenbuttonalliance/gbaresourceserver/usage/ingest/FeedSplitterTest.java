@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.greenbuttonalliance.gbaresourceserver.usage.ingest;
+
+import org.greenbuttonalliance.gbaresourceserver.usage.controller.exception.InvalidFeedException;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class FeedSplitterTest {
+
+	@Test
+	public void split_yieldsOneParseableDocumentPerEntry() {
+		List<FeedEntry> split = splitAll(GreenButtonFeedParserTest.FEED).stream()
+			.map(document -> GreenButtonFeedParserTest.parseAll(document).getFirst())
+			.toList();
+
+		assertThat(split).isEqualTo(GreenButtonFeedParserTest.parseAll(GreenButtonFeedParserTest.FEED));
+	}
+
+	@Test
+	public void split_keepsDeclarationAndRootNamespaces() {
+		String first = splitAll(GreenButtonFeedParserTest.FEED).getFirst();
+
+		assertThat(first).startsWith("<?xml version=\"1.0\" encoding=\"UTF-8\"?><feed xmlns=\"http://www.w3.org/2005/Atom\" xmlns:espi=\"http://naesb.org/espi\"><entry>");
+		assertThat(first).endsWith("</entry></feed>");
+	}
+
+	@Test
+	public void split_ignoresMarkupInsideCommentsCdataAndAttributes() {
+		String feed = """
+			<a:feed xmlns:a="http://www.w3.org/2005/Atom">
+				<!-- <entry> -->
+				<a:entry><a:title><![CDATA[</a:entry>]]></a:title><a:link href="x>y"/></a:entry>
+				<a:entry/>
+			</a:feed>
+			""";
+
+		assertThat(splitAll(feed)).containsExactly(
+			"<a:feed xmlns:a=\"http://www.w3.org/2005/Atom\"><a:entry><a:title><![CDATA[</a:entry>]]></a:title><a:link href=\"x>y\"/></a:entry></a:feed>",
+			"<a:feed xmlns:a=\"http://www.w3.org/2005/Atom\"><a:entry/></a:feed>");
+	}
+
+	@Test
+	public void split_acceptsALoneEntry() {
+		assertThat(splitAll("<entry><id>x</id></entry>")).containsExactly("<entry><id>x</id></entry>");
+	}
+
+	@Test
+	public void split_rejectsTruncatedFeedsAndDtds() {
+		assertThatThrownBy(() -> splitAll("<feed><entry><id>x</id></entry>")).isInstanceOf(InvalidFeedException.class);
+		assertThatThrownBy(() -> splitAll("<!DOCTYPE feed [<!ENTITY x \"y\">]><feed/>")).isInstanceOf(InvalidFeedException.class);
+	}
+
+	private static List<String> splitAll(String feed) {
+		FeedSplitter splitter = new FeedSplitter(new ByteArrayInputStream(feed.getBytes(StandardCharsets.UTF_8)));
+		List<String> documents = new ArrayList<>();
+		byte[] document;
+		while ((document = splitter.nextEntry()) != null) {
+			documents.add(new String(document, StandardCharsets.UTF_8));
+		}
+		return documents;
+	}
+}
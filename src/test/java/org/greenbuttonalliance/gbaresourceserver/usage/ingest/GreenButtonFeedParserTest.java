@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.greenbuttonalliance.gbaresourceserver.usage.ingest;
+
+import org.greenbuttonalliance.gbaresourceserver.usage.controller.exception.InvalidFeedException;
+import org.greenbuttonalliance.gbaresourceserver.usage.ingest.EntryContent.IntervalBlockContent;
+import org.greenbuttonalliance.gbaresourceserver.usage.ingest.EntryContent.LocalTimeParametersContent;
+import org.greenbuttonalliance.gbaresourceserver.usage.ingest.EntryContent.MeterReadingContent;
+import org.greenbuttonalliance.gbaresourceserver.usage.ingest.EntryContent.ReadingTypeContent;
+import org.greenbuttonalliance.gbaresourceserver.usage.ingest.EntryContent.UsagePointContent;
+import org.greenbuttonalliance.gbaresourceserver.usage.model.enums.QualityOfReading;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class GreenButtonFeedParserTest {
+	private static final String RESOURCE = "https://localhost:8080/DataCustodian/espi/1_1/resource/";
+
+	static final String FEED = """
+		<?xml version="1.0" encoding="UTF-8"?>
+		<feed xmlns="http://www.w3.org/2005/Atom" xmlns:espi="http://naesb.org/espi">
+			<id>urn:uuid:0a8e4c70-6a9e-4b6a-9f30-1c1c4e8b5a01</id>
+			<title>Green Button Usage Feed</title>
+			<updated>2024-03-01T00:00:00Z</updated>
+			<entry>
+				<id>urn:uuid:5446af3f-0000-4000-8000-000000000001</id>
+				<link rel="self" href="%1$sRetailCustomer/9B6C7066/UsagePoint/5446AF3F"/>
+				<link rel="up" href="%1$sRetailCustomer/9B6C7066/UsagePoint"/>
+				<link rel="related" href="%1$sRetailCustomer/9B6C7066/UsagePoint/5446AF3F/MeterReading"/>
+				<link rel="related" href="%1$sLocalTimeParameters/01"/>
+				<title>Front Electric Meter</title>
+				<content>
+					<espi:UsagePoint>
+						<espi:roleFlags>01</espi:roleFlags>
+						<espi:ServiceCategory><espi:kind>0</espi:kind></espi:ServiceCategory>
+						<espi:status>1</espi:status>
+					</espi:UsagePoint>
+				</content>
+				<published>2012-10-24T04:00:00Z</published>
+				<updated>2012-10-24T04:00:00Z</updated>
+			</entry>
+			<entry>
+				<id>urn:uuid:5446af3f-0000-4000-8000-000000000002</id>
+				<link rel="self" href="%1$sLocalTimeParameters/01"/>
+				<link rel="up" href="%1$sLocalTimeParameters"/>
+				<title>DST For North America</title>
+				<content>
+					<espi:LocalTimeParameters>
+						<espi:dstEndRule>B40E2000</espi:dstEndRule>
+						<espi:dstOffset>3600</espi:dstOffset>
+						<espi:dstStartRule>360E2000</espi:dstStartRule>
+						<espi:tzOffset>-18000</espi:tzOffset>
+					</espi:LocalTimeParameters>
+				</content>
+			</entry>
+			<entry>
+				<id>urn:uuid:5446af3f-0000-4000-8000-000000000003</id>
+				<link rel="self" href="%1$sRetailCustomer/9B6C7066/UsagePoint/5446AF3F/MeterReading/01"/>
+				<link rel="up" href="%1$sRetailCustomer/9B6C7066/UsagePoint/5446AF3F/MeterReading"/>
+				<link rel="related" href="%1$sReadingType/07"/>
+				<title>Fifteen Minute Electricity Consumption</title>
+				<content><espi:MeterReading/></content>
+			</entry>
+			<entry>
+				<id>urn:uuid:5446af3f-0000-4000-8000-000000000004</id>
+				<link rel="self" href="%1$sReadingType/07"/>
+				<link rel="up" href="%1$sReadingType"/>
+				<title>Type of Meter Reading Data</title>
+				<content>
+					<espi:ReadingType>
+						<espi:accumulationBehaviour>4</espi:accumulationBehaviour>
+						<espi:commodity>1</espi:commodity>
+						<espi:flowDirection>1</espi:flowDirection>
+						<espi:intervalLength>900</espi:intervalLength>
+						<espi:powerOfTenMultiplier>0</espi:powerOfTenMultiplier>
+						<espi:uom>72</espi:uom>
+					</espi:ReadingType>
+				</content>
+			</entry>
+			<entry>
+				<id>urn:uuid:5446af3f-0000-4000-8000-000000000005</id>
+				<link rel="self" href="%1$sRetailCustomer/9B6C7066/UsagePoint/5446AF3F/MeterReading/01/IntervalBlock/173"/>
+				<link rel="up" href="%1$sRetailCustomer/9B6C7066/UsagePoint/5446AF3F/MeterReading/01/IntervalBlock"/>
+				<title/>
+				<content>
+					<espi:IntervalBlock>
+						<espi:interval><espi:duration>1800</espi:duration><espi:start>1330578000</espi:start></espi:interval>
+						<espi:IntervalReading>
+							<espi:cost>974</espi:cost>
+							<espi:ReadingQuality><espi:quality>8</espi:quality></espi:ReadingQuality>
+							<espi:timePeriod><espi:duration>900</espi:duration><espi:start>1330578000</espi:start></espi:timePeriod>
+							<espi:value>282</espi:value>
+						</espi:IntervalReading>
+						<espi:IntervalReading>
+							<espi:timePeriod><espi:duration>900</espi:duration><espi:start>1330578900</espi:start></espi:timePeriod>
+							<espi:value>323</espi:value>
+						</espi:IntervalReading>
+					</espi:IntervalBlock>
+				</content>
+			</entry>
+		</feed>
+		""".formatted(RESOURCE);
+
+	@Test
+	public void parse_returnsEntriesInFeedOrder() {
+		List<FeedEntry> entries = parseAll(FEED);
+
+		assertThat(entries).<Class<?>>extracting(e -> e.content().getClass()).containsExactly(
+			UsagePointContent.class,
+			LocalTimeParametersContent.class,
+			MeterReadingContent.class,
+			ReadingTypeContent.class,
+			IntervalBlockContent.class);
+	}
+
+	@Test
+	public void parse_mapsLinksAndLeafFields() {
+		FeedEntry usagePoint = parseAll(FEED).getFirst();
+
+		assertThat(FeedEntryMapper.entityUuid(usagePoint)).isEqualTo(UUID.fromString("5446af3f-0000-4000-8000-000000000001"));
+		assertThat(FeedEntryMapper.relatedPath(usagePoint, "LocalTimeParameters")).contains("LocalTimeParameters/01");
+		assertThat(((UsagePointContent) usagePoint.content()).fields()).containsEntry("ServiceCategory/kind", "0").containsEntry("roleFlags", "01");
+	}
+
+	@Test
+	public void parse_readsIntervalReadingsAndQualities() {
+		FeedEntry block = parseAll(FEED).getLast();
+		IntervalBlockContent content = (IntervalBlockContent) block.content();
+
+		assertThat(FeedEntryMapper.parentPath(block)).isEqualTo("RetailCustomer/9B6C7066/UsagePoint/5446AF3F/MeterReading/01");
+		assertThat(content.start()).isEqualTo(1330578000L);
+		assertThat(content.duration()).isEqualTo(1800L);
+		assertThat(content.readings()).extracting(IntervalReadingRecord::value).containsExactly(282L, 323L);
+		assertThat(content.readings().getFirst().qualities()).containsExactly(QualityOfReading.ESTIMATED_USING_REFERENCE_DAY);
+		assertThat(content.readings().getLast().cost()).isNull();
+	}
+
+	@Test
+	public void parse_rejectsMalformedFeed() {
+		assertThatThrownBy(() -> parseAll("<feed><entry><id>x</id></feed>")).isInstanceOf(InvalidFeedException.class);
+	}
+
+	static List<FeedEntry> parseAll(String feed) {
+		List<FeedEntry> entries = new ArrayList<>();
+		try (GreenButtonFeedParser parser = new GreenButtonFeedParser(new ByteArrayInputStream(feed.getBytes(StandardCharsets.UTF_8)))) {
+			FeedEntry entry;
+			while ((entry = parser.nextEntry()) != null) {
+				entries.add(entry);
+			}
+		}
+		return entries;
+	}
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.greenbuttonalliance.gbaresourceserver.usage.ingest;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.RequiredArgsConstructor;
+import org.greenbuttonalliance.gbaresourceserver.usage.access.UsagePointAccess;
+import org.greenbuttonalliance.gbaresourceserver.usage.bulkhead.DatabaseBulkheads;
+import org.greenbuttonalliance.gbaresourceserver.usage.controller.exception.EntityNotFoundByIdException;
+import org.greenbuttonalliance.gbaresourceserver.usage.controller.exception.InvalidFeedException;
+import org.greenbuttonalliance.gbaresourceserver.usage.repository.MeterReadingRepository;
+import org.greenbuttonalliance.gbaresourceserver.usage.repository.ReadingTypeRepository;
+import org.greenbuttonalliance.gbaresourceserver.usage.repository.RetailCustomerRepository;
+import org.greenbuttonalliance.gbaresourceserver.usage.repository.TimeConfigurationRepository;
+import org.greenbuttonalliance.gbaresourceserver.usage.repository.UsagePointRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.springframework.core.env.StandardEnvironment;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import javax.sql.DataSource;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.regex.MatchResult;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+@Testcontainers
+@SpringBootTest
+@RequiredArgsConstructor(onConstructor = @__(@Autowired))
+public class GreenButtonImporterTest {
+	private static final Pattern ENTRY = Pattern.compile("<entry>.*?</entry>\\n", Pattern.DOTALL);
+	private static final Pattern VALUE = Pattern.compile("<espi:value>(\\d+)</espi:value>");
+
+	private final RetailCustomerRepository retailCustomerRepository;
+	private final UsagePointRepository usagePointRepository;
+	private final TimeConfigurationRepository timeConfigurationRepository;
+	private final MeterReadingRepository meterReadingRepository;
+	private final ReadingTypeRepository readingTypeRepository;
+	private final IntervalDataWriter intervalDataWriter;
+	private final PlatformTransactionManager transactionManager;
+	private final DataSource dataSource;
+	private final JdbcTemplate jdbcTemplate;
+
+	@Container
+	@ServiceConnection
+	static PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>("postgres:latest");
+
+	@Test
+	public void importFeed_keepsFeedOrderPerUsagePointAcrossWriters() {
+		UUID retailCustomer = retailCustomer();
+		String feed = feed("ordered", 16, 3);
+		// every IntervalBlock again at the end of the feed with other values, which must replace the first ones on whichever writer owns them
+		String redelivered = ENTRY.matcher(feed).results().map(MatchResult::group)
+			.filter(entry -> entry.contains("<espi:IntervalBlock>"))
+			.map(entry -> VALUE.matcher(entry).replaceAll(value -> "<espi:value>" + (Long.parseLong(value.group(1)) + 1000) + "</espi:value>"))
+			.collect(Collectors.joining());
+		feed = feed.replace("</feed>", redelivered + "</feed>");
+
+		ImportSummary summary = importer(intervalDataWriter, new SimpleMeterRegistry(), 4)
+			.importFeed(stream(feed), retailCustomer, UsagePointAccess.UNRESTRICTED);
+
+		assertThat(summary.usagePoints()).isEqualTo(16);
+		assertThat(summary.intervalBlocks()).isEqualTo(16 * 3 * 2);
+		assertThat(jdbcTemplate.queryForList("""
+			SELECT r.value >= 1000 FROM usage.interval_reading r JOIN usage.interval_block b ON b.uuid = r.block_uuid
+			JOIN usage.meter_reading mr ON mr.uuid = b.meter_reading_uuid JOIN usage.usage_point up ON up.uuid = mr.usage_point_uuid
+			WHERE up.retail_customer_uuid = ?""", Boolean.class, retailCustomer)).hasSize((int) summary.intervalReadings() / 2).containsOnly(true);
+	}
+
+	@Test
+	public void importFeed_stopsEveryStageAndRethrowsTheFirstFailureOfTheRouter() {
+		UUID retailCustomer = retailCustomer();
+		// without the first MeterReading, its IntervalBlocks have no parent to be routed to
+		String complete = feed("orphaned", 40, 5);
+		MatchResult meterReading = ENTRY.matcher(complete).results().filter(entry -> entry.group().contains("<espi:MeterReading/>")).findFirst().orElseThrow();
+		String feed = complete.substring(0, meterReading.start()) + complete.substring(meterReading.end());
+		SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+		assertThatThrownBy(() -> importer(intervalDataWriter, meterRegistry, 2)
+			.importFeed(stream(feed), retailCustomer, UsagePointAccess.UNRESTRICTED))
+			.isInstanceOf(InvalidFeedException.class)
+			.hasMessageContaining("appears before its MeterReading");
+		// the reader gave up long before the end of the feed's 2 + 40 * 7 entries
+		assertThat(meterRegistry.get("gba.ingest.entries").tag("stage", "read").counter().count()).isLessThan(100);
+	}
+
+	@Test
+	public void importFeed_stopsEveryStageAndRethrowsTheFirstFailureOfAWriter() {
+		UUID retailCustomer = retailCustomer();
+		IllegalStateException writeFailure = new IllegalStateException("disk full");
+		IntervalDataWriter failingWriter = mock(IntervalDataWriter.class);
+		when(failingWriter.write(anyList())).thenThrow(writeFailure);
+		SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+		assertThatThrownBy(() -> importer(failingWriter, meterRegistry, 2)
+			.importFeed(stream(feed("failing", 40, 5)), retailCustomer, UsagePointAccess.UNRESTRICTED))
+			.isSameAs(writeFailure);
+		assertThat(meterRegistry.get("gba.ingest.entries").tag("stage", "read").counter().count()).isLessThan(100);
+		verify(failingWriter, atMost(2)).write(anyList());
+	}
+
+	@Test
+	public void importFeed_rejectsAUsagePointTheAccessDoesNotPermit() {
+		UUID retailCustomer = retailCustomer();
+
+		assertThatThrownBy(() -> importer(intervalDataWriter, new SimpleMeterRegistry(), 2)
+			.importFeed(stream(feed("restricted", 4, 1)), retailCustomer, UsagePointAccess.NONE))
+			.isInstanceOf(EntityNotFoundByIdException.class);
+		assertThat(jdbcTemplate.queryForObject("SELECT count(*) FROM usage.usage_point WHERE retail_customer_uuid = ?", Long.class, retailCustomer))
+			.isZero();
+	}
+
+	private GreenButtonImporter importer(IntervalDataWriter writer, SimpleMeterRegistry meterRegistry, int writerThreads) {
+		// one block per batch and short queues, so that the stages hand over work one item at a time
+		return new GreenButtonImporter(retailCustomerRepository, usagePointRepository, timeConfigurationRepository, meterReadingRepository, readingTypeRepository,
+			writer, transactionManager, new DatabaseBulkheads(dataSource, meterRegistry, new StandardEnvironment(), 0, writerThreads + 1, 30), meterRegistry,
+			1, 2, writerThreads, 4);
+	}
+
+	private UUID retailCustomer() {
+		UUID retailCustomer = UUID.randomUUID();
+		jdbcTemplate.update("INSERT INTO usage.retail_customer (uuid) VALUES (?)", retailCustomer);
+		return retailCustomer;
+	}
+
+	private static String feed(String prefix, int usagePoints, int days) {
+		return new String(SyntheticFeeds.feed(prefix + "-" + UUID.randomUUID(), usagePoints, days), StandardCharsets.UTF_8);
+	}
+
+	private static ByteArrayInputStream stream(String feed) {
+		return new ByteArrayInputStream(feed.getBytes(StandardCharsets.UTF_8));
+	}
+}
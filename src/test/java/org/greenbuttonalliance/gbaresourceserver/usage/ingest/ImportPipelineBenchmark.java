@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.greenbuttonalliance.gbaresourceserver.usage.ingest;
+
+import com.github.f4b6a3.uuid.UuidCreator;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.greenbuttonalliance.gbaresourceserver.TestUtils;
+import org.greenbuttonalliance.gbaresourceserver.usage.access.UsagePointAccess;
+import org.greenbuttonalliance.gbaresourceserver.usage.bulkhead.DatabaseBulkheads;
+import org.greenbuttonalliance.gbaresourceserver.usage.model.RetailCustomer;
+import org.greenbuttonalliance.gbaresourceserver.usage.repository.MeterReadingRepository;
+import org.greenbuttonalliance.gbaresourceserver.usage.repository.ReadingTypeRepository;
+import org.greenbuttonalliance.gbaresourceserver.usage.repository.RetailCustomerRepository;
+import org.greenbuttonalliance.gbaresourceserver.usage.repository.TimeConfigurationRepository;
+import org.greenbuttonalliance.gbaresourceserver.usage.repository.UsagePointRepository;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.springframework.core.env.StandardEnvironment;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import javax.sql.DataSource;
+import java.io.ByteArrayInputStream;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.*;
+
+/**
+ * Throughput of the import pipeline over synthetic feeds ({@link SyntheticFeeds}), for a range of writer counts. Not picked up by a plain <code>mvn test</code>;
+ * run it with <code>mvn test -Dtest=ImportPipelineBenchmark</code>, optionally setting <code>-Dbenchmark.usagePoints</code> and <code>-Dbenchmark.days</code>.
+ */
+@Testcontainers
+@SpringBootTest
+public class ImportPipelineBenchmark {
+	private static final int USAGE_POINTS = Integer.getInteger("benchmark.usagePoints", 200);
+	private static final int DAYS = Integer.getInteger("benchmark.days", 30);
+	private static final int[] WRITER_THREADS = {1, 2, 4, 8};
+
+	@Container
+	@ServiceConnection
+	static PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>("postgres:latest");
+
+	@Autowired
+	private RetailCustomerRepository retailCustomerRepository;
+	@Autowired
+	private UsagePointRepository usagePointRepository;
+	@Autowired
+	private TimeConfigurationRepository timeConfigurationRepository;
+	@Autowired
+	private MeterReadingRepository meterReadingRepository;
+	@Autowired
+	private ReadingTypeRepository readingTypeRepository;
+	@Autowired
+	private IntervalDataWriter intervalDataWriter;
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+	@Autowired
+	private DataSource dataSource;
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	private static RetailCustomer retailCustomer;
+
+	@BeforeAll
+	static void buildRetailCustomer() {
+		retailCustomer = TestUtils.createUsagePoint().getRetailCustomer();
+		retailCustomer.setUuid(UuidCreator.getNameBasedSha1(UuidCreator.NAMESPACE_URL, retailCustomer.getSelfLinkHref()));
+	}
+
+	@Test
+	public void importThroughputByWriterCount() {
+		// plain SQL, because merging a RetailCustomer through JPA also loads its Subscriptions, whose mapping does not match the schema
+		UUID retailCustomerUuid = retailCustomer.getUuid();
+		jdbcTemplate.update("INSERT INTO usage.retail_customer (uuid, self_link_href, up_link_href) VALUES (?, ?, ?) ON CONFLICT DO NOTHING", retailCustomerUuid,
+			retailCustomer.getSelfLinkHref(), retailCustomer.getUpLinkHref());
+
+		// one untimed run so JIT, connection pool and caches are warm for the first measured one
+		GreenButtonImporter warmup = importer(2, new SimpleMeterRegistry());
+		warmup.importFeed(new ByteArrayInputStream(SyntheticFeeds.feed("warmup", USAGE_POINTS / 10 + 1, 2)), retailCustomerUuid,
+			UsagePointAccess.UNRESTRICTED);
+		warmup.shutdown();
+
+		for (int writers : WRITER_THREADS) {
+			byte[] feed = SyntheticFeeds.feed("writers" + writers, USAGE_POINTS, DAYS);
+			SimpleMeterRegistry meters = new SimpleMeterRegistry();
+			GreenButtonImporter importer = importer(writers, meters);
+
+			long started = System.nanoTime();
+			ImportSummary summary = importer.importFeed(new ByteArrayInputStream(feed), retailCustomerUuid, UsagePointAccess.UNRESTRICTED);
+			double seconds = (System.nanoTime() - started) / 1e9;
+
+			// the same feed again, as a metering system re-sending a window it already delivered
+			started = System.nanoTime();
+			ImportSummary redelivery = importer.importFeed(new ByteArrayInputStream(feed), retailCustomerUuid, UsagePointAccess.UNRESTRICTED);
+			double redeliverySeconds = (System.nanoTime() - started) / 1e9;
+			importer.shutdown();
+
+			assertThat(redelivery.unchangedReadings()).isEqualTo(redelivery.intervalReadings());
+
+			assertThat(summary.intervalBlocks()).isEqualTo((long) USAGE_POINTS * DAYS);
+			System.out.printf("writers=%d feed=%.1fMB blocks=%d readings=%d time=%.2fs readings/s=%.0f batches=%d meanBatch=%.1fms%n",
+				writers, feed.length / 1e6, summary.intervalBlocks(), summary.intervalReadings(), seconds, summary.intervalReadings() / seconds,
+				meters.get("gba.ingest.batch.write").timer().count(),
+				meters.get("gba.ingest.batch.write").timer().mean(TimeUnit.MILLISECONDS));
+			System.out.printf("writers=%d redelivery time=%.2fs readings/s=%.0f unchanged=%d%n",
+				writers, redeliverySeconds, redelivery.intervalReadings() / redeliverySeconds, redelivery.unchangedReadings());
+		}
+	}
+
+	private GreenButtonImporter importer(int writerThreads, SimpleMeterRegistry meters) {
+		return new GreenButtonImporter(retailCustomerRepository, usagePointRepository, timeConfigurationRepository, meterReadingRepository, readingTypeRepository,
+			intervalDataWriter, transactionManager, new DatabaseBulkheads(dataSource, meters, new StandardEnvironment(), 0, writerThreads, 30), meters, 5000, 0, writerThreads, 256);
+	}
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.greenbuttonalliance.gbaresourceserver.usage.ingest;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.RequiredArgsConstructor;
+import org.greenbuttonalliance.gbaresourceserver.usage.model.enums.QualityOfReading;
+import org.greenbuttonalliance.gbaresourceserver.usage.rollup.IntervalRollupMaintainer;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.*;
+
+@Testcontainers
+@DataJpaTest(showSql = false)
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Import({IntervalDataWriter.class, IntervalRollupMaintainer.class, SimpleMeterRegistry.class})
+@RequiredArgsConstructor(onConstructor = @__(@Autowired))
+public class IntervalDataWriterTest {
+	private final IntervalDataWriter intervalDataWriter;
+	private final JdbcTemplate jdbcTemplate;
+
+	// MeterReading of the V0.1.99 sample data
+	private static final UUID METER_READING = UUID.fromString("23292f44-eb82-53e1-92d8-db64aaad9705");
+	private static final LocalDateTime DELIVERED = LocalDateTime.parse("2024-03-01T00:00:00");
+	private static final long START = 1709251200L;
+
+	@Container
+	@ServiceConnection
+	static PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>("postgres:latest");
+
+	@Test
+	public void write_redeliveryOfStoredValuesWritesNothing() {
+		UUID original = UUID.randomUUID();
+		assertThat(intervalDataWriter.write(List.of(block(original, reading(START, 282L), reading(START + 900, 323L))))).isEqualTo(2);
+
+		// a re-delivery may carry a new block id; the stored block keeps its own
+		assertThat(intervalDataWriter.write(List.of(block(UUID.randomUUID(), reading(START, 282L), reading(START + 900, 323L))))).isZero();
+
+		assertThat(jdbcTemplate.queryForList("SELECT uuid FROM usage.interval_block WHERE meter_reading_uuid = ? AND start = ?", UUID.class, METER_READING, START))
+			.containsExactly(original);
+		assertThat(jdbcTemplate.queryForObject("SELECT count(*) FROM usage.interval_reading WHERE block_uuid = ?", Long.class, original)).isEqualTo(2);
+		assertThat(blockUpdated(original)).isEqualTo(DELIVERED);
+	}
+
+	@Test
+	public void write_changedReadingIsUpdatedInPlaceAndTouchesItsBlock() {
+		UUID original = UUID.randomUUID();
+		intervalDataWriter.write(List.of(block(original, reading(START, 282L), reading(START + 900, 323L))));
+		Long unchangedId = readingId(original, START);
+
+		IntervalReadingRecord estimated = new IntervalReadingRecord(START + 900, 900, 330L, null, null, null, null,
+			List.of(QualityOfReading.ESTIMATED_USING_REFERENCE_DAY));
+		assertThat(intervalDataWriter.write(List.of(block(original, reading(START, 282L), estimated)))).isEqualTo(1);
+
+		assertThat(readingId(original, START)).isEqualTo(unchangedId);
+		assertThat(jdbcTemplate.queryForObject("SELECT value FROM usage.interval_reading WHERE block_uuid = ? AND start = ?", Long.class, original, START + 900))
+			.isEqualTo(330L);
+		assertThat(jdbcTemplate.queryForList("SELECT q.quality::text FROM usage.reading_quality q WHERE q.reading_id = ?", String.class,
+			readingId(original, START + 900))).containsExactly("ESTIMATED_USING_REFERENCE_DAY");
+		assertThat(blockUpdated(original)).isAfter(DELIVERED);
+	}
+
+	@Test
+	public void write_laterDuplicateInOneBatchWins() {
+		UUID first = UUID.randomUUID();
+		assertThat(intervalDataWriter.write(List.of(block(first, reading(START, 1L)), block(UUID.randomUUID(), reading(START, 2L), reading(START, 3L))))).isEqualTo(1);
+
+		assertThat(jdbcTemplate.queryForList("SELECT r.value FROM usage.interval_reading r JOIN usage.interval_block b ON b.uuid = r.block_uuid " +
+			"WHERE b.meter_reading_uuid = ? AND b.start = ?", Long.class, METER_READING, START)).containsExactly(3L);
+	}
+
+	private static IntervalBlockRecord block(UUID uuid, IntervalReadingRecord... readings) {
+		return new IntervalBlockRecord(uuid, METER_READING, "self", "up", DELIVERED, DELIVERED, START, 3600, List.of(readings));
+	}
+
+	private static IntervalReadingRecord reading(long start, Long value) {
+		return new IntervalReadingRecord(start, 900, value, null, null, null, null, List.of());
+	}
+
+	private Long readingId(UUID blockUuid, long start) {
+		return jdbcTemplate.queryForObject("SELECT id FROM usage.interval_reading WHERE block_uuid = ? AND start = ?", Long.class, blockUuid, start);
+	}
+
+	private LocalDateTime blockUpdated(UUID blockUuid) {
+		return jdbcTemplate.queryForObject("SELECT updated FROM usage.interval_block WHERE uuid = ?", LocalDateTime.class, blockUuid);
+	}
+}
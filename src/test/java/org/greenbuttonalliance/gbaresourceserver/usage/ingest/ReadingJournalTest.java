@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.greenbuttonalliance.gbaresourceserver.usage.ingest;
+
+import org.greenbuttonalliance.gbaresourceserver.usage.model.enums.QualityOfReading;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class ReadingJournalTest {
+	private static final UUID METER_READING = UUID.fromString("23292f44-eb82-53e1-92d8-db64aaad9705");
+	private static final List<IntervalReadingRecord> READINGS = List.of(
+		new IntervalReadingRecord(1_700_000_000L, 900, 1234L, 56L, (short) 1, (short) 2, (short) 3, List.of(QualityOfReading.ESTIMATED_USING_REFERENCE_DAY,
+			QualityOfReading.REVENUE_QUALITY)),
+		new IntervalReadingRecord(1_700_000_900L, 900, null, null, null, null, null, List.of()));
+
+	@TempDir
+	Path directory;
+
+	@Test
+	public void replay_returnsAppendedRecordsInOrder() throws IOException {
+		UUID other = UUID.randomUUID();
+		try (ReadingJournal journal = new ReadingJournal(directory)) {
+			journal.replay();
+			journal.sync(journal.append(METER_READING, READINGS));
+			journal.sync(journal.append(other, READINGS.subList(1, 2)));
+		}
+
+		try (ReadingJournal journal = new ReadingJournal(directory)) {
+			assertThat(journal.replay()).containsExactly(
+				new ReadingJournal.Entry(1, METER_READING, READINGS),
+				new ReadingJournal.Entry(1, other, READINGS.subList(1, 2)));
+		}
+	}
+
+	@Test
+	public void replay_cutsOffTornRecord() throws IOException {
+		try (ReadingJournal journal = new ReadingJournal(directory)) {
+			journal.replay();
+			journal.sync(journal.append(METER_READING, READINGS));
+		}
+		Path segment = segments().getFirst();
+		long intact = Files.size(segment);
+		// a crash halfway through the next record
+		Files.write(segment, new byte[]{0, 0, 0, 40, 1, 2, 3, 4, 5}, StandardOpenOption.APPEND);
+
+		try (ReadingJournal journal = new ReadingJournal(directory)) {
+			assertThat(journal.replay()).extracting(ReadingJournal.Entry::readings).containsExactly(READINGS);
+		}
+		assertThat(Files.size(segment)).isEqualTo(intact);
+	}
+
+	@Test
+	public void delete_removesStoredSegmentsOnly() throws IOException {
+		try (ReadingJournal journal = new ReadingJournal(directory)) {
+			journal.replay();
+			journal.append(METER_READING, READINGS);
+			long next = journal.roll();
+			journal.sync(journal.append(METER_READING, READINGS.subList(0, 1)));
+			journal.delete(0, next);
+		}
+
+		try (ReadingJournal journal = new ReadingJournal(directory)) {
+			assertThat(journal.replay()).containsExactly(new ReadingJournal.Entry(2, METER_READING, READINGS.subList(0, 1)));
+		}
+	}
+
+	private List<Path> segments() throws IOException {
+		try (Stream<Path> files = Files.list(directory)) {
+			return files.sorted().toList();
+		}
+	}
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.greenbuttonalliance.gbaresourceserver.usage.ingest;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.RequiredArgsConstructor;
+import org.greenbuttonalliance.gbaresourceserver.usage.access.UsagePointAccess;
+import org.greenbuttonalliance.gbaresourceserver.usage.controller.exception.IngestBackloggedException;
+import org.greenbuttonalliance.gbaresourceserver.usage.rollup.IntervalRollupMaintainer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.springframework.context.annotation.Import;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.TransientDataAccessResourceException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+@Testcontainers
+@DataJpaTest(showSql = false)
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Import({IntervalDataWriter.class, IntervalRollupMaintainer.class, SimpleMeterRegistry.class})
+@RequiredArgsConstructor(onConstructor = @__(@Autowired))
+// the buffer writes on its own flusher thread, which would not see data of an open test transaction
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+public class RealtimeReadingBufferTest {
+	private final IntervalDataWriter intervalDataWriter;
+	private final JdbcTemplate jdbcTemplate;
+
+	// 2030-01-01T00:00:00Z; the UsagePoints have no TimeConfiguration, so their days are UTC days
+	private static final long DAY_START = 1893456000L;
+	private static final long DAY = 86400;
+	// long enough that only a full buffer or shutdown flushes
+	private static final long NO_TIMED_FLUSH = 60_000;
+
+	@Container
+	@ServiceConnection
+	static PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>("postgres:latest");
+
+	@TempDir
+	Path journalDir;
+
+	private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+	@Test
+	public void accept_coalescesReadingsIntoBlocksOfLocalDays() throws Exception {
+		UUID meterReading = meterReading();
+		// a stored block in the middle of the third day limits the new block before it
+		intervalDataWriter.write(List.of(new IntervalBlockRecord(UUID.randomUUID(), meterReading, null, null, null, null, DAY_START + 2 * DAY + 7200, 3600,
+			List.of(reading(DAY_START + 2 * DAY + 7200, 5)))));
+		RealtimeReadingBuffer buffer = buffer(1000, NO_TIMED_FLUSH, 0, 0);
+		buffer.start();
+
+		buffer.accept(meterReading, List.of(reading(DAY_START, 1), reading(DAY_START + 900, 2)), UsagePointAccess.UNRESTRICTED);
+		// the later delivery of a start wins
+		buffer.accept(meterReading, List.of(reading(DAY_START + 900, 20), reading(DAY_START + DAY + 3600, 3)), UsagePointAccess.UNRESTRICTED);
+		buffer.accept(meterReading, List.of(reading(DAY_START + 2 * DAY, 4), reading(DAY_START + 2 * DAY + 8100, 6)), UsagePointAccess.UNRESTRICTED);
+		buffer.shutdown();
+
+		assertThat(jdbcTemplate.queryForList("SELECT start, duration FROM usage.interval_block WHERE meter_reading_uuid = ? ORDER BY start", meterReading))
+			.containsExactly(
+				Map.of("start", DAY_START, "duration", DAY),
+				Map.of("start", DAY_START + DAY, "duration", DAY),
+				Map.of("start", DAY_START + 2 * DAY, "duration", 7200L),
+				Map.of("start", DAY_START + 2 * DAY + 7200, "duration", 3600L));
+		assertThat(stored(meterReading)).containsExactly(
+			Map.of("block_start", DAY_START, "start", DAY_START, "value", 1L),
+			Map.of("block_start", DAY_START, "start", DAY_START + 900, "value", 20L),
+			Map.of("block_start", DAY_START + DAY, "start", DAY_START + DAY + 3600, "value", 3L),
+			Map.of("block_start", DAY_START + 2 * DAY, "start", DAY_START + 2 * DAY, "value", 4L),
+			Map.of("block_start", DAY_START + 2 * DAY + 7200, "start", DAY_START + 2 * DAY + 7200, "value", 5L),
+			Map.of("block_start", DAY_START + 2 * DAY + 7200, "start", DAY_START + 2 * DAY + 8100, "value", 6L));
+		assertThat(readings("journaled")).isEqualTo(6);
+		assertThat(readings("written")).isEqualTo(5);
+		assertThat(journaled()).isEmpty();
+	}
+
+	@Test
+	public void flush_requeuesABatchThatCannotBeWritten() throws Exception {
+		UUID meterReading = meterReading();
+		IntervalDataWriter failingOnce = mock(IntervalDataWriter.class);
+		when(failingOnce.overlappingBlocks(any(), any(), any()))
+			.thenAnswer(invocation -> intervalDataWriter.overlappingBlocks(invocation.getArgument(0), invocation.getArgument(1), invocation.getArgument(2)));
+		when(failingOnce.write(anyList()))
+			.thenThrow(new TransientDataAccessResourceException("database unavailable"))
+			.thenAnswer(invocation -> intervalDataWriter.write(invocation.getArgument(0)));
+		RealtimeReadingBuffer buffer = new RealtimeReadingBuffer(failingOnce, jdbcTemplate, meterRegistry, journalDir, 2, 100, 0, 0, DAY);
+		buffer.start();
+
+		buffer.accept(meterReading, List.of(reading(DAY_START, 1), reading(DAY_START + 900, 2)), UsagePointAccess.UNRESTRICTED);
+		awaitReadings("written", 2);
+		buffer.shutdown();
+
+		verify(failingOnce, times(2)).write(anyList());
+		assertThat(stored(meterReading)).extracting(reading -> reading.get("value")).containsExactly(1L, 2L);
+		assertThat(journaled()).isEmpty();
+	}
+
+	@Test
+	public void flush_keepsOnlyTheMeterReadingThatBreaksAConstraint() throws Exception {
+		UUID failing = meterReading();
+		UUID kept = meterReading();
+		IntervalDataWriter rejectingOne = mock(IntervalDataWriter.class);
+		when(rejectingOne.overlappingBlocks(any(), any(), any()))
+			.thenAnswer(invocation -> intervalDataWriter.overlappingBlocks(invocation.getArgument(0), invocation.getArgument(1), invocation.getArgument(2)));
+		when(rejectingOne.write(anyList())).thenAnswer(invocation -> {
+			List<IntervalBlockRecord> blocks = invocation.getArgument(0);
+			if (blocks.stream().anyMatch(block -> block.meterReadingUuid().equals(failing))) {
+				throw new DataIntegrityViolationException("constraint violated");
+			}
+			return intervalDataWriter.write(blocks);
+		});
+		RealtimeReadingBuffer buffer = new RealtimeReadingBuffer(rejectingOne, jdbcTemplate, meterRegistry, journalDir, 1000, NO_TIMED_FLUSH, 0, 0, DAY);
+		buffer.start();
+
+		buffer.accept(failing, List.of(reading(DAY_START, 9)), UsagePointAccess.UNRESTRICTED);
+		buffer.accept(kept, List.of(reading(DAY_START, 1), reading(DAY_START + 900, 2)), UsagePointAccess.UNRESTRICTED);
+		buffer.shutdown();
+
+		assertThat(stored(kept)).extracting(reading -> reading.get("value")).containsExactly(1L, 2L);
+		assertThat(stored(failing)).isEmpty();
+		// the segments stay until the failing readings are stored too
+		assertThat(journaled()).extracting(ReadingJournal.Entry::meterReadingUuid).containsExactlyInAnyOrder(failing, kept);
+	}
+
+	@Test
+	public void flush_dropsTheReadingsOfAMeterReadingDeletedSinceTheyWereAccepted() throws Exception {
+		UUID deleted = meterReading();
+		UUID kept = meterReading();
+		RealtimeReadingBuffer buffer = buffer(1000, NO_TIMED_FLUSH, 0, 0);
+		buffer.start();
+
+		buffer.accept(deleted, List.of(reading(DAY_START, 9)), UsagePointAccess.UNRESTRICTED);
+		buffer.accept(kept, List.of(reading(DAY_START, 1), reading(DAY_START + 900, 2)), UsagePointAccess.UNRESTRICTED);
+		// its target stays cached from the accept
+		jdbcTemplate.update("DELETE FROM usage.meter_reading WHERE uuid = ?", deleted);
+		buffer.shutdown();
+
+		assertThat(stored(kept)).extracting(reading -> reading.get("value")).containsExactly(1L, 2L);
+		assertThat(jdbcTemplate.queryForObject("SELECT count(*) FROM usage.interval_block WHERE meter_reading_uuid = ?", Long.class, deleted)).isZero();
+		assertThat(readings("dropped")).isEqualTo(1);
+		assertThat(journaled()).isEmpty();
+	}
+
+	@Test
+	public void accept_turnsAwayReadingsWhileTheBufferIsFull() throws Exception {
+		UUID meterReading = meterReading();
+		RealtimeReadingBuffer buffer = buffer(1000, NO_TIMED_FLUSH, 2, 100);
+		buffer.start();
+
+		buffer.accept(meterReading, List.of(reading(DAY_START, 1), reading(DAY_START + 900, 2)), UsagePointAccess.UNRESTRICTED);
+		assertThatThrownBy(() -> buffer.accept(meterReading, List.of(reading(DAY_START + 1800, 3)), UsagePointAccess.UNRESTRICTED))
+			.isInstanceOf(IngestBackloggedException.class);
+		buffer.shutdown();
+
+		assertThat(stored(meterReading)).extracting(reading -> reading.get("value")).containsExactly(1L, 2L);
+		assertThat(readings("journaled")).isEqualTo(2);
+	}
+
+	@Test
+	public void start_replaysReadingsLeftInTheJournal() throws Exception {
+		UUID meterReading = meterReading();
+		try (ReadingJournal journal = new ReadingJournal(journalDir)) {
+			journal.replay();
+			journal.sync(journal.append(meterReading, List.of(reading(DAY_START, 1), reading(DAY_START + 900, 2))));
+			journal.roll();
+			journal.sync(journal.append(meterReading, List.of(reading(DAY_START + 900, 20))));
+		}
+		RealtimeReadingBuffer buffer = buffer(1000, NO_TIMED_FLUSH, 0, 0);
+
+		buffer.start();
+		buffer.shutdown();
+
+		assertThat(stored(meterReading)).extracting(reading -> reading.get("value")).containsExactly(1L, 20L);
+		assertThat(readings("replayed")).isEqualTo(3);
+		assertThat(journaled()).isEmpty();
+	}
+
+	private RealtimeReadingBuffer buffer(int flushSize, long flushIntervalMillis, int maxBuffered, long backlogTimeoutMillis) throws IOException {
+		return new RealtimeReadingBuffer(intervalDataWriter, jdbcTemplate, meterRegistry, journalDir, flushSize, flushIntervalMillis, maxBuffered,
+			backlogTimeoutMillis, DAY);
+	}
+
+	private UUID meterReading() {
+		UUID usagePoint = UUID.randomUUID();
+		jdbcTemplate.update("INSERT INTO usage.usage_point (uuid) VALUES (?)", usagePoint);
+		UUID meterReading = UUID.randomUUID();
+		jdbcTemplate.update("INSERT INTO usage.meter_reading (uuid, usage_point_uuid) VALUES (?, ?)", meterReading, usagePoint);
+		return meterReading;
+	}
+
+	private List<Map<String, Object>> stored(UUID meterReading) {
+		return jdbcTemplate.queryForList("SELECT b.start AS block_start, r.start, r.value FROM usage.interval_reading r " +
+			"JOIN usage.interval_block b ON b.uuid = r.block_uuid WHERE b.meter_reading_uuid = ? ORDER BY r.start", meterReading);
+	}
+
+	private List<ReadingJournal.Entry> journaled() throws IOException {
+		try (ReadingJournal journal = new ReadingJournal(journalDir)) {
+			return journal.replay();
+		}
+	}
+
+	private double readings(String outcome) {
+		return meterRegistry.get("gba.ingest.realtime.readings").tag("outcome", outcome).counter().count();
+	}
+
+	private void awaitReadings(String outcome, double count) throws InterruptedException {
+		long deadline = System.nanoTime() + 30_000_000_000L;
+		while (readings(outcome) < count) {
+			assertThat(System.nanoTime()).as("readings %s by now", outcome).isLessThan(deadline);
+			Thread.sleep(20);
+		}
+	}
+
+	private static IntervalReadingRecord reading(long start, long value) {
+		return new IntervalReadingRecord(start, 900, value, null, null, null, null, List.of());
+	}
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.greenbuttonalliance.gbaresourceserver.usage.ingest;
+
+import org.greenbuttonalliance.gbaresourceserver.TestUtils;
+import org.greenbuttonalliance.gbaresourceserver.usage.model.MeterReading;
+import org.greenbuttonalliance.gbaresourceserver.usage.model.ReadingType;
+import org.greenbuttonalliance.gbaresourceserver.usage.model.TimeConfiguration;
+import org.greenbuttonalliance.gbaresourceserver.usage.model.UsagePoint;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.HexFormat;
+
+/**
+ * Builds Green Button feeds of any size from the entities of {@link TestUtils#createUsagePoint()}: every UsagePoint, MeterReading and ReadingType carries the
+ * template's values, and each day of interval data is one IntervalBlock of readings at the template ReadingType's intervalLength.
+ */
+public final class SyntheticFeeds {
+	public static final String RESOURCE = "https://localhost:8080/DataCustodian/espi/1_1/resource/";
+	private static final long FIRST_DAY = 1704067200L; // 2024-01-01T00:00:00Z
+	private static final long DAY = 86400L;
+
+	private SyntheticFeeds() {
+	}
+
+	/**
+	 * @param prefix distinguishes the link paths, and so the uuids, of feeds imported into the same database
+	 */
+	public static byte[] feed(String prefix, int usagePoints, int days) {
+		UsagePoint template = TestUtils.createUsagePoint();
+		TimeConfiguration timeConfiguration = template.getTimeConfiguration();
+		MeterReading meterReading = template.getMeterReadings().iterator().next();
+		ReadingType readingType = meterReading.getReadingType();
+		long intervalLength = readingType.getIntervalLength();
+		HexFormat hex = HexFormat.of().withUpperCase();
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (PrintWriter out = new PrintWriter(new OutputStreamWriter(bytes, StandardCharsets.UTF_8))) {
+			out.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+			out.println("<feed xmlns=\"http://www.w3.org/2005/Atom\" xmlns:espi=\"http://naesb.org/espi\">");
+			out.printf("<title>Synthetic %s</title>%n", prefix);
+
+			entry(out, prefix + "/LocalTimeParameters/1", timeConfiguration.getDescription(), null, """
+				<espi:LocalTimeParameters><espi:dstEndRule>%s</espi:dstEndRule><espi:dstOffset>%d</espi:dstOffset>\
+				<espi:dstStartRule>%s</espi:dstStartRule><espi:tzOffset>%d</espi:tzOffset></espi:LocalTimeParameters>"""
+				.formatted(hex.formatHex(timeConfiguration.getDstEndRule()), timeConfiguration.getDstOffset(), hex.formatHex(timeConfiguration.getDstStartRule()),
+					timeConfiguration.getTzOffset()));
+			entry(out, prefix + "/ReadingType/1", readingType.getDescription(), null, """
+				<espi:ReadingType><espi:accumulationBehaviour>%d</espi:accumulationBehaviour><espi:commodity>%d</espi:commodity>\
+				<espi:flowDirection>%d</espi:flowDirection><espi:intervalLength>%d</espi:intervalLength>\
+				<espi:powerOfTenMultiplier>%d</espi:powerOfTenMultiplier><espi:uom>%d</espi:uom></espi:ReadingType>"""
+				.formatted(readingType.getAccumulationBehavior().schemaValue, readingType.getCommodity().schemaValue, readingType.getFlowDirection().schemaValue,
+					intervalLength, readingType.getPowerOfTenMultiplier().schemaValue, readingType.getUom().schemaValue));
+
+			for (int up = 0; up < usagePoints; up++) {
+				String usagePointPath = "%s/RetailCustomer/1/UsagePoint/%d".formatted(prefix, up);
+				String meterReadingPath = usagePointPath + "/MeterReading/1";
+				entry(out, usagePointPath, template.getDescription(), prefix + "/LocalTimeParameters/1", """
+					<espi:UsagePoint><espi:roleFlags>%s</espi:roleFlags><espi:ServiceCategory><espi:kind>%d</espi:kind></espi:ServiceCategory>\
+					<espi:status>%d</espi:status></espi:UsagePoint>"""
+					.formatted(hex.formatHex(template.getRoleFlags()), template.getServiceCategory().schemaValue, template.getStatus()));
+				entry(out, meterReadingPath, meterReading.getDescription(), prefix + "/ReadingType/1", "<espi:MeterReading/>");
+
+				for (int day = 0; day < days; day++) {
+					long start = FIRST_DAY + day * DAY;
+					StringBuilder block = new StringBuilder(160 * (int) (DAY / intervalLength));
+					block.append("<espi:IntervalBlock><espi:interval><espi:duration>").append(DAY).append("</espi:duration><espi:start>").append(start)
+						.append("</espi:start></espi:interval>");
+					for (long t = start; t < start + DAY; t += intervalLength) {
+						block.append("<espi:IntervalReading><espi:timePeriod><espi:duration>").append(intervalLength).append("</espi:duration><espi:start>")
+							.append(t).append("</espi:start></espi:timePeriod><espi:value>").append((t / intervalLength + up) % 1000).append("</espi:value></espi:IntervalReading>");
+					}
+					block.append("</espi:IntervalBlock>");
+					entry(out, meterReadingPath + "/IntervalBlock/" + day, null, null, block.toString());
+				}
+			}
+			out.println("</feed>");
+		}
+		return bytes.toByteArray();
+	}
+
+	private static void entry(PrintWriter out, String path, String title, String relatedPath, String content) {
+		out.println("<entry>");
+		out.printf("<link rel=\"self\" href=\"%s%s\"/>%n", RESOURCE, path);
+		out.printf("<link rel=\"up\" href=\"%s%s\"/>%n", RESOURCE, path.substring(0, path.lastIndexOf('/')));
+		if (relatedPath != null) {
+			out.printf("<link rel=\"related\" href=\"%s%s\"/>%n", RESOURCE, relatedPath);
+		}
+		if (title != null) {
+			out.printf("<title>%s</title>%n", title);
+		}
+		out.printf("<content>%s</content>%n", content);
+		out.println("</entry>");
+	}
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.greenbuttonalliance.gbaresourceserver.usage.net;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.RequiredArgsConstructor;
+import org.greenbuttonalliance.gbaresourceserver.usage.access.UsagePointAccess;
+import org.greenbuttonalliance.gbaresourceserver.usage.bulkhead.DatabaseBulkheads;
+import org.greenbuttonalliance.gbaresourceserver.usage.controller.exception.InvalidRequestParameterException;
+import org.greenbuttonalliance.gbaresourceserver.usage.ingest.IntervalBlockRecord;
+import org.greenbuttonalliance.gbaresourceserver.usage.ingest.IntervalDataWriter;
+import org.greenbuttonalliance.gbaresourceserver.usage.ingest.IntervalReadingRecord;
+import org.greenbuttonalliance.gbaresourceserver.usage.rollup.IntervalRollupMaintainer;
+import org.greenbuttonalliance.gbaresourceserver.usage.scope.EspiScope;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.UUID;
+import java.util.regex.Pattern;
+
+import static org.assertj.core.api.Assertions.*;
+
+@Testcontainers
+@DataJpaTest(showSql = false)
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Import({NetMeterReadingService.class, DatabaseBulkheads.class, IntervalDataWriter.class, IntervalRollupMaintainer.class, SimpleMeterRegistry.class})
+@RequiredArgsConstructor(onConstructor = @__(@Autowired))
+public class NetMeterReadingServiceTest {
+	private final NetMeterReadingService netMeterReadingService;
+	private final IntervalDataWriter intervalDataWriter;
+	private final JdbcTemplate jdbcTemplate;
+
+	// 2024-03-01T00:00:00Z
+	private static final long DAY = 1709251200L;
+
+	@Container
+	@ServiceConnection
+	static PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>("postgres:latest");
+
+	@Test
+	public void findPair_pairsForwardAndReverseOfTheSameUnits() {
+		UUID usagePoint = usagePoint();
+		UUID forward = meterReading(usagePoint, "FORWARD", "W_H", 900);
+		UUID reverse = meterReading(usagePoint, "REVERSE", "W_H", 900);
+		meterReading(usagePoint, "REVERSE", "W_H", 300);
+		meterReading(usagePoint, "REVERSE", "V_A_RH", 900);
+
+		NetPair pair = netMeterReadingService.findPair(reverse, EspiScope.UNRESTRICTED, UsagePointAccess.UNRESTRICTED);
+
+		assertThat(pair).isEqualTo(new NetPair(NetMeterReadingService.netUuid(forward), forward, reverse, ZoneOffset.ofHours(-5), null, EspiScope.NO_HISTORY_LIMIT));
+		assertThat(netMeterReadingService.findPair(forward, EspiScope.UNRESTRICTED, UsagePointAccess.UNRESTRICTED)).isEqualTo(pair);
+	}
+
+	@Test
+	public void findPair_rejectsAMeterReadingWithoutCounterpart() {
+		UUID forward = meterReading(usagePoint(), "FORWARD", "W_H", 900);
+
+		assertThatExceptionOfType(InvalidRequestParameterException.class)
+			.isThrownBy(() -> netMeterReadingService.findPair(forward, EspiScope.UNRESTRICTED, UsagePointAccess.UNRESTRICTED));
+	}
+
+	@Test
+	public void writeNet_writesTheMergedSeriesPerLocalDay() {
+		UUID usagePoint = usagePoint();
+		UUID forward = meterReading(usagePoint, "FORWARD", "W_H", 900);
+		UUID reverse = meterReading(usagePoint, "REVERSE", "W_H", 900);
+		// local midnight is 05:00 UTC
+		write(forward, DAY, reading(DAY + 17100, 100), reading(DAY + 18000, 200));
+		write(reverse, DAY, reading(DAY + 18000, 250), reading(DAY + 18900, 40));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+		netMeterReadingService.writeNet(netMeterReadingService.findPair(forward, EspiScope.UNRESTRICTED, UsagePointAccess.UNRESTRICTED), DAY, DAY + 86400, out);
+
+		String feed = out.toString(StandardCharsets.UTF_8);
+		assertThat(feed).contains(STR."<id>urn:uuid:\{NetMeterReadingService.netUuid(forward)}</id>")
+			.contains(STR."<espi:interval><espi:duration>86400</espi:duration><espi:start>\{DAY - 68400}</espi:start></espi:interval>")
+			.contains(STR."<espi:interval><espi:duration>86400</espi:duration><espi:start>\{DAY + 18000}</espi:start></espi:interval>");
+		assertThat(Pattern.compile("<espi:value>(-?\\d+)</espi:value>").matcher(feed).results().map(result -> result.group(1)))
+			.containsExactly("100", "-50", "-40");
+	}
+
+	private UUID usagePoint() {
+		UUID timeConfiguration = UUID.randomUUID();
+		jdbcTemplate.update("INSERT INTO usage.time_configuration (uuid, tz_offset) VALUES (?, -18000)", timeConfiguration);
+		UUID usagePoint = UUID.randomUUID();
+		jdbcTemplate.update("INSERT INTO usage.usage_point (uuid, time_configuration_uuid) VALUES (?, ?)", usagePoint, timeConfiguration);
+		return usagePoint;
+	}
+
+	private UUID meterReading(UUID usagePoint, String flowDirection, String uom, long intervalLength) {
+		UUID readingType = UUID.randomUUID();
+		jdbcTemplate.update("INSERT INTO usage.reading_type (uuid, accumulation_behavior, flow_direction, uom, power_of_ten_multiplier, interval_length) " +
+				"VALUES (?, 'DELTA_DATA', CAST(? AS usage.flow_direction_kind), CAST(? AS unit_symbol_kind), 'NONE', ?)", readingType, flowDirection, uom,
+			intervalLength);
+		UUID meterReading = UUID.randomUUID();
+		jdbcTemplate.update("INSERT INTO usage.meter_reading (uuid, usage_point_uuid, reading_type_uuid) VALUES (?, ?, ?)", meterReading, usagePoint,
+			readingType);
+		return meterReading;
+	}
+
+	private void write(UUID meterReading, long blockStart, IntervalReadingRecord... readings) {
+		intervalDataWriter.write(List.of(new IntervalBlockRecord(UUID.randomUUID(), meterReading, null, null, null, null, blockStart, 86400,
+			List.of(readings))));
+	}
+
+	private static IntervalReadingRecord reading(long start, long value) {
+		return new IntervalReadingRecord(start, 900, value, null, null, null, null, List.of());
+	}
+}
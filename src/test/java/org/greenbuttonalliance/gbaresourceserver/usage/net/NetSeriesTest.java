@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.greenbuttonalliance.gbaresourceserver.usage.net;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class NetSeriesTest {
+	@Test
+	public void merge_subtractsReverseFromForwardPerStart() {
+		NetSeries net = new NetSeries();
+
+		net.merge(new long[]{0, 900, 1800}, new int[]{900, 900, 900}, new long[]{100, 200, 300}, 0, 3,
+			new long[]{900, 1800}, new int[]{900, 900}, new long[]{50, 400}, 0, 2);
+
+		assertThat(columns(net)).isDeepEqualTo(new long[][]{{0, 900, 1800}, {100, 150, -100}});
+	}
+
+	@Test
+	public void merge_keepsIntervalsOnlyOneSeriesHas() {
+		NetSeries net = new NetSeries();
+
+		net.merge(new long[]{-1, 0, 1800, 3600}, new int[]{0, 900, 900, 900}, new long[]{-1, 100, 300, 400}, 1, 4,
+			new long[]{900, 2700, 4500}, new int[]{900, 900, 900}, new long[]{20, 30, 40}, 0, 3);
+
+		assertThat(columns(net)).isDeepEqualTo(new long[][]{{0, 900, 1800, 2700, 3600, 4500}, {100, -20, 300, -30, 400, -40}});
+		assertThat(Arrays.copyOf(net.durations(), net.size())).containsOnly(900);
+	}
+
+	@Test
+	public void merge_growsAndReusesItsColumns() {
+		NetSeries net = new NetSeries();
+		long[] starts = new long[3000];
+		int[] durations = new int[3000];
+		long[] values = new long[3000];
+		for (int i = 0; i < starts.length; i++) {
+			starts[i] = i * 900L;
+			durations[i] = 900;
+			values[i] = i;
+		}
+
+		net.merge(starts, durations, values, 0, 3000, starts, durations, values, 0, 2000);
+		assertThat(net.size()).isEqualTo(3000);
+		assertThat(net.values()[1999]).isZero();
+		assertThat(net.values()[2999]).isEqualTo(2999);
+
+		net.merge(starts, durations, values, 0, 1, new long[0], new int[0], new long[0], 0, 0);
+		assertThat(columns(net)).isDeepEqualTo(new long[][]{{0}, {0}});
+	}
+
+	private static long[][] columns(NetSeries net) {
+		return new long[][]{Arrays.copyOf(net.starts(), net.size()), Arrays.copyOf(net.values(), net.size())};
+	}
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.greenbuttonalliance.gbaresourceserver.usage.quality;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.RequiredArgsConstructor;
+import org.greenbuttonalliance.gbaresourceserver.usage.bulkhead.DatabaseBulkheads;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import javax.sql.DataSource;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.*;
+
+@Testcontainers
+@DataJpaTest(showSql = false)
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Import({PowerQualityAggregationService.class, DatabaseBulkheads.class, SimpleMeterRegistry.class})
+@RequiredArgsConstructor(onConstructor = @__(@Autowired))
+public class PowerQualityAggregationServiceTest {
+	private final PowerQualityAggregationService powerQualityAggregationService;
+	private final JdbcTemplate jdbcTemplate;
+	private final DataSource dataSource;
+	private final DatabaseBulkheads databaseBulkheads;
+
+	// 2024-03-01T00:00:00Z
+	private static final long MARCH = 1709251200L;
+	private static final long DAY = 86400;
+
+	@Container
+	@ServiceConnection
+	static PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>("postgres:latest");
+
+	@Test
+	public void aggregate_totalsCountsAndTakesWorstLevelsPerGroup() {
+		// regions of their own, so that rows of the other tests do not count
+		String north = "north-" + UUID.randomUUID();
+		UUID north1 = usagePoint(north);
+		UUID north2 = usagePoint(north);
+		UUID south = usagePoint("south-" + UUID.randomUUID());
+		summary(north1, MARCH, 2, 5, 900, 49_990);
+		summary(north1, MARCH + DAY, 1, 0, 1200, 50_020);
+		summary(north2, MARCH, 4, 1, 700, 50_000);
+		summary(south, MARCH, 9, 9, 9999, 50_000);
+		// starts outside the window
+		summary(north2, MARCH + 31 * DAY, 100, 100, 100_000, 40_000);
+
+		PowerQualityAggregates byRegion = powerQualityAggregationService.aggregate(MARCH, MARCH + 31 * DAY, PowerQualityGrouping.OUTAGE_REGION, north);
+		assertThat(byRegion.aggregates()).singleElement().satisfies(aggregate -> {
+			assertThat(aggregate.group()).isEqualTo(north);
+			assertThat(aggregate.summaries()).isEqualTo(3);
+			assertThat(aggregate.usagePoints()).isEqualTo(2);
+			assertThat(aggregate.start()).isEqualTo(MARCH);
+			assertThat(aggregate.end()).isEqualTo(MARCH + 2 * DAY);
+			assertThat(aggregate.longInterruptions()).isEqualTo(7);
+			assertThat(aggregate.supplyVoltageDips()).isEqualTo(6);
+			assertThat(aggregate.maxFlickerPst()).isEqualTo(1200);
+			assertThat(aggregate.minPowerFrequency()).isEqualTo(49_990);
+			assertThat(aggregate.maxPowerFrequency()).isEqualTo(50_020);
+			assertThat(aggregate.shortInterruptions()).isNull();
+		});
+
+		PowerQualityAggregates byUsagePoint = powerQualityAggregationService.aggregate(MARCH, MARCH + 31 * DAY, PowerQualityGrouping.USAGE_POINT, north);
+		assertThat(byUsagePoint.aggregates()).extracting(PowerQualityAggregate::group, PowerQualityAggregate::longInterruptions)
+			.containsExactlyInAnyOrder(tuple(north1.toString(), 3L), tuple(north2.toString(), 4L));
+	}
+
+	@Test
+	public void aggregate_answersRepeatsFromTheCache() {
+		String region = "east-" + UUID.randomUUID();
+		UUID usagePoint = usagePoint(region);
+		summary(usagePoint, MARCH, 1, 0, 0, 50_000);
+		SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+		Clock clock = Clock.fixed(Instant.ofEpochSecond(MARCH + 40 * DAY), ZoneOffset.UTC);
+		PowerQualityAggregationService cached = new PowerQualityAggregationService(dataSource, databaseBulkheads, meterRegistry, clock, 300, 10, 300);
+
+		PowerQualityAggregates first = cached.aggregate(MARCH, MARCH + DAY, PowerQualityGrouping.OUTAGE_REGION, region);
+		summary(usagePoint, MARCH + 3600, 1, 0, 0, 50_000);
+
+		assertThat(cached.aggregate(MARCH, MARCH + DAY, PowerQualityGrouping.OUTAGE_REGION, region)).isSameAs(first);
+		assertThat(meterRegistry.get("gba.power-quality.cache").tag("result", "hit").counter().count()).isEqualTo(1);
+		// without a ttl nothing is cached
+		assertThat(new PowerQualityAggregationService(dataSource, databaseBulkheads, new SimpleMeterRegistry(), clock, 0, 10, 300)
+			.aggregate(MARCH, MARCH + DAY, PowerQualityGrouping.OUTAGE_REGION, region).aggregates().getFirst().longInterruptions()).isEqualTo(2);
+	}
+
+	@Test
+	public void aggregate_sharesOneResultAcrossAMovingWindowWithinTheAlignment() {
+		String region = "west-" + UUID.randomUUID();
+		summary(usagePoint(region), MARCH + DAY, 1, 0, 0, 50_000);
+		SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+		Clock clock = Clock.fixed(Instant.ofEpochSecond(MARCH + 40 * DAY), ZoneOffset.UTC);
+		PowerQualityAggregationService cached = new PowerQualityAggregationService(dataSource, databaseBulkheads, meterRegistry, clock, 300, 10, 3600);
+
+		PowerQualityAggregates first = cached.aggregate(MARCH + 60, MARCH + 30 * DAY + 60, PowerQualityGrouping.OUTAGE_REGION, region);
+
+		assertThat(cached.aggregate(MARCH + 1800, MARCH + 30 * DAY + 1800, PowerQualityGrouping.OUTAGE_REGION, region)).isSameAs(first);
+		assertThat(first.from()).isEqualTo(MARCH);
+		assertThat(first.to()).isEqualTo(MARCH + 30 * DAY + 3600);
+		assertThat(first.aggregates().getFirst().longInterruptions()).isEqualTo(1);
+		assertThat(meterRegistry.get("gba.power-quality.cache").tag("result", "hit").counter().count()).isEqualTo(1);
+	}
+
+	private UUID usagePoint(String outageRegion) {
+		UUID usagePoint = UUID.randomUUID();
+		jdbcTemplate.update("INSERT INTO usage.usage_point (uuid, outage_region) VALUES (?, ?)", usagePoint, outageRegion);
+		return usagePoint;
+	}
+
+	private void summary(UUID usagePoint, long start, long longInterruptions, long supplyVoltageDips, long flickerPst, long powerFrequency) {
+		jdbcTemplate.update("INSERT INTO usage.electric_power_quality_summaries (uuid, usage_point_uuid, start, duration, long_interruptions, " +
+				"supply_voltage_dips, flicker_pst, power_frequency) VALUES (?, ?, ?, ?, ?, ?, ?, ?)", UUID.randomUUID(), usagePoint, start, DAY,
+			longInterruptions, supplyVoltageDips, flickerPst, powerFrequency);
+	}
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.greenbuttonalliance.gbaresourceserver.usage.rating;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.RequiredArgsConstructor;
+import org.greenbuttonalliance.gbaresourceserver.usage.bulkhead.DatabaseBulkheads;
+import org.greenbuttonalliance.gbaresourceserver.usage.ingest.IntervalBlockRecord;
+import org.greenbuttonalliance.gbaresourceserver.usage.ingest.IntervalDataWriter;
+import org.greenbuttonalliance.gbaresourceserver.usage.ingest.IntervalReadingRecord;
+import org.greenbuttonalliance.gbaresourceserver.usage.rollup.IntervalRollupMaintainer;
+import org.greenbuttonalliance.gbaresourceserver.usage.summary.SummaryPeriod;
+import org.greenbuttonalliance.gbaresourceserver.usage.summary.UsageSummaryDeriver;
+import org.greenbuttonalliance.gbaresourceserver.usage.time.LocalTimeTables;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.*;
+
+@Testcontainers
+@DataJpaTest(showSql = false)
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Import({BillingPeriodRater.class, TariffRepository.class, LocalTimeTables.class, UsageSummaryDeriver.class, IntervalDataWriter.class,
+	IntervalRollupMaintainer.class, DatabaseBulkheads.class, SimpleMeterRegistry.class})
+@RequiredArgsConstructor(onConstructor = @__(@Autowired))
+// the deriver reads and writes on its own threads, which would not see data of an open test transaction
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+public class BillingPeriodRaterTest {
+	private final BillingPeriodRater billingPeriodRater;
+	private final UsageSummaryDeriver usageSummaryDeriver;
+	private final IntervalDataWriter intervalDataWriter;
+	private final JdbcTemplate jdbcTemplate;
+
+	// 2024-03-04T00:00:00Z, a Monday
+	private static final long MONDAY = 1709510400L;
+	private static final long HOUR = 3600;
+	private static final SummaryPeriod PERIOD = new SummaryPeriod(MONDAY, 7 * 86400, MONDAY + 7 * 86400);
+
+	@Container
+	@ServiceConnection
+	static PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>("postgres:latest");
+
+	@Test
+	public void rate_writesLineItemsOfTheDerivedSummary() {
+		String profile = "TOU-" + UUID.randomUUID();
+		long base = schedule(profile, null, MONDAY - 86400, 500000, 50000);
+		// superseded by the one above
+		schedule(profile, null, MONDAY - 2 * 86400, 999999, 0);
+		jdbcTemplate.update("INSERT INTO usage.tariff_tou_period VALUES (?, 'WEEKDAY', 0, 960, 1, 10000), (?, 'WEEKDAY', 960, 1260, 2, 30000), " +
+			"(?, 'WEEKDAY', 1260, 0, 1, 10000), (?, 'WEEKEND', 0, 0, 1, 8000)", base, base, base, base);
+		jdbcTemplate.update("INSERT INTO usage.tariff_tier VALUES (?, 1, 0, 0), (?, 2, 10000, 2000)", base, base);
+		long rider = schedule(profile, "GREEN", MONDAY - 86400, 1000, 0);
+		jdbcTemplate.update("INSERT INTO usage.tariff_tou_period VALUES (?, 'WEEKDAY', 0, 0, 9, 500)", rider);
+		// not enrolled
+		schedule(profile, "EV", MONDAY - 86400, 77777, 0);
+
+		UUID usagePoint = usagePoint(profile, List.of("GREEN", "EV"), List.of("ENROLLED", "UNENROLLED"));
+		UUID unsummarized = usagePoint(profile, List.of(), List.of());
+		UUID meterReading = meterReading(usagePoint);
+		meterReading(unsummarized);
+		write(meterReading, MONDAY, reading(MONDAY + 10 * HOUR, 4000, 0), reading(MONDAY + 17 * HOUR, 5000, 1), reading(MONDAY + 22 * HOUR, 3000, 0));
+		write(meterReading, MONDAY + 5 * 86400, reading(MONDAY + 5 * 86400 + 12 * HOUR, 1000, 0));
+		usageSummaryDeriver.derive(PERIOD, List.of(usagePoint));
+
+		RatingRun run = billingPeriodRater.rate(PERIOD, List.of(usagePoint, unsummarized));
+
+		assertThat(run).isEqualTo(new RatingRun(2, 1, 5, 4));
+		UUID summary = UsageSummaryDeriver.derivedSummaryUuid(usagePoint, MONDAY);
+		assertThat(lineItems(summary)).containsExactlyInAnyOrder(
+			Map.of("note", "Energy charge, time-of-use period 1", "amount", 81500L, "value", 8000L),
+			Map.of("note", "Energy charge, time-of-use period 2", "amount", 152500L, "value", 5000L),
+			Map.of("note", "Tier 2 charge, from 10000 Wh", "amount", 6000L, "value", 3000L),
+			Map.of("note", "Critical peak charge", "amount", 250000L, "value", 5000L),
+			Map.of("note", "Fixed charge", "amount", 501000L));
+		assertThat(jdbcTemplate.queryForMap("SELECT bill_to_date, currency FROM usage.usage_summaries WHERE uuid = ?", summary))
+			.containsEntry("bill_to_date", 81500L + 152500 + 6000 + 250000 + 501000)
+			.containsEntry("currency", "USD");
+
+		// rating again replaces the line items
+		assertThat(billingPeriodRater.rate(PERIOD, List.of(usagePoint)).lineItems()).isEqualTo(5);
+		assertThat(lineItems(summary)).hasSize(5);
+	}
+
+	private List<Map<String, Object>> lineItems(UUID summary) {
+		return jdbcTemplate.queryForList("SELECT note, amount, value FROM usage.line_item WHERE usage_summary_uuid = ?", summary).stream()
+			.map(row -> {
+				Map<String, Object> item = new HashMap<>(row);
+				item.values().removeIf(Objects::isNull);
+				return item;
+			})
+			.toList();
+	}
+
+	private long schedule(String profile, String riderType, long effectiveDate, long fixedCharge, long cppPrice) {
+		return jdbcTemplate.queryForObject("INSERT INTO usage.tariff_schedule (tariff_profile, rider_type, effective_date, currency, fixed_charge, cpp_price) " +
+			"VALUES (?, ?, ?, 'USD', ?, ?) RETURNING id", Long.class, profile, riderType, effectiveDate, fixedCharge, cppPrice);
+	}
+
+	private UUID usagePoint(String profile, List<String> riderTypes, List<String> enrollments) {
+		UUID serviceDeliveryPoint = UUID.randomUUID();
+		jdbcTemplate.update("INSERT INTO usage.service_delivery_point (uuid, tariff_profile) VALUES (?, ?)", serviceDeliveryPoint, profile);
+		for (int i = 0; i < riderTypes.size(); i++) {
+			Long rider = jdbcTemplate.queryForObject("INSERT INTO usage.tariff_rider_ref (rider_type, enrollment_status, effective_date) " +
+				"VALUES (?, CAST(? AS public.enrollment_status), ?) RETURNING id", Long.class, riderTypes.get(i), enrollments.get(i), MONDAY - 86400);
+			jdbcTemplate.update("INSERT INTO usage.service_delivery_point_tariff_rider_ref VALUES (?, ?)", serviceDeliveryPoint, rider);
+		}
+		UUID usagePoint = UUID.randomUUID();
+		jdbcTemplate.update("INSERT INTO usage.usage_point (uuid, service_delivery_point_uuid) VALUES (?, ?)", usagePoint, serviceDeliveryPoint);
+		return usagePoint;
+	}
+
+	private UUID meterReading(UUID usagePoint) {
+		UUID readingType = UUID.randomUUID();
+		jdbcTemplate.update("INSERT INTO usage.reading_type (uuid, accumulation_behavior, flow_direction, uom, power_of_ten_multiplier, interval_length) " +
+			"VALUES (?, 'DELTA_DATA', 'FORWARD', 'W_H', 'NONE', 3600)", readingType);
+		UUID meterReading = UUID.randomUUID();
+		jdbcTemplate.update("INSERT INTO usage.meter_reading (uuid, usage_point_uuid, reading_type_uuid) VALUES (?, ?, ?)", meterReading, usagePoint,
+			readingType);
+		return meterReading;
+	}
+
+	private void write(UUID meterReading, long blockStart, IntervalReadingRecord... readings) {
+		intervalDataWriter.write(List.of(new IntervalBlockRecord(UUID.randomUUID(), meterReading, null, null, null, null, blockStart, 86400,
+			List.of(readings))));
+	}
+
+	private static IntervalReadingRecord reading(long start, long value, int cpp) {
+		return new IntervalReadingRecord(start, (int) HOUR, value, null, null, null, cpp == 0 ? null : (short) cpp, List.of());
+	}
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.greenbuttonalliance.gbaresourceserver.usage.rating;
+
+import org.junit.jupiter.api.Test;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmark of {@link RatingEngine} on one thread, over a month and over a year of 15-minute readings in US Eastern time against the time-of-use, tier
+ * and critical peak tariff of {@link RatingEngineTest}, reporting readings per second. Not picked up by a plain <code>mvn test</code>; run it with
+ * <code>mvn test -Dtest=RatingEngineBenchmark</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+public class RatingEngineBenchmark {
+	@Param({"2880", "35040"})
+	public int readings;
+
+	private CompiledTariff tariff;
+	private long[] starts;
+	private long[] values;
+	private short[] cpp;
+	private final RatingEngine engine = new RatingEngine();
+
+	@Setup
+	public void generate() {
+		tariff = CompiledTariff.compile(RatingEngineTest.BASE, List.of(RatingEngineTest.RIDER));
+		Random random = new Random(readings);
+		starts = new long[readings];
+		values = new long[readings];
+		cpp = new short[readings];
+		for (int i = 0; i < readings; i++) {
+			starts[i] = 1709251200L + i * 900L;
+			values[i] = random.nextInt(2000);
+			cpp[i] = (short) (random.nextInt(100) == 0 ? 1 : 0);
+		}
+	}
+
+	@Benchmark
+	public long rate() {
+		engine.rate(tariff, starts, values, cpp, 0, readings, RatingEngineTest.US_EASTERN, 0);
+		return engine.touAmount(1);
+	}
+
+	@Test
+	public void readingsPerSecond() throws RunnerException {
+		for (RunResult result : new Runner(new OptionsBuilder().include(RatingEngineBenchmark.class.getName() + "\\.rate$").build()).run()) {
+			int size = Integer.parseInt(result.getParams().getParam("readings"));
+			double micros = result.getPrimaryResult().getScore();
+			System.out.printf("readings=%d time=%.1fus readings/s=%.0f%n", size, micros, size / micros * 1e6);
+		}
+	}
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.greenbuttonalliance.gbaresourceserver.usage.rating;
+
+import org.greenbuttonalliance.gbaresourceserver.usage.rating.CompiledTariff.Schedule;
+import org.greenbuttonalliance.gbaresourceserver.usage.rating.CompiledTariff.Tier;
+import org.greenbuttonalliance.gbaresourceserver.usage.rating.CompiledTariff.TouPeriod;
+import org.greenbuttonalliance.gbaresourceserver.usage.time.DstRule;
+import org.greenbuttonalliance.gbaresourceserver.usage.time.LocalTimeTable;
+import org.junit.jupiter.api.Test;
+
+import java.util.HexFormat;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class RatingEngineTest {
+	// 2024-03-04T00:00:00Z, a Monday
+	private static final long MONDAY = 1709510400L;
+	private static final long HOUR = 3600;
+
+	// off-peak all weekend and outside 16:00-21:00 on weekdays, with a second tier from 10 kWh
+	static final Schedule BASE = new Schedule(1, "USD", 500000, 50000, List.of(
+		new TouPeriod(false, 0, 960, (short) 1, 10000),
+		new TouPeriod(false, 960, 1260, (short) 2, 30000),
+		new TouPeriod(false, 1260, 0, (short) 1, 10000),
+		new TouPeriod(true, 0, 0, (short) 1, 8000)),
+		List.of(new Tier(0, 0), new Tier(10000, 2000)));
+	static final LocalTimeTable US_EASTERN = LocalTimeTable.compile(-5 * 3600, 3600, DstRule.decode(HexFormat.of().parseHex("360E2000")),
+		DstRule.decode(HexFormat.of().parseHex("B40E2000")), 2020, 2030);
+	// a weekday adder with a fixed charge of its own
+	static final Schedule RIDER = new Schedule(2, "USD", 1000, 0, List.of(new TouPeriod(false, 0, 0, (short) 9, 500)), List.of());
+
+	@Test
+	public void compile_flattensScheduleAndRidersIntoMinuteTables() {
+		CompiledTariff tariff = CompiledTariff.compile(BASE, List.of(RIDER));
+
+		assertThat(tariff.touCount()).isEqualTo(3);
+		assertThat(tariff.touCode(1)).isEqualTo((short) 1);
+		assertThat(tariff.touCode(2)).isEqualTo((short) 2);
+		assertThat(tariff.priceByMinute()[959]).isEqualTo(10500);
+		assertThat(tariff.priceByMinute()[960]).isEqualTo(30500);
+		assertThat(tariff.priceByMinute()[1439]).isEqualTo(10500);
+		assertThat(tariff.priceByMinute()[CompiledTariff.MINUTES_PER_DAY + 960]).isEqualTo(8000);
+		assertThat(tariff.touIndexByMinute()[1300]).isEqualTo((byte) 1);
+		assertThat(tariff.fixedCharge()).isEqualTo(501000);
+		assertThat(tariff.tierCount()).isEqualTo(2);
+		assertThat(tariff.tierPrice(1)).isEqualTo(2000);
+	}
+
+	@Test
+	public void rate_totalsByTimeOfUseTierAndCriticalPeak() {
+		CompiledTariff tariff = CompiledTariff.compile(BASE, List.of(RIDER));
+		long[] starts = {MONDAY + 10 * HOUR, MONDAY + 17 * HOUR, MONDAY + 22 * HOUR, MONDAY + 5 * 86400 + 12 * HOUR};
+		long[] values = {4000, 5000, 3000, 1000};
+		short[] cpp = {0, 1, 0, 0};
+		RatingEngine engine = new RatingEngine();
+
+		engine.rate(tariff, starts, values, cpp, 0, 4, LocalTimeTable.fixed(0), 0);
+
+		assertThat(engine.touEnergy(1)).isEqualTo(8000);
+		assertThat(engine.touAmount(1)).isEqualTo(42000 + 31500 + 8000);
+		assertThat(engine.touEnergy(2)).isEqualTo(5000);
+		assertThat(engine.touAmount(2)).isEqualTo(152500);
+		// the third reading crosses 10 kWh, and only the 2 kWh above it are in the second tier
+		assertThat(engine.tierEnergy(0)).isEqualTo(10000);
+		assertThat(engine.tierEnergy(1)).isEqualTo(3000);
+		assertThat(engine.tierAmount(1)).isEqualTo(6000);
+		assertThat(engine.cppEnergy()).isEqualTo(5000);
+		assertThat(engine.cppAmount()).isEqualTo(250000);
+	}
+
+	@Test
+	public void rate_usesLocalStandardTimeAndTheReadingMultiplier() {
+		CompiledTariff tariff = CompiledTariff.compile(BASE, List.of());
+		// 12:00 UTC is 07:00 at UTC-5, so off-peak, and 21:30 UTC is 16:30, so peak; values are in kWh
+		long[] starts = {MONDAY + 12 * HOUR, MONDAY + 21 * HOUR + 1800};
+		long[] values = {7, 4};
+		RatingEngine engine = new RatingEngine();
+
+		engine.rate(tariff, starts, values, new short[2], 0, 2, LocalTimeTable.fixed(-5 * 3600), 3);
+
+		assertThat(engine.touEnergy(2)).isEqualTo(4);
+		assertThat(engine.touAmount(2)).isEqualTo(120000);
+		assertThat(engine.touAmount(1)).isEqualTo(70000);
+		assertThat(engine.tierEnergy(1)).isEqualTo(1);
+		assertThat(engine.tierAmount(1)).isEqualTo(2000);
+	}
+
+	@Test
+	public void rate_followsDaylightSavingTime() {
+		CompiledTariff tariff = CompiledTariff.compile(BASE, List.of());
+		// 20:30 UTC is 15:30 EST, so off-peak in March, and 16:30 EDT, so peak, from the second Sunday in March
+		long[] starts = {MONDAY + 20 * HOUR + 1800, MONDAY + 7 * 86400 + 20 * HOUR + 1800};
+		long[] values = {1000, 2000};
+		RatingEngine engine = new RatingEngine();
+
+		engine.rate(tariff, starts, values, new short[2], 0, 2, US_EASTERN, 0);
+
+		assertThat(engine.touEnergy(1)).isEqualTo(1000);
+		assertThat(engine.touEnergy(2)).isEqualTo(2000);
+	}
+
+	@Test
+	public void rate_roundsOncePerTotal() {
+		CompiledTariff tariff = CompiledTariff.compile(BASE, List.of());
+		// three readings of 0.167 Wh in mWh: 0.501 Wh at 10000 per kWh is 5.01, where rounding each reading would give 2 + 2 + 2
+		long[] starts = {MONDAY, MONDAY + 900, MONDAY + 1800};
+		long[] values = {167, 167, 167};
+		RatingEngine engine = new RatingEngine();
+
+		engine.rate(tariff, starts, values, new short[3], 0, 3, LocalTimeTable.fixed(0), -3);
+
+		assertThat(engine.touAmount(1)).isEqualTo(5);
+	}
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.greenbuttonalliance.gbaresourceserver.usage.reactive;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.*;
+
+/**
+ * Many slow clients reading the same MeterReading's IntervalBlock feed from the reactive read path at once. Each client reads {@value #READ_SIZE} bytes and
+ * then pauses, so the server can only write as fast as the clients read. Reports how many clients finished, the bytes they read, and the most platform
+ * threads and active feeds seen on the way. Not picked up by a plain <code>mvn test</code>; run it with
+ * <code>mvn test -Dtest=ReactiveIntervalFeedBenchmark</code>, optionally setting <code>-Dbenchmark.clients</code>, <code>-Dbenchmark.days</code> and
+ * <code>-Dbenchmark.pauseMillis</code>.
+ */
+@Testcontainers
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {"gba.reactive.pool-size=50", "gba.access.allow-anonymous=true"})
+public class ReactiveIntervalFeedBenchmark {
+	private static final int CLIENTS = Integer.getInteger("benchmark.clients", 2000);
+	private static final int DAYS = Integer.getInteger("benchmark.days", 7);
+	private static final int PAUSE_MILLIS = Integer.getInteger("benchmark.pauseMillis", 5);
+	private static final int READ_SIZE = 8192;
+	// 2024-03-01T00:00:00Z
+	private static final long PERIOD_START = 1709251200L;
+
+	@Container
+	@ServiceConnection
+	static PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>("postgres:latest");
+
+	@LocalServerPort
+	private int port;
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+	@Autowired
+	private MeterRegistry meterRegistry;
+
+	@Test
+	public void slowClients() throws InterruptedException {
+		UUID meterReading = generate();
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		int threadsBefore = threads.getThreadCount();
+		AtomicInteger finished = new AtomicInteger();
+		AtomicLong bytes = new AtomicLong();
+		AtomicInteger maxThreads = new AtomicInteger();
+		AtomicInteger maxActiveFeeds = new AtomicInteger();
+		AtomicBoolean running = new AtomicBoolean(true);
+		Thread sampler = Thread.ofVirtual().start(() -> {
+			while (running.get()) {
+				maxThreads.accumulateAndGet(threads.getThreadCount(), Math::max);
+				maxActiveFeeds.accumulateAndGet((int) meterRegistry.get("gba.reactive.feeds.active").gauge().value(), Math::max);
+				sleep(10);
+			}
+		});
+
+		long started = System.nanoTime();
+		try (ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor()) {
+			for (int i = 0; i < CLIENTS; i++) {
+				clients.submit(() -> {
+					long read = readSlowly(STR."/espi/1_1/reactive/MeterReading/\{meterReading}/IntervalBlock");
+					bytes.addAndGet(read);
+					finished.incrementAndGet();
+					return null;
+				});
+			}
+		}
+		double seconds = (System.nanoTime() - started) / 1e9;
+		running.set(false);
+		sampler.join();
+
+		assertThat(finished.get()).isEqualTo(CLIENTS);
+		System.out.printf("clients=%d readings/feed=%d time=%.1fs read=%.1fMB (%.1fMB/s) platformThreads before=%d max=%d maxActiveFeeds=%d%n", CLIENTS,
+			DAYS * 96, seconds, bytes.get() / 1e6, bytes.get() / 1e6 / seconds, threadsBefore, maxThreads.get(), maxActiveFeeds.get());
+	}
+
+	private long readSlowly(String path) throws IOException {
+		try (Socket socket = new Socket("localhost", port)) {
+			socket.setReceiveBufferSize(READ_SIZE);
+			OutputStream out = socket.getOutputStream();
+			out.write(STR."GET \{path} HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+			out.flush();
+			InputStream in = socket.getInputStream();
+			byte[] buffer = new byte[READ_SIZE];
+			long read = 0;
+			for (int n; (n = in.read(buffer)) >= 0; ) {
+				read += n;
+				sleep(PAUSE_MILLIS);
+			}
+			return read;
+		}
+	}
+
+	private UUID generate() {
+		UUID meterReading = UUID.randomUUID();
+		jdbcTemplate.update("INSERT INTO usage.meter_reading (uuid) VALUES (?)", meterReading);
+		jdbcTemplate.update("""
+			INSERT INTO usage.interval_block (uuid, meter_reading_uuid, start, duration)
+			SELECT md5(?::text || d)::uuid, ?, ? + d * 86400, 86400 FROM generate_series(0, ?) AS d""", meterReading, meterReading, PERIOD_START, DAYS - 1);
+		jdbcTemplate.update("""
+			INSERT INTO usage.interval_reading (block_uuid, start, duration, value)
+			SELECT md5(?::text || d)::uuid, ? + d * 86400 + q * 900, 900, 100 + (d * 13 + q * 31) % 400
+			FROM generate_series(0, ?) AS d, generate_series(0, 95) AS q""", meterReading, PERIOD_START, DAYS - 1);
+		return meterReading;
+	}
+
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
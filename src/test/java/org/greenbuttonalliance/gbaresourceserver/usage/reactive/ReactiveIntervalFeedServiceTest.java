@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.greenbuttonalliance.gbaresourceserver.usage.reactive;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.r2dbc.spi.ConnectionFactories;
+import io.r2dbc.spi.ConnectionFactoryOptions;
+import io.r2dbc.spi.Option;
+import lombok.RequiredArgsConstructor;
+import org.greenbuttonalliance.gbaresourceserver.usage.access.UsagePointAccess;
+import org.greenbuttonalliance.gbaresourceserver.usage.ingest.IntervalBlockRecord;
+import org.greenbuttonalliance.gbaresourceserver.usage.ingest.IntervalDataWriter;
+import org.greenbuttonalliance.gbaresourceserver.usage.ingest.IntervalReadingRecord;
+import org.greenbuttonalliance.gbaresourceserver.usage.rollup.IntervalRollupMaintainer;
+import org.greenbuttonalliance.gbaresourceserver.usage.scope.EspiScope;
+import org.junit.jupiter.api.Test;
+import org.reactivestreams.Subscription;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.springframework.context.annotation.Import;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import reactor.core.publisher.BaseSubscriber;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import static org.assertj.core.api.Assertions.*;
+
+@Testcontainers
+@DataJpaTest(showSql = false)
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Import({ReactiveIntervalFeedService.class, ReactiveIntervalBlockRepository.class, ReactiveDatabase.class, IntervalDataWriter.class,
+	IntervalRollupMaintainer.class, SimpleMeterRegistry.class})
+// the R2DBC connections only see committed rows
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+@RequiredArgsConstructor(onConstructor = @__(@Autowired))
+public class ReactiveIntervalFeedServiceTest {
+	private final ReactiveIntervalFeedService reactiveIntervalFeedService;
+	private final IntervalDataWriter intervalDataWriter;
+	private final JdbcTemplate jdbcTemplate;
+
+	// 2024-03-01T00:00:00Z
+	private static final long DAY = 1709251200L;
+
+	@Container
+	@ServiceConnection
+	static PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>("postgres:latest");
+
+	@Test
+	public void intervalBlockFeed_streamsTheBlocksOverlappingTheRange() {
+		UUID meterReading = meterReading();
+		UUID first = write(meterReading, DAY, reading(DAY, 100L, 12L), reading(DAY + 900, null, null));
+		UUID second = write(meterReading, DAY + 86400, reading(DAY + 86400, 300L, null));
+		write(meterReading, DAY + 2 * 86400, reading(DAY + 2 * 86400, 500L, null));
+
+		String feed = feed(meterReading, DAY + 3600, DAY + 2 * 86400);
+
+		assertThat(feed).startsWith("<?xml").endsWith("</feed>\n")
+			.contains(STR."<link rel=\"up\" href=\"/espi/1_1/resource/MeterReading/\{meterReading}\" type=\"espi-entry/MeterReading\"/>");
+		assertThat(Pattern.compile("<entry>\\s*<id>urn:uuid:([-0-9a-f]+)</id>").matcher(feed).results().map(result -> result.group(1)))
+			.containsExactly(first.toString(), second.toString());
+		assertThat(feed).contains(STR."<espi:IntervalReading><espi:cost>12</espi:cost><espi:timePeriod><espi:duration>900</espi:duration><espi:start>\{DAY}</espi:start></espi:timePeriod><espi:value>100</espi:value></espi:IntervalReading>")
+			.contains(STR."<espi:IntervalReading><espi:timePeriod><espi:duration>900</espi:duration><espi:start>\{DAY + 900}</espi:start></espi:timePeriod></espi:IntervalReading>");
+	}
+
+	@Test
+	public void intervalBlockFeed_emitsEntriesAsTheSubscriberAsksForThem() throws InterruptedException {
+		UUID meterReading = meterReading();
+		for (int day = 0; day < 20; day++) {
+			write(meterReading, DAY + day * 86400L, reading(DAY + day * 86400L, (long) day, null));
+		}
+		List<String> received = new ArrayList<>();
+		CountDownLatch cancelled = new CountDownLatch(1);
+
+		reactiveIntervalFeedService.intervalBlockFeed(meterReading, 0, Long.MAX_VALUE, EspiScope.UNRESTRICTED, DefaultDataBufferFactory.sharedInstance).subscribe(new BaseSubscriber<>() {
+			@Override
+			protected void hookOnSubscribe(Subscription subscription) {
+				request(3);
+			}
+
+			@Override
+			protected void hookOnNext(DataBuffer buffer) {
+				received.add(buffer.toString(StandardCharsets.UTF_8));
+				if (received.size() == 3) {
+					cancel();
+					cancelled.countDown();
+				}
+			}
+		});
+
+		assertThat(cancelled.await(10, TimeUnit.SECONDS)).isTrue();
+		assertThat(received.get(0)).startsWith("<?xml");
+		assertThat(received.subList(1, 3)).allMatch(entry -> entry.startsWith("\t<entry>"));
+	}
+
+	@Test
+	public void existsMeterReading_answersForUnknownAndUngrantedMeterReadings() {
+		UUID meterReading = meterReading();
+		assertThat(reactiveIntervalFeedService.existsMeterReading(meterReading, EspiScope.UNRESTRICTED, UsagePointAccess.UNRESTRICTED).block()).isTrue();
+		assertThat(reactiveIntervalFeedService.existsMeterReading(meterReading, EspiScope.UNRESTRICTED, UsagePointAccess.NONE).block()).isFalse();
+		assertThat(reactiveIntervalFeedService.existsMeterReading(UUID.randomUUID(), EspiScope.UNRESTRICTED, UsagePointAccess.UNRESTRICTED).block()).isFalse();
+	}
+
+	@Test
+	public void r2dbcUrl_dropsThePgJdbcParameters() {
+		assertThat(ReactiveDatabase.r2dbcUrl("jdbc:postgresql://localhost:5432/gba?loggerLevel=OFF")).isEqualTo("r2dbc:postgresql://localhost:5432/gba");
+		assertThatIllegalStateException().isThrownBy(() -> ReactiveDatabase.r2dbcUrl("jdbc:h2:mem:gba"));
+	}
+
+	@Test
+	public void r2dbcUrl_carriesOverTheSslAndSchemaParameters() {
+		String r2dbcUrl = ReactiveDatabase.r2dbcUrl(
+			"jdbc:postgresql://db:5432/gba?sslmode=verify-ca&sslrootcert=%2Fetc%2Fca.pem&currentSchema=usage&connectTimeout=10&reWriteBatchedInserts=true");
+
+		assertThat(r2dbcUrl).isEqualTo("r2dbc:postgresql://db:5432/gba?sslMode=verify-ca&sslRootCert=%2Fetc%2Fca.pem&currentSchema=usage&connectTimeout=PT10S");
+		assertThat(ConnectionFactoryOptions.parse(r2dbcUrl).getValue(Option.valueOf("sslRootCert"))).isEqualTo("/etc/ca.pem");
+		// the driver takes the options as given, without connecting
+		assertThat(ConnectionFactories.get(ConnectionFactoryOptions.parse(ReactiveDatabase.r2dbcUrl(
+				"jdbc:postgresql://db/gba?sslmode=require&currentSchema=usage&connectTimeout=10&ApplicationName=gba&tcpKeepAlive=true")).mutate()
+			.option(ConnectionFactoryOptions.USER, "gba")
+			.build())).isNotNull();
+		assertThat(ReactiveDatabase.r2dbcUrl("jdbc:postgresql://db/gba?ssl=true")).isEqualTo("r2dbc:postgresql://db/gba?sslMode=verify-full");
+		assertThat(ReactiveDatabase.r2dbcUrl("jdbc:postgresql://db/gba?ssl=true&sslmode=require")).isEqualTo("r2dbc:postgresql://db/gba?sslMode=require");
+	}
+
+	@Test
+	public void r2dbcUrl_rejectsAParameterItCannotApply() {
+		assertThatIllegalStateException().isThrownBy(() -> ReactiveDatabase.r2dbcUrl("jdbc:postgresql://db/gba?gssEncMode=require"))
+			.withMessageContaining("gssEncMode");
+	}
+
+	private String feed(UUID meterReading, long from, long to) {
+		return DataBufferUtils.join(reactiveIntervalFeedService.intervalBlockFeed(meterReading, from, to, EspiScope.UNRESTRICTED, DefaultDataBufferFactory.sharedInstance))
+			.map(buffer -> buffer.toString(StandardCharsets.UTF_8))
+			.block();
+	}
+
+	private UUID meterReading() {
+		UUID meterReading = UUID.randomUUID();
+		jdbcTemplate.update("INSERT INTO usage.meter_reading (uuid) VALUES (?)", meterReading);
+		return meterReading;
+	}
+
+	private UUID write(UUID meterReading, long blockStart, IntervalReadingRecord... readings) {
+		UUID block = UUID.randomUUID();
+		intervalDataWriter.write(List.of(new IntervalBlockRecord(block, meterReading, null, null, null, null, blockStart, 86400, List.of(readings))));
+		return block;
+	}
+
+	private static IntervalReadingRecord reading(long start, Long value, Long cost) {
+		return new IntervalReadingRecord(start, 900, value, cost, null, null, null, List.of());
+	}
+}
@@ -147,6 +147,17 @@ public class IntervalBlockRepositoryTest {
 		);
 	}
 
+	@Test
+	public void findAllByUsagePointUuid_returnsBlocksInStartOrder() {
+		IntervalBlock presentIntervalBlock = intervalBlockRepository.findById(UuidCreator.getNameBasedSha1(UuidCreator.NAMESPACE_URL, PRESENT_SELF_LINK)).orElse(null);
+		Assumptions.assumeTrue(presentIntervalBlock != null);
+
+		List<IntervalBlock> usagePointBlocks = intervalBlockRepository.findAllByUsagePointUuid(presentIntervalBlock.getMeterReading().getUsagePoint().getUuid());
+
+		assertThat(usagePointBlocks).hasSize(buildTestData().size());
+		assertThat(usagePointBlocks).extracting(ib -> ib.getInterval().getStart()).isSorted();
+	}
+
 	private static List<IntervalBlock> buildTestData() {
 		List<IntervalBlock> intervalBlocks = Arrays.asList(
 			IntervalBlock.builder()
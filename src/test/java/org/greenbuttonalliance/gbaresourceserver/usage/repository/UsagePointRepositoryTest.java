@@ -154,6 +154,16 @@ public class UsagePointRepositoryTest {
 		);
 	}
 
+	@Test
+	public void findUuidsByRetailCustomerUuid_returnsOwnedUsagePoints() {
+		UsagePoint presentUsagePoint = usagePointRepository.findById(UuidCreator.getNameBasedSha1(UuidCreator.NAMESPACE_URL, PRESENT_SELF_LINK)).orElse(null);
+		Assumptions.assumeTrue(presentUsagePoint != null);
+
+		List<UUID> usagePointUuids = usagePointRepository.findUuidsByRetailCustomerUuid(presentUsagePoint.getRetailCustomer().getUuid());
+
+		assertThat(usagePointUuids).contains(presentUsagePoint.getUuid()).isSorted();
+	}
+
 	private static List<UsagePoint> buildTestData() {
 		byte[] deadbeefs = BigInteger.valueOf(Long.parseLong("DEADBEEF", 16)).toByteArray();
 		List<UsagePoint> usagePoints = Arrays.asList(
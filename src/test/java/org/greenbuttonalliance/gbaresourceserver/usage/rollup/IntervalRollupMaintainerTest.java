@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.greenbuttonalliance.gbaresourceserver.usage.rollup;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.RequiredArgsConstructor;
+import org.assertj.core.groups.Tuple;
+import org.greenbuttonalliance.gbaresourceserver.usage.ingest.IntervalBlockRecord;
+import org.greenbuttonalliance.gbaresourceserver.usage.ingest.IntervalDataWriter;
+import org.greenbuttonalliance.gbaresourceserver.usage.ingest.IntervalReadingRecord;
+import org.greenbuttonalliance.gbaresourceserver.usage.scope.EspiScope;
+import org.greenbuttonalliance.gbaresourceserver.usage.time.LocalTimeTables;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.*;
+
+@Testcontainers
+@DataJpaTest(showSql = false)
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Import({IntervalRollupMaintainer.class, IntervalRollupConsistencyChecker.class, IntervalRollupRepository.class, IntervalDataWriter.class,
+	LocalTimeTables.class, SimpleMeterRegistry.class})
+@RequiredArgsConstructor(onConstructor = @__(@Autowired))
+public class IntervalRollupMaintainerTest {
+	private final IntervalRollupMaintainer intervalRollupMaintainer;
+	private final IntervalRollupConsistencyChecker intervalRollupConsistencyChecker;
+	private final IntervalRollupRepository intervalRollupRepository;
+	private final IntervalDataWriter intervalDataWriter;
+	private final JdbcTemplate jdbcTemplate;
+
+	// MeterReading of the V0.1.10 sample data, without ReadingType or UsagePoint
+	private static final UUID METER_READING = UUID.fromString("f77fbf34-a09e-4ebc-9606-ff1a59a17cae");
+	// 2024-03-01T00:00:00Z
+	private static final long DAY = 1709251200L;
+
+	@Container
+	@ServiceConnection
+	static PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>("postgres:latest");
+
+	@Test
+	public void write_refreshesTheBucketsOfWrittenReadings() {
+		write(DAY, reading(DAY, 100L), reading(DAY + 900, 200L), reading(DAY + 3600, 300L));
+		assertThat(stored("usage.interval_rollup_hourly")).containsExactly(tuple(DAY, 2L, 300L), tuple(DAY + 3600, 1L, 300L));
+		assertThat(stored("usage.interval_rollup_daily")).containsExactly(tuple(DAY, 3L, 600L));
+
+		// a changed reading recomputes its bucket from all of that bucket's readings, not just the delivered ones
+		write(DAY, reading(DAY + 900, 250L));
+		assertThat(stored("usage.interval_rollup_hourly")).containsExactly(tuple(DAY, 2L, 350L), tuple(DAY + 3600, 1L, 300L));
+		assertThat(stored("usage.interval_rollup_daily")).containsExactly(tuple(DAY, 3L, 650L));
+	}
+
+	@Test
+	public void rebuild_makesTheRollupApiReadTheTables() {
+		write(DAY, reading(DAY, 100L), reading(DAY + 3600, 300L));
+		write(DAY + 86400, reading(DAY + 86400, 400L));
+		List<IntervalRollup> fromReadings = rollups(RollupInterval.MONTH);
+		assertThat(intervalRollupRepository.findTarget(METER_READING, EspiScope.UNRESTRICTED).orElseThrow().stored()).isFalse();
+
+		intervalRollupMaintainer.rebuild(METER_READING);
+
+		assertThat(intervalRollupRepository.findTarget(METER_READING, EspiScope.UNRESTRICTED).orElseThrow().stored()).isTrue();
+		assertThat(intervalRollupConsistencyChecker.check(METER_READING).consistent()).isTrue();
+		assertThat(rollups(RollupInterval.MONTH)).isEqualTo(fromReadings).extracting(IntervalRollup::valueTotal).containsExactly(800L);
+		assertThat(rollups(RollupInterval.DAY)).extracting(IntervalRollup::start, IntervalRollup::valueTotal)
+			.containsExactly(tuple(DAY, 400L), tuple(DAY + 86400, 400L));
+		// proves the days come from the table
+		jdbcTemplate.update("UPDATE usage.interval_rollup_daily SET value_sum = 1 WHERE bucket_start = ?", DAY);
+		assertThat(rollups(RollupInterval.DAY)).extracting(IntervalRollup::valueTotal).containsExactly(1L, 400L);
+	}
+
+	@Test
+	public void rebuild_isUndoneByAChangedTimeZone() {
+		write(DAY, reading(DAY, 100L));
+		intervalRollupMaintainer.rebuild(METER_READING);
+
+		jdbcTemplate.update("INSERT INTO usage.time_configuration (uuid, tz_offset) VALUES ('8f3b2d0e-5e4f-4b0c-9a51-1b5f4f0c2a11', -18000)");
+		jdbcTemplate.update("INSERT INTO usage.usage_point (uuid, time_configuration_uuid) VALUES ('1d7e4b8a-3c0f-4e2d-8b6a-9f2c5d7e1a33', " +
+			"'8f3b2d0e-5e4f-4b0c-9a51-1b5f4f0c2a11')");
+		jdbcTemplate.update("UPDATE usage.meter_reading SET usage_point_uuid = '1d7e4b8a-3c0f-4e2d-8b6a-9f2c5d7e1a33' WHERE uuid = ?", METER_READING);
+
+		assertThat(intervalRollupRepository.findTarget(METER_READING, EspiScope.UNRESTRICTED).orElseThrow().stored()).isFalse();
+		assertThat(intervalRollupConsistencyChecker.check(METER_READING).dailyMismatches()).isEqualTo(2);
+		intervalRollupMaintainer.rebuild(METER_READING);
+		assertThat(intervalRollupConsistencyChecker.check(METER_READING).consistent()).isTrue();
+		assertThat(stored("usage.interval_rollup_daily")).containsExactly(tuple(DAY - 86400 + 18000, 1L, 100L));
+	}
+
+	@Test
+	public void check_findsBucketsThatDifferFromTheReadings() {
+		write(DAY, reading(DAY, 100L), reading(DAY + 3600, 300L), reading(DAY + 7200, 500L));
+		intervalRollupMaintainer.rebuild(METER_READING);
+
+		jdbcTemplate.update("UPDATE usage.interval_rollup_hourly SET value_max = 0 WHERE bucket_start = ?", DAY + 3600);
+		jdbcTemplate.update("DELETE FROM usage.interval_rollup_hourly WHERE bucket_start = ?", DAY + 7200);
+		jdbcTemplate.update("INSERT INTO usage.interval_rollup_daily (meter_reading_uuid, bucket_start, readings) VALUES (?, ?, 1)", METER_READING,
+			DAY + 86400);
+
+		RollupConsistency consistency = intervalRollupConsistencyChecker.check(METER_READING);
+		assertThat(consistency.consistent()).isFalse();
+		assertThat(consistency.hourlyMismatches()).isEqualTo(2);
+		assertThat(consistency.hourlyMismatchStarts()).containsExactly(DAY + 3600, DAY + 7200);
+		assertThat(consistency.dailyMismatchStarts()).containsExactly(DAY + 86400);
+	}
+
+	private List<IntervalRollup> rollups(RollupInterval interval) {
+		RollupTarget target = intervalRollupRepository.findTarget(METER_READING, EspiScope.UNRESTRICTED).orElseThrow();
+		List<IntervalRollup> rollups = new ArrayList<>();
+		intervalRollupRepository.forEachRollup(target, interval, DAY, DAY + 2 * 86400, rollups::add);
+		return rollups;
+	}
+
+	private List<Tuple> stored(String table) {
+		return jdbcTemplate.query("SELECT bucket_start, readings, value_sum FROM " + table + " WHERE meter_reading_uuid = ? ORDER BY bucket_start",
+			(rs, rowNum) -> tuple(rs.getLong(1), rs.getLong(2), rs.getLong(3)), METER_READING);
+	}
+
+	private void write(long blockStart, IntervalReadingRecord... readings) {
+		intervalDataWriter.write(List.of(new IntervalBlockRecord(UUID.randomUUID(), METER_READING, null, null, null, null, blockStart, 86400,
+			List.of(readings))));
+	}
+
+	private static IntervalReadingRecord reading(long start, Long value) {
+		return new IntervalReadingRecord(start, 900, value, null, null, null, null, List.of());
+	}
+}
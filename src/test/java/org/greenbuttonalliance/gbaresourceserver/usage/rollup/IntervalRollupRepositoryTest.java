@@ -0,0 +1,197 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.greenbuttonalliance.gbaresourceserver.usage.rollup;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.RequiredArgsConstructor;
+import org.greenbuttonalliance.gbaresourceserver.common.model.enums.UnitMultiplierKind;
+import org.greenbuttonalliance.gbaresourceserver.common.model.enums.UnitSymbolKind;
+import org.greenbuttonalliance.gbaresourceserver.usage.ingest.IntervalBlockRecord;
+import org.greenbuttonalliance.gbaresourceserver.usage.ingest.IntervalDataWriter;
+import org.greenbuttonalliance.gbaresourceserver.usage.ingest.IntervalReadingRecord;
+import org.greenbuttonalliance.gbaresourceserver.usage.scope.EspiScope;
+import org.greenbuttonalliance.gbaresourceserver.usage.time.LocalTimeTables;
+import org.greenbuttonalliance.gbaresourceserver.usage.units.UnitScale;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.*;
+
+@Testcontainers
+@DataJpaTest(showSql = false)
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Import({IntervalRollupRepository.class, IntervalDataWriter.class, IntervalRollupMaintainer.class, LocalTimeTables.class, SimpleMeterRegistry.class})
+@RequiredArgsConstructor(onConstructor = @__(@Autowired))
+public class IntervalRollupRepositoryTest {
+	private final IntervalRollupRepository intervalRollupRepository;
+	private final IntervalDataWriter intervalDataWriter;
+	private final JdbcTemplate jdbcTemplate;
+
+	// MeterReading of the V0.1.10 sample data, without ReadingType or UsagePoint
+	private static final UUID METER_READING = UUID.fromString("f77fbf34-a09e-4ebc-9606-ff1a59a17cae");
+	// 2024-03-01T00:00:00Z
+	private static final long DAY = 1709251200L;
+
+	@Container
+	@ServiceConnection
+	static PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>("postgres:latest");
+
+	@Test
+	public void forEachRollup_sumsAdditiveReadingsPerDay() {
+		write(DAY, reading(DAY, 100L, 3L), reading(DAY + 900, 200L, 4L), reading(DAY + 3600, 300L, null));
+		write(DAY + 86400, reading(DAY + 86400, 400L, 5L));
+
+		assertThat(rollups(RollupInterval.DAY, DAY, DAY + 2 * 86400)).containsExactly(
+			new IntervalRollup(DAY, 86400, 3, 600L, 100L, 300L, 7L, 3L, 4L),
+			new IntervalRollup(DAY + 86400, 86400, 1, 400L, 400L, 400L, 5L, 5L, 5L));
+	}
+
+	@Test
+	public void forEachRollup_alignsBucketsToLocalStandardTime() {
+		jdbcTemplate.update("INSERT INTO usage.time_configuration (uuid, tz_offset) VALUES ('8f3b2d0e-5e4f-4b0c-9a51-1b5f4f0c2a11', -18000)");
+		jdbcTemplate.update("INSERT INTO usage.usage_point (uuid, time_configuration_uuid) VALUES ('1d7e4b8a-3c0f-4e2d-8b6a-9f2c5d7e1a33', " +
+			"'8f3b2d0e-5e4f-4b0c-9a51-1b5f4f0c2a11')");
+		jdbcTemplate.update("UPDATE usage.meter_reading SET usage_point_uuid = '1d7e4b8a-3c0f-4e2d-8b6a-9f2c5d7e1a33' WHERE uuid = ?", METER_READING);
+		// 04:45 and 05:00 UTC fall on either side of local midnight
+		write(DAY, reading(DAY + 17100, 100L, null), reading(DAY + 18000, 200L, null));
+
+		assertThat(rollups(RollupInterval.DAY, DAY - 86400, DAY + 86400)).extracting(IntervalRollup::start, IntervalRollup::valueTotal).containsExactly(
+			tuple(DAY - 86400 + 18000, 100L),
+			tuple(DAY + 18000, 200L));
+		assertThat(rollups(RollupInterval.MONTH, DAY - 86400, DAY + 86400)).extracting(IntervalRollup::start, IntervalRollup::duration).containsExactly(
+			tuple(1706763600L, 29 * 86400L),
+			tuple(DAY + 18000, 31 * 86400L));
+	}
+
+	@Test
+	public void forEachRollup_endsDaysAtLocalMidnightAcrossDaylightSavingTime() {
+		jdbcTemplate.update("INSERT INTO usage.time_configuration (uuid, tz_offset, dst_offset, dst_start_rule, dst_end_rule) VALUES " +
+			"('8f3b2d0e-5e4f-4b0c-9a51-1b5f4f0c2a11', -18000, 3600, decode('360E2000', 'hex'), decode('B40E2000', 'hex'))");
+		jdbcTemplate.update("INSERT INTO usage.usage_point (uuid, time_configuration_uuid) VALUES ('1d7e4b8a-3c0f-4e2d-8b6a-9f2c5d7e1a33', " +
+			"'8f3b2d0e-5e4f-4b0c-9a51-1b5f4f0c2a11')");
+		jdbcTemplate.update("UPDATE usage.meter_reading SET usage_point_uuid = '1d7e4b8a-3c0f-4e2d-8b6a-9f2c5d7e1a33' WHERE uuid = ?", METER_READING);
+		// 2024-03-10T05:00:00Z is midnight EST; clocks skip from 02:00 to 03:00, so the next midnight is 23 hours later, at 04:00 UTC
+		long march10 = 1710046800L;
+		IntervalReadingRecord[] hourly = new IntervalReadingRecord[25];
+		for (int hour = 0; hour < hourly.length; hour++) {
+			hourly[hour] = reading(march10 + hour * 3600L, 1L, null);
+		}
+		write(march10, hourly);
+
+		assertThat(rollups(RollupInterval.DAY, march10, march10 + 2 * 86400))
+			.extracting(IntervalRollup::start, IntervalRollup::duration, IntervalRollup::valueTotal).containsExactly(
+				tuple(march10, 23 * 3600L, 23L),
+				tuple(march10 + 23 * 3600, 86400L, 2L));
+		assertThat(rollups(RollupInterval.HOUR, march10, march10 + 4 * 3600)).extracting(IntervalRollup::start)
+			.containsExactly(march10, march10 + 3600, march10 + 7200, march10 + 10800);
+	}
+
+	@Test
+	public void forEachRollup_totalsCumulativeRegisterByMovementSincePreviousBucket() {
+		accumulationBehavior("CUMULATIVE");
+		write(DAY, reading(DAY + 2700, 1000L, null), reading(DAY + 3600, 1010L, null), reading(DAY + 6300, 1025L, null), reading(DAY + 7200, 1040L, null));
+
+		// the first hour has no reading before it to measure from
+		assertThat(rollups(RollupInterval.HOUR, DAY, DAY + 3 * 3600)).extracting(IntervalRollup::start, IntervalRollup::valueTotal, IntervalRollup::valueMax)
+			.containsExactly(
+				tuple(DAY, null, 1000L),
+				tuple(DAY + 3600, 25L, 1025L),
+				tuple(DAY + 7200, 15L, 1040L));
+		// but a range starting later still measures from the bucket before it
+		assertThat(rollups(RollupInterval.HOUR, DAY + 3600, DAY + 3 * 3600)).extracting(IntervalRollup::valueTotal).containsExactly(25L, 15L);
+	}
+
+	@Test
+	public void forEachRollup_hasNoTotalForInstantaneousValues() {
+		accumulationBehavior("INSTANTANEOUS");
+		write(DAY, reading(DAY, 7L, null), reading(DAY + 900, 9L, null));
+
+		assertThat(rollups(RollupInterval.DAY, DAY, DAY + 86400)).containsExactly(new IntervalRollup(DAY, 86400, 2, null, 7L, 9L, null, null, null));
+	}
+
+	@Test
+	public void findTarget_resolvesTheUnitScaleOfTheReadingType() {
+		UUID readingType = UUID.randomUUID();
+		jdbcTemplate.update("INSERT INTO usage.reading_type (uuid, uom, power_of_ten_multiplier) VALUES (?, 'FT3', 'DECA')", readingType);
+		jdbcTemplate.update("UPDATE usage.meter_reading SET reading_type_uuid = ? WHERE uuid = ?", readingType, METER_READING);
+
+		assertThat(intervalRollupRepository.findTarget(METER_READING, EspiScope.UNRESTRICTED).orElseThrow().scale())
+			.isEqualTo(UnitScale.of(UnitSymbolKind.FT3, UnitMultiplierKind.DECA));
+	}
+
+	@Test
+	public void findTarget_findsOnlyIntervalLengthsTheScopeGrants() {
+		UUID readingType = UUID.randomUUID();
+		jdbcTemplate.update("INSERT INTO usage.reading_type (uuid, interval_length) VALUES (?, 900)", readingType);
+		jdbcTemplate.update("UPDATE usage.meter_reading SET reading_type_uuid = ? WHERE uuid = ?", readingType, METER_READING);
+
+		assertThat(intervalRollupRepository.findTarget(METER_READING, EspiScope.compile("FB=1_4;IntervalDuration=900_3600"))).isPresent();
+		assertThat(intervalRollupRepository.findTarget(METER_READING, EspiScope.compile("FB=1_4;IntervalDuration=3600"))).isEmpty();
+		assertThat(intervalRollupRepository.findTarget(METER_READING, EspiScope.compile("FB=1_3;IntervalDuration=900"))).isEmpty();
+	}
+
+	@Test
+	public void forEachRollup_leavesOutBlocksBeforeTheScopesHistory() {
+		long today = Instant.now().getEpochSecond() / 86400 * 86400;
+		write(today - 10 * 86400, reading(today - 10 * 86400, 100L, null));
+		write(today - 86400, reading(today - 86400, 200L, null));
+
+		assertThat(rollups(RollupInterval.DAY, 0, Long.MAX_VALUE, EspiScope.compile("FB=4;HistoryLength=172800")))
+			.extracting(IntervalRollup::start, IntervalRollup::valueTotal).containsExactly(tuple(today - 86400, 200L));
+		assertThat(rollups(RollupInterval.DAY, 0, Long.MAX_VALUE)).hasSize(2);
+	}
+
+	private List<IntervalRollup> rollups(RollupInterval interval, long from, long to) {
+		return rollups(interval, from, to, EspiScope.UNRESTRICTED);
+	}
+
+	private List<IntervalRollup> rollups(RollupInterval interval, long from, long to, EspiScope scope) {
+		RollupTarget target = intervalRollupRepository.findTarget(METER_READING, scope).orElseThrow();
+		List<IntervalRollup> rollups = new ArrayList<>();
+		intervalRollupRepository.forEachRollup(target, interval, from, to, rollups::add);
+		return rollups;
+	}
+
+	private void accumulationBehavior(String accumulationKind) {
+		UUID readingType = UUID.randomUUID();
+		jdbcTemplate.update("INSERT INTO usage.reading_type (uuid, accumulation_behavior) VALUES (?, CAST(? AS usage.accumulation_kind))", readingType,
+			accumulationKind);
+		jdbcTemplate.update("UPDATE usage.meter_reading SET reading_type_uuid = ? WHERE uuid = ?", readingType, METER_READING);
+	}
+
+	private void write(long blockStart, IntervalReadingRecord... readings) {
+		intervalDataWriter.write(List.of(new IntervalBlockRecord(UUID.randomUUID(), METER_READING, null, null, null, null, blockStart, 86400,
+			List.of(readings))));
+	}
+
+	private static IntervalReadingRecord reading(long start, Long value, Long cost) {
+		return new IntervalReadingRecord(start, 900, value, cost, null, null, null, List.of());
+	}
+}
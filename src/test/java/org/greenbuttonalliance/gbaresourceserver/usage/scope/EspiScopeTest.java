@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.greenbuttonalliance.gbaresourceserver.usage.scope;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class EspiScopeTest {
+	// 2024-03-15T12:00:00Z
+	private static final long NOW = LocalDateTime.of(2024, 3, 15, 12, 0).toEpochSecond(ZoneOffset.UTC);
+
+	@Test
+	public void compile_turnsIntervalDurationsIntoAPredicate() {
+		EspiScope scope = EspiScope.compile("FB=1_3_4_5_13_14_39;IntervalDuration=3600_900;BlockDuration=monthly;HistoryLength=13");
+
+		assertThat(scope.intervalLengthPredicate("rt.interval_length")).isEqualTo(" AND rt.interval_length IN (900, 3600)");
+		assertThat(scope.allowsIntervalLength(900L)).isTrue();
+		assertThat(scope.allowsIntervalLength(300L)).isFalse();
+		assertThat(scope.allowsIntervalLength(null)).isFalse();
+		assertThat(scope.allowsFunctionBlock(39)).isTrue();
+		assertThat(scope.allowsFunctionBlock(2)).isFalse();
+	}
+
+	@Test
+	public void compile_grantsNoIntervalDataWithoutIntervalMetering() {
+		EspiScope scope = EspiScope.compile("FB=1_3;IntervalDuration=900");
+
+		assertThat(scope.intervalLengthPredicate("interval_length")).isEqualTo(" AND FALSE");
+		assertThat(scope.allowsIntervalLength(900L)).isFalse();
+	}
+
+	@Test
+	public void compile_leavesIntervalLengthsOpenWithoutIntervalDuration() {
+		EspiScope scope = EspiScope.compile("FB=4_5");
+
+		assertThat(scope.intervalLengthPredicate("interval_length")).isEmpty();
+		assertThat(scope.allowsIntervalLength(null)).isTrue();
+		assertThat(scope.historyStart(NOW)).isEqualTo(EspiScope.NO_HISTORY_LIMIT);
+	}
+
+	@Test
+	public void historyStart_countsHistoryLengthInBlockDurations() {
+		assertThat(EspiScope.compile("FB=4;BlockDuration=monthly;HistoryLength=13").historyStart(NOW))
+			.isEqualTo(LocalDateTime.of(2023, 2, 15, 12, 0).toEpochSecond(ZoneOffset.UTC));
+		assertThat(EspiScope.compile("FB=4;BlockDuration=daily;HistoryLength=30").historyStart(NOW)).isEqualTo(NOW - 30 * 86400);
+		assertThat(EspiScope.compile("FB=4;BlockDuration=weekly;HistoryLength=2").historyStart(NOW)).isEqualTo(NOW - 14 * 86400);
+		assertThat(EspiScope.compile("FB=4;BlockDuration=seasonal;HistoryLength=4").historyStart(NOW))
+			.isEqualTo(LocalDateTime.of(2023, 3, 15, 12, 0).toEpochSecond(ZoneOffset.UTC));
+		assertThat(EspiScope.compile("FB=4;HistoryLength=3600").historyStart(NOW)).isEqualTo(NOW - 3600);
+		assertThat(EspiScope.compile("FB=4;BlockDuration=yearly;HistoryLength=" + Long.MAX_VALUE).historyStart(NOW)).isEqualTo(EspiScope.NO_HISTORY_LIMIT);
+	}
+
+	@Test
+	public void compile_rejectsTermsItCannotRead() {
+		assertThatIllegalArgumentException().isThrownBy(() -> EspiScope.compile("FB=4_x"));
+		assertThatIllegalArgumentException().isThrownBy(() -> EspiScope.compile("FB=4;IntervalDuration=-900"));
+		assertThatIllegalArgumentException().isThrownBy(() -> EspiScope.compile("FB=4;BlockDuration=fortnightly"));
+		assertThatIllegalArgumentException().isThrownBy(() -> EspiScope.compile("FB=300"));
+	}
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.greenbuttonalliance.gbaresourceserver.usage.service;
+
+import org.greenbuttonalliance.gbaresourceserver.usage.controller.exception.BatchJobRunningException;
+import org.greenbuttonalliance.gbaresourceserver.usage.workload.Workload;
+import org.greenbuttonalliance.gbaresourceserver.usage.workload.WorkloadClass;
+import org.junit.jupiter.api.Test;
+
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class BatchJobServiceTest {
+
+	@Test
+	public void start_runsTheJobAsBulkWorkInTheBackground() throws Exception {
+		BatchJobService batchJobService = new BatchJobService(10);
+		CountDownLatch release = new CountDownLatch(1);
+
+		BatchJob job = batchJobService.start("Validation", () -> {
+			await(release);
+			return Workload.current();
+		});
+
+		assertThat(job.status()).isEqualTo(BatchJob.Status.RUNNING);
+		assertThat(batchJobService.find(job.id())).contains(job);
+		release.countDown();
+		assertThat(finished(batchJobService, job.id()))
+			.extracting(BatchJob::status, BatchJob::result)
+			.containsExactly(BatchJob.Status.SUCCEEDED, WorkloadClass.BULK);
+	}
+
+	@Test
+	public void start_turnsAJobAwayWhileAnotherIsRunning() throws Exception {
+		BatchJobService batchJobService = new BatchJobService(10);
+		CountDownLatch release = new CountDownLatch(1);
+		BatchJob running = batchJobService.start("UsageSummary", () -> await(release));
+
+		assertThatThrownBy(() -> batchJobService.start("LineItem", () -> "rated"))
+			.isInstanceOf(BatchJobRunningException.class)
+			.extracting("runningJobId").isEqualTo(running.id());
+
+		release.countDown();
+		finished(batchJobService, running.id());
+		BatchJob next = batchJobService.start("LineItem", () -> "rated");
+		assertThat(finished(batchJobService, next.id()).result()).isEqualTo("rated");
+	}
+
+	@Test
+	public void start_recordsWhatAFailedJobFailedWith() throws Exception {
+		BatchJobService batchJobService = new BatchJobService(10);
+
+		BatchJob job = batchJobService.start("Validation", () -> {
+			throw new IllegalStateException("no partitions");
+		});
+
+		assertThat(finished(batchJobService, job.id()))
+			.extracting(BatchJob::status, BatchJob::error)
+			.containsExactly(BatchJob.Status.FAILED, "no partitions");
+	}
+
+	@Test
+	public void find_forgetsTheOldestJobsBeyondTheHistory() throws Exception {
+		BatchJobService batchJobService = new BatchJobService(2);
+		BatchJob first = finished(batchJobService, batchJobService.start("Validation", () -> 1).id());
+		BatchJob second = finished(batchJobService, batchJobService.start("Validation", () -> 2).id());
+		BatchJob third = finished(batchJobService, batchJobService.start("Validation", () -> 3).id());
+
+		assertThat(batchJobService.find(first.id())).isEmpty();
+		assertThat(batchJobService.find(second.id())).contains(second);
+		assertThat(batchJobService.find(third.id())).contains(third);
+	}
+
+	private static BatchJob finished(BatchJobService batchJobService, UUID id) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		BatchJob job;
+		while ((job = batchJobService.find(id).orElseThrow()).status() == BatchJob.Status.RUNNING) {
+			assertThat(System.nanoTime()).as("job finished by now").isLessThan(deadline);
+			Thread.sleep(10);
+		}
+		return job;
+	}
+
+	private static boolean await(CountDownLatch latch) {
+		try {
+			return latch.await(10, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.greenbuttonalliance.gbaresourceserver.usage.service;
+
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.greenbuttonalliance.gbaresourceserver.usage.access.UsagePointAccess;
+import org.greenbuttonalliance.gbaresourceserver.usage.bulkhead.DatabaseBulkheads;
+import org.greenbuttonalliance.gbaresourceserver.usage.controller.exception.EntityNotFoundByIdException;
+import org.greenbuttonalliance.gbaresourceserver.usage.repository.IntervalBlockRepository;
+import org.greenbuttonalliance.gbaresourceserver.usage.repository.RetailCustomerRepository;
+import org.greenbuttonalliance.gbaresourceserver.usage.repository.UsagePointRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.env.StandardEnvironment;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+public class BatchServiceTest {
+
+	@Test
+	public void renderRetailCustomer_rendersUsagePointsConcurrentlyWithinTheBulkBulkhead() {
+		UUID retailCustomer = UUID.randomUUID();
+		List<UUID> usagePoints = List.of(UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID());
+		RetailCustomerRepository retailCustomers = mock(RetailCustomerRepository.class);
+		when(retailCustomers.existsById(retailCustomer)).thenReturn(true);
+		UsagePointRepository usagePointRepository = mock(UsagePointRepository.class);
+		when(usagePointRepository.findUuidsByRetailCustomerUuid(retailCustomer)).thenReturn(usagePoints);
+		// each subtree waits until a second one has started, which only happens if they run at the same time
+		CountDownLatch started = new CountDownLatch(2);
+		Queue<Boolean> overlapped = new ConcurrentLinkedQueue<>();
+		IntervalBlockRepository intervalBlocks = mock(IntervalBlockRepository.class);
+		when(intervalBlocks.findAllByUsagePointUuid(any())).thenAnswer(invocation -> {
+			started.countDown();
+			overlapped.add(started.await(10, TimeUnit.SECONDS));
+			return List.of();
+		});
+
+		List<String> rendered = batchService(retailCustomers, usagePointRepository, intervalBlocks)
+			.renderRetailCustomer(retailCustomer, UsagePointAccess.UNRESTRICTED);
+
+		assertThat(rendered).hasSize(3);
+		assertThat(overlapped).hasSize(3).containsOnly(true);
+	}
+
+	@Test
+	public void renderRetailCustomer_rendersOnlyTheUsagePointsTheAccessPermits() {
+		UUID retailCustomer = UUID.randomUUID();
+		UUID granted = UUID.randomUUID();
+		UUID other = UUID.randomUUID();
+		RetailCustomerRepository retailCustomers = mock(RetailCustomerRepository.class);
+		when(retailCustomers.existsById(retailCustomer)).thenReturn(true);
+		UsagePointRepository usagePointRepository = mock(UsagePointRepository.class);
+		when(usagePointRepository.findUuidsByRetailCustomerUuid(retailCustomer)).thenReturn(List.of(granted, other));
+		IntervalBlockRepository intervalBlocks = mock(IntervalBlockRepository.class);
+		BatchService batchService = batchService(retailCustomers, usagePointRepository, intervalBlocks);
+
+		assertThat(batchService.renderRetailCustomer(retailCustomer, UsagePointAccess.of(List.of(granted)))).hasSize(1);
+		verify(intervalBlocks).findAllByUsagePointUuid(granted);
+		verify(intervalBlocks, never()).findAllByUsagePointUuid(other);
+		// a RetailCustomer none of whose UsagePoints are granted cannot be told from one that does not exist
+		assertThatThrownBy(() -> batchService.renderRetailCustomer(retailCustomer, UsagePointAccess.NONE))
+			.isInstanceOf(EntityNotFoundByIdException.class);
+	}
+
+	@Test
+	public void renderRetailCustomer_rejectsAnUnknownRetailCustomer() {
+		UUID retailCustomer = UUID.randomUUID();
+		UsagePointRepository usagePointRepository = mock(UsagePointRepository.class);
+
+		assertThatThrownBy(() -> batchService(mock(RetailCustomerRepository.class), usagePointRepository, mock(IntervalBlockRepository.class))
+			.renderRetailCustomer(retailCustomer, UsagePointAccess.UNRESTRICTED))
+			.isInstanceOf(EntityNotFoundByIdException.class);
+		verifyNoInteractions(usagePointRepository);
+	}
+
+	private static BatchService batchService(RetailCustomerRepository retailCustomers, UsagePointRepository usagePoints, IntervalBlockRepository intervalBlocks) {
+		// a pool of 8 gives bulk work a quarter of it, two permits
+		HikariDataSource pool = new HikariDataSource();
+		pool.setMaximumPoolSize(8);
+		SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+		return new BatchService(retailCustomers, usagePoints, intervalBlocks, mock(PlatformTransactionManager.class),
+			new DatabaseBulkheads(pool, meterRegistry, new StandardEnvironment(), 0, 0, 30));
+	}
+}
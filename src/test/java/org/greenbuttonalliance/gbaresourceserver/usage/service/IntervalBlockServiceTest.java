@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.greenbuttonalliance.gbaresourceserver.usage.service;
+
+import lombok.RequiredArgsConstructor;
+import org.greenbuttonalliance.gbaresourceserver.usage.access.UsagePointAccess;
+import org.greenbuttonalliance.gbaresourceserver.usage.ingest.GreenButtonImporter;
+import org.greenbuttonalliance.gbaresourceserver.usage.ingest.SyntheticFeeds;
+import org.greenbuttonalliance.gbaresourceserver.usage.model.IntervalBlock;
+import org.greenbuttonalliance.gbaresourceserver.usage.scope.EspiScope;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.io.ByteArrayInputStream;
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.*;
+
+@Testcontainers
+@SpringBootTest
+@RequiredArgsConstructor(onConstructor = @__(@Autowired))
+public class IntervalBlockServiceTest {
+	// the first day of SyntheticFeeds
+	private static final long FIRST_DAY = 1704067200L;
+	private static final long DAY = 86400L;
+
+	private final IntervalBlockService intervalBlockService;
+	private final GreenButtonImporter greenButtonImporter;
+	private final JdbcTemplate jdbcTemplate;
+
+	@Container
+	@ServiceConnection
+	static PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>("postgres:latest");
+
+	@Test
+	public void findAll_leavesOutTheBlocksOfIntervalLengthsTheScopeDoesNotGrant() {
+		List<UUID> usagePoints = importedUsagePoints("lengths", 2, 2);
+		UsagePointAccess access = UsagePointAccess.of(usagePoints);
+
+		// the synthetic ReadingType has 900 s intervals
+		assertThat(intervalBlockService.findAll(EspiScope.compile("FB=1_3_4;IntervalDuration=900"), access)).hasSize(2 * 2);
+		assertThat(intervalBlockService.findAll(EspiScope.compile("FB=1_3_4;IntervalDuration=3600"), access)).isEmpty();
+		assertThat(intervalBlockService.findAll(EspiScope.compile("FB=1_3;IntervalDuration=900"), access)).isEmpty();
+	}
+
+	@Test
+	public void findAll_leavesOutTheBlocksBeforeTheScopesHistory() {
+		List<UUID> usagePoints = importedUsagePoints("history", 1, 3);
+		// reaches back to a minute before the second day
+		long historyLength = Instant.now().getEpochSecond() - (FIRST_DAY + DAY - 60);
+
+		List<IntervalBlock> blocks = intervalBlockService.findAll(EspiScope.compile("FB=1_3_4;HistoryLength=" + historyLength), UsagePointAccess.of(usagePoints));
+
+		assertThat(blocks).extracting(block -> block.getInterval().getStart()).containsExactlyInAnyOrder(FIRST_DAY + DAY, FIRST_DAY + 2 * DAY);
+	}
+
+	@Test
+	public void findAll_leavesOutTheUsagePointsOutsideTheAccess() {
+		List<UUID> usagePoints = importedUsagePoints("access", 3, 1);
+
+		assertThat(intervalBlockService.findAll(EspiScope.UNRESTRICTED, UsagePointAccess.of(usagePoints.subList(0, 1)))).hasSize(1);
+		assertThat(intervalBlockService.findAll(EspiScope.UNRESTRICTED, UsagePointAccess.NONE)).isEmpty();
+	}
+
+	private List<UUID> importedUsagePoints(String prefix, int usagePoints, int days) {
+		UUID retailCustomer = UUID.randomUUID();
+		jdbcTemplate.update("INSERT INTO usage.retail_customer (uuid) VALUES (?)", retailCustomer);
+		greenButtonImporter.importFeed(new ByteArrayInputStream(SyntheticFeeds.feed(prefix + "-" + retailCustomer, usagePoints, days)), retailCustomer,
+			UsagePointAccess.UNRESTRICTED);
+		return jdbcTemplate.queryForList("SELECT uuid FROM usage.usage_point WHERE retail_customer_uuid = ?", UUID.class, retailCustomer);
+	}
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.greenbuttonalliance.gbaresourceserver.usage.summary;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.greenbuttonalliance.gbaresourceserver.usage.bulkhead.DatabaseBulkheads;
+import org.greenbuttonalliance.gbaresourceserver.usage.time.LocalTimeTables;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import javax.sql.DataSource;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.*;
+
+/**
+ * Time to derive one billing period of UsageSummaries from hourly interval data, for a range of parallelism settings. Not picked up by a plain
+ * <code>mvn test</code>; run it with <code>mvn test -Dtest=UsageSummaryDerivationBenchmark</code>, optionally setting <code>-Dbenchmark.usagePoints</code>
+ * and <code>-Dbenchmark.days</code>. The data is generated in the database, so the default of 100,000 UsagePoints takes a while to set up before anything
+ * is measured.
+ */
+@Testcontainers
+@SpringBootTest
+public class UsageSummaryDerivationBenchmark {
+	private static final int USAGE_POINTS = Integer.getInteger("benchmark.usagePoints", 100_000);
+	private static final int DAYS = Integer.getInteger("benchmark.days", 30);
+	private static final int[] PARALLELISM = {1, 2, 4, 8};
+	private static final int GENERATE_CHUNK = 1000;
+	// 2024-03-01T00:00:00Z
+	private static final long PERIOD_START = 1709251200L;
+	private static final long DAY = 86400;
+
+	@Container
+	@ServiceConnection
+	static PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>("postgres:latest");
+
+	@Autowired
+	private DataSource dataSource;
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+	@Autowired
+	private LocalTimeTables localTimeTables;
+	@Autowired
+	private DatabaseBulkheads databaseBulkheads;
+
+	@Test
+	public void derivationTimeByParallelism() throws InterruptedException {
+		long started = System.nanoTime();
+		generate();
+		System.out.printf("generated usagePoints=%d readings=%d in %.1fs%n", USAGE_POINTS, (long) USAGE_POINTS * DAYS * 24,
+			(System.nanoTime() - started) / 1e9);
+		SummaryPeriod period = new SummaryPeriod(PERIOD_START, DAYS * DAY, PERIOD_START + DAYS * DAY);
+
+		// one untimed run so JIT, connection pool and the buffer cache are warm for the first measured one
+		new UsageSummaryDeriver(dataSource, transactionManager, new SimpleMeterRegistry(), localTimeTables, databaseBulkheads, 200, 4, 500, 11, 900).derive(period);
+
+		for (int parallelism : PARALLELISM) {
+			SimpleMeterRegistry meters = new SimpleMeterRegistry();
+			UsageSummaryDeriver deriver = new UsageSummaryDeriver(dataSource, transactionManager, meters, localTimeTables, databaseBulkheads, 200, parallelism, 500, 11,
+				900);
+
+			started = System.nanoTime();
+			SummaryDerivation derivation = deriver.derive(period);
+			double seconds = (System.nanoTime() - started) / 1e9;
+			deriver.shutdown();
+
+			assertThat(derivation.summaries()).isEqualTo(USAGE_POINTS);
+			System.out.printf("parallelism=%d usagePoints=%d readings=%d partitions=%d time=%.2fs usagePoints/s=%.0f readings/s=%.0f meanPartition=%.1fms%n",
+				parallelism, derivation.usagePoints(), derivation.intervalReadings(), derivation.partitions(), seconds, derivation.usagePoints() / seconds,
+				derivation.intervalReadings() / seconds, meters.get("gba.summary.partition").timer().mean(TimeUnit.MILLISECONDS));
+		}
+	}
+
+	private void generate() {
+		UUID readingType = UUID.randomUUID();
+		jdbcTemplate.update("INSERT INTO usage.reading_type (uuid, accumulation_behavior, flow_direction, uom, power_of_ten_multiplier, interval_length) " +
+			"VALUES (?, 'DELTA_DATA', 'FORWARD', 'W_H', 'NONE', 3600)", readingType);
+		for (int from = 0; from < USAGE_POINTS; from += GENERATE_CHUNK) {
+			int to = Math.min(from + GENERATE_CHUNK, USAGE_POINTS);
+			jdbcTemplate.update("""
+				INSERT INTO usage.usage_point (uuid, self_link_href)
+				SELECT md5('up' || i)::uuid, 'https://localhost/espi/1_1/resource/UsagePoint/' || md5('up' || i)::uuid FROM generate_series(?, ?) AS i""",
+				from, to - 1);
+			jdbcTemplate.update("""
+				INSERT INTO usage.meter_reading (uuid, usage_point_uuid, reading_type_uuid)
+				SELECT md5('mr' || i)::uuid, md5('up' || i)::uuid, ? FROM generate_series(?, ?) AS i""", readingType, from, to - 1);
+			jdbcTemplate.update("""
+				INSERT INTO usage.interval_block (uuid, meter_reading_uuid, start, duration)
+				SELECT md5('ib' || i || '/' || d)::uuid, md5('mr' || i)::uuid, ? + d * 86400, 86400
+				FROM generate_series(?, ?) AS i, generate_series(0, ?) AS d""", PERIOD_START, from, to - 1, DAYS - 1);
+			jdbcTemplate.update("""
+				INSERT INTO usage.interval_reading (block_uuid, start, duration, value)
+				SELECT md5('ib' || i || '/' || d)::uuid, ? + d * 86400 + h * 3600, 3600, 200 + (i * 7 + d * 13 + h * 31) % 1800
+				FROM generate_series(?, ?) AS i, generate_series(0, ?) AS d, generate_series(0, 23) AS h""", PERIOD_START, from, to - 1, DAYS - 1);
+		}
+		jdbcTemplate.execute("ANALYZE usage.interval_block");
+		jdbcTemplate.execute("ANALYZE usage.interval_reading");
+	}
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.greenbuttonalliance.gbaresourceserver.usage.summary;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.RequiredArgsConstructor;
+import org.greenbuttonalliance.gbaresourceserver.usage.bulkhead.DatabaseBulkheads;
+import org.greenbuttonalliance.gbaresourceserver.usage.ingest.IntervalBlockRecord;
+import org.greenbuttonalliance.gbaresourceserver.usage.ingest.IntervalDataWriter;
+import org.greenbuttonalliance.gbaresourceserver.usage.ingest.IntervalReadingRecord;
+import org.greenbuttonalliance.gbaresourceserver.usage.rollup.IntervalRollupMaintainer;
+import org.greenbuttonalliance.gbaresourceserver.usage.time.LocalTimeTables;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.*;
+
+@Testcontainers
+@DataJpaTest(showSql = false)
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Import({UsageSummaryDeriver.class, IntervalDataWriter.class, IntervalRollupMaintainer.class, LocalTimeTables.class, DatabaseBulkheads.class,
+	SimpleMeterRegistry.class})
+@RequiredArgsConstructor(onConstructor = @__(@Autowired))
+// the deriver reads and writes on its own threads, which would not see data of an open test transaction
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+public class UsageSummaryDeriverTest {
+	private final UsageSummaryDeriver usageSummaryDeriver;
+	private final IntervalDataWriter intervalDataWriter;
+	private final JdbcTemplate jdbcTemplate;
+	private final DataSource dataSource;
+	private final PlatformTransactionManager transactionManager;
+	private final LocalTimeTables localTimeTables;
+	private final DatabaseBulkheads databaseBulkheads;
+
+	// 2024-03-01T00:00:00Z
+	private static final long MARCH = 1709251200L;
+	private static final long DAY = 86400;
+	private static final long HOUR = 3600;
+	// 2024-03-11T12:00:00Z
+	private static final long AS_OF = MARCH + 10 * DAY + 12 * HOUR;
+	// 2023-03-11T00:00:00Z
+	private static final long DAY_LAST_YEAR = 1678492800L;
+
+	@Container
+	@ServiceConnection
+	static PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>("postgres:latest");
+
+	@Test
+	public void derive_computesMeasurementsFromIntervalData() {
+		UUID usagePoint = usagePoint();
+		UUID forward = meterReading(usagePoint, "FORWARD");
+		UUID reverse = meterReading(usagePoint, "REVERSE");
+		write(forward, MARCH - 15 * DAY, reading(MARCH - 15 * DAY, 500));
+		write(forward, MARCH - 10 * DAY, reading(MARCH - 10 * DAY, 700));
+		write(forward, MARCH + DAY, reading(MARCH + DAY + 10 * HOUR, 2000));
+		write(forward, MARCH + 9 * DAY, reading(MARCH + 9 * DAY + 8 * HOUR, 300));
+		// the second reading starts after asOf
+		write(forward, MARCH + 10 * DAY, reading(MARCH + 10 * DAY + 6 * HOUR, 400), reading(MARCH + 10 * DAY + 13 * HOUR, 999));
+		write(reverse, MARCH + 10 * DAY, reading(MARCH + 10 * DAY + 7 * HOUR, 150));
+		write(forward, DAY_LAST_YEAR - DAY, reading(DAY_LAST_YEAR - DAY, 60));
+		write(forward, DAY_LAST_YEAR, reading(DAY_LAST_YEAR, 50));
+		jdbcTemplate.update("INSERT INTO usage.usage_summaries (uuid, status_time_stamp, usage_point_uuid, billing_period_start, peak_demand_value, " +
+			"peak_demand_time_stamp) VALUES (?, 0, ?, ?, 5000, 42)", UUID.randomUUID(), usagePoint, MARCH - 60 * DAY);
+
+		SummaryDerivation derivation = usageSummaryDeriver.derive(new SummaryPeriod(MARCH, 31 * DAY, AS_OF), List.of(usagePoint));
+
+		assertThat(derivation).isEqualTo(new SummaryDerivation(1, 1, 8, 1));
+		Map<String, Object> summary = derived(usagePoint);
+		assertThat(summary).containsEntry("billing_period_start", MARCH)
+			.containsEntry("billing_period_duration", 31 * DAY)
+			.containsEntry("status_time_stamp", AS_OF)
+			.containsEntry("quality_of_reading", "DERIVED")
+			.containsEntry("current_billing_period_overall_consumption_value", 2700L)
+			.containsEntry("current_billing_period_overall_consumption_uom", "W_H")
+			.containsEntry("overall_consumption_last_period_value", 1200L)
+			.containsEntry("current_day_overall_consumption_value", 400L)
+			.containsEntry("current_day_overall_consumption_time_stamp", MARCH + 10 * DAY)
+			.containsEntry("current_day_net_consumption_value", 250L)
+			.containsEntry("previous_day_overall_consumption_value", 300L)
+			.containsEntry("previous_day_net_consumption_value", 300L)
+			.containsEntry("current_day_last_year_net_consumption_value", 50L)
+			.containsEntry("previous_day_last_year_overall_consumption_value", 60L)
+			.containsEntry("peak_demand_value", 2000L)
+			.containsEntry("peak_demand_uom", "W")
+			.containsEntry("peak_demand_time_stamp", MARCH + DAY + 10 * HOUR)
+			.containsEntry("ratchet_demand_value", 5000L)
+			.containsEntry("ratchet_demand_time_stamp", 42L);
+	}
+
+	@Test
+	public void derive_replacesTheSummaryOfAnEarlierRunAcrossPartitions() {
+		List<UUID> usagePoints = new ArrayList<>();
+		for (int i = 0; i < 5; i++) {
+			UUID usagePoint = usagePoint();
+			UUID forward = meterReading(usagePoint, "FORWARD");
+			write(forward, MARCH, reading(MARCH, 100 + i));
+			usagePoints.add(usagePoint);
+		}
+		// one without readings in the period gets no summary
+		UUID idle = usagePoint();
+		meterReading(idle, "FORWARD");
+		usagePoints.add(idle);
+		UsageSummaryDeriver deriver = new UsageSummaryDeriver(dataSource, transactionManager, new SimpleMeterRegistry(), localTimeTables, databaseBulkheads, 2, 3,
+			2, 11, 900);
+
+		assertThat(deriver.derive(new SummaryPeriod(MARCH, 31 * DAY, AS_OF), usagePoints)).isEqualTo(new SummaryDerivation(6, 5, 5, 3));
+		write(meterReadingOf(usagePoints.get(4)), MARCH + DAY, reading(MARCH + DAY, 50));
+		assertThat(deriver.derive(new SummaryPeriod(MARCH, 31 * DAY, AS_OF), usagePoints).summaries()).isEqualTo(5);
+
+		assertThat(derived(usagePoints.get(4))).containsEntry("current_billing_period_overall_consumption_value", 154L);
+		assertThat(jdbcTemplate.queryForObject("SELECT count(*) FROM usage.usage_summaries WHERE usage_point_uuid = ANY(?::uuid[])", Long.class,
+			(Object) usagePoints.stream().map(UUID::toString).toArray(String[]::new))).isEqualTo(5);
+	}
+
+	private Map<String, Object> derived(UUID usagePoint) {
+		return jdbcTemplate.queryForMap("SELECT * FROM usage.usage_summaries WHERE usage_point_uuid = ? AND billing_period_start = ?", usagePoint, MARCH);
+	}
+
+	private UUID usagePoint() {
+		UUID usagePoint = UUID.randomUUID();
+		jdbcTemplate.update("INSERT INTO usage.usage_point (uuid, self_link_href) VALUES (?, ?)", usagePoint,
+			"https://localhost/espi/1_1/resource/UsagePoint/" + usagePoint);
+		return usagePoint;
+	}
+
+	private UUID meterReading(UUID usagePoint, String flowDirection) {
+		UUID readingType = UUID.randomUUID();
+		jdbcTemplate.update("INSERT INTO usage.reading_type (uuid, accumulation_behavior, flow_direction, uom, power_of_ten_multiplier, interval_length) " +
+			"VALUES (?, 'DELTA_DATA', CAST(? AS usage.flow_direction_kind), 'W_H', 'NONE', 3600)", readingType, flowDirection);
+		UUID meterReading = UUID.randomUUID();
+		jdbcTemplate.update("INSERT INTO usage.meter_reading (uuid, usage_point_uuid, reading_type_uuid) VALUES (?, ?, ?)", meterReading, usagePoint,
+			readingType);
+		return meterReading;
+	}
+
+	private UUID meterReadingOf(UUID usagePoint) {
+		return jdbcTemplate.queryForObject("SELECT uuid FROM usage.meter_reading WHERE usage_point_uuid = ?", UUID.class, usagePoint);
+	}
+
+	private void write(UUID meterReading, long blockStart, IntervalReadingRecord... readings) {
+		intervalDataWriter.write(List.of(new IntervalBlockRecord(UUID.randomUUID(), meterReading, null, null, null, null, blockStart, DAY,
+			List.of(readings))));
+	}
+
+	private static IntervalReadingRecord reading(long start, long value) {
+		return new IntervalReadingRecord(start, (int) HOUR, value, null, null, null, null, List.of());
+	}
+}
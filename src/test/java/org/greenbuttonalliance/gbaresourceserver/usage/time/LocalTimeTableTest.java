@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.greenbuttonalliance.gbaresourceserver.usage.time;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.HexFormat;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class LocalTimeTableTest {
+	private static final int HOUR = 3600;
+	// the second Sunday in March and the first Sunday in November, both at 02:00
+	private static final byte[] US_START = HexFormat.of().parseHex("360E2000");
+	private static final byte[] US_END = HexFormat.of().parseHex("B40E2000");
+	// the first Sunday in October at 02:00 and the first Sunday in April at 03:00
+	private static final byte[] AU_START = rule(10, 2, 0, 7, 2);
+	private static final byte[] AU_END = rule(4, 2, 0, 7, 3);
+
+	@Test
+	public void decode_readsTheBitFieldsOfADstRule() {
+		assertThat(DstRule.decode(US_START)).isEqualTo(new DstRule(3, 3, 0, 7, 2 * HOUR));
+		assertThat(DstRule.decode(US_END)).isEqualTo(new DstRule(11, 2, 0, 7, 2 * HOUR));
+		assertThat(DstRule.decode(rule(10, 7, 0, 7, 1))).isEqualTo(new DstRule(10, 7, 0, 7, HOUR));
+		assertThat(DstRule.decode(HexFormat.of().parseHex("FFFFFFFF"))).isNull();
+		assertThat(DstRule.decode(HexFormat.of().parseHex("DEADBEEF"))).isNull();
+		assertThat(DstRule.decode(new byte[0])).isNull();
+		assertThat(DstRule.decode(null)).isNull();
+	}
+
+	@Test
+	public void offsetAt_changesAtTheTransitionInstants() {
+		LocalTimeTable table = LocalTimeTable.compile(-5 * HOUR, HOUR, DstRule.decode(US_START), DstRule.decode(US_END), 2000, 2050);
+		// 2024-03-10T07:00:00Z is 02:00 EST, and 2024-11-03T06:00:00Z is 02:00 EDT
+		long start = 1710054000L;
+		long end = 1730613600L;
+
+		assertThat(table.offsetAt(start - 1)).isEqualTo(-5 * HOUR);
+		assertThat(table.offsetAt(start)).isEqualTo(-4 * HOUR);
+		assertThat(table.offsetAt(end - 1)).isEqualTo(-4 * HOUR);
+		assertThat(table.offsetAt(end)).isEqualTo(-5 * HOUR);
+		assertThat(table.toLocal(start)).isEqualTo(LocalDateTime.of(2024, 3, 10, 3, 0).toEpochSecond(ZoneOffset.UTC));
+	}
+
+	@Test
+	public void offsetAt_agreesWithTheTimeZoneDatabaseInAndOutsideTheTable() {
+		assertAgrees(LocalTimeTable.compile(-5 * HOUR, HOUR, DstRule.decode(US_START), DstRule.decode(US_END), 2012, 2020),
+			ZoneId.of("America/New_York"), 2008, 2030);
+		assertAgrees(LocalTimeTable.compile(10 * HOUR, HOUR, DstRule.decode(AU_START), DstRule.decode(AU_END), 2012, 2020),
+			ZoneId.of("Australia/Sydney"), 2009, 2030);
+	}
+
+	@Test
+	public void toEpochSecond_resolvesLocalTimesAsZonedDateTimeDoes() {
+		LocalTimeTable table = LocalTimeTable.compile(-5 * HOUR, HOUR, DstRule.decode(US_START), DstRule.decode(US_END), 2000, 2050);
+		ZoneId zone = ZoneId.of("America/New_York");
+
+		// 02:30 on 2024-03-10 does not exist and 01:30 on 2024-11-03 happens twice
+		assertThat(table.toEpochSecond(LocalDateTime.of(2024, 3, 10, 2, 30))).isEqualTo(1710054000L + 1800);
+		assertThat(table.toEpochSecond(LocalDateTime.of(2024, 11, 3, 1, 30))).isEqualTo(1730613600L - 1800);
+		for (LocalDateTime local = LocalDateTime.of(2024, 1, 1, 0, 0); local.getYear() < 2025; local = local.plusMinutes(15)) {
+			long expected = local.atZone(zone).toEpochSecond();
+			if (table.toEpochSecond(local) != expected) {
+				fail("%s resolves to %d, expected %d", local, table.toEpochSecond(local), expected);
+			}
+			assertThat(table.toLocalDateTime(expected)).isEqualTo(local.atZone(zone).toLocalDateTime());
+		}
+	}
+
+	@Test
+	public void of_internsTablesByTheirRules() {
+		LocalTimeTables tables = new LocalTimeTables(new SimpleMeterRegistry(), 2000, 2050);
+
+		LocalTimeTable eastern = tables.of(-5 * HOUR, (long) HOUR, US_START, US_END);
+
+		assertThat(tables.of(-5 * HOUR, (long) HOUR, US_START.clone(), US_END.clone())).isSameAs(eastern);
+		assertThat(eastern.observesDst()).isTrue();
+		// rules that cannot be decoded, or no daylight saving offset, mean standard time all year
+		LocalTimeTable standard = tables.of(-5 * HOUR, (long) HOUR, HexFormat.of().parseHex("DEADBEEF"), US_END);
+		assertThat(tables.of(-5 * HOUR, 0L, US_START, US_END)).isSameAs(standard);
+		assertThat(tables.of(-5 * HOUR, null, new byte[0], new byte[0])).isSameAs(standard);
+		assertThat(standard.observesDst()).isFalse();
+		assertThat(standard.offsetAt(1720000000L)).isEqualTo(-5 * HOUR);
+	}
+
+	private static void assertAgrees(LocalTimeTable table, ZoneId zone, int fromYear, int toYear) {
+		long from = LocalDateTime.of(fromYear, 1, 1, 0, 0).toEpochSecond(ZoneOffset.UTC);
+		long to = LocalDateTime.of(toYear + 1, 1, 1, 0, 0).toEpochSecond(ZoneOffset.UTC);
+		// every quarter of an hour, and the second before and at each hour, where transitions happen
+		for (long t = from; t < to; t += 900) {
+			for (long instant : new long[]{t - 1, t}) {
+				int expected = zone.getRules().getOffset(Instant.ofEpochSecond(instant)).getTotalSeconds();
+				if (table.offsetAt(instant) != expected) {
+					fail("Offset at %s in %s is %d, expected %d", Instant.ofEpochSecond(instant), zone, table.offsetAt(instant), expected);
+				}
+			}
+		}
+	}
+
+	private static byte[] rule(int month, int operator, int dayOfMonth, int dayOfWeek, int hour) {
+		return ByteBuffer.allocate(4).putInt(month << 28 | operator << 25 | dayOfMonth << 20 | dayOfWeek << 17 | hour << 12).array();
+	}
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.greenbuttonalliance.gbaresourceserver.usage.token;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.time.Instant;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.*;
+
+/**
+ * Time to resolve a bearer token from the database, by the index on its hash, and from the cache. Not picked up by a plain <code>mvn test</code>; run it
+ * with <code>mvn test -Dtest=TokenResolutionBenchmark</code>, optionally setting <code>-Dbenchmark.authorizations</code>.
+ */
+@Testcontainers
+@SpringBootTest(properties = "gba.token.cache-size=20000")
+public class TokenResolutionBenchmark {
+	private static final int AUTHORIZATIONS = Integer.getInteger("benchmark.authorizations", 200_000);
+	private static final int LOOKUPS = 10_000;
+	private static final int HITS = 5_000_000;
+
+	@Container
+	@ServiceConnection
+	static PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>("postgres:latest");
+
+	@Autowired
+	private TokenResolutionService tokenResolutionService;
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@Test
+	public void resolutionTime() {
+		generate();
+		System.out.println(String.join("\n", jdbcTemplate.queryForList("EXPLAIN SELECT uuid FROM usage.authorization WHERE access_token_hash = " +
+			"sha256(convert_to('benchmark-1', 'UTF8'))", String.class)));
+
+		long started = System.nanoTime();
+		for (int i = 0; i < LOOKUPS; i++) {
+			assertThat(tokenResolutionService.resolve(token(i * (AUTHORIZATIONS / LOOKUPS)))).isPresent();
+		}
+		double lookupMicros = (System.nanoTime() - started) / 1e3 / LOOKUPS;
+
+		// half the hits warm up the JIT
+		for (int round = 0; round < 2; round++) {
+			started = System.nanoTime();
+			for (int i = 0; i < HITS / 2; i++) {
+				tokenResolutionService.resolve(token((i % LOOKUPS) * (AUTHORIZATIONS / LOOKUPS)));
+			}
+		}
+		double hitMicros = (System.nanoTime() - started) / 1e3 / (HITS / 2);
+
+		System.out.printf("authorizations=%d databaseLookup=%.1fus cacheHit=%.3fus%n", AUTHORIZATIONS, lookupMicros, hitMicros);
+	}
+
+	private void generate() {
+		UUID applicationInformation = UUID.randomUUID();
+		jdbcTemplate.update("""
+			INSERT INTO usage.application_information (uuid, authorization_server_authorization_endpoint, authorization_server_token_endpoint, client_id,
+				client_id_issued_at, client_name, client_secret, client_secret_expires_at, data_custodian_application_status, data_custodian_bulk_request_uri,
+				data_custodian_id, data_custodian_resource_endpoint, third_party_application_type, third_party_application_use, third_party_notify_uri,
+				software_id, software_version, token_endpoint_auth_method, registration_client_uri, registration_access_token)
+			VALUES (?, 'https://example.com/authorize', 'https://example.com/token', 'benchmark', 0, 'client', 'secret', 0, 'PRODUCTION',
+				'https://example.com/bulk', 'custodian', 'https://example.com/espi/1_1/resource', 'WEB', 'ENERGY_MANAGEMENT', 'https://example.com/notify',
+				'software', '1.0', 'BASIC', 'https://example.com/register', 'registration')""", applicationInformation);
+		jdbcTemplate.update("""
+			INSERT INTO usage.authorization (uuid, access_token, access_token_hash, status, expires_at, scope, resource_uri, authorization_uri,
+				application_information_id)
+			SELECT md5('authorization' || i)::uuid, 'benchmark-' || i, sha256(convert_to('benchmark-' || i, 'UTF8')), 'ACTIVE', ?,
+				'FB=4_5_15;IntervalDuration=3600', 'https://example.com/espi/1_1/resource/', 'https://example.com/espi/1_1/resource/Authorization', ?
+			FROM generate_series(0, ?) AS i""", Instant.now().getEpochSecond() + 86400, applicationInformation, AUTHORIZATIONS - 1);
+		jdbcTemplate.execute("ANALYZE usage.authorization");
+	}
+
+	private static String token(int i) {
+		return "benchmark-" + i;
+	}
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.greenbuttonalliance.gbaresourceserver.usage.token;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.RequiredArgsConstructor;
+import org.greenbuttonalliance.gbaresourceserver.usage.model.Authorization;
+import org.greenbuttonalliance.gbaresourceserver.usage.model.enums.AuthorizationStatus;
+import org.greenbuttonalliance.gbaresourceserver.usage.model.enums.ThirdPartyApplicationType;
+import org.greenbuttonalliance.gbaresourceserver.usage.model.enums.ThirdPartyApplicationUse;
+import org.greenbuttonalliance.gbaresourceserver.usage.repository.AuthorizationRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.*;
+
+@Testcontainers
+@DataJpaTest(showSql = false)
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Import({TokenResolutionService.class, SimpleMeterRegistry.class})
+@RequiredArgsConstructor(onConstructor = @__(@Autowired))
+public class TokenResolutionServiceTest {
+	private final TokenResolutionService tokenResolutionService;
+	private final AuthorizationRepository authorizationRepository;
+	private final SimpleMeterRegistry meterRegistry;
+	private final JdbcTemplate jdbcTemplate;
+	private final ObjectProvider<TokenResolutionService> tokenResolutionServiceProvider;
+
+	private static final long NOW = Instant.now().getEpochSecond();
+
+	@Container
+	@ServiceConnection
+	static PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>("postgres:latest");
+
+	@Test
+	public void resolve_findsAnActiveTokenAndThenAnswersFromTheCache() {
+		String accessToken = "token-" + UUID.randomUUID();
+		UUID authorizationUuid = authorization(accessToken, AuthorizationStatus.ACTIVE, NOW + 3600);
+
+		ResolvedToken resolved = tokenResolutionService.resolve(accessToken).orElseThrow();
+		tokenResolutionService.resolve(accessToken);
+
+		assertThat(resolved).usingRecursiveComparison().ignoringFields("espiScope").isEqualTo(new ResolvedToken(authorizationUuid, NOW + 3600,
+			"FB=4_5_15;IntervalDuration=3600", AuthorizationStatus.ACTIVE, "https://example.com/espi/1_1/resource/", "client-" + authorizationUuid,
+			ThirdPartyApplicationType.DEVICE, ThirdPartyApplicationUse.ENERGY_MANAGEMENT));
+		assertThat(resolved.espiScope().intervalLengthPredicate("interval_length")).isEqualTo(" AND interval_length IN (3600)");
+		assertThat(meterRegistry.get("gba.token.resolutions").tag("result", "miss").counter().count()).isEqualTo(1);
+		assertThat(meterRegistry.get("gba.token.resolutions").tag("result", "hit").counter().count()).isEqualTo(1);
+	}
+
+	@Test
+	public void resolve_rejectsUnknownRevokedAndExpiredTokens() {
+		String revoked = "token-" + UUID.randomUUID();
+		String expired = "token-" + UUID.randomUUID();
+		authorization(revoked, AuthorizationStatus.REVOKED, NOW + 3600);
+		authorization(expired, AuthorizationStatus.ACTIVE, NOW - 1);
+
+		assertThat(tokenResolutionService.resolve("token-" + UUID.randomUUID())).isEmpty();
+		assertThat(tokenResolutionService.resolve(revoked)).isEmpty();
+		assertThat(tokenResolutionService.resolve(expired)).isEmpty();
+	}
+
+	@Test
+	public void resolve_dropsACachedTokenOnceItsAuthorizationIsRevoked() {
+		String accessToken = "token-" + UUID.randomUUID();
+		UUID authorizationUuid = authorization(accessToken, AuthorizationStatus.ACTIVE, NOW + 3600);
+		assertThat(tokenResolutionService.resolve(accessToken)).isPresent();
+
+		jdbcTemplate.update("UPDATE usage.authorization SET status = 'REVOKED' WHERE uuid = ?", authorizationUuid);
+		// as Hibernate does when the Authorization is updated
+		new AuthorizationChangeListener(tokenResolutionServiceProvider).authorizationChanged(Authorization.builder().uuid(authorizationUuid).build());
+
+		assertThat(tokenResolutionService.resolve(accessToken)).isEmpty();
+	}
+
+	@Test
+	public void resolve_rejectsATokenThatSeveralAuthorizationsHold() {
+		String accessToken = "token-" + UUID.randomUUID();
+		authorization(accessToken, AuthorizationStatus.ACTIVE, NOW + 3600);
+		assertThat(tokenResolutionService.resolve(accessToken)).isPresent();
+
+		UUID otherUuid = authorization(accessToken, AuthorizationStatus.ACTIVE, NOW + 3600);
+		// as Hibernate does when the other Authorization is persisted
+		new AuthorizationChangeListener(tokenResolutionServiceProvider)
+			.authorizationChanged(Authorization.builder().uuid(otherUuid).accessToken(accessToken).build());
+
+		assertThat(tokenResolutionService.resolve(accessToken)).isEmpty();
+	}
+
+	@Test
+	public void resolve_dropsACachedTokenAtItsExpiry() {
+		String accessToken = "token-" + UUID.randomUUID();
+		authorization(accessToken, AuthorizationStatus.ACTIVE, NOW + 60);
+		MovingClock clock = new MovingClock(Instant.ofEpochSecond(NOW));
+		TokenResolutionService service = new TokenResolutionService(authorizationRepository, new SimpleMeterRegistry(), clock, 10, 30, 10);
+		assertThat(service.resolve(accessToken)).isPresent();
+
+		clock.instant = Instant.ofEpochSecond(NOW + 60);
+
+		assertThat(service.resolve(accessToken)).isEmpty();
+	}
+
+	@Test
+	public void resolve_remembersAnUnresolvedTokenForTheNegativeTtl() {
+		String accessToken = "token-" + UUID.randomUUID();
+		MovingClock clock = new MovingClock(Instant.ofEpochSecond(NOW));
+		SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+		TokenResolutionService service = new TokenResolutionService(authorizationRepository, meterRegistry, clock, 10, 30, 10);
+		assertThat(service.resolve(accessToken)).isEmpty();
+
+		// without a listener call, as when authorizations are changed outside JPA
+		authorization(accessToken, AuthorizationStatus.ACTIVE, NOW + 3600);
+
+		assertThat(service.resolve(accessToken)).isEmpty();
+		assertThat(meterRegistry.get("gba.token.resolutions").tag("result", "invalid").counter().count()).isEqualTo(2);
+		clock.instant = Instant.ofEpochSecond(NOW + 30);
+		assertThat(service.resolve(accessToken)).isPresent();
+	}
+
+	@Test
+	public void resolve_findsAnUnresolvedTokenOnceAnAuthorizationIsSavedWithIt() {
+		String accessToken = "token-" + UUID.randomUUID();
+		assertThat(tokenResolutionService.resolve(accessToken)).isEmpty();
+
+		UUID authorizationUuid = authorization(accessToken, AuthorizationStatus.ACTIVE, NOW + 3600);
+		// as Hibernate does when the Authorization is persisted
+		new AuthorizationChangeListener(tokenResolutionServiceProvider)
+			.authorizationChanged(Authorization.builder().uuid(authorizationUuid).accessToken(accessToken).build());
+
+		assertThat(tokenResolutionService.resolve(accessToken)).isPresent();
+	}
+
+	@Test
+	public void resolve_findsARevokedTokenOnceItsAuthorizationIsReactivated() {
+		String accessToken = "token-" + UUID.randomUUID();
+		UUID authorizationUuid = authorization(accessToken, AuthorizationStatus.REVOKED, NOW + 3600);
+		assertThat(tokenResolutionService.resolve(accessToken)).isEmpty();
+
+		jdbcTemplate.update("UPDATE usage.authorization SET status = 'ACTIVE' WHERE uuid = ?", authorizationUuid);
+		tokenResolutionService.invalidate(authorizationUuid);
+
+		assertThat(tokenResolutionService.resolve(accessToken)).isPresent();
+	}
+
+	@Test
+	public void hashAccessToken_matchesTheHashTheMigrationBackfills() {
+		String accessToken = "tökén-" + UUID.randomUUID();
+
+		assertThat(jdbcTemplate.queryForObject("SELECT sha256(convert_to(?, 'UTF8'))", byte[].class, accessToken))
+			.isEqualTo(Authorization.hashAccessToken(accessToken));
+	}
+
+	private UUID authorization(String accessToken, AuthorizationStatus status, long expiresAt) {
+		UUID authorizationUuid = UUID.randomUUID();
+		UUID applicationInformationUuid = UUID.randomUUID();
+		UUID retailCustomerUuid = UUID.randomUUID();
+		UUID subscriptionUuid = UUID.randomUUID();
+		jdbcTemplate.update("""
+			INSERT INTO usage.application_information (uuid, authorization_server_authorization_endpoint, authorization_server_token_endpoint, client_id,
+				client_id_issued_at, client_name, client_secret, client_secret_expires_at, data_custodian_application_status, data_custodian_bulk_request_uri,
+				data_custodian_id, data_custodian_resource_endpoint, third_party_application_type, third_party_application_use, third_party_notify_uri,
+				software_id, software_version, token_endpoint_auth_method, registration_client_uri, registration_access_token)
+			VALUES (?, 'https://example.com/authorize', 'https://example.com/token', ?, 0, 'client', 'secret', 0, 'PRODUCTION', 'https://example.com/bulk',
+				'custodian', 'https://example.com/espi/1_1/resource', 'DEVICE', 'ENERGY_MANAGEMENT', 'https://example.com/notify', 'software', '1.0', 'BASIC',
+				'https://example.com/register', 'registration')""", applicationInformationUuid, "client-" + authorizationUuid);
+		jdbcTemplate.update("INSERT INTO usage.retail_customer (uuid) VALUES (?)", retailCustomerUuid);
+		jdbcTemplate.update("INSERT INTO usage.subscription (uuid, application_information_uuid, retail_customer_id) VALUES (?, ?, ?)", subscriptionUuid,
+			applicationInformationUuid, retailCustomerUuid);
+		jdbcTemplate.update("""
+			INSERT INTO usage.authorization (uuid, access_token, access_token_hash, status, expires_at, scope, resource_uri, authorization_uri,
+				application_information_id, retail_customer_id, subscription_id)
+			VALUES (?, ?, sha256(convert_to(?, 'UTF8')), ?, ?, 'FB=4_5_15;IntervalDuration=3600', 'https://example.com/espi/1_1/resource/',
+				'https://example.com/espi/1_1/resource/Authorization', ?, ?, ?)""", authorizationUuid, accessToken, accessToken, status.name(), expiresAt,
+			applicationInformationUuid, retailCustomerUuid, subscriptionUuid);
+		return authorizationUuid;
+	}
+
+	private static class MovingClock extends Clock {
+		private Instant instant;
+
+		private MovingClock(Instant instant) {
+			this.instant = instant;
+		}
+
+		@Override
+		public ZoneId getZone() {
+			return ZoneOffset.UTC;
+		}
+
+		@Override
+		public Clock withZone(ZoneId zone) {
+			return this;
+		}
+
+		@Override
+		public Instant instant() {
+			return instant;
+		}
+	}
+}
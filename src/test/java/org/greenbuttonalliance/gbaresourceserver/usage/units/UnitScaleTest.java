@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.greenbuttonalliance.gbaresourceserver.usage.units;
+
+import org.greenbuttonalliance.gbaresourceserver.common.model.enums.UnitMultiplierKind;
+import org.greenbuttonalliance.gbaresourceserver.common.model.enums.UnitSymbolKind;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class UnitScaleTest {
+	@Test
+	public void of_foldsThePowerOfTenMultiplierIntoTheScale() {
+		assertThat(UnitScale.of(UnitSymbolKind.W_H, UnitMultiplierKind.KILO).apply(12)).isEqualTo(12000.0);
+		assertThat(UnitScale.of(UnitSymbolKind.W_H, UnitMultiplierKind.MILLI).apply(1234)).isEqualTo(1.234);
+		assertThat(UnitScale.of(UnitSymbolKind.W_H, null)).isEqualTo(UnitScale.of(UnitSymbolKind.W_H, UnitMultiplierKind.NONE));
+		assertThat(UnitScale.of(null, null).uom()).isEqualTo(UnitSymbolKind.NONE);
+	}
+
+	@Test
+	public void of_convertsToCanonicalUnits() {
+		assertThat(UnitScale.of(UnitSymbolKind.J, UnitMultiplierKind.KILO).uom()).isEqualTo(UnitSymbolKind.W_H);
+		assertThat(UnitScale.of(UnitSymbolKind.J, UnitMultiplierKind.KILO).apply(36)).isEqualTo(10.0);
+		assertThat(UnitScale.of(UnitSymbolKind.FT3, UnitMultiplierKind.HECTO).apply(1)).isEqualTo(2.8316846592);
+		assertThat(UnitScale.of(UnitSymbolKind.LITRE_COMPENSATED, UnitMultiplierKind.NONE).uom()).isEqualTo(UnitSymbolKind.M3_COMPENSATED);
+		assertThat(UnitScale.of(UnitSymbolKind.US_GAL, UnitMultiplierKind.NONE).apply(1000)).isEqualTo(3.785411784);
+		assertThat(UnitScale.of(UnitSymbolKind.BTU, UnitMultiplierKind.KILO).apply(250)).isEqualTo(2.5);
+		assertThat(UnitScale.of(UnitSymbolKind.THERM, UnitMultiplierKind.NONE).apply(7)).isEqualTo(7.0);
+		// no canonical counterpart: only the multiplier is applied
+		assertThat(UnitScale.of(UnitSymbolKind.V_A_RH, UnitMultiplierKind.KILO)).isEqualTo(new UnitScale(UnitSymbolKind.V_A_RH, 1000, 1));
+	}
+
+	@Test
+	public void apply_scalesARangeOfValues() {
+		long[] values = {1, 1500, -250, 7};
+		double[] out = new double[4];
+
+		UnitScale.of(UnitSymbolKind.W_H, UnitMultiplierKind.MILLI).apply(values, 1, 3, out);
+
+		assertThat(out).containsExactly(0, 1.5, -0.25, 0);
+	}
+
+	@Test
+	public void format_writesPlainDecimals() {
+		assertThat(UnitScale.format(12000.0)).isEqualTo("12000");
+		assertThat(UnitScale.format(-0.25)).isEqualTo("-0.25");
+		assertThat(UnitScale.format(1e-7)).isEqualTo("0.0000001");
+		assertThat(UnitScale.format(1e20)).isEqualTo("100000000000000000000");
+	}
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.greenbuttonalliance.gbaresourceserver.usage.vee;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.RequiredArgsConstructor;
+import org.greenbuttonalliance.gbaresourceserver.usage.bulkhead.DatabaseBulkheads;
+import org.greenbuttonalliance.gbaresourceserver.usage.ingest.IntervalBlockRecord;
+import org.greenbuttonalliance.gbaresourceserver.usage.ingest.IntervalDataWriter;
+import org.greenbuttonalliance.gbaresourceserver.usage.ingest.IntervalReadingRecord;
+import org.greenbuttonalliance.gbaresourceserver.usage.rollup.IntervalRollupMaintainer;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.*;
+
+@Testcontainers
+@DataJpaTest(showSql = false)
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Import({ReadingValidationService.class, IntervalDataWriter.class, IntervalRollupMaintainer.class, DatabaseBulkheads.class, SimpleMeterRegistry.class})
+@RequiredArgsConstructor(onConstructor = @__(@Autowired))
+// the service reads and writes on its own threads, which would not see data of an open test transaction
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+public class ReadingValidationServiceTest {
+	private final ReadingValidationService readingValidationService;
+	private final IntervalDataWriter intervalDataWriter;
+	private final JdbcTemplate jdbcTemplate;
+
+	// 2024-03-04T00:00:00Z, a Monday
+	private static final long MONDAY = 1709510400L;
+	private static final long HOUR = 3600;
+	private static final long DAY = 86400;
+
+	@Container
+	@ServiceConnection
+	static PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>("postgres:latest");
+
+	@Test
+	public void validate_flagsQuestionableReadingsAndFillsGaps() {
+		UUID meterReading = meterReading();
+		write(meterReading, MONDAY - 7 * DAY, DAY, hours(0, 24, MONDAY - 7 * DAY));
+		// 03:00 is missing within the first block, 10:00-14:00 across the end of it and the space up to the second one
+		List<IntervalReadingRecord> first = hours(0, 10, MONDAY);
+		first.removeIf(reading -> reading.start() == MONDAY + 3 * HOUR);
+		write(meterReading, MONDAY, 12 * HOUR, first);
+		List<IntervalReadingRecord> second = hours(14, 24, MONDAY);
+		second.set(6, reading(MONDAY + 20 * HOUR, 99999));
+		second.set(7, reading(MONDAY + 21 * HOUR, -1));
+		write(meterReading, MONDAY + 14 * HOUR, 10 * HOUR, second);
+
+		ValidationRun run = readingValidationService.validate(MONDAY, MONDAY + DAY, List.of(meterReading));
+
+		assertThat(run).isEqualTo(new ValidationRun(1, 43, 0, 1, 1, 2, 5, 1));
+		assertThat(qualities(meterReading)).isEqualTo(Map.of(
+			MONDAY + 3 * HOUR, "103 ESTIMATED_USING_LINEAR_INTERPOLATION",
+			MONDAY + 10 * HOUR, "110 ESTIMATED_USING_REFERENCE_DAY",
+			MONDAY + 11 * HOUR, "111 ESTIMATED_USING_REFERENCE_DAY",
+			MONDAY + 12 * HOUR, "112 ESTIMATED_USING_REFERENCE_DAY",
+			MONDAY + 13 * HOUR, "113 ESTIMATED_USING_REFERENCE_DAY",
+			MONDAY + 20 * HOUR, "99999 QUESTIONABLE",
+			MONDAY + 21 * HOUR, "-1 QUESTIONABLE"));
+		// 12:00 and 13:00 went into a new block between the two delivered ones
+		assertThat(jdbcTemplate.queryForList("SELECT start, duration FROM usage.interval_block WHERE meter_reading_uuid = ? AND start >= ? ORDER BY start",
+			meterReading, MONDAY)).extracting(row -> row.get("start") + "+" + row.get("duration"))
+			.containsExactly(MONDAY + "+" + 12 * HOUR, MONDAY + 12 * HOUR + "+" + 2 * HOUR, MONDAY + 14 * HOUR + "+" + 10 * HOUR);
+		assertThat(jdbcTemplate.queryForObject("SELECT readings FROM usage.interval_rollup_daily WHERE meter_reading_uuid = ? AND bucket_start = ?", Long.class,
+			meterReading, MONDAY)).isEqualTo(24);
+
+		// validating again finds the same readings but leaves nothing more to do
+		assertThat(readingValidationService.validate(MONDAY, MONDAY + DAY, List.of(meterReading))).isEqualTo(new ValidationRun(1, 48, 0, 1, 1, 0, 0, 1));
+		assertThat(jdbcTemplate.queryForObject("SELECT count(*) FROM usage.reading_quality WHERE quality = 'QUESTIONABLE' AND reading_id IN " +
+			"(SELECT r.id FROM usage.interval_reading r JOIN usage.interval_block b ON b.uuid = r.block_uuid WHERE b.meter_reading_uuid = ?)", Long.class,
+			meterReading)).isEqualTo(2);
+	}
+
+	private Map<Long, String> qualities(UUID meterReading) {
+		return jdbcTemplate.queryForList("""
+				SELECT r.start, r.value || ' ' || q.quality AS quality FROM usage.interval_reading r
+				JOIN usage.interval_block b ON b.uuid = r.block_uuid
+				JOIN usage.reading_quality q ON q.reading_id = r.id
+				WHERE b.meter_reading_uuid = ?""", meterReading).stream()
+			.collect(Collectors.toMap(row -> (Long) row.get("start"), row -> (String) row.get("quality")));
+	}
+
+	private UUID meterReading() {
+		UUID readingType = UUID.randomUUID();
+		jdbcTemplate.update("INSERT INTO usage.reading_type (uuid, accumulation_behavior, flow_direction, uom, power_of_ten_multiplier, interval_length) " +
+			"VALUES (?, 'DELTA_DATA', 'FORWARD', 'W_H', 'NONE', 3600)", readingType);
+		UUID meterReading = UUID.randomUUID();
+		jdbcTemplate.update("INSERT INTO usage.meter_reading (uuid, reading_type_uuid) VALUES (?, ?)", meterReading, readingType);
+		return meterReading;
+	}
+
+	private void write(UUID meterReading, long blockStart, long blockDuration, List<IntervalReadingRecord> readings) {
+		intervalDataWriter.write(List.of(new IntervalBlockRecord(UUID.randomUUID(), meterReading, null, null, null, null, blockStart, blockDuration,
+			readings)));
+	}
+
+	/**
+	 * Hourly readings of 100 plus the hour from <code>fromHour</code> to <code>toHour</code> of the day starting at <code>day</code>.
+	 */
+	private static List<IntervalReadingRecord> hours(int fromHour, int toHour, long day) {
+		List<IntervalReadingRecord> readings = new ArrayList<>();
+		for (int hour = fromHour; hour < toHour; hour++) {
+			readings.add(reading(day + hour * HOUR, 100 + hour));
+		}
+		return readings;
+	}
+
+	private static IntervalReadingRecord reading(long start, long value) {
+		return new IntervalReadingRecord(start, (int) HOUR, value, null, null, null, null, List.of());
+	}
+}
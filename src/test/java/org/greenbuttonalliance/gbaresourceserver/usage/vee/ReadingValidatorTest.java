@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.greenbuttonalliance.gbaresourceserver.usage.vee;
+
+import org.greenbuttonalliance.gbaresourceserver.usage.model.enums.QualityOfReading;
+import org.greenbuttonalliance.gbaresourceserver.usage.vee.ReadingValidator.Estimate;
+import org.greenbuttonalliance.gbaresourceserver.usage.vee.ReadingValidator.Flag;
+import org.greenbuttonalliance.gbaresourceserver.usage.vee.ReadingValidator.SeriesValidation;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class ReadingValidatorTest {
+	private static final long HOUR = 3600;
+	private static final long DAY = 86400;
+
+	private final ReadingValidator validator = new ReadingValidator(10, 7200);
+	private final Series series = new Series();
+
+	@Test
+	public void validate_flagsDuplicatesAndNegativesWithinTheRange() {
+		long before = series.add(0, HOUR, 100);
+		long duplicateBefore = series.add(0, HOUR, 90);
+		series.add(HOUR, HOUR, 100);
+		long duplicate = series.add(HOUR, HOUR, 120);
+		long overlapping = series.add(HOUR + HOUR / 2, HOUR, 50);
+		long negative = series.add(2 * HOUR, HOUR, -5);
+		series.add(3 * HOUR, HOUR, 100);
+
+		SeriesValidation validation = series.validate(validator, HOUR, 4 * HOUR, false);
+
+		assertThat(validation.flags()).containsExactly(new Flag(duplicate, ReadingCheck.DUPLICATE), new Flag(overlapping, ReadingCheck.DUPLICATE),
+			new Flag(negative, ReadingCheck.NEGATIVE));
+		assertThat(validation.flags()).extracting(Flag::readingId).doesNotContain(before, duplicateBefore);
+		assertThat(validation.gaps()).isZero();
+		// net flow may be negative
+		assertThat(series.validate(validator, HOUR, 4 * HOUR, true).flags()).extracting(Flag::check).containsOnly(ReadingCheck.DUPLICATE);
+	}
+
+	@Test
+	public void validate_interpolatesShortGapsBetweenTheRatesAroundThem() {
+		series.add(0, HOUR, 100);
+		series.add(3 * HOUR, HOUR, 400);
+
+		SeriesValidation validation = series.validate(validator, 0, 4 * HOUR, false);
+
+		assertThat(validation.gaps()).isEqualTo(1);
+		assertThat(validation.estimates()).containsExactly(
+			new Estimate(HOUR, (int) HOUR, 200, QualityOfReading.ESTIMATED_USING_LINEAR_INTERPOLATION),
+			new Estimate(2 * HOUR, (int) HOUR, 300, QualityOfReading.ESTIMATED_USING_LINEAR_INTERPOLATION));
+	}
+
+	@Test
+	public void validate_copiesLongGapsFromTheSameTimeOfAReferenceDay() {
+		// a value that tells the day and the hour apart; the last day misses 10:00-15:00, and its first reference day 12:00
+		for (long day = 0; day < 8; day++) {
+			for (long hour = 0; hour < 24; hour++) {
+				if (!(day == 7 && hour >= 10 && hour < 15) && !(day == 0 && hour == 12)) {
+					series.add(day * DAY + hour * HOUR, HOUR, hour * 10 + day);
+				}
+			}
+		}
+
+		SeriesValidation validation = series.validate(validator, 7 * DAY, 8 * DAY, false);
+
+		assertThat(validation.gaps()).isEqualTo(1);
+		assertThat(validation.estimates()).extracting(Estimate::value).containsExactly(100L, 110L, 126L, 130L, 140L);
+		assertThat(validation.estimates()).extracting(Estimate::quality).containsOnly(QualityOfReading.ESTIMATED_USING_REFERENCE_DAY);
+		assertThat(validation.estimates().getFirst().start()).isEqualTo(7 * DAY + 10 * HOUR);
+	}
+
+	@Test
+	public void validate_flagsSpikesAndDoesNotEstimateFromThem() {
+		long spike = -1;
+		for (long hour = 0; hour < 48; hour++) {
+			if (hour == 35) {
+				continue;
+			}
+			long id = series.add(hour * HOUR, HOUR, hour == 34 ? 5000 : 100 + hour % 3);
+			if (hour == 34) {
+				spike = id;
+			}
+		}
+
+		SeriesValidation validation = series.validate(new ReadingValidator(10, HOUR), DAY, 2 * DAY, false);
+
+		assertThat(validation.flags()).containsExactly(new Flag(spike, ReadingCheck.SPIKE));
+		// the spike rules out interpolation, so the interval comes from the day before
+		assertThat(validation.estimates()).containsExactly(new Estimate(35 * HOUR, (int) HOUR, 102, QualityOfReading.ESTIMATED_USING_REFERENCE_DAY));
+	}
+
+	/**
+	 * Readings added in order of start, with ids counting up from 1.
+	 */
+	private static final class Series {
+		private final List<long[]> readings = new ArrayList<>();
+
+		long add(long start, long duration, long value) {
+			readings.add(new long[]{start, duration, value});
+			return readings.size();
+		}
+
+		SeriesValidation validate(ReadingValidator validator, long rangeStart, long rangeEnd, boolean signed) {
+			int size = readings.size();
+			long[] ids = new long[size];
+			long[] starts = new long[size];
+			int[] durations = new int[size];
+			long[] values = new long[size];
+			for (int i = 0; i < size; i++) {
+				ids[i] = i + 1;
+				starts[i] = readings.get(i)[0];
+				durations[i] = (int) readings.get(i)[1];
+				values[i] = readings.get(i)[2];
+			}
+			return validator.validate(ids, starts, durations, values, 0, size, rangeStart, rangeEnd, 0, signed);
+		}
+	}
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.greenbuttonalliance.gbaresourceserver.usage.warmup;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.DefaultApplicationArguments;
+import org.springframework.boot.actuate.health.Status;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class StartupWarmUpTest {
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+	private final AtomicLong now = new AtomicLong();
+
+	@Test
+	public void run_isOutOfServiceUntilEveryTaskHasRunItsRounds() {
+		AtomicInteger renders = new AtomicInteger();
+		StartupWarmUp warmUp = warmUp(List.of(new WarmUpTask("render", () -> {
+			renders.incrementAndGet();
+			now.addAndGet(1_000_000);
+		})), 5, Duration.ofSeconds(30));
+
+		assertThat(warmUp.health().getStatus()).isEqualTo(Status.OUT_OF_SERVICE);
+
+		warmUp.run(new DefaultApplicationArguments());
+
+		// five rounds, then one more to measure it warm
+		assertThat(renders.get()).isEqualTo(6);
+		assertThat(warmUp.health().getStatus()).isEqualTo(Status.UP);
+		assertThat(warmUp.health().getDetails()).containsEntry("rounds", 5).containsEntry("durationMillis", 5.0);
+		assertThat(meterRegistry.get("gba.warm-up.latency").tags("task", "render", "phase", "warm").timer().count()).isEqualTo(1);
+		assertThat(meterRegistry.get("gba.warm-up.duration").timer().count()).isEqualTo(1);
+	}
+
+	@Test
+	public void run_stopsAtTheMaxDuration() {
+		AtomicInteger renders = new AtomicInteger();
+		StartupWarmUp warmUp = warmUp(List.of(new WarmUpTask("render", () -> {
+			renders.incrementAndGet();
+			now.addAndGet(Duration.ofSeconds(1).toNanos());
+		})), 100, Duration.ofSeconds(3));
+
+		warmUp.run(new DefaultApplicationArguments());
+
+		assertThat(renders.get()).isEqualTo(4);
+		assertThat(warmUp.health().getDetails()).containsEntry("rounds", 3);
+	}
+
+	@Test
+	public void run_leavesOutFailingTasksWithoutHoldingStartupBack() {
+		AtomicInteger renders = new AtomicInteger();
+		AtomicInteger queries = new AtomicInteger();
+		StartupWarmUp warmUp = warmUp(List.of(
+			new WarmUpTask("missing-sample", () -> {
+				throw new IllegalStateException("no sample data");
+			}),
+			new WarmUpTask("flaky-query", () -> {
+				if (queries.incrementAndGet() == 2) {
+					throw new IllegalStateException("connection reset");
+				}
+			}),
+			new WarmUpTask("render", renders::incrementAndGet)
+		), 3, Duration.ofSeconds(30));
+
+		warmUp.run(new DefaultApplicationArguments());
+
+		assertThat(warmUp.health().getStatus()).isEqualTo(Status.UP);
+		assertThat(warmUp.health().getDetails().get("failed")).asInstanceOf(MAP).containsOnlyKeys("missing-sample", "flaky-query");
+		assertThat(warmUp.health().getDetails().get("latency")).asInstanceOf(MAP).containsOnlyKeys("flaky-query", "render");
+		assertThat(queries.get()).isEqualTo(2);
+		assertThat(renders.get()).isEqualTo(4);
+	}
+
+	private StartupWarmUp warmUp(List<WarmUpTask> tasks, int rounds, Duration maxDuration) {
+		return new StartupWarmUp(tasks, meterRegistry, true, rounds, maxDuration, now::get);
+	}
+}
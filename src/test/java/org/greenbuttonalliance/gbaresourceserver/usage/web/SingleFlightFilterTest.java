@@ -0,0 +1,267 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.greenbuttonalliance.gbaresourceserver.usage.web;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpServletResponseWrapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.DelegatingServletOutputStream;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class SingleFlightFilterTest {
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+	private final SingleFlightFilter filter = new SingleFlightFilter(meterRegistry, true, 1024, 10000);
+	private final AtomicInteger runs = new AtomicInteger();
+	private final CountDownLatch release = new CountDownLatch(1);
+
+	@Test
+	public void doFilter_sharesTheResponseOfAnIdenticalRequestInFlight() throws InterruptedException {
+		List<MockHttpServletResponse> responses = concurrently(5, i -> request("Bearer a"), 4);
+
+		assertThat(runs.get()).isEqualTo(1);
+		assertThat(responses).allSatisfy(response -> {
+			assertThat(response.getStatus()).isEqualTo(200);
+			assertThat(response.getContentType()).isEqualTo("application/atom+xml");
+			assertThat(response.getContentAsString()).isEqualTo("<feed/>");
+		});
+		assertThat(meterRegistry.get("gba.single-flight.requests").tag("result", "led").counter().count()).isEqualTo(1);
+		assertThat(meterRegistry.get("gba.single-flight.requests").tag("result", "coalesced").counter().count()).isEqualTo(4);
+	}
+
+	@Test
+	public void doFilter_neverSharesAResponseAcrossAuthorizations() throws InterruptedException {
+		concurrently(2, i -> request("Bearer " + i), 0);
+
+		assertThat(runs.get()).isEqualTo(2);
+	}
+
+	@Test
+	public void doFilter_runsAgainOnceTheRequestInFlightFinished() throws Exception {
+		release.countDown();
+
+		filter.doFilter(request("Bearer a"), new MockHttpServletResponse(), chain());
+		filter.doFilter(request("Bearer a"), new MockHttpServletResponse(), chain());
+
+		assertThat(runs.get()).isEqualTo(2);
+	}
+
+	@Test
+	public void doFilter_releasesWaitersBeforeWritingToTheClientOfTheRequestInFlight() throws Exception {
+		CountDownLatch clientReads = new CountDownLatch(1);
+		MockHttpServletResponse leaderResponse = new MockHttpServletResponse();
+		HttpServletResponse slowClient = new HttpServletResponseWrapper(leaderResponse) {
+			@Override
+			public ServletOutputStream getOutputStream() throws IOException {
+				ServletOutputStream delegate = super.getOutputStream();
+				return new DelegatingServletOutputStream(delegate) {
+					@Override
+					public void write(byte[] b, int off, int len) throws IOException {
+						await(clientReads);
+						super.write(b, off, len);
+					}
+				};
+			}
+		};
+		MockHttpServletResponse waiterResponse = new MockHttpServletResponse();
+
+		try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+			Future<?> leader = executor.submit(() -> {
+				filter.doFilter(request("Bearer a"), slowClient, chain());
+				return null;
+			});
+			awaitRuns(1);
+			Future<?> waiter = executor.submit(() -> {
+				filter.doFilter(request("Bearer a"), waiterResponse, chain());
+				return null;
+			});
+			awaitWaiting(1);
+			release.countDown();
+
+			waiter.get(5, TimeUnit.SECONDS);
+			assertThat(leader).isNotDone();
+			clientReads.countDown();
+			leader.get(5, TimeUnit.SECONDS);
+		}
+
+		assertThat(runs.get()).isEqualTo(1);
+		assertThat(waiterResponse.getContentAsString()).isEqualTo("<feed/>");
+		assertThat(leaderResponse.getContentAsString()).isEqualTo("<feed/>");
+	}
+
+	@Test
+	public void doFilter_runsWaitersOnTheirOwnOnceTheyWaitedTooLong() throws Exception {
+		SingleFlightFilter impatient = new SingleFlightFilter(meterRegistry, true, 1024, 50);
+		MockHttpServletResponse waiterResponse = new MockHttpServletResponse();
+
+		try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+			executor.submit(() -> {
+				impatient.doFilter(request("Bearer a"), new MockHttpServletResponse(), chain());
+				return null;
+			});
+			awaitRuns(1);
+			// the request in flight is held up until the waiter has given up on it and run on its own
+			impatient.doFilter(request("Bearer a"), waiterResponse, (request, response) -> {
+				runs.incrementAndGet();
+				response.getWriter().write("<feed/>");
+			});
+			release.countDown();
+		}
+
+		assertThat(runs.get()).isEqualTo(2);
+		assertThat(waiterResponse.getContentAsString()).isEqualTo("<feed/>");
+		assertThat(meterRegistry.get("gba.single-flight.requests").tag("result", "fallback").counter().count()).isEqualTo(1);
+	}
+
+	@Test
+	public void doFilter_passesAStreamedResponseThroughWithoutSharingIt() throws Exception {
+		MockHttpServletResponse streamed = new MockHttpServletResponse();
+		MockHttpServletResponse waiterResponse = new MockHttpServletResponse();
+
+		try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+			executor.submit(() -> {
+				MockHttpServletRequest request = request("Bearer a");
+				request.setAsyncSupported(true);
+				filter.doFilter(request, streamed, (req, response) -> {
+					req.startAsync();
+					response.getOutputStream().write("<feed/>".getBytes());
+					runs.incrementAndGet();
+					// still streaming while the identical request arrives
+					await(release);
+				});
+				return null;
+			});
+			awaitRuns(1);
+			filter.doFilter(request("Bearer a"), waiterResponse, (request, response) -> {
+				runs.incrementAndGet();
+				response.getWriter().write("<feed/>");
+			});
+			release.countDown();
+		}
+
+		assertThat(runs.get()).isEqualTo(2);
+		// once streaming, the request in flight is no longer one to wait for
+		assertThat(meterRegistry.get("gba.single-flight.requests").tag("result", "coalesced").counter().count()).isZero();
+		assertThat(streamed.getContentAsString()).isEqualTo("<feed/>");
+		assertThat(waiterResponse.getContentAsString()).isEqualTo("<feed/>");
+	}
+
+	@Test
+	public void key_ignoresTheOrderOfQueryParameters() {
+		MockHttpServletRequest request = request(null);
+		request.setParameter("published-min", "2024-03-01T00:00:00Z");
+		request.setParameter("max-results", "10");
+		MockHttpServletRequest reordered = request(null);
+		reordered.setParameter("max-results", "10");
+		reordered.setParameter("published-min", "2024-03-01T00:00:00Z");
+
+		assertThat(SingleFlightFilter.key(reordered)).isEqualTo(SingleFlightFilter.key(request))
+			.isEqualTo("/espi/1_1/resource/IntervalBlock?max-results=10&published-min=2024-03-01T00:00:00Z");
+	}
+
+	@Test
+	public void shouldNotFilter_onlyCoalescesResourceReads() {
+		MockHttpServletRequest post = request(null);
+		post.setMethod("POST");
+		MockHttpServletRequest actuator = new MockHttpServletRequest("GET", "/actuator/health");
+
+		assertThat(filter.shouldNotFilter(request(null))).isFalse();
+		assertThat(filter.shouldNotFilter(post)).isTrue();
+		assertThat(filter.shouldNotFilter(actuator)).isTrue();
+	}
+
+	/**
+	 * Sends <code>count</code> requests at once, and lets the ones in the chain finish once <code>waiting</code> others wait for them.
+	 */
+	private List<MockHttpServletResponse> concurrently(int count, IntFunction<MockHttpServletRequest> requests, int waiting) throws InterruptedException {
+		List<MockHttpServletResponse> responses = new ArrayList<>();
+		try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+			for (int i = 0; i < count; i++) {
+				MockHttpServletRequest request = requests.apply(i);
+				MockHttpServletResponse response = new MockHttpServletResponse();
+				responses.add(response);
+				executor.submit(() -> {
+					filter.doFilter(request, response, chain());
+					return null;
+				});
+			}
+			while (runs.get() + meterRegistry.get("gba.single-flight.waiting").gauge().value() < count
+				|| meterRegistry.get("gba.single-flight.waiting").gauge().value() < waiting) {
+				Thread.onSpinWait();
+			}
+			release.countDown();
+		}
+		return responses;
+	}
+
+	private void awaitRuns(int count) {
+		while (runs.get() < count) {
+			Thread.onSpinWait();
+		}
+	}
+
+	private void awaitWaiting(int count) {
+		while (meterRegistry.get("gba.single-flight.waiting").gauge().value() < count) {
+			Thread.onSpinWait();
+		}
+	}
+
+	private static void await(CountDownLatch latch) {
+		try {
+			latch.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private FilterChain chain() {
+		return (request, response) -> {
+			runs.incrementAndGet();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			response.setContentType("application/atom+xml");
+			response.getWriter().write("<feed/>");
+		};
+	}
+
+	private static MockHttpServletRequest request(String authorization) {
+		MockHttpServletRequest request = new MockHttpServletRequest("GET", "/espi/1_1/resource/IntervalBlock");
+		if (authorization != null) {
+			request.addHeader(HttpHeaders.AUTHORIZATION, authorization);
+		}
+		return request;
+	}
+}
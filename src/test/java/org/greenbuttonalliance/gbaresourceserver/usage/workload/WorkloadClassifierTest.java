@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.greenbuttonalliance.gbaresourceserver.usage.workload;
+
+import org.greenbuttonalliance.gbaresourceserver.usage.model.enums.AuthorizationStatus;
+import org.greenbuttonalliance.gbaresourceserver.usage.model.enums.ThirdPartyApplicationType;
+import org.greenbuttonalliance.gbaresourceserver.usage.model.enums.ThirdPartyApplicationUse;
+import org.greenbuttonalliance.gbaresourceserver.usage.token.ResolvedToken;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class WorkloadClassifierTest {
+	private static final long NOW = 1_700_000_000L;
+	private static final Map<String, ResolvedToken> TOKENS = Map.of(
+		"thermostat", token(ThirdPartyApplicationUse.ENERGY_MANAGEMENT),
+		"university", token(ThirdPartyApplicationUse.ACADEMIC),
+		"agency", token(ThirdPartyApplicationUse.GOVERNMENT)
+	);
+
+	private final MockEnvironment environment = new MockEnvironment()
+		.withProperty("gba.workload.use.government", "interactive");
+	private final WorkloadClassifier classifier = new WorkloadClassifier(token -> Optional.ofNullable(TOKENS.get(token)), environment, 1024,
+		Duration.ofDays(31), () -> NOW);
+
+	@Test
+	public void classify_classesRequestsByTheUseOfTheirApplication() {
+		assertThat(classifier.classify(get("/espi/1_1/resource/UsagePoint", "thermostat"))).isEqualTo(WorkloadClass.POLLING);
+		assertThat(classifier.classify(get("/espi/1_1/resource/UsagePoint", "university"))).isEqualTo(WorkloadClass.BULK);
+		assertThat(classifier.classify(get("/espi/1_1/resource/UsagePoint", "agency"))).isEqualTo(WorkloadClass.INTERACTIVE);
+		assertThat(classifier.classify(get("/espi/1_1/resource/UsagePoint", "unknown"))).isEqualTo(WorkloadClass.INTERACTIVE);
+		assertThat(classifier.classify(get("/espi/1_1/resource/UsagePoint", null))).isEqualTo(WorkloadClass.INTERACTIVE);
+	}
+
+	@Test
+	public void classify_classesBatchRequestsAsBulk() {
+		assertThat(classifier.classify(get("/espi/1_1/resource/Batch/Subscription/" + UUID.randomUUID(), "thermostat"))).isEqualTo(WorkloadClass.BULK);
+	}
+
+	@Test
+	public void classify_classesLargeRequestsAsBulk() {
+		MockHttpServletRequest longSpan = get("/espi/1_1/resource/MeterReading/" + UUID.randomUUID() + "/IntervalRollup", "thermostat");
+		longSpan.setParameter("from", Long.toString(NOW - Duration.ofDays(365).toSeconds()));
+		MockHttpServletRequest shortSpan = get("/espi/1_1/resource/MeterReading/" + UUID.randomUUID() + "/IntervalRollup", null);
+		shortSpan.setParameter("from", Long.toString(NOW - Duration.ofDays(7).toSeconds()));
+		shortSpan.setParameter("to", Long.toString(NOW));
+		MockHttpServletRequest largeBody = new MockHttpServletRequest("POST", "/espi/1_1/resource/UsagePoint");
+		largeBody.setContent(new byte[2048]);
+		largeBody.setParameter("from", "0");
+
+		assertThat(classifier.classify(longSpan)).isEqualTo(WorkloadClass.BULK);
+		assertThat(classifier.classify(shortSpan)).isEqualTo(WorkloadClass.INTERACTIVE);
+		assertThat(classifier.classify(largeBody)).isEqualTo(WorkloadClass.BULK);
+	}
+
+	private static MockHttpServletRequest get(String path, String accessToken) {
+		MockHttpServletRequest request = new MockHttpServletRequest("GET", path);
+		if (accessToken != null) {
+			request.addHeader(HttpHeaders.AUTHORIZATION, "Bearer " + accessToken);
+		}
+		return request;
+	}
+
+	private static ResolvedToken token(ThirdPartyApplicationUse use) {
+		return new ResolvedToken(UUID.randomUUID(), NOW + 3600, "FB=4_51", AuthorizationStatus.ACTIVE, null, use.name().toLowerCase(),
+			ThirdPartyApplicationType.WEB, use);
+	}
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) 2022-2024 Green Button Alliance, Inc.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.greenbuttonalliance.gbaresourceserver.usage.workload;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class WorkloadForkJoinWorkerThreadFactoryTest {
+
+	@Test
+	public void newThread_makesEveryWorkerDoTheWorkloadClass() {
+		ForkJoinPool pool = new ForkJoinPool(4, new WorkloadForkJoinWorkerThreadFactory(WorkloadClass.BULK), null, false);
+		try {
+			List<WorkloadClass> seen = pool.invoke(new CurrentWorkload(16));
+
+			assertThat(seen).hasSize(16).containsOnly(WorkloadClass.BULK);
+			// the thread that submitted the work keeps its own
+			assertThat(Workload.current()).isEqualTo(WorkloadClass.INTERACTIVE);
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Forks a leaf task per count, each reporting the workload class of the worker that ran it.
+	 */
+	private static final class CurrentWorkload extends RecursiveTask<List<WorkloadClass>> {
+		private final int count;
+
+		CurrentWorkload(int count) {
+			this.count = count;
+		}
+
+		@Override
+		protected List<WorkloadClass> compute() {
+			if (count == 1) {
+				return List.of(Workload.current());
+			}
+			CurrentWorkload left = new CurrentWorkload(count / 2);
+			left.fork();
+			List<WorkloadClass> right = new CurrentWorkload(count - count / 2).compute();
+			List<WorkloadClass> all = new ArrayList<>(left.join());
+			all.addAll(right);
+			return all;
+		}
+	}
+}